@@ -4,6 +4,11 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @Data
 @Configuration
 @ConfigurationProperties("app.ai")
@@ -13,10 +18,95 @@ public class AiProperties {
     private Provider grok = new Provider();
     private Provider copilot = new Provider();
     private Provider gemini = new Provider();
+    private Review review = new Review();
+    private Resilience resilience = new Resilience();
+    private Hedging hedging = new Hedging();
+    private Governor governor = new Governor();
 
     @Data
     public static class Provider {
         private String apiUrl;
         private String apiKey;
     }
+
+    @Data
+    public static class Review {
+        /** Input token budget of one review request when the model has no explicit entry. */
+        private int defaultInputTokenBudget = 16000;
+        /** Input token budget per model name; large PRs are split into batches that fit it. */
+        private Map<String, Integer> inputTokenBudgets = new HashMap<>();
+        /** Maximum number of batches of one PR reviewed at the same time. */
+        private int maxConcurrentBatches = 4;
+        /** Request streamed completions and forward the partial text to the UI while it is generated. */
+        private boolean streaming = true;
+
+        public int inputTokenBudget(String model) {
+            return model == null
+                    ? defaultInputTokenBudget
+                    : inputTokenBudgets.getOrDefault(model.toLowerCase(), defaultInputTokenBudget);
+        }
+    }
+
+    @Data
+    public static class Resilience {
+        /** Timeout of a provider call until enough latencies have been observed. */
+        private Duration defaultTimeout = Duration.ofSeconds(90);
+        /** Bounds of the adaptive timeout. */
+        private Duration minTimeout = Duration.ofSeconds(15);
+        private Duration maxTimeout = Duration.ofSeconds(120);
+        /** The adaptive timeout is this percentile of recent successful latencies... */
+        private double timeoutPercentile = 0.99;
+        /** ...multiplied by this factor. */
+        private double timeoutMultiplier = 1.5;
+        /** Recent calls kept per provider for latency percentiles and failure rates. */
+        private int windowSize = 50;
+        /** Calls needed in the window before percentiles and rates are trusted. */
+        private int minCalls = 10;
+        /** The circuit opens when at least this share of recent calls failed... */
+        private double failureRateThreshold = 0.5;
+        /** ...or at least this share was slow, i.e. took longer than slowCallMultiplier times the median. */
+        private double slowCallRateThreshold = 0.5;
+        private double slowCallMultiplier = 3.0;
+        /** How long an open circuit rejects calls before a single probe call is let through. */
+        private Duration openDuration = Duration.ofSeconds(30);
+        /**
+         * Equivalent models on other providers, tried in order when a call fails or the circuit is open.
+         * Keys are "ai" or "ai:model" (lowercase), values "ai:model".
+         */
+        private Map<String, List<String>> failover = new HashMap<>();
+    }
+
+    @Data
+    public static class Hedging {
+        /**
+         * Send a duplicate of a slow request to the next failover target; the first successful answer wins
+         * and the other request is cancelled. Requests without a different failover target are not hedged.
+         * Hedged reviews are not streamed to the UI.
+         */
+        private boolean enabled = false;
+        /** The duplicate goes out once the request has run longer than this latency percentile... */
+        private double percentile = 0.95;
+        /** ...but never earlier than this. */
+        private Duration minDelay = Duration.ofSeconds(2);
+    }
+
+    @Data
+    public static class Governor {
+        /** Limits of providers without an entry in {@code providers}. */
+        private Limits defaults = new Limits();
+        /** Limits per AI name (lowercase). */
+        private Map<String, Limits> providers = new HashMap<>();
+        /** Longest time a chat call waits for capacity before it fails. */
+        private Duration interactiveMaxWait = Duration.ofSeconds(30);
+        /** Longest time a review call waits for capacity before it fails. */
+        private Duration backgroundMaxWait = Duration.ofMinutes(10);
+
+        @Data
+        public static class Limits {
+            /** Calls in flight at the same time. */
+            private int maxConcurrent = 8;
+            /** Estimated input plus maximum output tokens admitted per minute; 0 means unlimited. */
+            private int tokensPerMinute = 0;
+        }
+    }
 }
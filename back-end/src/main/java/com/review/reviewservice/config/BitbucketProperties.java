@@ -4,10 +4,44 @@ import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+
 @Data
 @Configuration
 @ConfigurationProperties(prefix = "bitbucket")
 public class BitbucketProperties {
     private String username;
     private String password;
+    private Fetch fetch = new Fetch();
+    private RateLimit rateLimit = new RateLimit();
+
+    @Data
+    public static class Fetch {
+        /** Maximum concurrent file downloads for a single pull request. */
+        private int perPrConcurrency = 8;
+        /**
+         * Fetch the PR's unified diff once and review only the changed hunks,
+         * instead of downloading the full new version of every file.
+         */
+        private boolean diffMode = false;
+        /** Unchanged lines around each hunk in diff mode. */
+        private int diffContextLines = 10;
+        /** Pages of a diffstat read at most; the changes beyond them are left out of the review and its cost estimate. */
+        private int maxDiffstatPages = 20;
+    }
+
+    @Data
+    public static class RateLimit {
+        /** Concurrent Bitbucket calls on this node before any feedback from the API. */
+        private int initialConcurrency = 8;
+        private int minConcurrency = 1;
+        private int maxConcurrency = 32;
+        /** Factor applied to the concurrency limit when Bitbucket throttles. */
+        private double decreaseFactor = 0.5;
+        /** Retries of a throttled call before it fails. */
+        private int maxRetries = 5;
+        /** Backoff of the first retry when there is no Retry-After header; doubles on each retry. */
+        private Duration initialBackoff = Duration.ofSeconds(1);
+        private Duration maxBackoff = Duration.ofMinutes(2);
+    }
 }
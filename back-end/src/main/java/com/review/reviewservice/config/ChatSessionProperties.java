@@ -0,0 +1,27 @@
+package com.review.reviewservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.chat.session")
+public class ChatSessionProperties {
+    /** Once the unsummarised turns exceed this many tokens, the older ones are folded into the summary. */
+    private int summaryThresholdTokens = 3000;
+    /** Most recent messages that are always sent verbatim and never summarised. */
+    private int keepRecentMessages = 6;
+    /** Sessions not used for this long are dropped from memory. */
+    private Duration idleTimeout = Duration.ofMinutes(30);
+    /** How long a message waits for the reply to the previous message of the same session. */
+    private Duration turnWait = Duration.ofMinutes(2);
+    /** Upper bound of sessions held in memory; the least recently used one is evicted first. */
+    private int maxSessions = 10000;
+    /** Spill evicted sessions to Postgres so they can be resumed later. */
+    private boolean persist = false;
+    /** Spilled sessions not resumed within this period are deleted. */
+    private Duration retention = Duration.ofDays(7);
+}
@@ -0,0 +1,19 @@
+package com.review.reviewservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.cache.file-content")
+public class FileContentCacheProperties {
+    private boolean enabled = true;
+    private int heapMaxEntries = 2000;
+    private DataSize heapMaxSize = DataSize.ofMegabytes(64);
+    /** Optional second tier of memory-mapped files that survives restarts. */
+    private boolean diskEnabled = false;
+    private String diskDirectory = System.getProperty("java.io.tmpdir") + "/review-file-cache";
+    private DataSize diskMaxSize = DataSize.ofGigabytes(1);
+}
@@ -0,0 +1,29 @@
+package com.review.reviewservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.http")
+public class HttpClientProperties {
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    /** Maximum time to wait for a response once the request is sent. */
+    private Duration readTimeout = Duration.ofSeconds(120);
+    /** Size of the keep-alive pool kept for each remote host. */
+    private int maxConnectionsPerHost = 50;
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+    private Duration maxLifeTime = Duration.ofMinutes(5);
+    private Duration pendingAcquireTimeout = Duration.ofSeconds(30);
+    /** Negotiate HTTP/2 through ALPN when the server supports it. */
+    private boolean http2 = true;
+    /** Send Accept-Encoding and transparently decode gzip/deflate responses. */
+    private boolean compression = true;
+    /** Largest response body the WebClient buffers in memory. */
+    private DataSize maxInMemorySize = DataSize.ofMegabytes(4);
+}
@@ -1,14 +1,61 @@
 package com.review.reviewservice.config;
 
+import io.netty.channel.ChannelOption;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ReactorClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
+/**
+ * Shared outbound HTTP layer for Bitbucket and the AI providers: one Reactor Netty client with
+ * per-host keep-alive pools, HTTP/2 where available, compression and bounded timeouts.
+ */
 @Configuration
 public class RestTemplateConfig {
 
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider outboundConnectionProvider(HttpClientProperties properties) {
+        return ConnectionProvider.builder("outbound")
+                .maxConnections(properties.getMaxConnectionsPerHost())
+                .maxIdleTime(properties.getMaxIdleTime())
+                .maxLifeTime(properties.getMaxLifeTime())
+                .pendingAcquireTimeout(properties.getPendingAcquireTimeout())
+                .evictInBackground(properties.getMaxIdleTime())
+                .build();
+    }
+
+    @Bean
+    public HttpClient outboundHttpClient(ConnectionProvider outboundConnectionProvider, HttpClientProperties properties) {
+        HttpProtocol[] protocols = properties.isHttp2()
+                ? new HttpProtocol[]{HttpProtocol.H2, HttpProtocol.HTTP11}
+                : new HttpProtocol[]{HttpProtocol.HTTP11};
+        return HttpClient.create(outboundConnectionProvider)
+                .protocol(protocols)
+                .compress(properties.isCompression())
+                .keepAlive(true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout().toMillis())
+                .responseTimeout(properties.getReadTimeout());
+    }
+
+    @Bean
+    public RestTemplate restTemplate(HttpClient outboundHttpClient) {
+        return new RestTemplate(new ReactorClientHttpRequestFactory(outboundHttpClient));
+    }
+
+    /**
+     * Non-blocking client on the same connection pool, used for the AI provider calls.
+     */
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public WebClient webClient(WebClient.Builder builder, HttpClient outboundHttpClient,
+                               HttpClientProperties properties) {
+        return builder
+                .clientConnector(new ReactorClientHttpConnector(outboundHttpClient))
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize((int) properties.getMaxInMemorySize().toBytes()))
+                .build();
     }
 }
@@ -0,0 +1,18 @@
+package com.review.reviewservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.cache.review")
+public class ReviewCacheProperties {
+    private boolean enabled = true;
+    /** Cached reviews older than this are ignored and later deleted. */
+    private Duration ttl = Duration.ofDays(30);
+    /** Upper bound of stored entries; the least recently hit ones are evicted first. */
+    private int maxEntries = 50000;
+}
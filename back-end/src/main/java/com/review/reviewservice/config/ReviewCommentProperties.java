@@ -0,0 +1,17 @@
+package com.review.reviewservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.review.comments")
+public class ReviewCommentProperties {
+    /** Inline comments posted per review; the rest are listed in the general comment. */
+    private int maxPerPr = 30;
+    /** Inline comments of one review posted at the same time; Bitbucket's rate limit applies on top. */
+    private int postConcurrency = 4;
+    /** Drop comments on lines that are not part of the PR diff, where Bitbucket cannot anchor them. */
+    private boolean dropOutsideDiff = true;
+}
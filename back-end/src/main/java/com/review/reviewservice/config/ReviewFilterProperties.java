@@ -0,0 +1,34 @@
+package com.review.reviewservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.review.filter")
+public class ReviewFilterProperties {
+    private boolean enabled = true;
+    /** Rules of users who are in no team with its own rules. */
+    private Rules defaults = new Rules();
+    /** Rules per team name; they replace the defaults entirely for the team's members. */
+    private Map<String, Rules> teams = new HashMap<>();
+
+    @Data
+    public static class Rules {
+        /** Ant-style globs of paths never sent for review, e.g. {@code **}{@code /*.min.js}. */
+        private List<String> exclude = new ArrayList<>();
+        /** Globs that are reviewed even when they match an exclude pattern. */
+        private List<String> include = new ArrayList<>();
+        /** Skips files whose added plus removed lines exceed this; 0 means no limit. */
+        private int maxChangedLines = 0;
+        /** Skips downloaded files larger than this; checked after the fetch, before the AI call. */
+        private DataSize maxFileSize = DataSize.ofKilobytes(256);
+    }
+}
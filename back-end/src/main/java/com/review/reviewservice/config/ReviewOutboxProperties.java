@@ -0,0 +1,25 @@
+package com.review.reviewservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.review.outbox")
+public class ReviewOutboxProperties {
+    /** Write PR comments to the outbox with the feedback and let the relay post them. */
+    private boolean enabled = true;
+    /** Entries claimed and posted concurrently per relay round. */
+    private int batchSize = 20;
+    private int maxAttempts = 8;
+    /** Delay before the first retry of a failed post; doubles on each further attempt. */
+    private Duration retryBackoff = Duration.ofSeconds(10);
+    private Duration maxRetryBackoff = Duration.ofMinutes(30);
+    /** A SENDING entry whose lock is older than this is considered abandoned and re-queued. */
+    private Duration leaseTimeout = Duration.ofMinutes(5);
+    /** Delivered entries are kept this long. */
+    private Duration retention = Duration.ofDays(7);
+}
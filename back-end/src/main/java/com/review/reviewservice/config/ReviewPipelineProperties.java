@@ -0,0 +1,21 @@
+package com.review.reviewservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.review.pipeline")
+public class ReviewPipelineProperties {
+    /** Overlap file downloads, AI review and inline comment screening instead of running them one after another. */
+    private boolean enabled = false;
+    /** Downloaded files waiting for review; a full queue pauses the downloads. */
+    private int fileQueueCapacity = 16;
+    /** Finished inline comments waiting to be screened; a full queue pauses the review batches. */
+    private int commentQueueCapacity = 64;
+    /** A partly filled batch is sent for review once no further file arrived for this long. */
+    private Duration batchLinger = Duration.ofMillis(500);
+}
@@ -0,0 +1,53 @@
+package com.review.reviewservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.review.queue")
+public class ReviewQueueProperties {
+    /** Number of worker threads polling the queue on this node. */
+    private int workers = 4;
+    private Duration pollInterval = Duration.ofSeconds(1);
+    private int maxAttempts = 3;
+    private Duration retryBackoff = Duration.ofSeconds(30);
+    /** A RUNNING job whose lock is older than this is considered abandoned and re-queued. */
+    private Duration leaseTimeout = Duration.ofMinutes(15);
+    /** How often the leases of running jobs are renewed; well below {@link #leaseTimeout}. */
+    private Duration heartbeatInterval = Duration.ofMinutes(1);
+    /** On shutdown, running reviews get this long to finish before they are interrupted and re-queued. */
+    private Duration shutdownTimeout = Duration.ofSeconds(30);
+    private Debounce debounce = new Debounce();
+    private Fairness fairness = new Fairness();
+
+    @Data
+    public static class Debounce {
+        /**
+         * How long a review waits for further pushes to the same PR; a newer push replaces it and
+         * waits again. Zero reviews right away.
+         */
+        private Duration window = Duration.ofSeconds(30);
+        /** Windows per team name; a user in several teams gets the first of them by name. */
+        private Map<String, Duration> teams = new HashMap<>();
+    }
+
+    @Data
+    public static class Fairness {
+        /** Reviews started within this period count as a tenant's recent usage. */
+        private Duration usageWindow = Duration.ofHours(1);
+        /** Waiting this long halves the estimated cost a job is ordered by, so large PRs are not starved. */
+        private Duration agingPeriod = Duration.ofMinutes(10);
+        /** Changed lines assumed for a PR whose diffstat could not be read. */
+        private int unknownCost = 500;
+        /** Weights by team name; a team with twice the weight gets twice the share of the workers. */
+        private Map<String, Double> teams = new HashMap<>();
+        /** Weights by username, within the user's team or as a tenant of their own. */
+        private Map<String, Double> users = new HashMap<>();
+    }
+}
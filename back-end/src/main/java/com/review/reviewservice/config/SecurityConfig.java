@@ -55,7 +55,7 @@ public class SecurityConfig {
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers("/ws-feedback/**").authenticated()
                         .requestMatchers("/api/feedbacks/**").authenticated()
-                        .requestMatchers("/api/chat").authenticated()
+                        .requestMatchers("/api/chat", "/api/chat/**").authenticated()
                         .requestMatchers("/api/user/**").authenticated()
                         .requestMatchers("/api/admin/**").hasAnyRole("ADMIN", "TEAM_ADMIN")
                         .anyRequest().permitAll()
@@ -1,9 +1,11 @@
 package com.review.reviewservice.config;
 
+import com.review.reviewservice.controller.WebhookAdmissionInterceptor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
@@ -25,4 +27,15 @@ public class WebConfig {
             }
         };
     }
+
+    @Bean
+    public WebMvcConfigurer webhookAdmissionConfigurer(WebhookAdmissionInterceptor webhookAdmissionInterceptor) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(webhookAdmissionInterceptor)
+                        .addPathPatterns("/webhook/bitbucket/**");
+            }
+        };
+    }
 }
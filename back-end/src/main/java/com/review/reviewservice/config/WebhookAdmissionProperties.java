@@ -0,0 +1,36 @@
+package com.review.reviewservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.webhook.admission")
+public class WebhookAdmissionProperties {
+    private boolean enabled = true;
+    /**
+     * Bitbucket events ({@code X-Event-Key}) that can lead to a review; others are acknowledged and dropped.
+     * Requests without the header are let through.
+     */
+    private List<String> eventKeys = new ArrayList<>(List.of("pullrequest:created", "pullrequest:updated"));
+    /** Sustained webhook deliveries per minute allowed for one token. */
+    private int requestsPerMinute = 60;
+    /** Deliveries one token may send at once on top of the sustained rate. */
+    private int burst = 20;
+    /**
+     * Tokens whose buckets are kept; beyond that the least recently seen token is forgotten,
+     * which only refills its bucket.
+     */
+    private int maxTokens = 10000;
+    /** Deliveries are refused while more reviews than this are waiting in the queue. */
+    private long maxPendingReviews = 500;
+    /** How long a count of the waiting reviews is reused before the queue is asked again. */
+    private Duration backlogCheckInterval = Duration.ofSeconds(2);
+    /** Retry-After sent when the backlog is over the limit. */
+    private Duration backlogRetryAfter = Duration.ofSeconds(60);
+}
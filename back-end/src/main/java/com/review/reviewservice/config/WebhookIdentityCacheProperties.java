@@ -0,0 +1,21 @@
+package com.review.reviewservice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.cache.webhook-identity")
+public class WebhookIdentityCacheProperties {
+    private boolean enabled = true;
+    /** Per map: webhook tokens and users each keep at most this many entries. */
+    private int maxEntries = 10000;
+    /**
+     * Entries are reloaded after this long. Invalidation only reaches the node that made the change,
+     * so this is also how long other nodes may still accept a revoked token.
+     */
+    private Duration ttl = Duration.ofSeconds(60);
+}
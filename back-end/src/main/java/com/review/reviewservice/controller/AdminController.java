@@ -7,10 +7,16 @@ import com.review.reviewservice.dto.UserStatsDto;
 import com.review.reviewservice.model.entity.Role;
 import com.review.reviewservice.model.entity.Team;
 import com.review.reviewservice.model.entity.User;
+import com.review.reviewservice.service.FileContentCache;
+import com.review.reviewservice.service.AiConcurrencyGovernor;
+import com.review.reviewservice.service.BitbucketClient;
+import com.review.reviewservice.service.ProviderResilience;
+import com.review.reviewservice.service.ReviewOutboxService;
 import com.review.reviewservice.service.TeamService;
 import com.review.reviewservice.service.FeedbackService;
 import com.review.reviewservice.service.StatisticsService;
 import com.review.reviewservice.service.UserService;
+import com.review.reviewservice.service.WebhookIdentityCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -18,7 +24,9 @@ import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/admin")
@@ -28,18 +36,39 @@ public class AdminController {
     private final TeamService teamService;
     private final FeedbackService feedbackService;
     private final StatisticsService statisticsService;
+    private final FileContentCache fileContentCache;
+    private final ProviderResilience providerResilience;
+    private final AiConcurrencyGovernor aiConcurrencyGovernor;
+    private final BitbucketClient bitbucketClient;
+    private final ReviewOutboxService reviewOutboxService;
+    private final WebhookAdmissionInterceptor webhookAdmissionInterceptor;
+    private final WebhookIdentityCache webhookIdentityCache;
 
     @Autowired
     public AdminController(
             UserService userService,
             TeamService teamService,
             FeedbackService feedbackService,
-            StatisticsService statisticsService
+            StatisticsService statisticsService,
+            FileContentCache fileContentCache,
+            ProviderResilience providerResilience,
+            AiConcurrencyGovernor aiConcurrencyGovernor,
+            BitbucketClient bitbucketClient,
+            ReviewOutboxService reviewOutboxService,
+            WebhookAdmissionInterceptor webhookAdmissionInterceptor,
+            WebhookIdentityCache webhookIdentityCache
     ) {
         this.userService = userService;
         this.teamService = teamService;
         this.feedbackService = feedbackService;
         this.statisticsService = statisticsService;
+        this.fileContentCache = fileContentCache;
+        this.providerResilience = providerResilience;
+        this.aiConcurrencyGovernor = aiConcurrencyGovernor;
+        this.bitbucketClient = bitbucketClient;
+        this.reviewOutboxService = reviewOutboxService;
+        this.webhookAdmissionInterceptor = webhookAdmissionInterceptor;
+        this.webhookIdentityCache = webhookIdentityCache;
     }
 
     /**
@@ -162,4 +191,22 @@ public class AdminController {
         feedbackService.deleteById(feedbackId);
         return ResponseEntity.noContent().build();
     }
+
+    /**
+     * GET /api/admin/metrics
+     * – ROLE_ADMIN: runtime counters of the review pipeline
+     */
+    @GetMapping("/metrics")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("fileContentCache", fileContentCache.stats());
+        metrics.put("aiProviders", providerResilience.stats());
+        metrics.put("aiGovernor", aiConcurrencyGovernor.stats());
+        metrics.put("bitbucket", bitbucketClient.stats());
+        metrics.put("reviewOutbox", reviewOutboxService.stats());
+        metrics.put("webhookAdmission", webhookAdmissionInterceptor.stats());
+        metrics.put("webhookIdentityCache", webhookIdentityCache.stats());
+        return ResponseEntity.ok(metrics);
+    }
 }
\ No newline at end of file
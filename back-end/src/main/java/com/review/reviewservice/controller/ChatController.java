@@ -2,12 +2,18 @@ package com.review.reviewservice.controller;
 
 import com.review.reviewservice.dto.ChatRequestDto;
 import com.review.reviewservice.dto.ChatResponseDto;
+import com.review.reviewservice.exceptions.ChatSessionExpiredException;
 import com.review.reviewservice.service.ChatService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 
+import java.security.Principal;
 
 @Slf4j
 @RestController
@@ -23,8 +29,19 @@ public class ChatController {
 
     @PostMapping
     public ResponseEntity<ChatResponseDto> chat(
-            @RequestBody ChatRequestDto request
+            @RequestBody ChatRequestDto request,
+            Principal principal
     ) {
+        if (request.message() != null) {
+            return ResponseEntity.ok(chatService.chat(
+                    request.ai(),
+                    request.model(),
+                    principal.getName(),
+                    request.sessionId(),
+                    request.message(),
+                    request.history()
+            ));
+        }
         String reply = chatService.chat(
                 request.ai(),
                 request.model(),
@@ -32,4 +49,40 @@ public class ChatController {
         );
         return ResponseEntity.ok(new ChatResponseDto(reply));
     }
+
+    /**
+     * Streams the reply as server-sent events, one {@link ChatResponseDto} per generated piece of text.
+     * The servlet thread is released right away; a client disconnect cancels the provider request.
+     * A failure ends the stream with an {@code error} event, an expired session with a
+     * {@code session-expired} event.
+     */
+    @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ChatResponseDto>> chatStream(
+            @RequestBody ChatRequestDto request,
+            Principal principal
+    ) {
+        Flux<ChatResponseDto> replies = request.message() != null
+                ? chatService.chatStream(request.ai(), request.model(), principal.getName(),
+                        request.sessionId(), request.message(), request.history())
+                : chatService.chatStream(request.ai(), request.model(), principal.getName(), request.history())
+                        .map(ChatResponseDto::new);
+        return replies
+                .map(reply -> ServerSentEvent.builder(reply).build())
+                .onErrorResume(ChatSessionExpiredException.class, e -> Flux.just(
+                        ServerSentEvent.builder(new ChatResponseDto(e.getMessage()))
+                                .event("session-expired")
+                                .build()))
+                .onErrorResume(e -> {
+                    log.error("Error during {} chat stream: {}", request.ai(), e.getMessage(), e);
+                    return Flux.just(ServerSentEvent.builder(
+                                    new ChatResponseDto("Error during " + request.ai() + " chat: " + e.getMessage()))
+                            .event("error")
+                            .build());
+                });
+    }
+
+    @ExceptionHandler(ChatSessionExpiredException.class)
+    public ResponseEntity<String> handleSessionExpired(ChatSessionExpiredException ex) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(ex.getMessage());
+    }
 }
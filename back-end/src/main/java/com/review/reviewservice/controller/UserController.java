@@ -6,6 +6,7 @@ import com.review.reviewservice.model.repository.FeedbackRepository;
 import com.review.reviewservice.model.repository.UserRepository;
 import com.review.reviewservice.model.repository.AiModelRepository;
 import com.review.reviewservice.model.repository.WebhookTokenRepository;
+import com.review.reviewservice.service.WebhookIdentityCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -34,16 +35,18 @@ public class UserController {
     private final AiModelRepository aiModelRepository;
     private final WebhookTokenRepository webhookTokenRepository;
     private final FeedbackRepository feedbackRepository;
+    private final WebhookIdentityCache webhookIdentityCache;
     private static final String USER_NOT_FOUND_PREFIX = "User not found: ";
     private static final String USERNAME_KEY = "username";
     private static final String NO_USERNAME_MESSAGE = "The attribute 'username' is missing.";
 
     @Autowired
-    public UserController(UserRepository userRepository, AiModelRepository aiModelRepository, WebhookTokenRepository webhookTokenRepository, FeedbackRepository feedbackRepository) {
+    public UserController(UserRepository userRepository, AiModelRepository aiModelRepository, WebhookTokenRepository webhookTokenRepository, FeedbackRepository feedbackRepository, WebhookIdentityCache webhookIdentityCache) {
         this.userRepository = userRepository;
         this.aiModelRepository = aiModelRepository;
         this.webhookTokenRepository = webhookTokenRepository;
         this.feedbackRepository = feedbackRepository;
+        this.webhookIdentityCache = webhookIdentityCache;
     }
 
     /**
@@ -115,6 +118,7 @@ public class UserController {
 
         user.setAiModel(aiModel);
         userRepository.save(user);
+        webhookIdentityCache.invalidateUser(user.getId());
 
         return ResponseEntity.ok("Preferința AI setată la " + ai + " cu modelul " + model + " pentru utilizatorul " + username + ".");
     }
@@ -152,6 +156,7 @@ public class UserController {
             wt.setActive(true);
             wt.setExpiresAt(LocalDateTime.now().plusDays(1));
             webhookTokenRepository.save(wt);
+            webhookIdentityCache.invalidateUser(user.getId());
             log.info("Token webhook creat pentru utilizatorul: {}", username);
 
             return ResponseEntity.ok(Map.of("token", wt.getToken()));
@@ -187,6 +192,7 @@ public class UserController {
                         webhookTokenRepository.save(t);
                         log.info("Token webhook dezactivat pentru utilizatorul: {}", username);
                     });
+            webhookIdentityCache.invalidateUser(user.getId());
 
             return ResponseEntity.noContent().build(); // Status 204
         } catch (ResponseStatusException e) {
@@ -272,6 +278,7 @@ public class UserController {
         }
 
         userRepository.save(user);
+        webhookIdentityCache.invalidateUser(user.getId());
         return ResponseEntity.noContent().build();
     }
 
@@ -0,0 +1,196 @@
+package com.review.reviewservice.controller;
+
+import com.review.reviewservice.config.WebhookAdmissionProperties;
+import com.review.reviewservice.model.entity.ReviewJobStatus;
+import com.review.reviewservice.model.repository.ReviewJobRepository;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap checks in front of the Bitbucket webhook, run before the payload is read: events that are
+ * never reviewed are acknowledged and dropped, each token is rate limited with a token bucket, and
+ * deliveries are refused with 429 while the review backlog is over its high-water mark.
+ */
+@Slf4j
+@Component
+public class WebhookAdmissionInterceptor implements HandlerInterceptor {
+
+    private static final String EVENT_KEY_HEADER = "X-Event-Key";
+    private static final long IDLE_BUCKET_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final WebhookAdmissionProperties properties;
+    private final ReviewJobRepository reviewJobRepository;
+    /** Least recently used first; bounded, since anyone can send deliveries for made-up tokens. */
+    private final Map<String, Bucket> buckets;
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong ignoredEvents = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private volatile long pendingReviews;
+    private volatile long pendingCheckedAt;
+
+    @Autowired
+    public WebhookAdmissionInterceptor(WebhookAdmissionProperties properties, ReviewJobRepository reviewJobRepository) {
+        this.properties = properties;
+        this.reviewJobRepository = reviewJobRepository;
+        this.buckets = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+                return size() > Math.max(1, properties.getMaxTokens());
+            }
+        };
+        this.pendingCheckedAt = System.nanoTime() - properties.getBacklogCheckInterval().toNanos();
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        if (!properties.isEnabled()) {
+            return true;
+        }
+        String eventKey = request.getHeader(EVENT_KEY_HEADER);
+        if (eventKey != null && !properties.getEventKeys().contains(eventKey)) {
+            ignoredEvents.incrementAndGet();
+            write(response, HttpStatus.OK, "Event " + eventKey + " ignored.");
+            return false;
+        }
+
+        long waitNanos = bucket(token(request)).tryTake();
+        if (waitNanos > 0) {
+            rateLimited.incrementAndGet();
+            reject(response, retryAfterSeconds(waitNanos), "Too many deliveries for this token.");
+            return false;
+        }
+
+        long pending = pendingReviews();
+        if (pending > properties.getMaxPendingReviews()) {
+            shed.incrementAndGet();
+            log.warn("Refusing webhook delivery: {} reviews waiting, limit {}", pending, properties.getMaxPendingReviews());
+            reject(response, properties.getBacklogRetryAfter().toSeconds(), "Review queue is full.");
+            return false;
+        }
+        admitted.incrementAndGet();
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("admitted", admitted.get());
+        stats.put("ignoredEvents", ignoredEvents.get());
+        stats.put("rateLimited", rateLimited.get());
+        stats.put("shed", shed.get());
+        stats.put("pendingReviews", pendingReviews);
+        synchronized (buckets) {
+            stats.put("tokens", buckets.size());
+        }
+        return stats;
+    }
+
+    /**
+     * Forgets the buckets of tokens that have been quiet for a while; they are full again by then anyway.
+     */
+    @Scheduled(fixedDelayString = "${app.webhook.admission.eviction-interval:60000}")
+    public void evictIdleBuckets() {
+        long now = System.nanoTime();
+        synchronized (buckets) {
+            buckets.values().removeIf(bucket -> bucket.idleSince(now) > IDLE_BUCKET_NANOS);
+        }
+    }
+
+    /**
+     * Number of waiting reviews, counted at most once per check interval by whichever request gets there first.
+     */
+    private long pendingReviews() {
+        long checkedAt = pendingCheckedAt;
+        long now = System.nanoTime();
+        if (now - checkedAt >= properties.getBacklogCheckInterval().toNanos() && claimBacklogCheck(checkedAt, now)) {
+            pendingReviews = reviewJobRepository.countByStatus(ReviewJobStatus.PENDING);
+        }
+        return pendingReviews;
+    }
+
+    private synchronized boolean claimBacklogCheck(long expected, long now) {
+        if (pendingCheckedAt != expected) {
+            return false;
+        }
+        pendingCheckedAt = now;
+        return true;
+    }
+
+    private Bucket bucket(String token) {
+        synchronized (buckets) {
+            return buckets.computeIfAbsent(token == null ? "" : token,
+                    t -> new Bucket(Math.max(1, properties.getBurst()), Math.max(1, properties.getRequestsPerMinute())));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String token(HttpServletRequest request) {
+        Object variables = request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        return variables instanceof Map<?, ?> map ? ((Map<String, String>) map).get("token") : null;
+    }
+
+    private static long retryAfterSeconds(long waitNanos) {
+        return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    private static void reject(HttpServletResponse response, long retryAfterSeconds, String message) throws IOException {
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        write(response, HttpStatus.TOO_MANY_REQUESTS, message);
+    }
+
+    private static void write(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.getWriter().write(message);
+    }
+
+    /**
+     * Token bucket of {@code capacity} deliveries, refilled at {@code perMinute} deliveries per minute.
+     */
+    private static final class Bucket {
+        private final double capacity;
+        private final double perNano;
+        private double tokens;
+        private long updatedAt = System.nanoTime();
+
+        private Bucket(int capacity, int perMinute) {
+            this.capacity = capacity;
+            this.perNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.tokens = capacity;
+        }
+
+        /**
+         * Takes one delivery; returns 0 on success or the nanoseconds until one is available.
+         */
+        private synchronized long tryTake() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - updatedAt) * perNano);
+            updatedAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / perNano);
+        }
+
+        private synchronized long idleSince(long now) {
+            return now - updatedAt;
+        }
+    }
+}
@@ -1,171 +1,58 @@
 package com.review.reviewservice.controller;
 
 import com.review.reviewservice.dto.BitbucketWebhookPayload;
-import com.review.reviewservice.dto.FileData;
-import com.review.reviewservice.dto.InlineComment;
-import com.review.reviewservice.model.entity.AiModel;
-import com.review.reviewservice.model.entity.User;
-import com.review.reviewservice.model.entity.WebhookToken;
-import com.review.reviewservice.model.repository.UserRepository;
-import com.review.reviewservice.model.repository.WebhookTokenRepository;
-import com.review.reviewservice.service.*;
+import com.review.reviewservice.model.entity.ReviewJob;
+import com.review.reviewservice.service.ReviewJobService;
+import com.review.reviewservice.service.WebhookIdentityCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/webhook")
 public class WebhookController {
 
-    private final BitbucketService bitbucketService;
-    private final CodeReviewService codeReviewService;
-    private final FeedbackService feedbackService;
-    private final UserRepository userRepository;
-    private final WebhookTokenRepository webhookTokenRepository;
-    private final SimpMessagingTemplate messagingTemplate;
-    private static final String WEBSOCKET_DESTINATION = "/topic/feedback/";
-    private static final String STAGE_PREFIX = "stage";
+    private final ReviewJobService reviewJobService;
+    private final WebhookIdentityCache webhookIdentityCache;
 
     @Autowired
-    public WebhookController(BitbucketService bitbucketService, CodeReviewService codeReviewService,
-                             FeedbackService feedbackService,
-                             UserRepository userRepository, WebhookTokenRepository webhookTokenRepository, SimpMessagingTemplate messagingTemplate) {
-        this.bitbucketService = bitbucketService;
-        this.codeReviewService = codeReviewService;
-        this.feedbackService = feedbackService;
-        this.userRepository = userRepository;
-        this.webhookTokenRepository = webhookTokenRepository;
-        this.messagingTemplate = messagingTemplate;
+    public WebhookController(ReviewJobService reviewJobService, WebhookIdentityCache webhookIdentityCache) {
+        this.reviewJobService = reviewJobService;
+        this.webhookIdentityCache = webhookIdentityCache;
     }
 
+    /**
+     * Validates the token and queues the review. The review itself runs on the
+     * review workers, so Bitbucket gets its answer before its delivery timeout.
+     * Redeliveries and events for a commit already queued or reviewed are answered from the existing job.
+     */
     @PostMapping("/bitbucket/{token}")
     public ResponseEntity<String> receiveWebhook(
             @PathVariable String token,
+            @RequestHeader(value = "X-Request-UUID", required = false) String deliveryId,
             @RequestBody BitbucketWebhookPayload payload) {
-        WebhookToken wt = webhookTokenRepository.findByTokenAndActiveTrue(token)
+        WebhookIdentityCache.TokenSnapshot wt = webhookIdentityCache.token(token)
                 .orElseThrow(() -> new ResponseStatusException(
                         HttpStatus.NOT_FOUND, "Token inactive or not found"));
 
-        if (wt.getExpiresAt() != null && wt.getExpiresAt().isBefore(LocalDateTime.now()))
+        if (wt.expiresAt() != null && wt.expiresAt().isBefore(LocalDateTime.now()))
             throw new ResponseStatusException(HttpStatus.GONE, "Token expired");
 
         // Find the user
         String uuid = payload.getPullRequest().getAuthor().getUuid();
-        User user = userRepository.findByBitbucketUuid(uuid)
+        WebhookIdentityCache.UserSnapshot user = webhookIdentityCache.user(uuid)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found: " + uuid));
-        String username = user.getUsername();
 
-        // 1. Fetch modified files from Bitbucket
-        messagingTemplate.convertAndSend(
-                WEBSOCKET_DESTINATION + username,
-                Map.of(STAGE_PREFIX, "Processing PR")
-        );
-
-        List<FileData> fetchedFiles = bitbucketService.getModifiedFiles(payload);
-
-        // 2. Determine the preferred AI for the user
-        messagingTemplate.convertAndSend(
-                WEBSOCKET_DESTINATION + username,
-                Map.of(STAGE_PREFIX, "Files fetched")
-        );
-
-        String ai = Optional.ofNullable(user.getAiModel())
-                .map(m -> m.getAi().toLowerCase())
-                .orElse("ChatGPT");
-        String model = Optional.ofNullable(user.getAiModel())
-                .map(AiModel::getModel)
-                .orElse("gpt-4o");
-
-        // 3. Generate feedback using the selected AI
-        messagingTemplate.convertAndSend(
-                WEBSOCKET_DESTINATION + username,
-                Map.of(STAGE_PREFIX, "AI Code Analysis")
-        );
-
-        List<String> aspects = user.getReviewAspectsList();
-        CodeReviewService.ReviewResult reviewResult = codeReviewService.reviewFiles(fetchedFiles, ai, model, aspects);
-        String feedback = reviewResult.getGeneralFeedback();
-
-        if (feedback != null) {
-            Long prId = payload.getPullRequest().getId();
-            String repoFullName = payload.getRepository().getFullName();
-            int rate = extractRate(feedback);
-
-            // Post general comment on PR
-            messagingTemplate.convertAndSend(
-                    WEBSOCKET_DESTINATION + username,
-                    Map.of(STAGE_PREFIX, "Posting general feedback")
-            );
-            bitbucketService.postCommentToPullRequest(payload, feedback);
-
-            // Post inline comments
-            messagingTemplate.convertAndSend(
-                    WEBSOCKET_DESTINATION + username,
-                    Map.of(STAGE_PREFIX, "Posting inline comments")
-            );
-            for (InlineComment inlineComment : reviewResult.getInlineComments()) {
-                bitbucketService.postInlineCommentToPullRequest(payload, inlineComment);
-            }
-
-            // Save feedback to database
-            messagingTemplate.convertAndSend(
-                    WEBSOCKET_DESTINATION + username,
-                    Map.of(STAGE_PREFIX, "Saving feedback")
-            );
-            feedbackService.save(prId, uuid, feedback, model, repoFullName, rate);
-
-            messagingTemplate.convertAndSend(
-                    WEBSOCKET_DESTINATION + username,
-                    Map.of(STAGE_PREFIX, "Done", "status", "done", "prId", prId)
-            );
+        ReviewJobService.Enqueued enqueued = reviewJobService.enqueue(payload, user, deliveryId);
+        ReviewJob job = enqueued.job();
+        if (enqueued.duplicate()) {
+            return ResponseEntity.ok("Duplicate of review job " + job.getId() + " (" + job.getStatus() + ").");
         }
-        return ResponseEntity.ok("Webhook processed and feedback saved using " + ai + " with model " + model + ".");
+        reviewJobService.estimateCostAsync(job.getId(), payload);
+        return ResponseEntity.accepted().body("Review queued as job " + job.getId() + ".");
     }
-
-    private int extractRate(String feedback) {
-        String[] lines = feedback.split("\\r?\\n");
-        Pattern numPattern = Pattern.compile("\\b(\\d{1,3})\\b");
-
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i].toLowerCase();
-            if (line.contains("rate")) {
-                if (i + 1 < lines.length) {
-                    String next = lines[i + 1].trim();
-                    try {
-                        int rate = Integer.parseInt(next.replaceAll("\\D", ""));
-                        return clampRate(rate);
-                    } catch (NumberFormatException ignored) {
-                        // Ignored because invalid rates are handled by fallback logic in the calling method
-                    }
-                }
-                Matcher m = numPattern.matcher(lines[i]);
-                if (m.find()) {
-                    return clampRate(Integer.parseInt(m.group(1)));
-                }
-            }
-        }
-
-        Matcher m = numPattern.matcher(feedback);
-        int last = 0;
-        while (m.find()) {
-            last = Integer.parseInt(m.group(1));
-        }
-        return clampRate(last);
-    }
-
-    private int clampRate(int rate) {
-        if (rate <= 0) return 0;
-        return Math.min(100, rate);
-    }
-
-}
\ No newline at end of file
+}
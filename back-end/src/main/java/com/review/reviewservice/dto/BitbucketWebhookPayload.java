@@ -17,11 +17,24 @@ public class BitbucketWebhookPayload {
         private String title;
         private Author author;
         private Links links;
+        private Endpoint source;
+        private Endpoint destination;
+    }
+
+    @Data
+    public static class Endpoint {
+        private Commit commit;
+    }
+
+    @Data
+    public static class Commit {
+        private String hash;
     }
 
     @Data
     public static class Links {
         private Link diffstat;
+        private Link diff;
     }
 
     @Data
@@ -2,8 +2,15 @@ package com.review.reviewservice.dto;
 
 import java.util.List;
 
+/**
+ * A chat turn. Session clients send only {@code message} (and the {@code sessionId} returned by the
+ * previous turn); {@code history} is the older form that resends the whole conversation. A session
+ * client sends {@code history} together with {@code message} only to start over after its session expired.
+ */
 public record ChatRequestDto(
         String ai,
         String model,
+        String sessionId,
+        String message,
         List<MessageDto> history
 ) {}
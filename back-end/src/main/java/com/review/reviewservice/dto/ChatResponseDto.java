@@ -1,5 +1,13 @@
 package com.review.reviewservice.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public record ChatResponseDto(
-        String reply
-) {}
+        String reply,
+        String sessionId
+) {
+    public ChatResponseDto(String reply) {
+        this(reply, null);
+    }
+}
@@ -7,4 +7,6 @@ import java.util.List;
 @Data
 public class DiffstatResponse {
     private List<DiffstatEntry> values;
+    /** Link to the next page, absent on the last one. */
+    private String next;
 }
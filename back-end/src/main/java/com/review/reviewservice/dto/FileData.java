@@ -1,11 +1,23 @@
 package com.review.reviewservice.dto;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
 
 @Data
-@AllArgsConstructor
 public class FileData {
     private String path;
     private String content;
+    /** Whether {@code content} holds the changed hunks of the file rather than its full text. */
+    private boolean diff;
+    /** Content before it was truncated to fit a review request; null when {@code content} is complete. */
+    private String originalContent;
+
+    public FileData(String path, String content, boolean diff) {
+        this.path = path;
+        this.content = content;
+        this.diff = diff;
+    }
+
+    public FileData(String path, String content) {
+        this(path, content, false);
+    }
 }
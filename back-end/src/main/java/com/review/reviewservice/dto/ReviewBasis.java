@@ -0,0 +1,9 @@
+package com.review.reviewservice.dto;
+
+/**
+ * What a feedback was produced from: the source commit (null when the review failed), the AI feedback
+ * before the skipped files and overflowing inline comments were appended, the number of files that
+ * feedback covers and the aspects it was asked for.
+ */
+public record ReviewBasis(String sourceCommit, String aiFeedback, int files, String aspects) {
+}
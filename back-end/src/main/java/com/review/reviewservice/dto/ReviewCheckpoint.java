@@ -0,0 +1,37 @@
+package com.review.reviewservice.dto;
+
+import com.review.reviewservice.model.entity.ReviewJobStage;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * What a review job has done so far, stored with the job so that a retry resumes after the last
+ * completed stage instead of asking the AI again.
+ */
+@Data
+@NoArgsConstructor
+public class ReviewCheckpoint {
+    private ReviewJobStage stage;
+    private int reviewedFiles;
+    /** General comment as it will be posted, with the skipped files already listed. */
+    private String feedback;
+    /** General feedback as the AI wrote it, merged with the previous review when incremental. */
+    private String aiFeedback;
+    /** Number of files {@link #aiFeedback} covers. */
+    private int coveredFiles;
+    private int rate;
+    /** Source commit recorded with the feedback; null when the review failed. */
+    private String reviewedCommit;
+    /** Inline comments not posted yet. */
+    private List<InlineComment> inlineComments = List.of();
+
+    public ReviewCheckpoint(ReviewJobStage stage) {
+        this.stage = stage;
+    }
+
+    public boolean reached(ReviewJobStage other) {
+        return stage != null && stage.compareTo(other) >= 0;
+    }
+}
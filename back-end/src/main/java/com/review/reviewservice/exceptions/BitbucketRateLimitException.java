@@ -0,0 +1,7 @@
+package com.review.reviewservice.exceptions;
+
+public class BitbucketRateLimitException extends RuntimeException {
+    public BitbucketRateLimitException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.review.reviewservice.exceptions;
+
+public class ChatSessionExpiredException extends RuntimeException {
+    public ChatSessionExpiredException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.review.reviewservice.exceptions;
+
+public class ReviewSupersededException extends RuntimeException {
+    public ReviewSupersededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,29 @@
+package com.review.reviewservice.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Entity
+@Table(name = "chat_session")
+public class ChatSession {
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    @Column(nullable = false)
+    private String username;
+
+    /** Rolling summary of the turns that were compacted. */
+    @Column(columnDefinition = "TEXT")
+    private String summary;
+
+    /** Turns not summarised yet, as a JSON array of messages. */
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String messages;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt = LocalDateTime.now();
+}
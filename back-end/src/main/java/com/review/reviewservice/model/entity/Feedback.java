@@ -33,4 +33,19 @@ public class Feedback {
 
     @Column(name = "rate", nullable = false)
     private int rate;
+
+    /** Head commit of the PR source branch this feedback was produced for. */
+    @Column(name = "source_commit")
+    private String sourceCommit;
+
+    /** Feedback as the AI wrote it, without the sections appended for posting. */
+    @Column(name = "ai_feedback", columnDefinition = "TEXT")
+    private String aiFeedback;
+
+    /** Number of files {@link #aiFeedback} covers, counting earlier commits of an incremental review. */
+    @Column(name = "reviewed_files", nullable = false)
+    private int reviewedFiles;
+
+    @Column(name = "review_aspects", columnDefinition = "TEXT")
+    private String reviewAspects;
 }
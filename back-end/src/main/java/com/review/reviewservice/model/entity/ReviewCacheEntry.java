@@ -0,0 +1,38 @@
+package com.review.reviewservice.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Entity
+@Table(name = "review_cache")
+public class ReviewCacheEntry {
+    @Id
+    @Column(name = "cache_key", length = 64)
+    private String cacheKey;
+
+    @Column(nullable = false)
+    private String ai;
+
+    @Column(nullable = false)
+    private String model;
+
+    /** The part of the general feedback of the review request that is about the file. */
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String feedback;
+
+    /** Inline comments for the file, as a JSON array. */
+    @Column(name = "inline_comments", nullable = false, columnDefinition = "TEXT")
+    private String inlineComments;
+
+    @Column(nullable = false)
+    private int hits;
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Column(name = "last_hit_at", nullable = false)
+    private LocalDateTime lastHitAt = LocalDateTime.now();
+}
@@ -0,0 +1,88 @@
+package com.review.reviewservice.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Entity
+@Table(name = "review_job")
+public class ReviewJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private long userId;
+
+    @Column(name = "repo_full_name", nullable = false)
+    private String repoFullName;
+
+    @Column(name = "pr_id", nullable = false)
+    private long prId;
+
+    /** Bitbucket's {@code X-Request-UUID} of the webhook delivery; the same on redeliveries. */
+    @Column(name = "delivery_id")
+    private String deliveryId;
+
+    /** Head commit of the PR source branch when the job was queued. */
+    @Column(name = "source_commit")
+    private String sourceCommit;
+
+    /** Team the review is scheduled under; null for users without a team, who are their own tenant. */
+    @Column(name = "team_name")
+    private String teamName;
+
+    /** Scheduling weights of the tenant and of the user within it, as configured when the job was queued. */
+    @Column(name = "tenant_weight", nullable = false)
+    private double tenantWeight = 1;
+
+    @Column(name = "user_weight", nullable = false)
+    private double userWeight = 1;
+
+    /** Changed lines of the PR according to its diffstat; null until known. */
+    @Column(name = "estimated_cost")
+    private Integer estimatedCost;
+
+    /** Last time a worker claimed the job. */
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    /** Webhook payload serialized as JSON, replayed by the worker. */
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String payload;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private ReviewJobStatus status = ReviewJobStatus.PENDING;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    /** Last completed stage; null until the first checkpoint. */
+    @Enumerated(EnumType.STRING)
+    private ReviewJobStage stage;
+
+    /** {@link com.review.reviewservice.dto.ReviewCheckpoint} serialized as JSON. */
+    @Column(columnDefinition = "TEXT")
+    private String checkpoint;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(name = "locked_by")
+    private String lockedBy;
+
+    @Column(name = "locked_at")
+    private LocalDateTime lockedAt;
+
+    @Column(name = "available_at", nullable = false)
+    private LocalDateTime availableAt = LocalDateTime.now();
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt = LocalDateTime.now();
+}
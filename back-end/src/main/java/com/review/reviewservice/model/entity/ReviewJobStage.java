@@ -0,0 +1,11 @@
+package com.review.reviewservice.model.entity;
+
+/**
+ * Last completed stage of a review job, in order.
+ */
+public enum ReviewJobStage {
+    FILES_FETCHED,
+    AI_REVIEWED,
+    COMMENTS_POSTED,
+    FEEDBACK_SAVED
+}
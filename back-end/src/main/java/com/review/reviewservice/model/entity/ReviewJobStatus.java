@@ -0,0 +1,10 @@
+package com.review.reviewservice.model.entity;
+
+public enum ReviewJobStatus {
+    PENDING,
+    RUNNING,
+    DONE,
+    FAILED,
+    /** Replaced by a job for a newer push to the same PR before it could post anything. */
+    SUPERSEDED
+}
@@ -0,0 +1,61 @@
+package com.review.reviewservice.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Entity
+@Table(name = "review_outbox")
+public class ReviewOutboxEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /** Feedback record written in the same transaction; null for comments without a review. */
+    @Column(name = "feedback_id")
+    private Long feedbackId;
+
+    /** Review job that queued the entry; null for entries queued before jobs were recorded. */
+    @Column(name = "review_job_id")
+    private Long reviewJobId;
+
+    @Column(name = "repo_full_name", nullable = false)
+    private String repoFullName;
+
+    @Column(name = "pr_id", nullable = false)
+    private long prId;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String body;
+
+    /** File and line of an inline comment; both null for a general comment. */
+    @Column(length = 1024)
+    private String path;
+
+    @Column(name = "line_number")
+    private Integer lineNumber;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private ReviewOutboxStatus status = ReviewOutboxStatus.PENDING;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    @Column(name = "locked_at")
+    private LocalDateTime lockedAt;
+
+    @Column(name = "available_at", nullable = false)
+    private LocalDateTime availableAt = LocalDateTime.now();
+
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Column(name = "delivered_at")
+    private LocalDateTime deliveredAt;
+}
@@ -0,0 +1,10 @@
+package com.review.reviewservice.model.entity;
+
+public enum ReviewOutboxStatus {
+    PENDING,
+    SENDING,
+    DELIVERED,
+    FAILED,
+    /** Dropped unposted because its review job was superseded by a newer push. */
+    SUPERSEDED
+}
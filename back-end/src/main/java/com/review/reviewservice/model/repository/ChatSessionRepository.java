@@ -0,0 +1,21 @@
+package com.review.reviewservice.model.repository;
+
+import com.review.reviewservice.model.entity.ChatSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface ChatSessionRepository extends JpaRepository<ChatSession, String> {
+
+    Optional<ChatSession> findByIdAndUsername(String id, String username);
+
+    @Modifying
+    @Query("DELETE FROM ChatSession s WHERE s.updatedAt < :updatedBefore")
+    int deleteStale(@Param("updatedBefore") LocalDateTime updatedBefore);
+}
@@ -8,12 +8,15 @@ import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface FeedbackRepository extends JpaRepository<Feedback, Long> {
     List<Feedback> findByPrId(Long prId);
     List<Feedback> findByUserUsername(String username);
 
+    Optional<Feedback> findFirstByRepoFullNameAndPrIdAndSourceCommitIsNotNullOrderByCreatedAtDesc(String repoFullName, long prId);
+
     int countByUserUsername(String username);
 
     @Query("""
@@ -0,0 +1,56 @@
+package com.review.reviewservice.model.repository;
+
+import com.review.reviewservice.model.entity.ReviewCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ReviewCacheRepository extends JpaRepository<ReviewCacheEntry, String> {
+
+    List<ReviewCacheEntry> findByCacheKeyInAndCreatedAtAfter(Collection<String> cacheKeys, LocalDateTime createdAfter);
+
+    /**
+     * Stores an entry unless one with the same key exists, so that concurrent reviews of the same
+     * file do not fail on the primary key.
+     */
+    @Modifying
+    @Query(value = """
+      INSERT INTO review_cache (cache_key, ai, model, feedback, inline_comments, hits, created_at, last_hit_at)
+      VALUES (:cacheKey, :ai, :model, :feedback, :inlineComments, 0, :now, :now)
+      ON CONFLICT (cache_key) DO NOTHING
+    """, nativeQuery = true)
+    int insertIfAbsent(@Param("cacheKey") String cacheKey, @Param("ai") String ai, @Param("model") String model,
+                       @Param("feedback") String feedback, @Param("inlineComments") String inlineComments,
+                       @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("""
+      UPDATE ReviewCacheEntry e
+      SET e.hits = e.hits + 1,
+          e.lastHitAt = :now
+      WHERE e.cacheKey IN :cacheKeys
+    """)
+    void recordHits(@Param("cacheKeys") Collection<String> cacheKeys, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("DELETE FROM ReviewCacheEntry e WHERE e.createdAt < :createdBefore")
+    int deleteExpired(@Param("createdBefore") LocalDateTime createdBefore);
+
+    @Modifying
+    @Query(value = """
+      DELETE FROM review_cache
+      WHERE cache_key IN (
+        SELECT cache_key FROM review_cache
+        ORDER BY last_hit_at DESC
+        OFFSET :maxEntries
+      )
+    """, nativeQuery = true)
+    int deleteLeastRecentlyHitBeyond(@Param("maxEntries") int maxEntries);
+}
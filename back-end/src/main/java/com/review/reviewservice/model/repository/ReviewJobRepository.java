@@ -0,0 +1,123 @@
+package com.review.reviewservice.model.repository;
+
+import com.review.reviewservice.model.entity.ReviewJob;
+import com.review.reviewservice.model.entity.ReviewJobStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ReviewJobRepository extends JpaRepository<ReviewJob, Long> {
+
+    /**
+     * Locks the runnable jobs that should run next. Rows already locked by another worker are skipped,
+     * so any number of workers (on any number of nodes) can poll concurrently.
+     * <p>
+     * Weighted fair order: first the tenant (team, or the user when teamless) that started the fewest
+     * reviews since {@code since} relative to its weight, then likewise the user within it, then the
+     * smallest estimated cost, which shrinks as the job waits.
+     */
+    @Query(value = """
+      SELECT j.*
+      FROM review_job j
+      LEFT JOIN (
+          SELECT team_name, COUNT(*) AS started
+          FROM review_job
+          WHERE started_at > :since AND team_name IS NOT NULL
+          GROUP BY team_name
+      ) t ON t.team_name = j.team_name
+      LEFT JOIN (
+          SELECT user_id, COUNT(*) AS started
+          FROM review_job
+          WHERE started_at > :since
+          GROUP BY user_id
+      ) u ON u.user_id = j.user_id
+      WHERE j.status = 'PENDING'
+        AND j.available_at <= :now
+      ORDER BY COALESCE(CASE WHEN j.team_name IS NULL THEN u.started ELSE t.started END, 0) / j.tenant_weight,
+               COALESCE(u.started, 0) / j.user_weight,
+               COALESCE(j.estimated_cost, :unknownCost)
+                   / (1 + EXTRACT(EPOCH FROM (:now - j.available_at)) / :agingSeconds),
+               j.available_at, j.id
+      LIMIT :limit
+      FOR UPDATE OF j SKIP LOCKED
+    """, nativeQuery = true)
+    List<ReviewJob> findRunnableForUpdate(@Param("now") LocalDateTime now, @Param("since") LocalDateTime since,
+                                          @Param("unknownCost") int unknownCost,
+                                          @Param("agingSeconds") double agingSeconds, @Param("limit") int limit);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE ReviewJob j SET j.estimatedCost = :cost WHERE j.id = :id")
+    int updateEstimatedCost(@Param("id") long id, @Param("cost") int cost);
+
+    Optional<ReviewJob> findFirstByDeliveryId(String deliveryId);
+
+    /**
+     * Latest job for the given PR commit that is queued, running or done. Failed jobs may be queued again,
+     * and so may superseded ones: a force-push back to an older commit makes it the head again.
+     */
+    @Query("""
+      SELECT j FROM ReviewJob j
+      WHERE j.repoFullName = :repoFullName
+        AND j.prId = :prId
+        AND j.sourceCommit = :sourceCommit
+        AND j.status NOT IN (com.review.reviewservice.model.entity.ReviewJobStatus.FAILED,
+                             com.review.reviewservice.model.entity.ReviewJobStatus.SUPERSEDED)
+      ORDER BY j.id DESC
+      LIMIT 1
+    """)
+    Optional<ReviewJob> findLiveForCommit(@Param("repoFullName") String repoFullName, @Param("prId") long prId,
+                                          @Param("sourceCommit") String sourceCommit);
+
+    long countByStatus(ReviewJobStatus status);
+
+    boolean existsByRepoFullNameAndPrIdAndStatus(String repoFullName, long prId, ReviewJobStatus status);
+
+    List<ReviewJob> findByRepoFullNameAndPrIdAndStatus(String repoFullName, long prId, ReviewJobStatus status);
+
+    boolean existsByRepoFullNameAndPrIdAndIdGreaterThanAndStatusIn(String repoFullName, long prId, long id,
+                                                                  Collection<ReviewJobStatus> statuses);
+
+    /**
+     * Cluster-wide lock on a pull request, held until the end of the current transaction.
+     */
+    @Query(value = "SELECT 1 FROM pg_advisory_xact_lock(hashtextextended(:key, 0))", nativeQuery = true)
+    int lockPullRequest(@Param("key") String key);
+
+    /**
+     * Same as {@link #lockPullRequest} without waiting; false when another transaction holds the lock.
+     */
+    @Query(value = "SELECT pg_try_advisory_xact_lock(hashtextextended(:key, 0))", nativeQuery = true)
+    boolean tryLockPullRequest(@Param("key") String key);
+
+    @Modifying
+    @Query("""
+      UPDATE ReviewJob j
+      SET j.status = com.review.reviewservice.model.entity.ReviewJobStatus.PENDING,
+          j.lockedBy = NULL,
+          j.lockedAt = NULL,
+          j.updatedAt = :now
+      WHERE j.status = com.review.reviewservice.model.entity.ReviewJobStatus.RUNNING
+        AND j.lockedAt < :expiredBefore
+    """)
+    int releaseExpiredLeases(@Param("expiredBefore") LocalDateTime expiredBefore, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("""
+      UPDATE ReviewJob j
+      SET j.lockedAt = :now
+      WHERE j.id IN :ids
+        AND j.status = com.review.reviewservice.model.entity.ReviewJobStatus.RUNNING
+        AND j.lockedBy = :nodeId
+    """)
+    int renewLeases(@Param("ids") Collection<Long> ids, @Param("nodeId") String nodeId, @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,78 @@
+package com.review.reviewservice.model.repository;
+
+import com.review.reviewservice.model.entity.ReviewOutboxEntry;
+import com.review.reviewservice.model.entity.ReviewOutboxStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ReviewOutboxRepository extends JpaRepository<ReviewOutboxEntry, Long> {
+
+    /**
+     * Locks the oldest deliverable entries. Rows already locked by another relay are skipped,
+     * so every node can run the relay.
+     */
+    @Query(value = """
+      SELECT *
+      FROM review_outbox
+      WHERE status = 'PENDING'
+        AND available_at <= :now
+      ORDER BY available_at, id
+      LIMIT :limit
+      FOR UPDATE SKIP LOCKED
+    """, nativeQuery = true)
+    List<ReviewOutboxEntry> findDeliverableForUpdate(@Param("now") LocalDateTime now, @Param("limit") int limit);
+
+    /**
+     * Drops the pending entries of review jobs that were superseded by a newer push.
+     */
+    @Modifying
+    @Query(value = """
+      UPDATE review_outbox o
+      SET status = 'SUPERSEDED'
+      FROM review_job j
+      WHERE o.review_job_id = j.id
+        AND o.status = 'PENDING'
+        AND j.status = 'SUPERSEDED'
+    """, nativeQuery = true)
+    int dropSuperseded();
+
+    @Modifying
+    @Query("""
+      UPDATE ReviewOutboxEntry e
+      SET e.status = com.review.reviewservice.model.entity.ReviewOutboxStatus.PENDING,
+          e.lockedAt = NULL
+      WHERE e.status = com.review.reviewservice.model.entity.ReviewOutboxStatus.SENDING
+        AND e.lockedAt < :expiredBefore
+    """)
+    int releaseExpiredLeases(@Param("expiredBefore") LocalDateTime expiredBefore);
+
+    /**
+     * Extends the leases of entries still being posted, so that a slow post is not claimed again meanwhile.
+     */
+    @Modifying
+    @Query("""
+      UPDATE ReviewOutboxEntry e
+      SET e.lockedAt = :now
+      WHERE e.id IN :ids
+        AND e.status = com.review.reviewservice.model.entity.ReviewOutboxStatus.SENDING
+    """)
+    int renewLeases(@Param("ids") Collection<Long> ids, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("""
+      DELETE FROM ReviewOutboxEntry e
+      WHERE (e.status = com.review.reviewservice.model.entity.ReviewOutboxStatus.DELIVERED AND e.deliveredAt < :before)
+         OR (e.status = com.review.reviewservice.model.entity.ReviewOutboxStatus.SUPERSEDED AND e.createdAt < :before)
+    """)
+    int deleteFinishedBefore(@Param("before") LocalDateTime before);
+
+    long countByStatus(ReviewOutboxStatus status);
+}
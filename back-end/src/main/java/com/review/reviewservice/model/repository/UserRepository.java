@@ -1,6 +1,7 @@
 package com.review.reviewservice.model.repository;
 
 import com.review.reviewservice.model.entity.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
@@ -12,4 +13,11 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     Optional<User> findByBitbucketUuid(String uuid);
     List<String> getUserRolesByUsername(String username);
+
+    /** Loads the user together with the AI preference and teams, for use outside a web request. */
+    @EntityGraph(attributePaths = {"aiModel", "teams"})
+    Optional<User> findWithAiModelById(long id);
+
+    @EntityGraph(attributePaths = {"teams"})
+    Optional<User> findWithTeamsByBitbucketUuid(String uuid);
 }
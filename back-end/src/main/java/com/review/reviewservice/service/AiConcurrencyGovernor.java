@@ -0,0 +1,225 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.AiProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control in front of the AI providers: per provider at most N calls in flight and at most
+ * M estimated tokens per minute. Calls over the limits wait in a queue instead of failing;
+ * interactive calls (chat) are always served before background ones (reviews), FIFO within each class.
+ */
+@Slf4j
+@Component
+public class AiConcurrencyGovernor {
+
+    public enum Priority { INTERACTIVE, BACKGROUND }
+
+    private static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final AiProperties.Governor properties;
+    private final Map<String, Gate> gates = new ConcurrentHashMap<>();
+
+    @Autowired
+    public AiConcurrencyGovernor(AiProperties aiProperties) {
+        this.properties = aiProperties.getGovernor();
+    }
+
+    /**
+     * A granted slot; must be released once the call is over. Releasing twice is harmless.
+     */
+    public static final class Permit {
+        private final Gate gate;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Gate gate) {
+            this.gate = gate;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                gate.release();
+            }
+        }
+    }
+
+    /**
+     * Emits a permit once the provider has a free slot and token budget for the call.
+     * Cancelling while queued leaves the queue; waiting longer than the priority's maximum wait fails.
+     */
+    public Mono<Permit> acquire(String ai, Priority priority, int estimatedTokens) {
+        Gate gate = gates.computeIfAbsent(ai == null ? "" : ai.toLowerCase(), Gate::new);
+        Duration maxWait = priority == Priority.INTERACTIVE
+                ? properties.getInteractiveMaxWait()
+                : properties.getBackgroundMaxWait();
+        return Mono.<Permit>create(sink -> {
+                    Waiter waiter = new Waiter(sink, priority, Math.max(1, estimatedTokens));
+                    sink.onCancel(() -> gate.cancel(waiter));
+                    gate.enqueue(waiter);
+                })
+                .timeout(maxWait, Mono.error(() -> new CodeReviewServiceException(
+                        ai + " is busy: no capacity within " + maxWait.toSeconds() + "s")))
+                .doOnDiscard(Permit.class, Permit::release);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new TreeMap<>();
+        gates.forEach((ai, gate) -> stats.put(ai, gate.stats()));
+        return stats;
+    }
+
+    private AiProperties.Governor.Limits limits(String ai) {
+        return properties.getProviders().getOrDefault(ai, properties.getDefaults());
+    }
+
+    private static final class Waiter {
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final MonoSink<Permit> sink;
+        private final Priority priority;
+        private final int tokens;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        private Waiter(MonoSink<Permit> sink, Priority priority, int tokens) {
+            this.sink = sink;
+            this.priority = priority;
+            this.tokens = tokens;
+        }
+    }
+
+    private final class Gate {
+        private final String ai;
+        private final Deque<Waiter> interactive = new ArrayDeque<>();
+        private final Deque<Waiter> background = new ArrayDeque<>();
+        /** Grant time and estimated tokens of the calls admitted within the last minute. */
+        private final Deque<long[]> window = new ArrayDeque<>();
+        private long windowTokens;
+        private int active;
+        private boolean drainScheduled;
+
+        private long granted;
+        private long timedOutOrCancelled;
+        private long totalWaitMillis;
+
+        private Gate(String ai) {
+            this.ai = ai;
+        }
+
+        private void enqueue(Waiter waiter) {
+            synchronized (this) {
+                (waiter.priority == Priority.INTERACTIVE ? interactive : background).addLast(waiter);
+            }
+            drain();
+        }
+
+        private void cancel(Waiter waiter) {
+            if (waiter.state.compareAndSet(Waiter.WAITING, Waiter.CANCELLED)) {
+                synchronized (this) {
+                    (waiter.priority == Priority.INTERACTIVE ? interactive : background).remove(waiter);
+                    timedOutOrCancelled++;
+                }
+                // A waiter blocked on the token budget may have held back smaller ones behind it.
+                drain();
+            }
+        }
+
+        private void release() {
+            synchronized (this) {
+                active--;
+            }
+            drain();
+        }
+
+        private void drain() {
+            List<Waiter> toGrant = new ArrayList<>();
+            synchronized (this) {
+                AiProperties.Governor.Limits limits = limits(ai);
+                long now = System.currentTimeMillis();
+                expire(now);
+                while (true) {
+                    Deque<Waiter> queue = !interactive.isEmpty() ? interactive : background;
+                    Waiter next = queue.peekFirst();
+                    if (next == null || active >= limits.getMaxConcurrent()) {
+                        break;
+                    }
+                    if (!fitsTokenBudget(next, limits)) {
+                        scheduleDrain(now);
+                        break;
+                    }
+                    queue.pollFirst();
+                    if (!next.state.compareAndSet(Waiter.WAITING, Waiter.GRANTED)) {
+                        continue;
+                    }
+                    active++;
+                    granted++;
+                    totalWaitMillis += now - next.enqueuedAt;
+                    if (limits.getTokensPerMinute() > 0) {
+                        window.addLast(new long[]{now, next.tokens});
+                        windowTokens += next.tokens;
+                    }
+                    toGrant.add(next);
+                }
+            }
+            for (Waiter waiter : toGrant) {
+                waiter.sink.success(new Permit(this));
+            }
+        }
+
+        private boolean fitsTokenBudget(Waiter waiter, AiProperties.Governor.Limits limits) {
+            // A call larger than the whole budget may still run alone, otherwise it would never run.
+            return limits.getTokensPerMinute() <= 0
+                    || windowTokens + waiter.tokens <= limits.getTokensPerMinute()
+                    || window.isEmpty();
+        }
+
+        private void expire(long now) {
+            while (!window.isEmpty() && window.peekFirst()[0] <= now - WINDOW_MILLIS) {
+                windowTokens -= window.pollFirst()[1];
+            }
+        }
+
+        /**
+         * Retries once the oldest admitted call leaves the one-minute window and frees its tokens.
+         */
+        private void scheduleDrain(long now) {
+            if (drainScheduled || window.isEmpty()) {
+                return;
+            }
+            drainScheduled = true;
+            long delay = Math.max(1, window.peekFirst()[0] + WINDOW_MILLIS - now);
+            Schedulers.parallel().schedule(() -> {
+                synchronized (this) {
+                    drainScheduled = false;
+                }
+                drain();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized Map<String, Object> stats() {
+            expire(System.currentTimeMillis());
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("active", active);
+            stats.put("queuedInteractive", interactive.size());
+            stats.put("queuedBackground", background.size());
+            stats.put("tokensLastMinute", windowTokens);
+            stats.put("granted", granted);
+            stats.put("timedOutOrCancelled", timedOutOrCancelled);
+            stats.put("avgWaitMs", granted == 0 ? 0 : totalWaitMillis / granted);
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.BitbucketProperties;
+import com.review.reviewservice.exceptions.BitbucketRateLimitException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * All calls to the Bitbucket API with the service account go through here. Concurrency is adapted
+ * AIMD-style: it grows by one call per window of successful calls and is cut multiplicatively when
+ * Bitbucket throttles. Throttled calls pause everyone until {@code Retry-After} and are retried with jitter.
+ */
+@Slf4j
+@Component
+public class BitbucketClient {
+
+    private static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+    private static final String LIMIT_HEADER = "X-RateLimit-Limit";
+    private static final String RESET_HEADER = "X-RateLimit-Reset";
+    private static final String NEAR_LIMIT_HEADER = "X-RateLimit-NearLimit";
+    /** Below this share of the hourly budget left, concurrency stops growing. */
+    private static final double NEAR_LIMIT_RATIO = 0.2;
+
+    private final RestTemplate restTemplate;
+    private final BitbucketProperties.RateLimit properties;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition capacity = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private long pausedUntil;
+    private long lastDecreaseAt;
+    private long remaining = -1;
+    private long calls;
+    private long throttled;
+    private long retries;
+    private long exhausted;
+
+    @Autowired
+    public BitbucketClient(RestTemplate restTemplate, BitbucketProperties bitbucketProperties) {
+        this.restTemplate = restTemplate;
+        this.properties = bitbucketProperties.getRateLimit();
+        this.limit = Math.clamp(properties.getInitialConcurrency(), minConcurrency(), properties.getMaxConcurrency());
+        this.pausedUntil = System.nanoTime();
+        this.lastDecreaseAt = pausedUntil;
+    }
+
+    /**
+     * Same as {@link RestTemplate#exchange(URI, HttpMethod, HttpEntity, Class)}, retrying throttled calls.
+     *
+     * @throws BitbucketRateLimitException when the call is still throttled after the last retry
+     */
+    public <T> ResponseEntity<T> exchange(URI url, HttpMethod method, HttpEntity<?> request, Class<T> responseType) {
+        for (int attempt = 0; ; attempt++) {
+            long start = acquire();
+            Duration retryAfter;
+            try {
+                ResponseEntity<T> response = restTemplate.exchange(url, method, request, responseType);
+                onSuccess(response.getHeaders());
+                return response;
+            } catch (HttpStatusCodeException e) {
+                if (!isThrottled(e.getStatusCode().value())) {
+                    throw e;
+                }
+                retryAfter = onThrottled(start, e.getResponseHeaders());
+            } finally {
+                release();
+            }
+
+            if (attempt >= properties.getMaxRetries()) {
+                countExhausted();
+                throw new BitbucketRateLimitException("Bitbucket still throttling " + method + " " + url.getPath()
+                        + " after " + (attempt + 1) + " attempts");
+            }
+            Duration delay = retryDelay(attempt, retryAfter);
+            log.debug("Bitbucket throttled {} {}, retry {} in {} ms", method, url.getPath(), attempt + 1, delay.toMillis());
+            sleep(delay);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("concurrencyLimit", Math.round(limit * 100) / 100.0);
+            stats.put("inFlight", inFlight);
+            stats.put("remaining", remaining);
+            stats.put("pausedForMs", Math.max(0, TimeUnit.NANOSECONDS.toMillis(pausedUntil - System.nanoTime())));
+            stats.put("calls", calls);
+            stats.put("throttled", throttled);
+            stats.put("retries", retries);
+            stats.put("exhausted", exhausted);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a free slot under the current limit and for any throttling pause to be over.
+     * Returns the start time of the call.
+     */
+    private long acquire() {
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (pausedUntil - now > 0) {
+                    capacity.awaitNanos(pausedUntil - now);
+                } else if (inFlight >= (int) limit) {
+                    capacity.await();
+                } else {
+                    inFlight++;
+                    calls++;
+                    return now;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted while waiting for Bitbucket capacity");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            capacity.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Additive increase: one more concurrent call per {@code limit} successful ones, unless the
+     * remaining budget is running low. An exhausted budget pauses calls until it resets.
+     */
+    private void onSuccess(HttpHeaders headers) {
+        long budgetLeft = longHeader(headers, REMAINING_HEADER);
+        long budget = longHeader(headers, LIMIT_HEADER);
+        boolean nearLimit = Boolean.parseBoolean(headers.getFirst(NEAR_LIMIT_HEADER))
+                || (budgetLeft >= 0 && budget > 0 && budgetLeft < budget * NEAR_LIMIT_RATIO);
+        lock.lock();
+        try {
+            if (budgetLeft >= 0) {
+                remaining = budgetLeft;
+            }
+            if (budgetLeft == 0) {
+                long reset = longHeader(headers, RESET_HEADER);
+                if (reset > 0) {
+                    pause(Duration.ofSeconds(Math.max(1, reset - System.currentTimeMillis() / 1000)));
+                }
+            } else if (!nearLimit && limit < properties.getMaxConcurrency()) {
+                limit = Math.min(properties.getMaxConcurrency(), limit + 1 / limit);
+                capacity.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Multiplicative decrease, applied once per throttling episode: calls that started before the
+     * last decrease were sent under the old limit and do not cut it again.
+     */
+    private Duration onThrottled(long start, HttpHeaders headers) {
+        Duration retryAfter = retryAfter(headers);
+        lock.lock();
+        try {
+            throttled++;
+            if (start - lastDecreaseAt > 0) {
+                double previous = limit;
+                limit = Math.max(minConcurrency(), limit * properties.getDecreaseFactor());
+                lastDecreaseAt = System.nanoTime();
+                log.warn("Bitbucket throttled requests, concurrency {} -> {}", (int) previous, (int) limit);
+            }
+            pause(retryAfter != null ? retryAfter : properties.getInitialBackoff());
+            return retryAfter;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void pause(Duration duration) {
+        long until = System.nanoTime() + duration.toNanos();
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+        }
+    }
+
+    /**
+     * {@code Retry-After} plus up to one initial backoff of jitter, or exponential backoff with full
+     * jitter when the header is missing, so the retries of parallel calls do not arrive all at once.
+     */
+    private Duration retryDelay(int attempt, Duration retryAfter) {
+        long base = properties.getInitialBackoff().toMillis();
+        long millis;
+        if (retryAfter != null) {
+            millis = retryAfter.toMillis() + ThreadLocalRandom.current().nextLong(base + 1);
+        } else {
+            long ceiling = Math.min(properties.getMaxBackoff().toMillis(), base << Math.min(attempt, 20));
+            millis = ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+        }
+        return Duration.ofMillis(Math.min(millis, properties.getMaxBackoff().toMillis()));
+    }
+
+    private void sleep(Duration delay) {
+        lock.lock();
+        try {
+            retries++;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted while waiting to retry a Bitbucket call");
+        }
+    }
+
+    private void countExhausted() {
+        lock.lock();
+        try {
+            exhausted++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isThrottled(int status) {
+        return status == HttpStatus.TOO_MANY_REQUESTS.value() || status == HttpStatus.SERVICE_UNAVAILABLE.value();
+    }
+
+    private int minConcurrency() {
+        return Math.max(1, properties.getMinConcurrency());
+    }
+
+    /**
+     * Delay-seconds or HTTP-date form of {@code Retry-After}; null when absent or unreadable.
+     */
+    static Duration retryAfter(HttpHeaders headers) {
+        String value = headers == null ? null : headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                Duration until = Duration.between(ZonedDateTime.now(at.getZone()), at);
+                return until.isNegative() ? Duration.ZERO : until;
+            } catch (RuntimeException ignored) {
+                return null;
+            }
+        }
+    }
+
+    private static long longHeader(HttpHeaders headers, String name) {
+        String value = headers.getFirst(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
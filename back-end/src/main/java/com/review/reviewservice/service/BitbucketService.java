@@ -1,120 +1,444 @@
 package com.review.reviewservice.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.review.reviewservice.config.BitbucketProperties;
 import com.review.reviewservice.dto.*;
+import com.review.reviewservice.exceptions.BitbucketRateLimitException;
+import com.review.reviewservice.util.UnifiedDiffParser;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.List;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @Slf4j
 @Service
 public class BitbucketService {
 
-    private final RestTemplate restTemplate;
+    private final BitbucketClient bitbucketClient;
     private final BitbucketProperties properties;
     private final ObjectMapper objectMapper;
+    private final FileContentCache fileContentCache;
 
     @Autowired
-    public BitbucketService(RestTemplate restTemplate, BitbucketProperties properties) {
-        this.restTemplate = restTemplate;
+    public BitbucketService(BitbucketClient bitbucketClient, BitbucketProperties properties, FileContentCache fileContentCache) {
+        this.bitbucketClient = bitbucketClient;
         this.properties = properties;
+        this.fileContentCache = fileContentCache;
         this.objectMapper = new ObjectMapper();
     }
 
+    /**
+     * Fetches the new version of every file in the PR diffstat. Downloads run concurrently on
+     * virtual threads, bounded per PR and by the adaptive limit of {@link BitbucketClient}; results
+     * keep the diffstat order and a file that fails to download is left out without affecting the others.
+     *
+     * @throws BitbucketRateLimitException when Bitbucket keeps throttling, so the review is retried
+     *                                     later instead of running on an incomplete set of files
+     */
     public List<FileData> getModifiedFiles(BitbucketWebhookPayload payload) {
-        List<FileData> files = new ArrayList<>();
-        try {
-            String diffstatHref = payload.getPullRequest().getLinks().getDiffstat().getHref();
-            URI diffstatUrl = new URI(diffstatHref);
+        return getModifiedFiles(payload, path -> true);
+    }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setBasicAuth(properties.getUsername(), properties.getPassword());
-            HttpEntity<Void> request = new HttpEntity<>(headers);
+    /**
+     * Same as {@link #getModifiedFiles(BitbucketWebhookPayload)}, restricted to the paths accepted
+     * by {@code includePath}; other files are never downloaded.
+     */
+    public List<FileData> getModifiedFiles(BitbucketWebhookPayload payload, Predicate<String> includePath) {
+        return getModifiedFiles(payload, includePath, entry -> true);
+    }
 
-            ResponseEntity<DiffstatResponse> response = restTemplate.exchange(
-                    diffstatUrl, HttpMethod.GET, request, DiffstatResponse.class
-            );
+    /**
+     * Same as {@link #getModifiedFiles(BitbucketWebhookPayload, Predicate)}, additionally dropping the
+     * diffstat entries rejected by {@code acceptEntry} before anything is downloaded.
+     * In diff mode the changed hunks come from a single diff request instead, falling back to
+     * full files when the diff cannot be fetched.
+     */
+    public List<FileData> getModifiedFiles(BitbucketWebhookPayload payload, Predicate<String> includePath,
+                                           Predicate<DiffstatEntry> acceptEntry) {
+        List<FileData> files = new ArrayList<>();
+        try {
+            HttpEntity<Void> request = new HttpEntity<>(authHeaders());
+            List<FileInfo> toFetch = filesToFetch(payload, includePath, acceptEntry, request);
+            if (properties.getFetch().isDiffMode()) {
+                Optional<List<FileData>> hunks = getChangedHunks(payload, pathsOf(toFetch)::contains);
+                if (hunks.isPresent()) {
+                    return hunks.get();
+                }
+            }
+            files.addAll(fetchContents(toFetch, request, contentSource(payload)));
+        } catch (BitbucketRateLimitException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error on extracting modified files from PR: {}", e.getMessage(), e);
+        }
 
-            if (response.getBody() != null && response.getBody().getValues() != null) {
-                for (DiffstatEntry entry : response.getBody().getValues()) {
-                    FileInfo file = entry.getNewFile();
-                    if (file != null && file.getPath() != null) {
-                        String fileContentUrl = file.getLinks().getSelf().getHref();
-                        ResponseEntity<String> contentResponse = restTemplate.exchange(
-                                URI.create(fileContentUrl), HttpMethod.GET, request, String.class
-                        );
+        return files;
+    }
 
-                        files.add(new FileData(file.getPath(), contentResponse.getBody()));
+    /**
+     * Same as {@link #getModifiedFiles(BitbucketWebhookPayload, Predicate, Predicate)}, but hands every
+     * file to {@code sink} as soon as it is downloaded, in no particular order. A download keeps its
+     * per-PR slot until the sink accepts the file, so a blocking sink slows the downloads down
+     * instead of letting fetched files pile up in memory.
+     */
+    public void streamModifiedFiles(BitbucketWebhookPayload payload, Predicate<String> includePath,
+                                    Predicate<DiffstatEntry> acceptEntry, Consumer<FileData> sink) {
+        try {
+            HttpEntity<Void> request = new HttpEntity<>(authHeaders());
+            List<FileInfo> toFetch = filesToFetch(payload, includePath, acceptEntry, request);
+            if (properties.getFetch().isDiffMode()) {
+                Optional<List<FileData>> hunks = getChangedHunks(payload, pathsOf(toFetch)::contains);
+                if (hunks.isPresent()) {
+                    hunks.get().forEach(sink);
+                    return;
+                }
+            }
+            ContentSource source = contentSource(payload);
+            Semaphore perPrPermits = new Semaphore(properties.getFetch().getPerPrConcurrency());
+            List<Future<?>> futures = new ArrayList<>(toFetch.size());
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (FileInfo file : toFetch) {
+                    futures.add(executor.submit(() -> {
+                        perPrPermits.acquire();
+                        try {
+                            sink.accept(fetchContent(file, request, source));
+                        } finally {
+                            perPrPermits.release();
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof BitbucketRateLimitException rateLimited) {
+                        throw rateLimited;
                     }
+                    log.error("Error fetching file {}: {}", toFetch.get(i).getPath(), e.getCause().getMessage(), e.getCause());
                 }
             }
+        } catch (BitbucketRateLimitException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.error("Error on extracting modified files from PR: {}", e.getMessage(), e);
         }
+    }
 
-        return files;
+    private List<FileInfo> filesToFetch(BitbucketWebhookPayload payload, Predicate<String> includePath,
+                                        Predicate<DiffstatEntry> acceptEntry, HttpEntity<Void> request)
+            throws URISyntaxException {
+        String diffstatHref = payload.getPullRequest().getLinks().getDiffstat().getHref();
+        return fetchDiffstat(new URI(diffstatHref), request).stream()
+                .filter(entry -> touches(entry, includePath))
+                .filter(acceptEntry)
+                .map(DiffstatEntry::getNewFile)
+                .filter(file -> file != null && file.getPath() != null)
+                .toList();
     }
 
-    public void postCommentToPullRequest(BitbucketWebhookPayload payload, String comment) {
+    private Set<String> pathsOf(List<FileInfo> files) {
+        Set<String> paths = new HashSet<>();
+        files.forEach(file -> paths.add(file.getPath()));
+        return paths;
+    }
+
+    private boolean touches(DiffstatEntry entry, Predicate<String> includePath) {
+        return (entry.getNewFile() != null && entry.getNewFile().getPath() != null && includePath.test(entry.getNewFile().getPath()))
+                || (entry.getOld() != null && entry.getOld().getPath() != null && includePath.test(entry.getOld().getPath()));
+    }
+
+    /**
+     * New-file line numbers that appear in the PR diff, per path, with the configured context lines.
+     * Empty when the diff cannot be fetched.
+     */
+    public Optional<Map<String, Set<Integer>>> getDiffLines(BitbucketWebhookPayload payload) {
         try {
-            String commentUrl = String.format("https://api.bitbucket.org/2.0/repositories/%s/pullrequests/%s/comments",
-                    payload.getRepository().getFullName(), payload.getPullRequest().getId());
+            Map<String, Set<Integer>> lines = new HashMap<>();
+            for (UnifiedDiffParser.FileDiff file : fetchDiff(payload)) {
+                lines.put(file.path(), file.lines());
+            }
+            return Optional.of(lines);
+        } catch (BitbucketRateLimitException e) {
+            throw e;
+        } catch (Exception e) {
+            log.warn("Could not fetch the diff of PR {}: {}", payload.getPullRequest().getId(), e.getMessage());
+            return Optional.empty();
+        }
+    }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setBasicAuth(properties.getUsername(), properties.getPassword());
-            headers.setContentType(MediaType.APPLICATION_JSON);
+    private List<UnifiedDiffParser.FileDiff> fetchDiff(BitbucketWebhookPayload payload) {
+        URI url = UriComponentsBuilder.fromUriString(diffHref(payload))
+                .queryParam("context", properties.getFetch().getDiffContextLines())
+                .build(true)
+                .toUri();
+        ResponseEntity<String> response = bitbucketClient.exchange(
+                url, HttpMethod.GET, new HttpEntity<>(authHeaders()), String.class
+        );
+        return UnifiedDiffParser.parse(response.getBody());
+    }
 
-            ObjectNode commentPayload = objectMapper.createObjectNode();
-            ObjectNode contentNode = objectMapper.createObjectNode();
-            contentNode.put("raw", comment);
-            commentPayload.set("content", contentNode);
+    private Optional<List<FileData>> getChangedHunks(BitbucketWebhookPayload payload, Predicate<String> includePath) {
+        try {
+            List<FileData> files = fetchDiff(payload).stream()
+                    .filter(file -> includePath.test(file.path()))
+                    .map(file -> new FileData(file.path(), file.content(), true))
+                    .toList();
+            log.debug("Fetched diff of PR {}: {} files", payload.getPullRequest().getId(), files.size());
+            return Optional.of(files);
+        } catch (BitbucketRateLimitException e) {
+            throw e;
+        } catch (Exception e) {
+            log.warn("Could not fetch the diff of PR {}, reviewing full files: {}",
+                    payload.getPullRequest().getId(), e.getMessage());
+            return Optional.empty();
+        }
+    }
 
-            String commentPayloadString = objectMapper.writeValueAsString(commentPayload);
-            log.info("Bitbucket comment payload: {}", commentPayloadString);
+    /**
+     * The diff between the PR's source and destination commits, like the PR page shows it.
+     * The PR's own diff link answers with a redirect to the same resource, so it is only used
+     * when the commits are missing from the payload.
+     */
+    private String diffHref(BitbucketWebhookPayload payload) {
+        BitbucketWebhookPayload.PullRequest pullRequest = payload.getPullRequest();
+        String source = commitHash(pullRequest.getSource());
+        String destination = commitHash(pullRequest.getDestination());
+        if (source != null && destination != null) {
+            return String.format("https://api.bitbucket.org/2.0/repositories/%s/diff/%s..%s",
+                    payload.getRepository().getFullName(), source, destination);
+        }
+        if (pullRequest.getLinks() != null && pullRequest.getLinks().getDiff() != null) {
+            return pullRequest.getLinks().getDiff().getHref();
+        }
+        return String.format("https://api.bitbucket.org/2.0/repositories/%s/pullrequests/%s/diff",
+                payload.getRepository().getFullName(), pullRequest.getId());
+    }
 
-            HttpEntity<String> entity = new HttpEntity<>(commentPayloadString, headers);
+    private String commitHash(BitbucketWebhookPayload.Endpoint endpoint) {
+        return endpoint != null && endpoint.getCommit() != null ? endpoint.getCommit().getHash() : null;
+    }
 
-            restTemplate.exchange(commentUrl, HttpMethod.POST, entity, String.class);
+    /**
+     * Paths touched between two commits of a repository, old or new side.
+     * Empty when the range cannot be resolved, e.g. after a force-push removed {@code fromCommit}.
+     */
+    public Optional<Set<String>> getChangedPaths(String repoFullName, String fromCommit, String toCommit) {
+        try {
+            URI url = URI.create(String.format("https://api.bitbucket.org/2.0/repositories/%s/diffstat/%s..%s",
+                    repoFullName, toCommit, fromCommit));
+            Set<String> paths = new HashSet<>();
+            for (DiffstatEntry entry : fetchDiffstat(url, new HttpEntity<>(authHeaders()))) {
+                if (entry.getNewFile() != null) {
+                    paths.add(entry.getNewFile().getPath());
+                }
+                if (entry.getOld() != null) {
+                    paths.add(entry.getOld().getPath());
+                }
+            }
+            return Optional.of(paths);
+        } catch (BitbucketRateLimitException e) {
+            throw e;
         } catch (Exception e) {
-            log.error("Error posting comment to PR: {}", e.getMessage(), e);
+            log.warn("Could not compute changes of {} between {} and {}: {}", repoFullName, fromCommit, toCommit, e.getMessage());
+            return Optional.empty();
         }
     }
 
-    public void postInlineCommentToPullRequest(BitbucketWebhookPayload payload, InlineComment inlineComment) {
+    /**
+     * Lines added plus lines removed in the PR, from its diffstat; empty when the diffstat cannot be read.
+     */
+    public OptionalInt getChangedLineCount(BitbucketWebhookPayload payload) {
         try {
-            String commentUrl = String.format("https://api.bitbucket.org/2.0/repositories/%s/pullrequests/%s/comments",
-                    payload.getRepository().getFullName(), payload.getPullRequest().getId());
+            URI url = new URI(payload.getPullRequest().getLinks().getDiffstat().getHref());
+            int lines = 0;
+            for (DiffstatEntry entry : fetchDiffstat(url, new HttpEntity<>(authHeaders()))) {
+                lines += entry.getLinesAdded() + entry.getLinesRemoved();
+            }
+            return OptionalInt.of(lines);
+        } catch (Exception e) {
+            log.warn("Could not read the diffstat of PR {}: {}", payload.getPullRequest().getId(), e.getMessage());
+            return OptionalInt.empty();
+        }
+    }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setBasicAuth(properties.getUsername(), properties.getPassword());
-            headers.setContentType(MediaType.APPLICATION_JSON);
+    /**
+     * Reads a diffstat page by page, up to {@code maxDiffstatPages} pages, so a huge change cannot keep
+     * a review or its cost estimate walking pages indefinitely.
+     */
+    private List<DiffstatEntry> fetchDiffstat(URI url, HttpEntity<Void> request) {
+        List<DiffstatEntry> entries = new ArrayList<>();
+        int maxPages = Math.max(1, properties.getFetch().getMaxDiffstatPages());
+        URI page = url;
+        for (int pages = 0; page != null; pages++) {
+            if (pages == maxPages) {
+                log.warn("Diffstat {} has more than {} pages, only the first {} entries are used", url, maxPages, entries.size());
+                break;
+            }
+            ResponseEntity<DiffstatResponse> response = bitbucketClient.exchange(
+                    page, HttpMethod.GET, request, DiffstatResponse.class
+            );
+            DiffstatResponse body = response.getBody();
+            if (body == null) {
+                break;
+            }
+            if (body.getValues() != null) {
+                entries.addAll(body.getValues());
+            }
+            page = body.getNext() != null ? URI.create(body.getNext()) : null;
+        }
+        return entries;
+    }
 
-            ObjectNode commentPayload = objectMapper.createObjectNode();
-            ObjectNode contentNode = objectMapper.createObjectNode();
-            contentNode.put("raw", inlineComment.getComment());
-            commentPayload.set("content", contentNode);
+    private HttpHeaders authHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBasicAuth(properties.getUsername(), properties.getPassword());
+        return headers;
+    }
 
-            ObjectNode inlineNode = objectMapper.createObjectNode();
-            inlineNode.put("path", inlineComment.getPath());
-            inlineNode.put("to", inlineComment.getLineNumber());
-            commentPayload.set("inline", inlineNode);
+    private List<FileData> fetchContents(List<FileInfo> toFetch, HttpEntity<Void> request, ContentSource source)
+            throws InterruptedException {
+        Semaphore perPrPermits = new Semaphore(properties.getFetch().getPerPrConcurrency());
+        List<Future<FileData>> futures = new ArrayList<>(toFetch.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (FileInfo file : toFetch) {
+                futures.add(executor.submit(() -> {
+                    perPrPermits.acquire();
+                    try {
+                        return fetchContent(file, request, source);
+                    } finally {
+                        perPrPermits.release();
+                    }
+                }));
+            }
+        }
+
+        List<FileData> files = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                files.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof BitbucketRateLimitException rateLimited) {
+                    throw rateLimited;
+                }
+                log.error("Error fetching file {}: {}", toFetch.get(i).getPath(), e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * The commit the PR's files are fetched at, and, after a re-push, the commit they were fetched at
+     * before together with the paths changed in between. Every other file is the same in both commits.
+     */
+    private record ContentSource(String repoFullName, String commit, String previousCommit,
+                                 Set<String> changedSincePrevious) {
+
+        /** Cache key of the file's content, or null when the commit is unknown. */
+        String key(String path) {
+            return commit == null ? null : repoFullName + "@" + commit + ":" + path;
+        }
+
+        String previousKey(String path) {
+            return previousCommit == null || changedSincePrevious.contains(path)
+                    ? null
+                    : repoFullName + "@" + previousCommit + ":" + path;
+        }
+    }
 
-            String commentPayloadString = objectMapper.writeValueAsString(commentPayload);
-            log.info("Bitbucket inline comment payload: {}", commentPayloadString);
+    private ContentSource contentSource(BitbucketWebhookPayload payload) {
+        String repoFullName = payload.getRepository().getFullName();
+        String commit = commitHash(payload.getPullRequest().getSource());
+        if (commit == null) {
+            return new ContentSource(repoFullName, null, null, Set.of());
+        }
+        Optional<String> previous = fileContentCache.recordHead(repoFullName + "#" + payload.getPullRequest().getId(), commit);
+        Optional<Set<String>> changed = previous.flatMap(p -> getChangedPaths(repoFullName, p, commit));
+        return changed.isPresent()
+                ? new ContentSource(repoFullName, commit, previous.get(), changed.get())
+                : new ContentSource(repoFullName, commit, null, Set.of());
+    }
+
+    private FileData fetchContent(FileInfo file, HttpEntity<Void> request, ContentSource source) {
+        String fileContentUrl = file.getLinks().getSelf().getHref();
+        // The self link points at /src/{commit}/{path}, so it identifies the content too when the commit is unknown
+        String key = source.key(file.getPath()) != null ? source.key(file.getPath()) : fileContentUrl;
+        Optional<String> cached = fileContentCache.get(key, source.previousKey(file.getPath()));
+        if (cached.isPresent()) {
+            return new FileData(file.getPath(), cached.get());
+        }
+
+        ResponseEntity<String> contentResponse = bitbucketClient.exchange(
+                URI.create(fileContentUrl), HttpMethod.GET, request, String.class
+        );
+        fileContentCache.put(key, contentResponse.getBody());
+        return new FileData(file.getPath(), contentResponse.getBody());
+    }
+
+    public void postCommentToPullRequest(BitbucketWebhookPayload payload, String comment) {
+        try {
+            postComment(payload.getRepository().getFullName(), payload.getPullRequest().getId(), comment, null, null);
+        } catch (Exception e) {
+            log.error("Error posting comment to PR: {}", e.getMessage(), e);
+        }
+    }
 
-            HttpEntity<String> entity = new HttpEntity<>(commentPayloadString, headers);
-            restTemplate.exchange(commentUrl, HttpMethod.POST, entity, String.class);
+    /**
+     * Posts one inline comment; returns whether Bitbucket accepted it. Failures are logged.
+     */
+    public boolean postInlineCommentToPullRequest(BitbucketWebhookPayload payload, InlineComment inlineComment) {
+        try {
+            postComment(payload.getRepository().getFullName(), payload.getPullRequest().getId(),
+                    inlineComment.getComment(), inlineComment.getPath(), inlineComment.getLineNumber());
+            return true;
         } catch (Exception e) {
             log.error("Error posting inline comment to PR at {}:{}: {}",
                     inlineComment.getPath(), inlineComment.getLineNumber(), e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Posts a general comment, or an inline one when {@code path} is set. Failures are thrown to the caller.
+     */
+    public void postComment(String repoFullName, long prId, String comment, String path, Integer lineNumber)
+            throws JsonProcessingException {
+        String commentUrl = String.format("https://api.bitbucket.org/2.0/repositories/%s/pullrequests/%s/comments",
+                repoFullName, prId);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBasicAuth(properties.getUsername(), properties.getPassword());
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        ObjectNode commentPayload = objectMapper.createObjectNode();
+        ObjectNode contentNode = objectMapper.createObjectNode();
+        contentNode.put("raw", comment);
+        commentPayload.set("content", contentNode);
+
+        if (path != null) {
+            ObjectNode inlineNode = objectMapper.createObjectNode();
+            inlineNode.put("path", path);
+            inlineNode.put("to", lineNumber);
+            commentPayload.set("inline", inlineNode);
         }
+
+        String commentPayloadString = objectMapper.writeValueAsString(commentPayload);
+        log.info("Bitbucket {}comment payload: {}", path != null ? "inline " : "", commentPayloadString);
+
+        HttpEntity<String> entity = new HttpEntity<>(commentPayloadString, headers);
+        bitbucketClient.exchange(URI.create(commentUrl), HttpMethod.POST, entity, String.class);
     }
 }
\ No newline at end of file
@@ -1,8 +1,12 @@
 package com.review.reviewservice.service;
 
+import com.review.reviewservice.dto.ChatResponseDto;
 import com.review.reviewservice.dto.MessageDto;
+import com.review.reviewservice.exceptions.ChatSessionExpiredException;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.List;
 
@@ -10,13 +14,98 @@ import java.util.List;
 public class ChatService {
 
     private final CodeReviewService codeReviewService;
+    private final ChatSessionService chatSessionService;
 
     @Autowired
-    public ChatService(CodeReviewService codeReviewService) {
+    public ChatService(CodeReviewService codeReviewService, ChatSessionService chatSessionService) {
         this.codeReviewService = codeReviewService;
+        this.chatSessionService = chatSessionService;
     }
 
     public String chat(String ai, String model, List<MessageDto> history) {
         return codeReviewService.chat(ai, model, history);
     }
+
+    public Flux<String> chatStream(String ai, String model, String username, List<MessageDto> history) {
+        return codeReviewService.chatStream(ai, model, username, history);
+    }
+
+    /**
+     * One turn of a server-held session: only the new message comes from the client.
+     * Without a {@code sessionId} a new session is started from {@code history}, the conversation
+     * the client still shows.
+     *
+     * @throws ChatSessionExpiredException when the session is gone, so the client can resend its history
+     */
+    public ChatResponseDto chat(String ai, String model, String username, String sessionId, String message,
+                                List<MessageDto> history) {
+        ChatSessionService.Session session = openSession(sessionId, username, history);
+        beginTurn(session);
+        try {
+            List<MessageDto> prompt = chatSessionService.addUserMessage(session, message);
+            String reply;
+            try {
+                reply = codeReviewService.chat(ai, model, prompt);
+            } catch (RuntimeException e) {
+                chatSessionService.discardLastMessage(session);
+                throw e;
+            }
+            if (reply.startsWith("Error")) {
+                chatSessionService.discardLastMessage(session);
+            } else {
+                chatSessionService.addReply(session, ai, model, reply);
+            }
+            return new ChatResponseDto(reply, session.getId());
+        } finally {
+            chatSessionService.endTurn(session);
+        }
+    }
+
+    /**
+     * Streaming variant of a session turn; the reply is added to the session once the stream completes.
+     * Waiting for a running turn of the same session happens off the calling thread.
+     */
+    public Flux<ChatResponseDto> chatStream(String ai, String model, String username, String sessionId,
+                                            String message, List<MessageDto> history) {
+        return Flux.defer(() -> {
+            ChatSessionService.Session session = openSession(sessionId, username, history);
+            return Flux.using(() -> {
+                        beginTurn(session);
+                        return session;
+                    }, turn -> {
+                        List<MessageDto> prompt = chatSessionService.addUserMessage(turn, message);
+                        StringBuilder reply = new StringBuilder();
+                        return codeReviewService.chatStream(ai, model, username, prompt)
+                                .doOnNext(reply::append)
+                                .doOnComplete(() -> {
+                                    if (reply.isEmpty()) {
+                                        chatSessionService.discardLastMessage(turn);
+                                    } else {
+                                        chatSessionService.addReply(turn, ai, model, reply.toString());
+                                    }
+                                })
+                                .doOnError(e -> chatSessionService.discardLastMessage(turn))
+                                .doOnCancel(() -> chatSessionService.discardLastMessage(turn));
+                    }, chatSessionService::endTurn)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .map(delta -> new ChatResponseDto(delta, session.getId()));
+        });
+    }
+
+    private ChatSessionService.Session openSession(String sessionId, String username, List<MessageDto> history) {
+        if (sessionId == null) {
+            return chatSessionService.start(username, history);
+        }
+        return chatSessionService.resume(sessionId, username)
+                .orElseThrow(() -> new ChatSessionExpiredException("Chat session " + sessionId + " has expired"));
+    }
+
+    private void beginTurn(ChatSessionService.Session session) {
+        try {
+            chatSessionService.beginTurn(session);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the previous message", e);
+        }
+    }
 }
@@ -0,0 +1,284 @@
+package com.review.reviewservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.review.reviewservice.config.ChatSessionProperties;
+import com.review.reviewservice.dto.MessageDto;
+import com.review.reviewservice.model.entity.ChatSession;
+import com.review.reviewservice.model.repository.ChatSessionRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-held chat sessions, so a client only sends its new message on every turn.
+ * Older turns are folded into a rolling summary once they exceed a token threshold,
+ * idle sessions are evicted from memory and, optionally, spilled to Postgres to be resumed later.
+ * A session that cannot be resumed is reported to the client, which then starts a new one from
+ * the history it still shows. Turns of one session run one at a time.
+ */
+@Slf4j
+@Service
+public class ChatSessionService {
+
+    private static final String SUMMARY_PREFIX = "Summary of our conversation so far:\n";
+
+    private final ChatSessionProperties properties;
+    private final ChatSessionRepository chatSessionRepository;
+    private final CodeReviewService codeReviewService;
+    private final ReviewPlanner reviewPlanner;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ChatSessionService(ChatSessionProperties properties, ChatSessionRepository chatSessionRepository,
+                              CodeReviewService codeReviewService, ReviewPlanner reviewPlanner,
+                              ObjectMapper objectMapper) {
+        this.properties = properties;
+        this.chatSessionRepository = chatSessionRepository;
+        this.codeReviewService = codeReviewService;
+        this.reviewPlanner = reviewPlanner;
+        this.objectMapper = objectMapper;
+    }
+
+    public static final class Session {
+        private final String id;
+        private final String username;
+        private final List<MessageDto> messages = new ArrayList<>();
+        private final Semaphore turn = new Semaphore(1);
+        private String summary;
+        private boolean compacting;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private Session(String id, String username) {
+            this.id = id;
+            this.username = username;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    /**
+     * Returns the caller's session with the given id, resuming a spilled one if needed.
+     * Empty for an unknown, evicted, purged or foreign id.
+     */
+    public Optional<Session> resume(String sessionId, String username) {
+        Session session = sessions.get(sessionId);
+        if (session == null && properties.isPersist()) {
+            session = restore(sessionId, username);
+        }
+        if (session == null || !session.username.equals(username)) {
+            return Optional.empty();
+        }
+        session.lastAccess = System.currentTimeMillis();
+        return Optional.of(session);
+    }
+
+    /**
+     * Starts a session for the user, seeded with the conversation the client still holds, if any.
+     * Long histories are folded into the summary after the first reply, like any other session.
+     */
+    public Session start(String username, List<MessageDto> history) {
+        Session created = new Session(UUID.randomUUID().toString(), username);
+        if (history != null) {
+            history.stream()
+                    .filter(m -> m.content() != null && ("user".equals(m.role()) || "assistant".equals(m.role())))
+                    .forEach(created.messages::add);
+        }
+        sessions.put(created.id, created);
+        if (sessions.size() > properties.getMaxSessions()) {
+            sessions.values().stream()
+                    .min(Comparator.comparingLong(s -> s.lastAccess))
+                    .ifPresent(this::evict);
+        }
+        return created;
+    }
+
+    /**
+     * Waits until no other turn of the session is running, so that concurrent messages are answered
+     * one after the other, each with the previous reply in its history. Must be paired with {@link #endTurn}.
+     *
+     * @throws IllegalStateException when the running turn does not end within the configured wait
+     */
+    public void beginTurn(Session session) throws InterruptedException {
+        if (!session.turn.tryAcquire(properties.getTurnWait().toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("Another message of this chat is still being answered");
+        }
+    }
+
+    public void endTurn(Session session) {
+        session.turn.release();
+    }
+
+    /**
+     * Adds the user's message and returns the history to send to the provider:
+     * the rolling summary, if any, followed by the turns not summarised yet.
+     */
+    public List<MessageDto> addUserMessage(Session session, String message) {
+        synchronized (session) {
+            session.messages.add(new MessageDto("user", message));
+            session.lastAccess = System.currentTimeMillis();
+            List<MessageDto> history = new ArrayList<>(session.messages.size() + 1);
+            if (session.summary != null) {
+                history.add(new MessageDto("user", SUMMARY_PREFIX + session.summary));
+            }
+            history.addAll(session.messages);
+            return history;
+        }
+    }
+
+    /**
+     * Records the assistant's reply. When the unsummarised turns have grown past the threshold,
+     * the older ones are compacted in the background, so the reply is never delayed by it.
+     */
+    public void addReply(Session session, String aiName, String model, String reply) {
+        synchronized (session) {
+            session.messages.add(new MessageDto("assistant", reply));
+            session.lastAccess = System.currentTimeMillis();
+            if (session.compacting
+                    || session.messages.size() <= keepRecentMessages()
+                    || tokens(session.messages) <= properties.getSummaryThresholdTokens()) {
+                return;
+            }
+            session.compacting = true;
+        }
+        Thread.ofVirtual().name("chat-summary-" + session.id).start(() -> compact(session, aiName, model));
+    }
+
+    /**
+     * Drops the user's message of a turn that produced no reply, so a retry does not send it twice.
+     */
+    public void discardLastMessage(Session session) {
+        synchronized (session) {
+            int last = session.messages.size() - 1;
+            if (last >= 0 && "user".equals(session.messages.get(last).role())) {
+                session.messages.remove(last);
+            }
+        }
+    }
+
+    /**
+     * Evicts sessions idle for longer than the idle timeout and purges spilled ones past retention.
+     */
+    @Transactional
+    @Scheduled(fixedDelayString = "${app.chat.session.eviction-interval:60000}")
+    public void evictIdle() {
+        long idleBefore = System.currentTimeMillis() - properties.getIdleTimeout().toMillis();
+        List<Session> idle = sessions.values().stream()
+                .filter(s -> s.lastAccess < idleBefore)
+                .toList();
+        idle.forEach(this::evict);
+        int purged = properties.isPersist()
+                ? chatSessionRepository.deleteStale(LocalDateTime.now().minus(properties.getRetention()))
+                : 0;
+        if (!idle.isEmpty() || purged > 0) {
+            log.info("Chat sessions: {} idle evicted, {} spilled purged, {} in memory", idle.size(), purged, sessions.size());
+        }
+    }
+
+    @PreDestroy
+    public void spillAll() {
+        if (properties.isPersist()) {
+            sessions.values().forEach(this::spill);
+        }
+    }
+
+    private void compact(Session session, String aiName, String model) {
+        List<MessageDto> older;
+        String previousSummary;
+        synchronized (session) {
+            older = List.copyOf(session.messages.subList(0, session.messages.size() - keepRecentMessages()));
+            previousSummary = session.summary;
+        }
+        String summary = null;
+        try {
+            summary = codeReviewService.summarize(aiName, model, previousSummary, older);
+        } catch (RuntimeException e) {
+            log.error("Error summarising chat session {}: {}", session.id, e.getMessage(), e);
+        }
+        synchronized (session) {
+            session.compacting = false;
+            if (summary == null || summary.startsWith("Error")) {
+                return;
+            }
+            // Only the newest messages change meanwhile, so the first older.size() ones are still the summarised ones.
+            session.messages.subList(0, older.size()).clear();
+            session.summary = summary;
+        }
+        log.debug("Chat session {}: {} messages folded into the summary", session.id, older.size());
+    }
+
+    private void evict(Session session) {
+        if (sessions.remove(session.id, session) && properties.isPersist()) {
+            spill(session);
+        }
+    }
+
+    private void spill(Session session) {
+        ChatSession entity = new ChatSession();
+        synchronized (session) {
+            if (session.messages.isEmpty() && session.summary == null) {
+                return;
+            }
+            entity.setId(session.id);
+            entity.setUsername(session.username);
+            entity.setSummary(session.summary);
+            entity.setMessages(writeMessages(session.messages));
+        }
+        try {
+            chatSessionRepository.save(entity);
+        } catch (RuntimeException e) {
+            log.warn("Could not spill chat session {}: {}", session.id, e.getMessage());
+        }
+    }
+
+    private Session restore(String sessionId, String username) {
+        return chatSessionRepository.findByIdAndUsername(sessionId, username)
+                .map(entity -> {
+                    Session session = new Session(entity.getId(), entity.getUsername());
+                    session.summary = entity.getSummary();
+                    session.messages.addAll(readMessages(entity));
+                    Session existing = sessions.putIfAbsent(session.id, session);
+                    return existing != null ? existing : session;
+                })
+                .orElse(null);
+    }
+
+    private int keepRecentMessages() {
+        // The newest message must never be summarised: a failed turn removes it again.
+        return Math.max(2, properties.getKeepRecentMessages());
+    }
+
+    private int tokens(List<MessageDto> messages) {
+        return messages.stream().mapToInt(m -> reviewPlanner.estimateTokens(m.content())).sum();
+    }
+
+    private List<MessageDto> readMessages(ChatSession entity) {
+        try {
+            return objectMapper.readValue(entity.getMessages(), new TypeReference<List<MessageDto>>() {});
+        } catch (JsonProcessingException e) {
+            log.warn("Unreadable messages of chat session {}: {}", entity.getId(), e.getMessage());
+            return List.of();
+        }
+    }
+
+    private String writeMessages(List<MessageDto> messages) {
+        try {
+            return objectMapper.writeValueAsString(messages);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Chat messages cannot be serialized", e);
+        }
+    }
+}
@@ -11,16 +11,32 @@ import com.review.reviewservice.dto.MessageDto;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpEntity;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.net.URI;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Custom exception for CodeReviewService errors.
@@ -39,16 +55,39 @@ class CodeReviewServiceException extends RuntimeException {
 @Service
 public class CodeReviewService {
     private final AiProperties properties;
-    private final RestTemplate restTemplate;
+    private final WebClient webClient;
+    private final ProviderResilience resilience;
+    private final AiConcurrencyGovernor governor;
     private final ObjectMapper objectMapper;
+    private final ReviewPlanner reviewPlanner;
+    private final ReviewMerger reviewMerger;
+    private final ReviewCache reviewCache;
     private static final String CONTENT_KEY = "content";
     private static final String PARTS_KEY = "parts";
+    private static final String STREAM_DONE = "[DONE]";
+    private static final int CHAT_MAX_OUTPUT_TOKENS = 2048;
+    private static final int REVIEW_MAX_OUTPUT_TOKENS = 4096;
+    private static final String SUMMARY_PROMPT = """
+            You maintain the running summary of a conversation between a user and an AI assistant.
+            Merge the summary so far with the new messages into one updated summary.
+            Keep facts, decisions, open questions, code identifiers and anything the user asked to remember.
+            Write plain text, at most 300 words, with no preamble.
+            """;
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+            new ParameterizedTypeReference<>() {};
 
     @Autowired
-    public CodeReviewService(AiProperties properties, RestTemplate restTemplate, ObjectMapper objectMapper) {
+    public CodeReviewService(AiProperties properties, WebClient webClient, ProviderResilience resilience,
+                             AiConcurrencyGovernor governor, ObjectMapper objectMapper, ReviewPlanner reviewPlanner,
+                             ReviewMerger reviewMerger, ReviewCache reviewCache) {
         this.properties = properties;
-        this.restTemplate = restTemplate;
+        this.webClient = webClient;
+        this.resilience = resilience;
+        this.governor = governor;
         this.objectMapper = objectMapper;
+        this.reviewPlanner = reviewPlanner;
+        this.reviewMerger = reviewMerger;
+        this.reviewCache = reviewCache;
     }
 
     /**
@@ -61,35 +100,289 @@ public class CodeReviewService {
         }
 
         try {
-            AiProperties.Provider provider = selectProvider(aiName);
             String username = SecurityContextHolder.getContext().getAuthentication().getName();
-            String dynamicPrompt = String.format(
-                    "You are a friendly and knowledgeable AI assistant named %s, assisting user '%s'. " +
-                            "Provide helpful, concise, and engaging responses. " +
-                            "Use a conversational tone and adapt to the user's context based on the chat history.",
-                    aiName, username
-            );
+            return complete(aiName, model, buildChatPrompt(aiName, username), history,
+                    AiConcurrencyGovernor.Priority.INTERACTIVE);
+        } catch (CodeReviewServiceException e) {
+            log.error("Error during {} chat: {}", aiName, e.getMessage(), e);
+            return "Error during " + aiName + " chat: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Folds older chat turns into the rolling summary of a chat session, so they no longer
+     * have to be sent with every new message.
+     */
+    public String summarize(String aiName, String model, String previousSummary, List<MessageDto> turns) {
+        StringBuilder transcript = new StringBuilder();
+        if (previousSummary != null) {
+            transcript.append("Summary so far:\n").append(previousSummary).append("\n\n");
+        }
+        transcript.append("New messages:\n");
+        for (MessageDto turn : turns) {
+            transcript.append(turn.role()).append(": ").append(turn.content()).append("\n");
+        }
+        try {
+            return complete(aiName, model, SUMMARY_PROMPT, List.of(new MessageDto("user", transcript.toString())),
+                    AiConcurrencyGovernor.Priority.BACKGROUND);
+        } catch (CodeReviewServiceException e) {
+            log.error("Error during {} chat summary: {}", aiName, e.getMessage(), e);
+            return "Error during " + aiName + " chat summary: " + e.getMessage();
+        }
+    }
 
+    /**
+     * Sends a system prompt and chat history to the provider and returns the whole reply.
+     */
+    private String complete(String aiName, String model, String dynamicPrompt, List<MessageDto> history,
+                            AiConcurrencyGovernor.Priority priority) {
+        Admission admission = new Admission(priority, ProviderResilience.CallClass.CHAT,
+                chatTokens(dynamicPrompt, history));
+        return withFailover(aiName, model, admission, target -> {
+            AiProperties.Provider provider = selectProvider(target.ai());
             HttpHeaders headers = new HttpHeaders();
             headers.setContentType(MediaType.APPLICATION_JSON);
             ObjectNode body = objectMapper.createObjectNode();
             String apiUrl = provider.getApiUrl();
 
-            if (isGemini(aiName)) {
-                apiUrl = apiUrl + "?key=" + provider.getApiKey();
+            if (isGemini(target.ai())) {
+                apiUrl = geminiUrl(provider, false);
                 buildGeminiRequestBody(body, dynamicPrompt, history);
             } else {
                 headers.setBearerAuth(provider.getApiKey());
-                buildDefaultRequestBody(body, model, dynamicPrompt, history);
+                buildDefaultRequestBody(body, target.model(), dynamicPrompt, history);
             }
+            return post(apiUrl, headers, body, target.ai()).map(response -> extractContent(response, target.ai()));
+        });
+    }
 
-            HttpEntity<String> request = new HttpEntity<>(body.toString(), headers);
-            String response = restTemplate.exchange(apiUrl, HttpMethod.POST, request, String.class).getBody();
-            return extractContent(response, aiName);
-        } catch (CodeReviewServiceException e) {
-            log.error("Error during {} chat: {}", aiName, e.getMessage(), e);
-            return "Error during " + aiName + " chat: " + e.getMessage();
+    /**
+     * Streaming variant of {@link #chat}: emits the reply piece by piece as the provider generates it.
+     * Nothing blocks while waiting for the provider, and cancelling the subscription
+     * (for example when the client disconnects) aborts the provider request.
+     */
+    public Flux<String> chatStream(String aiName, String model, String username, List<MessageDto> history) {
+        if (history == null || history.isEmpty()) {
+            log.warn("No chat history provided");
+            return Flux.error(new CodeReviewServiceException("No chat history provided"));
         }
+        String dynamicPrompt = buildChatPrompt(aiName, username);
+        Admission admission = new Admission(AiConcurrencyGovernor.Priority.INTERACTIVE,
+                ProviderResilience.CallClass.CHAT, chatTokens(dynamicPrompt, history));
+        return streamWithFailover(aiName, model, admission, target -> {
+            AiProperties.Provider provider = selectProvider(target.ai());
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            ObjectNode body = objectMapper.createObjectNode();
+            String apiUrl = provider.getApiUrl();
+
+            if (isGemini(target.ai())) {
+                apiUrl = geminiUrl(provider, true);
+                buildGeminiRequestBody(body, dynamicPrompt, history);
+            } else {
+                headers.setBearerAuth(provider.getApiKey());
+                buildDefaultRequestBody(body, target.model(), dynamicPrompt, history);
+                body.put("stream", true);
+            }
+            return streamDeltas(apiUrl, headers, body, target.ai());
+        });
+    }
+
+    /**
+     * Runs a provider call and waits for its result, failing over to the configured equivalent models
+     * when it fails, times out or the provider's circuit is open. In hedging mode a slow call is raced
+     * against a duplicate sent to the next target; a call without a different next target is not hedged.
+     */
+    private <T> T withFailover(String aiName, String model, Admission admission,
+                               Function<ProviderResilience.Target, Mono<T>> call) {
+        List<ProviderResilience.Target> targets = resilience.targets(aiName, model);
+        RuntimeException lastError = null;
+        for (int i = 0; i < targets.size(); i++) {
+            ProviderResilience.Target target = targets.get(i);
+            Optional<ProviderResilience.Ticket> ticket = resilience.tryAcquire(target.ai());
+            if (ticket.isEmpty()) {
+                log.warn("Skipping {} ({}): circuit open", target.ai(), target.model());
+                continue;
+            }
+            ProviderResilience.Target hedgeTarget = i + 1 < targets.size() ? targets.get(i + 1) : null;
+            // A duplicate sent to the same slow target would only double its load, so hedge only across targets.
+            boolean hedging = properties.getHedging().isEnabled() && hedgeTarget != null && !hedgeTarget.equals(target);
+            AtomicBoolean hedgeSent = new AtomicBoolean();
+            try {
+                Answer<T> answer = (hedging
+                        ? hedged(target, ticket.get(), hedgeTarget, admission, call, hedgeSent)
+                        : attempt(target, ticket.get(), admission, call, false)).block();
+                if (answer == null) {
+                    throw new CodeReviewServiceException("Empty response from " + target.ai());
+                }
+                ProviderResilience.Target servedBy = answer.fromHedge() ? hedgeTarget : target;
+                if (!servedBy.ai().equalsIgnoreCase(aiName) || !Objects.equals(servedBy.model(), model)) {
+                    log.warn("{} ({}) unavailable or slow, served by {} ({})", aiName, model, servedBy.ai(), servedBy.model());
+                }
+                return answer.value();
+            } catch (RuntimeException e) {
+                log.warn("Call to {} ({}) failed: {}", target.ai(), target.model(), e.toString());
+                lastError = e;
+                if (hedgeSent.get()) {
+                    // The next target already had its chance as the hedge.
+                    i++;
+                }
+            }
+        }
+        throw unavailable(aiName, lastError);
+    }
+
+    private record Answer<T>(T value, boolean fromHedge) {}
+
+    /**
+     * Priority and estimated token cost of a call, for the concurrency governor, and the call class
+     * whose latencies set its timeout.
+     */
+    private record Admission(AiConcurrencyGovernor.Priority priority, ProviderResilience.CallClass callClass,
+                             int tokens) {}
+
+    /**
+     * One call to one target: waits for capacity in the governor, then runs bounded by the provider's
+     * adaptive timeout and reports to the circuit breaker. Time spent queued is not counted as latency.
+     * {@code ticket} is the target's admission from {@link ProviderResilience#tryAcquire}.
+     */
+    private <T> Mono<Answer<T>> attempt(ProviderResilience.Target target, ProviderResilience.Ticket ticket,
+                                        Admission admission, Function<ProviderResilience.Target, Mono<T>> call,
+                                        boolean fromHedge) {
+        AtomicBoolean started = new AtomicBoolean();
+        return governor.acquire(target.ai(), admission.priority(), admission.tokens())
+                .flatMap(permit -> {
+                    started.set(true);
+                    long start = System.nanoTime();
+                    return Mono.defer(() -> call.apply(target))
+                            .timeout(resilience.timeout(target.ai(), admission.callClass()))
+                            .doOnSuccess(value -> resilience.onSuccess(ticket, admission.callClass(), System.nanoTime() - start))
+                            .doOnError(e -> resilience.onFailure(ticket, e))
+                            .doFinally(signal -> permit.release());
+                })
+                .doOnError(e -> {
+                    if (!started.get()) {
+                        resilience.onCancel(ticket);
+                    }
+                })
+                .doOnCancel(() -> resilience.onCancel(ticket))
+                .map(value -> new Answer<>(value, fromHedge));
+    }
+
+    /**
+     * Sends the call to {@code primary} and, if it has not answered after the provider's hedging percentile
+     * latency, a duplicate to {@code secondary}. The first successful answer wins; the other call is cancelled.
+     * {@code hedgeSent} is set once the duplicate actually went out.
+     */
+    private <T> Mono<Answer<T>> hedged(ProviderResilience.Target primary, ProviderResilience.Ticket ticket,
+                                       ProviderResilience.Target secondary, Admission admission,
+                                       Function<ProviderResilience.Target, Mono<T>> call, AtomicBoolean hedgeSent) {
+        AiProperties.Hedging hedging = properties.getHedging();
+        Optional<Duration> threshold = resilience.latencyPercentile(primary.ai(), admission.callClass(), hedging.getPercentile());
+        if (threshold.isEmpty()) {
+            // Not enough latencies observed yet to know what "slow" means for this provider.
+            return attempt(primary, ticket, admission, call, false)
+                    .doOnSuccess(answer -> resilience.recordHedging(false, false));
+        }
+        Duration delay = threshold.get().compareTo(hedging.getMinDelay()) < 0 ? hedging.getMinDelay() : threshold.get();
+        Mono<Answer<T>> hedge = Mono.delay(delay)
+                .then(Mono.defer(() -> {
+                    Optional<ProviderResilience.Ticket> hedgeTicket = resilience.tryAcquire(secondary.ai());
+                    if (hedgeTicket.isEmpty()) {
+                        return Mono.empty();
+                    }
+                    hedgeSent.set(true);
+                    log.debug("Hedging {} ({}) after {} ms with {} ({})", primary.ai(), primary.model(),
+                            delay.toMillis(), secondary.ai(), secondary.model());
+                    return attempt(secondary, hedgeTicket.get(), admission, call, true);
+                }));
+        return Mono.firstWithValue(attempt(primary, ticket, admission, call, false), hedge)
+                .doOnSuccess(answer -> resilience.recordHedging(hedgeSent.get(), answer != null && answer.fromHedge()))
+                .onErrorMap(NoSuchElementException.class,
+                        e -> e.getSuppressed().length > 0 ? e.getSuppressed()[0] : e);
+    }
+
+    /**
+     * Streaming variant of {@link #withFailover}: fails over only until the first piece of text
+     * has been emitted. The adaptive timeout bounds the wait for every next piece.
+     */
+    private Flux<String> streamWithFailover(String aiName, String model, Admission admission,
+                                            Function<ProviderResilience.Target, Flux<String>> call) {
+        return Flux.defer(() -> streamAttempt(aiName, resilience.targets(aiName, model), 0, admission, call, null));
+    }
+
+    private Flux<String> streamAttempt(String aiName, List<ProviderResilience.Target> targets, int index,
+                                       Admission admission, Function<ProviderResilience.Target, Flux<String>> call,
+                                       Throwable lastError) {
+        if (index >= targets.size()) {
+            return Flux.error(unavailable(aiName, lastError));
+        }
+        ProviderResilience.Target target = targets.get(index);
+        Optional<ProviderResilience.Ticket> admitted = resilience.tryAcquire(target.ai());
+        if (admitted.isEmpty()) {
+            log.warn("Skipping {} ({}): circuit open", target.ai(), target.model());
+            return streamAttempt(aiName, targets, index + 1, admission, call, lastError);
+        }
+        ProviderResilience.Ticket ticket = admitted.get();
+        AtomicBoolean started = new AtomicBoolean();
+        AtomicBoolean emitted = new AtomicBoolean();
+        return governor.acquire(target.ai(), admission.priority(), admission.tokens())
+                .flatMapMany(permit -> {
+                    started.set(true);
+                    long start = System.nanoTime();
+                    return Flux.defer(() -> call.apply(target))
+                            .timeout(resilience.timeout(target.ai(), admission.callClass()))
+                            .doOnNext(delta -> emitted.set(true))
+                            .doOnComplete(() -> resilience.onSuccess(ticket, admission.callClass(), System.nanoTime() - start))
+                            .doOnError(e -> resilience.onFailure(ticket, e))
+                            .doFinally(signal -> permit.release());
+                })
+                .doOnCancel(() -> resilience.onCancel(ticket))
+                .onErrorResume(e -> {
+                    if (!started.get()) {
+                        resilience.onCancel(ticket);
+                    }
+                    log.warn("Stream from {} ({}) failed: {}", target.ai(), target.model(), e.toString());
+                    return emitted.get()
+                            ? Flux.error(e)
+                            : streamAttempt(aiName, targets, index + 1, admission, call, e);
+                });
+    }
+
+    private int chatTokens(String dynamicPrompt, List<MessageDto> history) {
+        int tokens = reviewPlanner.estimateTokens(dynamicPrompt) + CHAT_MAX_OUTPUT_TOKENS;
+        for (MessageDto message : history) {
+            tokens += reviewPlanner.estimateTokens(message.content());
+        }
+        return tokens;
+    }
+
+    private CodeReviewServiceException unavailable(String aiName, Throwable lastError) {
+        return lastError == null
+                ? new CodeReviewServiceException(aiName + " is unavailable (circuit open) and no failover succeeded")
+                : new CodeReviewServiceException(lastError.getMessage(), lastError);
+    }
+
+    /**
+     * Posts a request and emits the whole response body.
+     */
+    private Mono<String> post(String apiUrl, HttpHeaders headers, ObjectNode body, String aiName) {
+        return webClient.post()
+                .uri(URI.create(apiUrl))
+                .headers(h -> h.addAll(headers))
+                .bodyValue(body.toString())
+                .retrieve()
+                .bodyToMono(String.class)
+                .switchIfEmpty(Mono.error(() -> new CodeReviewServiceException("Empty response from " + aiName)));
+    }
+
+    private String buildChatPrompt(String aiName, String username) {
+        return String.format(
+                "You are a friendly and knowledgeable AI assistant named %s, assisting user '%s'. " +
+                        "Provide helpful, concise, and engaging responses. " +
+                        "Use a conversational tone and adapt to the user's context based on the chat history.",
+                aiName, username
+        );
     }
 
     private void buildGeminiRequestBody(ObjectNode body, String dynamicPrompt, List<MessageDto> history) {
@@ -99,7 +392,7 @@ public class CodeReviewService {
         body.set("contents", contents);
         body.set("generationConfig", objectMapper.createObjectNode()
                 .put("temperature", 0.9)
-                .put("maxOutputTokens", 2048));
+                .put("maxOutputTokens", CHAT_MAX_OUTPUT_TOKENS));
     }
 
     private void buildDefaultRequestBody(ObjectNode body, String model, String dynamicPrompt, List<MessageDto> history) {
@@ -112,7 +405,7 @@ public class CodeReviewService {
         addHistoryMessages(messages, history);
         body.set("messages", messages);
         body.put("model", model);
-        body.put("max_tokens", 2048);
+        body.put("max_tokens", CHAT_MAX_OUTPUT_TOKENS);
     }
 
     private void addSystemMessageForGemini(ArrayNode contents, String dynamicPrompt) {
@@ -132,9 +425,10 @@ public class CodeReviewService {
                 log.warn("Invalid message data: {}", message);
                 continue;
             }
+            // Gemini calls the assistant role "model"
             contents.add(
                     objectMapper.createObjectNode()
-                            .put("role", message.role())
+                            .put("role", "assistant".equals(message.role()) ? "model" : message.role())
                             .set(PARTS_KEY,
                                     objectMapper.createArrayNode()
                                             .add(objectMapper.createObjectNode()
@@ -161,13 +455,28 @@ public class CodeReviewService {
     public static class ReviewResult {
         private String generalFeedback;
         private List<InlineComment> inlineComments;
+        /** Files whose batch failed: the feedback only covers the other files. */
+        private List<String> unreviewedFiles = new ArrayList<>();
     }
 
     /**
      * Reviews a list of files using the specified AI provider and model,
      * tailoring feedback to the given list of aspects.
+     * Files already reviewed with the same content, aspects and model come from the review cache.
+     * The rest are split into batches that fit the model's token budget, reviewed concurrently
+     * and merged with the cached results into one result. When only some batches fail, the result
+     * lists their files as unreviewed.
      */
     public ReviewResult reviewFiles(List<FileData> files, String aiName, String model, List<String> aspects) {
+        return reviewFiles(files, aiName, model, aspects, null);
+    }
+
+    /**
+     * Same as {@link #reviewFiles(List, String, String, List)}, but streams the completions and hands
+     * every piece of generated text to {@code onPartial} together with the index of its batch.
+     */
+    public ReviewResult reviewFiles(List<FileData> files, String aiName, String model, List<String> aspects,
+                                    BiConsumer<Integer, String> onPartial) {
         ReviewResult result = new ReviewResult();
         result.setInlineComments(new ArrayList<>());
 
@@ -182,55 +491,224 @@ public class CodeReviewService {
             return result;
         }
 
+        List<FileData> validFiles = new ArrayList<>();
+        for (FileData file : files) {
+            if (file.getContent() == null || file.getPath() == null) {
+                log.warn("Invalid file data: {}", file);
+            } else {
+                validFiles.add(file);
+            }
+        }
+        if (validFiles.isEmpty()) {
+            result.setGeneralFeedback("Error: No files provided for review");
+            return result;
+        }
+        List<ReviewResult> partials = new ArrayList<>();
+        List<Integer> weights = new ArrayList<>();
+        Map<FileData, ReviewResult> cached = reviewCache.getAll(validFiles, aiName, model, aspects);
+        List<FileData> toReview = new ArrayList<>();
+        for (FileData file : validFiles) {
+            ReviewResult hit = cached.get(file);
+            if (hit != null) {
+                partials.add(hit);
+                weights.add(reviewPlanner.estimateTokens(file));
+            } else {
+                toReview.add(file);
+            }
+        }
+
+        String error = null;
+        List<String> unreviewed = new ArrayList<>();
+        if (!toReview.isEmpty()) {
+            List<ReviewPlanner.Batch> batches = reviewPlanner.plan(toReview, reviewTokenBudget(model, aspects));
+            error = reviewBatches(batches, aiName, model, aspects, partials, weights, unreviewed, onPartial);
+        }
+
+        if (partials.isEmpty()) {
+            result.setGeneralFeedback("Error during " + aiName + " review: " + error);
+            return result;
+        }
+        ReviewResult merged = partials.size() == 1 ? partials.get(0) : reviewMerger.merge(partials, weights, aspects);
+        if (!unreviewed.isEmpty()) {
+            log.warn("{} review covers {} of {} files, the rest failed: {}", aiName,
+                    validFiles.size() - unreviewed.size(), validFiles.size(), error);
+            merged.setUnreviewedFiles(unreviewed);
+        }
+        return merged;
+    }
+
+    /**
+     * Reviews the batches concurrently, adding each successful result and its weight to
+     * {@code partials}/{@code weights} and to the review cache, and the files of each failed batch
+     * to {@code unreviewed}.
+     *
+     * @return the first error message, or null if every batch succeeded
+     */
+    private String reviewBatches(List<ReviewPlanner.Batch> batches, String aiName, String model, List<String> aspects,
+                                 List<ReviewResult> partials, List<Integer> weights, List<String> unreviewed,
+                                 BiConsumer<Integer, String> onPartial) {
+        if (batches.size() > 1) {
+            log.info("Reviewing {} files in {} batches with {}", batches.stream().mapToInt(b -> b.files().size()).sum(),
+                    batches.size(), aiName);
+        }
+        int parallelism = Math.min(batches.size(), properties.getReview().getMaxConcurrentBatches());
+        List<Future<ReviewResult>> futures = new ArrayList<>(batches.size());
+        try (ExecutorService executor = Executors.newFixedThreadPool(parallelism, Thread.ofVirtual().factory())) {
+            for (int i = 0; i < batches.size(); i++) {
+                List<FileData> batchFiles = batches.get(i).files();
+                int index = i;
+                Consumer<String> onToken = onPartial == null ? null : text -> onPartial.accept(index, text);
+                futures.add(executor.submit(() -> reviewBatch(batchFiles, aiName, model, aspects, onToken)));
+            }
+        }
+
+        String firstError = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                ReviewResult batchResult = futures.get(i).get();
+                cacheResult(batches.get(i).files(), aiName, model, aspects, batchResult);
+                partials.add(batchResult);
+                weights.add(batches.get(i).estimatedTokens());
+            } catch (ExecutionException e) {
+                log.error("Error during {} review of batch {}: {}", aiName, i, e.getCause().getMessage(), e.getCause());
+                firstError = firstError != null ? firstError : e.getCause().getMessage();
+                batches.get(i).files().forEach(file -> unreviewed.add(file.getPath()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CodeReviewServiceException("Review interrupted", e);
+            }
+        }
+        return firstError;
+    }
+
+    /**
+     * Stores a batch result in the review cache. The cache only saves cost, so failing to store
+     * the result must not fail the review.
+     */
+    void cacheResult(List<FileData> files, String aiName, String model, List<String> aspects, ReviewResult result) {
         try {
-            AiProperties.Provider provider = selectProvider(aiName);
-            String apiUrl = provider.getApiUrl();
-            HttpHeaders headers = new HttpHeaders();
-            ObjectNode body = objectMapper.createObjectNode();
+            reviewCache.putAll(files, aiName, model, aspects, result);
+        } catch (RuntimeException e) {
+            log.warn("Could not cache the {} review of {} files: {}", aiName, files.size(), e.getMessage());
+        }
+    }
 
-            if (isGemini(aiName)) {
-                apiUrl = apiUrl + "?key=" + provider.getApiKey();
-                headers.setContentType(MediaType.APPLICATION_JSON);
-                ArrayNode contents = buildGeminiContents(files, aspects);
-                body.set("contents", contents);
-                body.set("generationConfig", objectMapper.createObjectNode()
-                        .put("temperature", 0.7)
-                        .put("maxOutputTokens", 4096));
-            } else {
-                headers.setBearerAuth(provider.getApiKey());
-                headers.setContentType(MediaType.APPLICATION_JSON);
-                body.put("model", model);
-                ArrayNode messages = objectMapper.createArrayNode();
+    /**
+     * Tokens left for file content in one review request to the model, after the system prompt.
+     */
+    public int reviewTokenBudget(String model, List<String> aspects) {
+        return properties.getReview().inputTokenBudget(model) - reviewPlanner.estimateTokens(buildSystemPrompt(aspects));
+    }
+
+    /**
+     * Sends one review request for the given files and parses the answer; no cache lookup and no merging,
+     * the files must fit {@link #reviewTokenBudget}.
+     * With a token consumer and streaming enabled the completion is streamed and forwarded as it arrives.
+     */
+    public ReviewResult reviewBatch(List<FileData> files, String aiName, String model, List<String> aspects,
+                                     Consumer<String> onToken) {
+        int tokens = reviewPlanner.estimateTokens(buildSystemPrompt(aspects)) + REVIEW_MAX_OUTPUT_TOKENS;
+        for (FileData file : files) {
+            tokens += reviewPlanner.estimateTokens(file);
+        }
+        Admission admission = new Admission(AiConcurrencyGovernor.Priority.BACKGROUND,
+                ProviderResilience.CallClass.REVIEW, tokens);
+        return withFailover(aiName, model, admission,
+                target -> requestReview(files, target.ai(), target.model(), aspects, onToken));
+    }
+
+    private Mono<ReviewResult> requestReview(List<FileData> files, String aiName, String model, List<String> aspects,
+                                             Consumer<String> onToken) {
+        AiProperties.Provider provider = selectProvider(aiName);
+        // Two racing streams would interleave their text in the UI, so hedged reviews are not streamed.
+        boolean stream = onToken != null && properties.getReview().isStreaming() && !properties.getHedging().isEnabled();
+        String apiUrl = provider.getApiUrl();
+        HttpHeaders headers = new HttpHeaders();
+        ObjectNode body = objectMapper.createObjectNode();
+
+        if (isGemini(aiName)) {
+            apiUrl = geminiUrl(provider, stream);
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            ArrayNode contents = buildGeminiContents(files, aspects);
+            body.set("contents", contents);
+            body.set("generationConfig", objectMapper.createObjectNode()
+                    .put("temperature", 0.7)
+                    .put("maxOutputTokens", REVIEW_MAX_OUTPUT_TOKENS));
+        } else {
+            headers.setBearerAuth(provider.getApiKey());
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            body.put("model", model);
+            ArrayNode messages = objectMapper.createArrayNode();
 
-                String dynamicPrompt = buildSystemPrompt(aspects);
+            String dynamicPrompt = buildSystemPrompt(aspects);
+            messages.add(
+                    objectMapper.createObjectNode()
+                            .put("role", "system")
+                            .put(CONTENT_KEY, dynamicPrompt)
+            );
+
+            for (FileData file : files) {
                 messages.add(
                         objectMapper.createObjectNode()
-                                .put("role", "system")
-                                .put(CONTENT_KEY, dynamicPrompt)
+                                .put("role", "user")
+                                .put(CONTENT_KEY, fileMessage(file))
                 );
-
-                for (FileData file : files) {
-                    if (file.getContent() == null || file.getPath() == null) {
-                        log.warn("Invalid file data: {}", file);
-                        continue;
-                    }
-                    messages.add(
-                            objectMapper.createObjectNode()
-                                    .put("role", "user")
-                                    .put(CONTENT_KEY, "File: " + file.getPath() + "\n```java\n" + file.getContent() + "\n```")
-                    );
-                }
-                body.set("messages", messages);
-                body.put("max_tokens", 4096);
             }
+            body.set("messages", messages);
+            body.put("max_tokens", REVIEW_MAX_OUTPUT_TOKENS);
+            if (stream) {
+                body.put("stream", true);
+            }
+        }
+
+        if (stream) {
+            return streamCompletion(apiUrl, headers, body, aiName, onToken).map(this::parseContent);
+        }
+        return post(apiUrl, headers, body, aiName).map(response -> parseResponse(response, aiName));
+    }
 
-            HttpEntity<String> request = new HttpEntity<>(body.toString(), headers);
-            String response = restTemplate.exchange(apiUrl, HttpMethod.POST, request, String.class).getBody();
-            return parseResponse(response, aiName);
+    /**
+     * Posts the request and reads the answer as server-sent events, passing every text delta
+     * to {@code onToken}, and emits the complete generated text once the stream ends.
+     */
+    private Mono<String> streamCompletion(String apiUrl, HttpHeaders headers, ObjectNode body, String aiName,
+                                          Consumer<String> onToken) {
+        return streamDeltas(apiUrl, headers, body, aiName)
+                .doOnNext(onToken)
+                .collect(StringBuilder::new, StringBuilder::append)
+                .map(StringBuilder::toString);
+    }
+
+    /**
+     * Posts a streaming request and emits the text deltas of the server-sent events.
+     */
+    private Flux<String> streamDeltas(String apiUrl, HttpHeaders headers, ObjectNode body, String aiName) {
+        return webClient.post()
+                .uri(URI.create(apiUrl))
+                .headers(h -> h.addAll(headers))
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .bodyValue(body.toString())
+                .retrieve()
+                .bodyToFlux(SSE_TYPE)
+                .map(ServerSentEvent::data)
+                .filter(Objects::nonNull)
+                .takeWhile(data -> !STREAM_DONE.equals(data.trim()))
+                .mapNotNull(data -> extractDelta(data, aiName));
+    }
+
+    /**
+     * Returns the text carried by one streamed chunk, or null for chunks without text
+     * (role announcements, finish reasons, usage reports).
+     */
+    private String extractDelta(String data, String aiName) {
+        try {
+            JsonNode chunk = objectMapper.readTree(data);
+            JsonNode text = isGemini(aiName)
+                    ? chunk.path("candidates").path(0).path(CONTENT_KEY).path(PARTS_KEY).path(0).path("text")
+                    : chunk.path("choices").path(0).path("delta").path(CONTENT_KEY);
+            return text.isTextual() && !text.asText().isEmpty() ? text.asText() : null;
         } catch (Exception e) {
-            log.error("Error during {} review: {}", aiName, e.getMessage(), e);
-            result.setGeneralFeedback("Error during " + aiName + " review: " + e.getMessage());
-            return result;
+            throw new CodeReviewServiceException("Failed to parse streamed response from " + aiName, e);
         }
     }
 
@@ -278,6 +756,8 @@ public class CodeReviewService {
                         ]
                         ```
                         Ensure line numbers are accurate based on the provided file content.
+                        For files given as a diff, use the new-file line number shown at the start of each line,
+                        and only comment on added or unchanged lines, never on removed (-) ones.
                         If no inline comments are needed for a file, return an empty array.
                         """
         );
@@ -285,15 +765,30 @@ public class CodeReviewService {
     }
 
     private ReviewResult parseResponse(String response, String aiName) {
-        ReviewResult result = new ReviewResult();
-        List<InlineComment> inlineComments = new ArrayList<>();
-
+        String content;
         try {
             ObjectNode responseNode = objectMapper.readValue(response, ObjectNode.class);
-            String content = isGemini(aiName)
+            content = isGemini(aiName)
                     ? responseNode.path("candidates").get(0).path(CONTENT_KEY).path(PARTS_KEY).get(0).path("text").asText()
                     : responseNode.path("choices").get(0).path("message").path(CONTENT_KEY).asText();
+        } catch (Exception e) {
+            log.error("Error parsing AI response: {}", e.getMessage(), e);
+            ReviewResult result = new ReviewResult();
+            result.setInlineComments(new ArrayList<>());
+            result.setGeneralFeedback("Error parsing AI response: " + e.getMessage());
+            return result;
+        }
+        return parseContent(content);
+    }
 
+    /**
+     * Splits the generated text into general feedback and the JSON block of inline comments.
+     */
+    private ReviewResult parseContent(String content) {
+        ReviewResult result = new ReviewResult();
+        List<InlineComment> inlineComments = new ArrayList<>();
+
+        try {
             String[] sections = content.split("### Inline Comments");
             String generalFeedback = sections[0].trim();
             result.setGeneralFeedback(generalFeedback);
@@ -320,6 +815,13 @@ public class CodeReviewService {
         return result;
     }
 
+    private String fileMessage(FileData file) {
+        if (file.isDiff()) {
+            return "File: " + file.getPath() + " (changed hunks only)\n```diff\n" + file.getContent() + "\n```";
+        }
+        return "File: " + file.getPath() + "\n```java\n" + file.getContent() + "\n```";
+    }
+
     /**
      * Builds Gemini-style contents with dynamic prompt for code review.
      */
@@ -344,7 +846,7 @@ public class CodeReviewService {
                             .set(PARTS_KEY,
                                     objectMapper.createArrayNode()
                                             .add(objectMapper.createObjectNode()
-                                                    .put("text", "File: " + file.getPath() + "\n```java\n" + file.getContent() + "\n```")))
+                                                    .put("text", fileMessage(file))))
             );
         }
         return contents;
@@ -363,6 +865,15 @@ public class CodeReviewService {
         };
     }
 
+    /**
+     * Gemini takes the API key as a query parameter and has a separate method for streamed (SSE) output.
+     */
+    private String geminiUrl(AiProperties.Provider provider, boolean stream) {
+        return stream
+                ? provider.getApiUrl().replace(":generateContent", ":streamGenerateContent") + "?alt=sse&key=" + provider.getApiKey()
+                : provider.getApiUrl() + "?key=" + provider.getApiKey();
+    }
+
     private boolean isGemini(String aiName) {
         return "gemini".equalsIgnoreCase(aiName);
     }
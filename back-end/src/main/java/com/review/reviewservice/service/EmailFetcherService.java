@@ -2,6 +2,7 @@ package com.review.reviewservice.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -22,8 +23,9 @@ public class EmailFetcherService {
     private static final String EMAILS_URL = "https://api.bitbucket.org/2.0/user/emails";
     private final RestTemplate restTemplate;
 
-    public EmailFetcherService() {
-        this.restTemplate = new RestTemplate();
+    @Autowired
+    public EmailFetcherService(RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
     }
 
     public String fetchPrimaryEmail(String accessToken) {
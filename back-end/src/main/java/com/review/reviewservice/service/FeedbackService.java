@@ -1,6 +1,7 @@
 package com.review.reviewservice.service;
 
 import com.review.reviewservice.dto.FeedbackDto;
+import com.review.reviewservice.dto.ReviewBasis;
 import com.review.reviewservice.model.entity.Feedback;
 import com.review.reviewservice.model.entity.User;
 import com.review.reviewservice.model.repository.FeedbackRepository;
@@ -15,11 +16,14 @@ import java.util.Optional;
 public class FeedbackService {
     private final FeedbackRepository feedbackRepository;
     private final UserRepository userRepository;
+    private final WebhookIdentityCache webhookIdentityCache;
 
     @Autowired
-    public FeedbackService(FeedbackRepository feedbackRepository, UserRepository userRepository) {
+    public FeedbackService(FeedbackRepository feedbackRepository, UserRepository userRepository,
+                           WebhookIdentityCache webhookIdentityCache) {
         this.feedbackRepository = feedbackRepository;
         this.userRepository = userRepository;
+        this.webhookIdentityCache = webhookIdentityCache;
     }
 
     public List<FeedbackDto> getAllFeedbacks() {
@@ -37,9 +41,12 @@ public class FeedbackService {
         }
     }
 
-    public FeedbackDto save(Long prId, String uuid, String comment, String model, String repoFullName, int rate) {
-        User user = userRepository.findByBitbucketUuid(uuid)
+    public FeedbackDto save(Long prId, String uuid, String comment, String model, String repoFullName, int rate,
+                            ReviewBasis basis) {
+        WebhookIdentityCache.UserSnapshot author = webhookIdentityCache.user(uuid)
                 .orElseThrow(() -> new IllegalArgumentException("User not found: " + uuid));
+        // Only the id is needed for the foreign key; a reference avoids loading the user again
+        User user = userRepository.getReferenceById(author.id());
 
         Feedback f = new Feedback();
         f.setPrId(prId);
@@ -48,7 +55,18 @@ public class FeedbackService {
         f.setRepoFullName(repoFullName);
         f.setUser(user);
         f.setRate(rate);
-        return toDto(feedbackRepository.save(f));
+        f.setSourceCommit(basis.sourceCommit());
+        f.setAiFeedback(basis.aiFeedback());
+        f.setReviewedFiles(basis.files());
+        f.setReviewAspects(basis.aspects());
+        return toDto(feedbackRepository.save(f), author.id(), author.username());
+    }
+
+    /**
+     * Latest feedback of a pull request that records the source commit it was produced for.
+     */
+    public Optional<Feedback> findLastReviewed(String repoFullName, long prId) {
+        return feedbackRepository.findFirstByRepoFullNameAndPrIdAndSourceCommitIsNotNullOrderByCreatedAtDesc(repoFullName, prId);
     }
 
 
@@ -65,6 +83,10 @@ public class FeedbackService {
     }
 
     private FeedbackDto toDto(Feedback f) {
+        return toDto(f, f.getUser().getId(), f.getUser().getUsername());
+    }
+
+    private FeedbackDto toDto(Feedback f, long userId, String username) {
         return new FeedbackDto(
                 f.getId(),
                 f.getRepoFullName(),
@@ -72,8 +94,8 @@ public class FeedbackService {
                 f.getComment(),
                 f.getModel(),
                 f.getCreatedAt(),
-                f.getUser().getId(),
-                f.getUser().getUsername(),
+                userId,
+                username,
                 f.getRate()
         );
     }
@@ -0,0 +1,286 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.FileContentCacheProperties;
+import com.review.reviewservice.util.HashUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Cache of PR file contents keyed by repository, commit hash and path, so an entry can never go stale.
+ * After a re-push, files the push did not touch are looked up under the commit the PR had before
+ * (see {@link #recordHead}), so they are not downloaded again for the new commit.
+ * A bounded in-heap LRU tier sits in front of an optional memory-mapped on-disk tier.
+ */
+@Slf4j
+@Component
+public class FileContentCache {
+
+    private final FileContentCacheProperties properties;
+    private final LinkedHashMap<String, String> heap = new LinkedHashMap<>(256, 0.75f, true);
+    private long heapBytes;
+    private final Path diskDirectory;
+    private final AtomicLong diskBytes = new AtomicLong();
+    /** Last fetched head commit per pull request, most recently used last. */
+    private final LinkedHashMap<String, String> heads = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final AtomicLong heapHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong carriedOver = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private static final int MAX_PULL_REQUESTS = 10_000;
+    private static final String TEMP_PREFIX = "part-";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public FileContentCache(FileContentCacheProperties properties) {
+        this.properties = properties;
+        this.diskDirectory = properties.isDiskEnabled() ? initDiskDirectory(Path.of(properties.getDiskDirectory())) : null;
+    }
+
+    /**
+     * Returns the cached content for the given content-addressed key, if present in either tier.
+     */
+    public Optional<String> get(String key) {
+        return get(key, null);
+    }
+
+    /**
+     * Same as {@link #get(String)}, falling back to {@code previousKey}, the key of the same content
+     * under an earlier commit. A hit there is stored under {@code key} too.
+     */
+    public Optional<String> get(String key, String previousKey) {
+        if (!properties.isEnabled()) {
+            return Optional.empty();
+        }
+        Optional<String> content = lookup(key);
+        if (content.isEmpty() && previousKey != null) {
+            content = lookup(previousKey);
+            content.ifPresent(previous -> {
+                carriedOver.incrementAndGet();
+                put(key, previous);
+            });
+        }
+        if (content.isEmpty()) {
+            misses.incrementAndGet();
+        }
+        return content;
+    }
+
+    /**
+     * Records {@code commit} as the head of a pull request and returns the head recorded before,
+     * if it was a different commit.
+     */
+    public Optional<String> recordHead(String pullRequest, String commit) {
+        if (!properties.isEnabled()) {
+            return Optional.empty();
+        }
+        synchronized (heads) {
+            String previous = heads.put(pullRequest, commit);
+            if (heads.size() > MAX_PULL_REQUESTS) {
+                heads.pollFirstEntry();
+            }
+            return previous == null || previous.equals(commit) ? Optional.empty() : Optional.of(previous);
+        }
+    }
+
+    private Optional<String> lookup(String key) {
+        synchronized (heap) {
+            String content = heap.get(key);
+            if (content != null) {
+                heapHits.incrementAndGet();
+                return Optional.of(content);
+            }
+        }
+        if (diskDirectory != null) {
+            Optional<String> content = readFromDisk(key);
+            if (content.isPresent()) {
+                diskHits.incrementAndGet();
+                putInHeap(key, content.get());
+                return content;
+            }
+        }
+        return Optional.empty();
+    }
+
+    public void put(String key, String content) {
+        if (!properties.isEnabled() || content == null) {
+            return;
+        }
+        putInHeap(key, content);
+        if (diskDirectory != null) {
+            writeToDisk(key, content);
+        }
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("heapHits", heapHits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("carriedOver", carriedOver.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        synchronized (heap) {
+            stats.put("heapEntries", (long) heap.size());
+            stats.put("heapBytes", heapBytes);
+        }
+        stats.put("diskBytes", diskBytes.get());
+        return stats;
+    }
+
+    private void putInHeap(String key, String content) {
+        long size = sizeOf(content);
+        if (size > properties.getHeapMaxSize().toBytes()) {
+            return;
+        }
+        synchronized (heap) {
+            String previous = heap.put(key, content);
+            if (previous != null) {
+                heapBytes -= sizeOf(previous);
+            }
+            heapBytes += size;
+            Iterator<Map.Entry<String, String>> eldest = heap.entrySet().iterator();
+            while ((heap.size() > properties.getHeapMaxEntries() || heapBytes > properties.getHeapMaxSize().toBytes())
+                    && eldest.hasNext()) {
+                heapBytes -= sizeOf(eldest.next().getValue());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private Optional<String> readFromDisk(String key) {
+        Path file = diskDirectory.resolve(fileName(key));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return Optional.of(StandardCharsets.UTF_8.decode(buffer).toString());
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            log.warn("Could not read cached file {}: {}", file, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the content to a temporary file and links it into place. Linking fails if another thread
+     * stored the same key meanwhile, so every file is counted in {@link #diskBytes} exactly once.
+     */
+    private void writeToDisk(String key, String content) {
+        Path file = diskDirectory.resolve(fileName(key));
+        if (Files.exists(file)) {
+            return;
+        }
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(diskDirectory, TEMP_PREFIX, TEMP_SUFFIX);
+            Files.write(tmp, bytes);
+            Files.createLink(file, tmp);
+            if (diskBytes.addAndGet(bytes.length) > properties.getDiskMaxSize().toBytes()) {
+                trimDisk();
+            }
+        } catch (FileAlreadyExistsException e) {
+            // Stored by another thread
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("Could not write cached file {}: {}", file, e.getMessage());
+        } finally {
+            deleteQuietly(tmp);
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static boolean isTemporary(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(TEMP_PREFIX) && name.endsWith(TEMP_SUFFIX);
+    }
+
+    /**
+     * Removes the least recently written files until the disk tier is back under 90% of its limit.
+     * Files still being written are left alone.
+     */
+    private synchronized void trimDisk() {
+        long target = properties.getDiskMaxSize().toBytes() * 9 / 10;
+        try (Stream<Path> files = Files.list(diskDirectory)) {
+            List<Path> oldestFirst = files
+                    .filter(file -> !isTemporary(file))
+                    .sorted(Comparator.comparing(this::lastModified))
+                    .toList();
+            for (Path file : oldestFirst) {
+                if (diskBytes.get() <= target) {
+                    break;
+                }
+                long size = Files.size(file);
+                if (Files.deleteIfExists(file)) {
+                    diskBytes.addAndGet(-size);
+                    evictions.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not trim file cache directory {}: {}", diskDirectory, e.getMessage());
+        }
+    }
+
+    private Path initDiskDirectory(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            // Left over from writes interrupted by a previous shutdown
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(FileContentCache::isTemporary).forEach(this::deleteQuietly);
+            }
+            try (Stream<Path> files = Files.list(directory)) {
+                diskBytes.set(files.mapToLong(this::sizeOrZero).sum());
+            }
+            log.info("File content cache on disk at {} ({} bytes)", directory, diskBytes.get());
+            return directory;
+        } catch (IOException e) {
+            log.warn("File content disk cache disabled, cannot use {}: {}", directory, e.getMessage());
+            return null;
+        }
+    }
+
+    private long sizeOrZero(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long sizeOf(String content) {
+        // Latin-1 strings take one byte per char, others two; assume the worst case.
+        return 2L * content.length();
+    }
+
+    private static String fileName(String key) {
+        return HashUtil.sha256Hex(key);
+    }
+}
@@ -0,0 +1,162 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewCommentProperties;
+import com.review.reviewservice.dto.BitbucketWebhookPayload;
+import com.review.reviewservice.dto.InlineComment;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Posts the inline comments of a review: duplicates and comments outside the diff are dropped,
+ * the rest are posted concurrently, and beyond the per-PR cap they are collected for the general comment.
+ * A deferred session only screens the comments and leaves the posting to the review outbox.
+ */
+@Slf4j
+@Component
+public class InlineCommentPoster {
+
+    /** The "- (AI Name)." signature the prompt asks for at the end of every comment. */
+    private static final Pattern SIGNATURE = Pattern.compile("\\s*-?\\s*\\([^)]*\\)\\.?\\s*$");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final BitbucketService bitbucketService;
+    private final ReviewCommentProperties properties;
+
+    @Autowired
+    public InlineCommentPoster(BitbucketService bitbucketService, ReviewCommentProperties properties) {
+        this.bitbucketService = bitbucketService;
+        this.properties = properties;
+    }
+
+    /**
+     * Outcome of a session; {@code deferred} holds the screened comments left for the caller to deliver.
+     */
+    public record Summary(int posted, int failed, int duplicates, int outsideDiff, List<InlineComment> overflow,
+                          List<InlineComment> deferred) {}
+
+    /**
+     * Starts posting for one PR. The diff is fetched once, here, to know which lines can carry a comment.
+     */
+    public Session open(BitbucketWebhookPayload payload) {
+        return open(payload, false, () -> {});
+    }
+
+    /**
+     * Same as {@link #open(BitbucketWebhookPayload)}; with {@code deferred} the accepted comments are
+     * collected in the summary instead of being posted. Otherwise {@code beforePost} runs before each
+     * post and may throw to stop the session from posting.
+     */
+    public Session open(BitbucketWebhookPayload payload, boolean deferred, Runnable beforePost) {
+        Optional<Map<String, Set<Integer>>> diffLines = properties.isDropOutsideDiff()
+                ? bitbucketService.getDiffLines(payload)
+                : Optional.empty();
+        return new Session(payload, diffLines.orElse(null), deferred, beforePost);
+    }
+
+    /**
+     * The comments of one review. {@link #add} may be called from several threads;
+     * {@link #finish} waits for the posts still in flight.
+     */
+    public final class Session {
+        private final BitbucketWebhookPayload payload;
+        private final Map<String, Set<Integer>> diffLines;
+        private final boolean deferred;
+        private final Runnable beforePost;
+        private final Set<String> seen = new HashSet<>();
+        private final List<InlineComment> overflow = new ArrayList<>();
+        private final List<InlineComment> accepted = new ArrayList<>();
+        private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        private final Semaphore slots = new Semaphore(Math.max(1, properties.getPostConcurrency()));
+        private final AtomicInteger posted = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private int duplicates;
+        private int outsideDiff;
+
+        private Session(BitbucketWebhookPayload payload, Map<String, Set<Integer>> diffLines, boolean deferred,
+                        Runnable beforePost) {
+            this.payload = payload;
+            this.diffLines = diffLines;
+            this.deferred = deferred;
+            this.beforePost = beforePost;
+        }
+
+        public void addAll(List<InlineComment> comments) throws InterruptedException {
+            for (InlineComment comment : comments) {
+                add(comment);
+            }
+        }
+
+        /**
+         * Posts the comment unless it is a duplicate, outside the diff or over the cap.
+         * Blocks while {@code postConcurrency} posts are in flight.
+         */
+        public void add(InlineComment comment) throws InterruptedException {
+            if (!admit(comment) || deferred) {
+                return;
+            }
+            beforePost.run();
+            slots.acquire();
+            executor.submit(() -> {
+                try {
+                    if (bitbucketService.postInlineCommentToPullRequest(payload, comment)) {
+                        posted.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                } finally {
+                    slots.release();
+                }
+            });
+        }
+
+        public Summary finish() {
+            executor.close();
+            synchronized (this) {
+                Summary summary = new Summary(posted.get(), failed.get(), duplicates, outsideDiff, List.copyOf(overflow),
+                        deferred ? List.copyOf(accepted) : List.of());
+                if (summary.duplicates() + summary.outsideDiff() + summary.overflow().size() + summary.failed() > 0) {
+                    log.info("Inline comments of PR {}: {} posted, {} failed, {} duplicates, {} outside the diff, {} over the cap",
+                            payload.getPullRequest().getId(), summary.posted(), summary.failed(), summary.duplicates(),
+                            summary.outsideDiff(), summary.overflow().size());
+                }
+                return summary;
+            }
+        }
+
+        private synchronized boolean admit(InlineComment comment) {
+            if (comment.getPath() == null || comment.getComment() == null || comment.getComment().isBlank()) {
+                return false;
+            }
+            if (!seen.add(comment.getPath() + ':' + comment.getLineNumber() + ':' + normalize(comment.getComment()))) {
+                duplicates++;
+                return false;
+            }
+            if (diffLines != null && !diffLines.getOrDefault(comment.getPath(), Set.of()).contains(comment.getLineNumber())) {
+                outsideDiff++;
+                return false;
+            }
+            if (accepted.size() >= properties.getMaxPerPr()) {
+                overflow.add(comment);
+                return false;
+            }
+            accepted.add(comment);
+            return true;
+        }
+    }
+
+    /**
+     * Case, punctuation, whitespace and the trailing AI signature do not make two comments different.
+     */
+    static String normalize(String text) {
+        String withoutSignature = SIGNATURE.matcher(text).replaceFirst("");
+        return NON_WORD.matcher(withoutSignature.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+}
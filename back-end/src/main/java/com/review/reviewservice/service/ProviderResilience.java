@@ -0,0 +1,381 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.AiProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-provider health of the AI backends: a sliding window of recent call outcomes, one of recent
+ * latencies per call class, an adaptive timeout derived from the latency percentiles, and a circuit
+ * breaker that opens when too many recent calls failed or were slow. Also resolves the failover chain of a model.
+ */
+@Slf4j
+@Component
+public class ProviderResilience {
+
+    public record Target(String ai, String model) {}
+
+    /**
+     * Leave for one call, handed out by {@link #tryAcquire}; its outcome is reported with it.
+     * {@code probe} is non-zero for the single trial call of a half-open circuit, the only call that may close it.
+     */
+    public record Ticket(String ai, long probe) {}
+
+    /**
+     * Kind of call, each with its own latency window: a review of a large batch routinely takes
+     * far longer than a chat reply, so neither may set the timeout of the other.
+     */
+    public enum CallClass { CHAT, REVIEW }
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final AiProperties.Resilience properties;
+    private final Map<String, ProviderState> providers = new ConcurrentHashMap<>();
+    private final AtomicLong hedgeableCalls = new AtomicLong();
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    @Autowired
+    public ProviderResilience(AiProperties aiProperties) {
+        this.properties = aiProperties.getResilience();
+    }
+
+    /**
+     * The requested AI and model first, followed by the configured equivalents on other providers.
+     */
+    public List<Target> targets(String ai, String model) {
+        List<Target> targets = new ArrayList<>();
+        targets.add(new Target(ai, model));
+        String aiKey = ai == null ? "" : ai.toLowerCase();
+        List<String> alternatives = properties.getFailover().get(aiKey + ":" + (model == null ? "" : model.toLowerCase()));
+        if (alternatives == null) {
+            alternatives = properties.getFailover().getOrDefault(aiKey, List.of());
+        }
+        for (String alternative : alternatives) {
+            int separator = alternative.indexOf(':');
+            if (separator <= 0 || separator == alternative.length() - 1) {
+                log.warn("Ignoring failover target '{}', expected ai:model", alternative);
+                continue;
+            }
+            Target target = new Target(alternative.substring(0, separator).trim(), alternative.substring(separator + 1).trim());
+            if (!targets.contains(target)) {
+                targets.add(target);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Admits a call to the provider, or returns empty while the circuit is open. Once the open period
+     * is over, a single probe is let through.
+     */
+    public Optional<Ticket> tryAcquire(String ai) {
+        ProviderState state = state(ai);
+        synchronized (state) {
+            switch (state.state) {
+                case CLOSED:
+                    return Optional.of(new Ticket(ai, 0));
+                case OPEN:
+                    if (System.currentTimeMillis() - state.openedAt < properties.getOpenDuration().toMillis()) {
+                        state.rejected++;
+                        return Optional.empty();
+                    }
+                    state.state = State.HALF_OPEN;
+                    state.probe = ++state.probes;
+                    return Optional.of(new Ticket(ai, state.probe));
+                default:
+                    if (state.probe != 0) {
+                        state.rejected++;
+                        return Optional.empty();
+                    }
+                    state.probe = ++state.probes;
+                    return Optional.of(new Ticket(ai, state.probe));
+            }
+        }
+    }
+
+    /**
+     * The given percentile of recent successful latencies times the configured factor, within bounds;
+     * the default timeout until enough calls have been seen.
+     */
+    public Duration timeout(String ai, CallClass callClass) {
+        ProviderState state = state(ai);
+        long millis;
+        synchronized (state) {
+            Latencies latencies = state.latencies.get(callClass);
+            if (latencies.count < properties.getMinCalls()) {
+                return properties.getDefaultTimeout();
+            }
+            millis = (long) (latencies.percentile(properties.getTimeoutPercentile()) * properties.getTimeoutMultiplier());
+        }
+        return Duration.ofMillis(Math.clamp(millis,
+                properties.getMinTimeout().toMillis(), properties.getMaxTimeout().toMillis()));
+    }
+
+    /**
+     * The given percentile of recent successful latencies, or empty until enough calls have been seen.
+     */
+    public Optional<Duration> latencyPercentile(String ai, CallClass callClass, double percentile) {
+        ProviderState state = state(ai);
+        synchronized (state) {
+            Latencies latencies = state.latencies.get(callClass);
+            return latencies.count < properties.getMinCalls()
+                    ? Optional.empty()
+                    : Optional.of(Duration.ofMillis(latencies.percentile(percentile)));
+        }
+    }
+
+    /**
+     * A successful call; it counts as slow when well above the median of its own call class.
+     * Calls admitted before the circuit opened only contribute their latency.
+     */
+    public void onSuccess(Ticket ticket, CallClass callClass, long elapsedNanos) {
+        long millis = elapsedNanos / 1_000_000;
+        ProviderState state = state(ticket.ai());
+        synchronized (state) {
+            Latencies latencies = state.latencies.get(callClass);
+            boolean slow = latencies.count >= properties.getMinCalls()
+                    && millis > latencies.percentile(0.5) * properties.getSlowCallMultiplier();
+            latencies.add(millis);
+            state.calls++;
+            record(ticket, state, false, slow);
+        }
+    }
+
+    /**
+     * A failed call. Only server errors, rate limiting, timeouts and calls that got no answer at all say
+     * something about the provider's health; any other client error is the request's fault and counts
+     * as an answer.
+     */
+    public void onFailure(Ticket ticket, Throwable error) {
+        boolean providerFailure = isProviderFailure(error);
+        ProviderState state = state(ticket.ai());
+        synchronized (state) {
+            state.calls++;
+            if (providerFailure) {
+                state.failures++;
+            }
+            record(ticket, state, providerFailure, false);
+        }
+    }
+
+    /**
+     * A call that was abandoned by its caller: no outcome is recorded, but its probe slot is released.
+     */
+    public void onCancel(Ticket ticket) {
+        ProviderState state = state(ticket.ai());
+        synchronized (state) {
+            if (state.state == State.HALF_OPEN && ticket.probe() == state.probe) {
+                state.probe = 0;
+            }
+        }
+    }
+
+    static boolean isProviderFailure(Throwable error) {
+        if (error instanceof WebClientResponseException response) {
+            int status = response.getStatusCode().value();
+            return status >= 500 || status == HttpStatus.TOO_MANY_REQUESTS.value();
+        }
+        return true;
+    }
+
+    /**
+     * Counts a call made in hedging mode: whether the duplicate was sent and whether it answered first.
+     */
+    public void recordHedging(boolean hedgeSent, boolean hedgeWon) {
+        hedgeableCalls.incrementAndGet();
+        if (hedgeSent) {
+            hedgesSent.incrementAndGet();
+        }
+        if (hedgeWon) {
+            hedgeWins.incrementAndGet();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> providerStats = new TreeMap<>();
+        providers.forEach((ai, state) -> {
+            Map<String, Object> provider = new LinkedHashMap<>();
+            synchronized (state) {
+                provider.put("state", state.state.name());
+                provider.put("calls", state.calls);
+                provider.put("failures", state.failures);
+                provider.put("rejected", state.rejected);
+                provider.put("circuitOpened", state.timesOpened);
+                for (CallClass callClass : CallClass.values()) {
+                    Latencies latencies = state.latencies.get(callClass);
+                    Map<String, Object> latency = new LinkedHashMap<>();
+                    if (latencies.count > 0) {
+                        latency.put("p50Ms", latencies.percentile(0.5));
+                        latency.put("p99Ms", latencies.percentile(0.99));
+                    }
+                    latency.put("timeoutMs", timeout(ai, callClass).toMillis());
+                    provider.put(callClass.name().toLowerCase(), latency);
+                }
+            }
+            providerStats.put(ai, provider);
+        });
+
+        Map<String, Object> hedging = new LinkedHashMap<>();
+        long calls = hedgeableCalls.get();
+        long sent = hedgesSent.get();
+        long wins = hedgeWins.get();
+        hedging.put("calls", calls);
+        hedging.put("hedgesSent", sent);
+        hedging.put("hedgeWins", wins);
+        hedging.put("hedgeRate", calls == 0 ? 0.0 : (double) sent / calls);
+        hedging.put("winRate", sent == 0 ? 0.0 : (double) wins / sent);
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("providers", providerStats);
+        stats.put("hedging", hedging);
+        return stats;
+    }
+
+    /**
+     * Applies a call outcome: the probe decides a half-open circuit, other calls only count while it is closed.
+     */
+    private void record(Ticket ticket, ProviderState state, boolean failed, boolean slow) {
+        switch (state.state) {
+            case CLOSED:
+                state.addOutcome(failed, slow);
+                evaluate(ticket.ai(), state);
+                break;
+            case HALF_OPEN:
+                if (ticket.probe() != state.probe) {
+                    break;
+                }
+                if (failed) {
+                    open(ticket.ai(), state, "probe call failed");
+                } else {
+                    close(ticket.ai(), state);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void evaluate(String ai, ProviderState state) {
+        if (state.outcomeCount < properties.getMinCalls()) {
+            return;
+        }
+        double failureRate = (double) state.failedCount() / state.outcomeCount;
+        double slowRate = (double) state.slowCount() / state.outcomeCount;
+        if (failureRate >= properties.getFailureRateThreshold()) {
+            open(ai, state, String.format("failure rate %.0f%%", failureRate * 100));
+        } else if (slowRate >= properties.getSlowCallRateThreshold()) {
+            open(ai, state, String.format("slow call rate %.0f%%", slowRate * 100));
+        }
+    }
+
+    private void open(String ai, ProviderState state, String reason) {
+        state.state = State.OPEN;
+        state.openedAt = System.currentTimeMillis();
+        state.probe = 0;
+        state.timesOpened++;
+        log.warn("Circuit for AI provider {} opened: {}", ai, reason);
+    }
+
+    private void close(String ai, ProviderState state) {
+        state.state = State.CLOSED;
+        state.probe = 0;
+        state.resetOutcomes();
+        log.info("Circuit for AI provider {} closed", ai);
+    }
+
+    private ProviderState state(String ai) {
+        return providers.computeIfAbsent(ai == null ? "" : ai.toLowerCase(),
+                k -> new ProviderState(Math.max(1, properties.getWindowSize())));
+    }
+
+    private static final class ProviderState {
+        private final Map<CallClass, Latencies> latencies = new EnumMap<>(CallClass.class);
+        private final boolean[] failed;
+        private final boolean[] slow;
+        private int outcomeCount;
+        private int outcomeNext;
+
+        private State state = State.CLOSED;
+        private long openedAt;
+        /** Id of the probe in flight, 0 when there is none. */
+        private long probe;
+        private long probes;
+
+        private long calls;
+        private long failures;
+        private long rejected;
+        private long timesOpened;
+
+        private ProviderState(int windowSize) {
+            for (CallClass callClass : CallClass.values()) {
+                latencies.put(callClass, new Latencies(windowSize));
+            }
+            this.failed = new boolean[windowSize];
+            this.slow = new boolean[windowSize];
+        }
+
+        private void addOutcome(boolean isFailure, boolean isSlow) {
+            failed[outcomeNext] = isFailure;
+            slow[outcomeNext] = isSlow;
+            outcomeNext = (outcomeNext + 1) % failed.length;
+            outcomeCount = Math.min(outcomeCount + 1, failed.length);
+        }
+
+        private void resetOutcomes() {
+            Arrays.fill(failed, false);
+            Arrays.fill(slow, false);
+            outcomeCount = 0;
+            outcomeNext = 0;
+        }
+
+        private int failedCount() {
+            int count = 0;
+            for (int i = 0; i < outcomeCount; i++) {
+                if (failed[i]) count++;
+            }
+            return count;
+        }
+
+        private int slowCount() {
+            int count = 0;
+            for (int i = 0; i < outcomeCount; i++) {
+                if (slow[i]) count++;
+            }
+            return count;
+        }
+
+    }
+
+    /** Ring of recent successful latencies of one call class; guarded by its provider's lock. */
+    private static final class Latencies {
+        private final long[] millis;
+        private int count;
+        private int next;
+
+        private Latencies(int windowSize) {
+            this.millis = new long[windowSize];
+        }
+
+        private void add(long value) {
+            millis[next] = value;
+            next = (next + 1) % millis.length;
+            count = Math.min(count + 1, millis.length);
+        }
+
+        private long percentile(double percentile) {
+            long[] sorted = Arrays.copyOf(millis, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.clamp(index, 0, sorted.length - 1)];
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.review.reviewservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.review.reviewservice.config.ReviewCacheProperties;
+import com.review.reviewservice.dto.FileData;
+import com.review.reviewservice.dto.InlineComment;
+import com.review.reviewservice.model.entity.ReviewCacheEntry;
+import com.review.reviewservice.model.repository.ReviewCacheRepository;
+import com.review.reviewservice.util.HashUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Persistent cache of AI review results per file. The key is a hash of the file content,
+ * the requested aspects, the AI and the model, so force-pushes, rebases, re-triggered webhooks
+ * and identical files on other branches are answered without calling the provider, whatever
+ * other files they are reviewed with. An entry keeps the file's inline comments and only the part
+ * of the general feedback that is about the file.
+ */
+@Slf4j
+@Service
+public class ReviewCache {
+
+    private final ReviewCacheRepository reviewCacheRepository;
+    private final ReviewCacheProperties properties;
+    private final ReviewMerger reviewMerger;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public ReviewCache(ReviewCacheRepository reviewCacheRepository, ReviewCacheProperties properties,
+                       ReviewMerger reviewMerger, ObjectMapper objectMapper) {
+        this.reviewCacheRepository = reviewCacheRepository;
+        this.properties = properties;
+        this.reviewMerger = reviewMerger;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Looks up all files at once and returns the cached result for every hit,
+     * with the inline comments re-attached to the file's current path.
+     */
+    @Transactional
+    public Map<FileData, CodeReviewService.ReviewResult> getAll(List<FileData> files, String aiName, String model,
+                                                                List<String> aspects) {
+        if (!properties.isEnabled() || files.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, List<FileData>> byKey = new HashMap<>();
+        for (FileData file : files) {
+            byKey.computeIfAbsent(key(file, aiName, model, aspects), k -> new ArrayList<>()).add(file);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        List<ReviewCacheEntry> entries = reviewCacheRepository
+                .findByCacheKeyInAndCreatedAtAfter(byKey.keySet(), now.minus(properties.getTtl()));
+        if (entries.isEmpty()) {
+            return Map.of();
+        }
+
+        Map<FileData, CodeReviewService.ReviewResult> hits = new LinkedHashMap<>();
+        for (ReviewCacheEntry entry : entries) {
+            List<InlineComment> cached = readComments(entry);
+            for (FileData file : byKey.get(entry.getCacheKey())) {
+                List<InlineComment> comments = cached.stream()
+                        .map(c -> new InlineComment(file.getPath(), c.getLineNumber(), c.getComment()))
+                        .toList();
+                CodeReviewService.ReviewResult result = new CodeReviewService.ReviewResult();
+                result.setGeneralFeedback(entry.getFeedback());
+                result.setInlineComments(new ArrayList<>(comments));
+                hits.put(file, result);
+            }
+        }
+        reviewCacheRepository.recordHits(entries.stream().map(ReviewCacheEntry::getCacheKey).toList(), now);
+        log.info("Review cache: {} of {} files served from cache", hits.size(), files.size());
+        return hits;
+    }
+
+    /**
+     * Stores the result of one review request for every file it covered. Each file keeps its own
+     * inline comments and the feedback about it; a file reviewed alone keeps the whole feedback.
+     * Entries another review stored meanwhile are left as they are.
+     */
+    @Transactional
+    public void putAll(List<FileData> files, String aiName, String model, List<String> aspects,
+                       CodeReviewService.ReviewResult result) {
+        if (!properties.isEnabled() || result.getGeneralFeedback() == null
+                || result.getGeneralFeedback().startsWith("Error")) {
+            return;
+        }
+        List<InlineComment> inlineComments = result.getInlineComments() == null ? List.of() : result.getInlineComments();
+        for (FileData file : files) {
+            List<InlineComment> comments = inlineComments.stream()
+                    .filter(c -> file.getPath().equals(c.getPath()))
+                    .toList();
+            String feedback = files.size() == 1
+                    ? result.getGeneralFeedback()
+                    : reviewMerger.feedbackAbout(result.getGeneralFeedback(), file.getPath(), aspects);
+            reviewCacheRepository.insertIfAbsent(key(file, aiName, model, aspects), aiName.toLowerCase(), model,
+                    feedback, writeComments(comments), LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Drops entries past their TTL, then the least recently hit ones above the size limit.
+     */
+    @Transactional
+    @Scheduled(fixedDelayString = "${app.cache.review.eviction-interval:3600000}")
+    public void evict() {
+        int expired = reviewCacheRepository.deleteExpired(LocalDateTime.now().minus(properties.getTtl()));
+        int overflow = reviewCacheRepository.deleteLeastRecentlyHitBeyond(properties.getMaxEntries());
+        if (expired + overflow > 0) {
+            log.info("Review cache eviction: {} expired, {} over the size limit", expired, overflow);
+        }
+    }
+
+    /**
+     * Files are keyed by their content as fetched, not as truncated to fit the request.
+     */
+    private String key(FileData file, String aiName, String model, List<String> aspects) {
+        String content = file.getOriginalContent() != null ? file.getOriginalContent() : file.getContent();
+        return HashUtil.sha256Hex(content, String.join(",", aspects), aiName.toLowerCase(), model);
+    }
+
+    private List<InlineComment> readComments(ReviewCacheEntry entry) {
+        try {
+            return objectMapper.readValue(entry.getInlineComments(), new TypeReference<List<InlineComment>>() {});
+        } catch (JsonProcessingException e) {
+            log.warn("Unreadable cached inline comments for {}: {}", entry.getCacheKey(), e.getMessage());
+            return List.of();
+        }
+    }
+
+    private String writeComments(List<InlineComment> comments) {
+        try {
+            return objectMapper.writeValueAsString(comments);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Inline comments cannot be serialized", e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewFilterProperties;
+import com.review.reviewservice.dto.DiffstatEntry;
+import com.review.reviewservice.dto.FileData;
+import com.review.reviewservice.model.entity.Team;
+import com.review.reviewservice.model.entity.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides from the diffstat alone which files of a PR are worth reviewing, so lock files, bundles,
+ * binaries, generated sources and huge changes are neither downloaded nor sent to the AI.
+ * Rules are configured per team under {@code app.review.filter}.
+ */
+@Component
+public class ReviewFileFilter {
+
+    public record SkippedFile(String path, String reason) {}
+
+    private final ReviewFilterProperties properties;
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    @Autowired
+    public ReviewFileFilter(ReviewFilterProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * A filter with the rules of the first of the user's teams (by name) that has its own,
+     * or the defaults. The user's teams must be loaded.
+     */
+    public Selection forUser(User user) {
+        if (!properties.isEnabled()) {
+            return new Selection(null);
+        }
+        ReviewFilterProperties.Rules rules = user.getTeams().stream()
+                .map(Team::getName)
+                .sorted(Comparator.naturalOrder())
+                .map(properties.getTeams()::get)
+                .filter(r -> r != null)
+                .findFirst()
+                .orElse(properties.getDefaults());
+        return new Selection(rules);
+    }
+
+    /**
+     * The filter of one review; remembers what it skipped and why. Safe to use from concurrent fetches.
+     */
+    public final class Selection {
+        private final ReviewFilterProperties.Rules rules;
+        private final List<SkippedFile> skipped = Collections.synchronizedList(new ArrayList<>());
+
+        private Selection(ReviewFilterProperties.Rules rules) {
+            this.rules = rules;
+        }
+
+        /**
+         * Whether the file of a diffstat entry should be fetched and reviewed.
+         */
+        public boolean accept(DiffstatEntry entry) {
+            if (rules == null) {
+                return true;
+            }
+            String path = entry.getNewFile() != null ? entry.getNewFile().getPath()
+                    : entry.getOld() != null ? entry.getOld().getPath() : null;
+            if (path == null) {
+                return false;
+            }
+            String reason = skipReason(entry, path);
+            if (reason != null) {
+                skipped.add(new SkippedFile(path, reason));
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Whether a fetched file is small enough to be sent to the AI.
+         */
+        public boolean accept(FileData file) {
+            if (rules == null || rules.getMaxFileSize() == null || file.getContent() == null) {
+                return true;
+            }
+            long size = file.getContent().getBytes(StandardCharsets.UTF_8).length;
+            if (size > rules.getMaxFileSize().toBytes()) {
+                skipped.add(new SkippedFile(file.getPath(),
+                        "file too large (" + size / 1024 + " KB > " + rules.getMaxFileSize().toKilobytes() + " KB)"));
+                return false;
+            }
+            return true;
+        }
+
+        public List<SkippedFile> getSkipped() {
+            synchronized (skipped) {
+                return List.copyOf(skipped);
+            }
+        }
+
+        private String skipReason(DiffstatEntry entry, String path) {
+            if ("removed".equals(entry.getStatus()) || entry.getNewFile() == null) {
+                return "file removed";
+            }
+            if (matchesAny(rules.getExclude(), path) && !matchesAny(rules.getInclude(), path)) {
+                return "excluded by pattern";
+            }
+            int changed = entry.getLinesAdded() + entry.getLinesRemoved();
+            if (changed == 0 && !"renamed".equals(entry.getStatus())) {
+                return "no text changes (binary or mode change)";
+            }
+            if (rules.getMaxChangedLines() > 0 && changed > rules.getMaxChangedLines()) {
+                return "too many changed lines (" + changed + " > " + rules.getMaxChangedLines() + ")";
+            }
+            return null;
+        }
+
+        private boolean matchesAny(List<String> patterns, String path) {
+            for (String pattern : patterns) {
+                if (pathMatcher.match(pattern, path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
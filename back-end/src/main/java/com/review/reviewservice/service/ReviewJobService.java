@@ -0,0 +1,352 @@
+package com.review.reviewservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.review.reviewservice.config.ReviewQueueProperties;
+import com.review.reviewservice.dto.BitbucketWebhookPayload;
+import com.review.reviewservice.dto.ReviewCheckpoint;
+import com.review.reviewservice.exceptions.ReviewSupersededException;
+import com.review.reviewservice.model.entity.ReviewJob;
+import com.review.reviewservice.model.entity.ReviewJobStage;
+import com.review.reviewservice.model.entity.ReviewJobStatus;
+import com.review.reviewservice.model.repository.ReviewJobRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Postgres-backed queue of PR reviews. The webhook only enqueues; {@link ReviewJobWorker}
+ * threads claim and run the jobs.
+ */
+@Slf4j
+@Service
+public class ReviewJobService {
+
+    private final ReviewJobRepository reviewJobRepository;
+    private final ReviewQueueProperties properties;
+    private final ObjectMapper objectMapper;
+    private final BitbucketService bitbucketService;
+    private final ExecutorService estimator = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore estimateSlots = new Semaphore(MAX_CONCURRENT_ESTIMATES);
+    /**
+     * Identity of this process in {@code locked_by}. Random per start: a restarted container often gets
+     * the same host name and PID, and must not be mistaken for the process it replaces.
+     */
+    private final String nodeId = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+    /** Runnable jobs looked at per claim, so that jobs of busy PRs do not starve the rest. */
+    private static final int CLAIM_CANDIDATES = 10;
+    private static final int MAX_CONCURRENT_ESTIMATES = 4;
+    private static final List<ReviewJobStatus> NEWER_JOB_STATUSES =
+            List.of(ReviewJobStatus.PENDING, ReviewJobStatus.RUNNING, ReviewJobStatus.DONE);
+
+    @Autowired
+    public ReviewJobService(ReviewJobRepository reviewJobRepository, ReviewQueueProperties properties,
+                            ObjectMapper objectMapper, BitbucketService bitbucketService) {
+        this.reviewJobRepository = reviewJobRepository;
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.bitbucketService = bitbucketService;
+    }
+
+    /**
+     * The queued job, and whether it was already there: a redelivery of the same webhook,
+     * or another event for a PR commit that is queued, being reviewed or reviewed.
+     */
+    public record Enqueued(ReviewJob job, boolean duplicate) {}
+
+    /**
+     * Queues a review unless an equivalent job exists. The check and the insert run under the PR's
+     * advisory lock, so concurrent deliveries on different nodes cannot both queue a job.
+     */
+    @Transactional
+    public Enqueued enqueue(BitbucketWebhookPayload payload, WebhookIdentityCache.UserSnapshot user,
+                            String deliveryId) {
+        String repoFullName = payload.getRepository().getFullName();
+        long prId = payload.getPullRequest().getId();
+        String sourceCommit = sourceCommit(payload);
+        reviewJobRepository.lockPullRequest(lockKey(repoFullName, prId));
+
+        Optional<ReviewJob> existing = Optional.ofNullable(deliveryId)
+                .flatMap(reviewJobRepository::findFirstByDeliveryId)
+                .or(() -> sourceCommit == null
+                        ? Optional.empty()
+                        : reviewJobRepository.findLiveForCommit(repoFullName, prId, sourceCommit));
+        if (existing.isPresent()) {
+            log.info("Ignoring duplicate webhook for PR {} of {} at {}: job {} is {}", prId, repoFullName,
+                    sourceCommit, existing.get().getId(), existing.get().getStatus());
+            return new Enqueued(existing.get(), true);
+        }
+
+        // Coalesce: the newest push replaces the reviews still waiting and restarts the window
+        LocalDateTime now = LocalDateTime.now();
+        List<ReviewJob> waiting = reviewJobRepository.findByRepoFullNameAndPrIdAndStatus(
+                repoFullName, prId, ReviewJobStatus.PENDING);
+        for (ReviewJob stale : waiting) {
+            stale.setStatus(ReviewJobStatus.SUPERSEDED);
+            stale.setUpdatedAt(now);
+        }
+        reviewJobRepository.saveAll(waiting);
+        if (!waiting.isEmpty()) {
+            log.info("PR {} of {} pushed again at {}, superseded {} waiting reviews", prId, repoFullName,
+                    sourceCommit, waiting.size());
+        }
+
+        ReviewJob job = new ReviewJob();
+        job.setUserId(user.id());
+        job.setRepoFullName(repoFullName);
+        job.setPrId(prId);
+        job.setDeliveryId(deliveryId);
+        job.setSourceCommit(sourceCommit);
+        job.setPayload(writePayload(payload));
+        job.setAvailableAt(now.plus(debounceWindow(user)));
+        ReviewQueueProperties.Fairness fairness = properties.getFairness();
+        Optional<String> team = user.teams().stream().min(Comparator.naturalOrder());
+        double userWeight = fairness.getUsers().getOrDefault(user.username(), 1.0);
+        job.setTeamName(team.orElse(null));
+        job.setUserWeight(userWeight);
+        job.setTenantWeight(team.map(name -> fairness.getTeams().getOrDefault(name, 1.0)).orElse(userWeight));
+        return new Enqueued(reviewJobRepository.save(job), false);
+    }
+
+    /**
+     * Records the size of the PR in the background, so that the scheduler can run small reviews first.
+     * The diffstat call may wait on Bitbucket throttling, so it never runs on the webhook request;
+     * until it is done, or when too many estimates are already running, the job counts as of unknown size.
+     */
+    public void estimateCostAsync(long jobId, BitbucketWebhookPayload payload) {
+        if (!estimateSlots.tryAcquire()) {
+            log.debug("Skipping the cost estimate of review job {}: too many estimates running", jobId);
+            return;
+        }
+        estimator.submit(() -> {
+            try {
+                bitbucketService.getChangedLineCount(payload)
+                        .ifPresent(lines -> reviewJobRepository.updateEstimatedCost(jobId, lines));
+            } catch (Exception e) {
+                log.warn("Could not record the cost estimate of review job {}: {}", jobId, e.getMessage());
+            } finally {
+                estimateSlots.release();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdownEstimator() {
+        estimator.shutdownNow();
+    }
+
+    /**
+     * Claims the next runnable job for this node, or returns empty if the queue is drained.
+     * The row lock only lives for this short transaction; afterwards the RUNNING status and
+     * lease timestamp keep other workers away. Jobs of a PR that is already being reviewed
+     * are left for later, so reviews of the same PR never overlap anywhere in the cluster.
+     */
+    @Transactional
+    public Optional<ReviewJob> claimNext() {
+        LocalDateTime now = LocalDateTime.now();
+        ReviewQueueProperties.Fairness fairness = properties.getFairness();
+        List<ReviewJob> candidates = reviewJobRepository.findRunnableForUpdate(now,
+                now.minus(fairness.getUsageWindow()), fairness.getUnknownCost(),
+                Math.max(1, fairness.getAgingPeriod().toSeconds()), CLAIM_CANDIDATES);
+        for (ReviewJob job : candidates) {
+            // The advisory lock orders concurrent claims of the same PR; the RUNNING check after it
+            // then sees the outcome of any claim that committed first.
+            if (!reviewJobRepository.tryLockPullRequest(lockKey(job.getRepoFullName(), job.getPrId()))
+                    || reviewJobRepository.existsByRepoFullNameAndPrIdAndStatus(
+                            job.getRepoFullName(), job.getPrId(), ReviewJobStatus.RUNNING)) {
+                continue;
+            }
+            job.setStatus(ReviewJobStatus.RUNNING);
+            job.setAttempts(job.getAttempts() + 1);
+            job.setLockedBy(nodeId);
+            job.setLockedAt(now);
+            job.setStartedAt(now);
+            job.setUpdatedAt(now);
+            return Optional.of(reviewJobRepository.save(job));
+        }
+        return Optional.empty();
+    }
+
+    @Transactional
+    public void complete(ReviewJob job) {
+        job.setStatus(ReviewJobStatus.DONE);
+        job.setLastError(null);
+        job.setCheckpoint(null);
+        release(job);
+    }
+
+    /**
+     * Records a failed attempt. The job goes back to the queue after the retry backoff
+     * until the maximum number of attempts is reached.
+     */
+    @Transactional
+    public void fail(ReviewJob job, Exception e) {
+        job.setLastError(e.getMessage());
+        if (job.getAttempts() < properties.getMaxAttempts()) {
+            job.setStatus(ReviewJobStatus.PENDING);
+            job.setAvailableAt(LocalDateTime.now().plus(properties.getRetryBackoff()));
+            log.warn("Review job {} failed (attempt {}), retrying: {}", job.getId(), job.getAttempts(), e.getMessage());
+        } else {
+            job.setStatus(ReviewJobStatus.FAILED);
+            log.error("Review job {} failed permanently after {} attempts: {}", job.getId(), job.getAttempts(), e.getMessage());
+        }
+        release(job);
+    }
+
+    /**
+     * Records the stage the job has completed. Also renews the lease, since the worker is evidently alive.
+     *
+     * @throws ReviewSupersededException when a newer push to the PR was queued meanwhile and nothing
+     *                                   has been posted yet, so the result of this job is not needed
+     */
+    @Transactional
+    public void checkpoint(ReviewJob job, ReviewCheckpoint checkpoint) {
+        if (!checkpoint.reached(ReviewJobStage.COMMENTS_POSTED)) {
+            ensureCurrent(job);
+        }
+        try {
+            job.setCheckpoint(objectMapper.writeValueAsString(checkpoint));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Review checkpoint cannot be serialized", e);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        job.setStage(checkpoint.getStage());
+        job.setLockedAt(now);
+        job.setUpdatedAt(now);
+        reviewJobRepository.save(job);
+    }
+
+    /**
+     * Checked right before anything of the job's review becomes visible on the PR.
+     *
+     * @throws ReviewSupersededException when a newer push to the PR was queued after this job
+     */
+    public void ensureCurrent(ReviewJob job) {
+        if (reviewJobRepository.existsByRepoFullNameAndPrIdAndIdGreaterThanAndStatusIn(
+                job.getRepoFullName(), job.getPrId(), job.getId(), NEWER_JOB_STATUSES)) {
+            throw new ReviewSupersededException("Review job " + job.getId() + " superseded by a newer push");
+        }
+    }
+
+    /**
+     * Ends a running job whose commit is no longer the head of the PR.
+     */
+    @Transactional
+    public void supersede(ReviewJob job) {
+        job.setStatus(ReviewJobStatus.SUPERSEDED);
+        job.setCheckpoint(null);
+        log.info("Review job {} of PR {} cancelled at stage {}: superseded by a newer push",
+                job.getId(), job.getPrId(), job.getStage());
+        release(job);
+    }
+
+    /**
+     * Puts a job interrupted by shutdown straight back in the queue. The attempt does not count,
+     * and the checkpoint is kept so that the next worker resumes where this one stopped.
+     */
+    @Transactional
+    public void requeue(ReviewJob job) {
+        job.setStatus(ReviewJobStatus.PENDING);
+        job.setAttempts(Math.max(0, job.getAttempts() - 1));
+        job.setAvailableAt(LocalDateTime.now());
+        log.info("Review job {} interrupted at stage {}, re-queued", job.getId(), job.getStage());
+        release(job);
+    }
+
+    /**
+     * Renews the leases of the jobs this node is running, so that a long AI call between two
+     * checkpoints does not let {@link #releaseExpiredLeases} hand a live job to another worker.
+     */
+    @Transactional
+    public void heartbeat(Collection<Long> jobIds) {
+        if (!jobIds.isEmpty()) {
+            reviewJobRepository.renewLeases(jobIds, nodeId, LocalDateTime.now());
+        }
+    }
+
+    public Optional<ReviewCheckpoint> readCheckpoint(ReviewJob job) {
+        if (job.getCheckpoint() == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(job.getCheckpoint(), ReviewCheckpoint.class));
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring unreadable checkpoint of review job {}: {}", job.getId(), e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public BitbucketWebhookPayload readPayload(ReviewJob job) {
+        try {
+            return objectMapper.readValue(job.getPayload(), BitbucketWebhookPayload.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Corrupt payload for review job " + job.getId(), e);
+        }
+    }
+
+    /**
+     * Puts back jobs whose worker died (node crash, kill -9) without completing or failing them.
+     */
+    @Transactional
+    @Scheduled(fixedDelayString = "${app.review.queue.lease-check-interval:60000}")
+    public void releaseExpiredLeases() {
+        LocalDateTime now = LocalDateTime.now();
+        int released = reviewJobRepository.releaseExpiredLeases(now.minus(properties.getLeaseTimeout()), now);
+        if (released > 0) {
+            log.warn("Re-queued {} review jobs with expired leases", released);
+        }
+    }
+
+    private void release(ReviewJob job) {
+        job.setLockedBy(null);
+        job.setLockedAt(null);
+        job.setUpdatedAt(LocalDateTime.now());
+        reviewJobRepository.save(job);
+    }
+
+    /**
+     * The window of the first of the user's teams (by name) that has its own, or the default.
+     */
+    private Duration debounceWindow(WebhookIdentityCache.UserSnapshot user) {
+        ReviewQueueProperties.Debounce debounce = properties.getDebounce();
+        return user.teams().stream()
+                .sorted(Comparator.naturalOrder())
+                .map(debounce.getTeams()::get)
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(debounce.getWindow());
+    }
+
+    private static String lockKey(String repoFullName, long prId) {
+        return "review-pr:" + repoFullName + "#" + prId;
+    }
+
+    private static String sourceCommit(BitbucketWebhookPayload payload) {
+        BitbucketWebhookPayload.Endpoint source = payload.getPullRequest().getSource();
+        return source != null && source.getCommit() != null ? source.getCommit().getHash() : null;
+    }
+
+    private String writePayload(BitbucketWebhookPayload payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Webhook payload cannot be serialized", e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewQueueProperties;
+import com.review.reviewservice.exceptions.ReviewSupersededException;
+import com.review.reviewservice.model.entity.ReviewJob;
+import com.review.reviewservice.model.entity.User;
+import com.review.reviewservice.model.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of threads that pull review jobs from the queue and run them.
+ * Throughput scales with {@code app.review.queue.workers} times the number of nodes.
+ * On shutdown, running reviews are drained; those still running at the deadline are re-queued
+ * and resume from their last checkpoint. Leases of running jobs are renewed by a heartbeat on a
+ * thread of its own, so that no other scheduled task can delay it past the lease timeout.
+ */
+@Slf4j
+@Component
+public class ReviewJobWorker implements SmartLifecycle {
+
+    private final ReviewJobService reviewJobService;
+    private final ReviewService reviewService;
+    private final UserRepository userRepository;
+    private final ReviewQueueProperties properties;
+    private final List<Thread> threads = new ArrayList<>();
+    private final Set<Long> runningJobs = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService heartbeatExecutor;
+    private volatile boolean running;
+    /** Longest pause between polls while claiming keeps failing, e.g. with the database down. */
+    private static final Duration MAX_ERROR_BACKOFF = Duration.ofMinutes(1);
+
+    @Autowired
+    public ReviewJobWorker(ReviewJobService reviewJobService, ReviewService reviewService,
+                           UserRepository userRepository, ReviewQueueProperties properties) {
+        this.reviewJobService = reviewJobService;
+        this.reviewService = reviewService;
+        this.userRepository = userRepository;
+        this.properties = properties;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("review-heartbeat").daemon().factory());
+        long interval = properties.getHeartbeatInterval().toMillis();
+        heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < properties.getWorkers(); i++) {
+            threads.add(Thread.ofPlatform()
+                    .name("review-worker-" + i)
+                    .start(this::pollLoop));
+        }
+        log.info("Started {} review workers", properties.getWorkers());
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        long deadline = System.nanoTime() + properties.getShutdownTimeout().toNanos();
+        try {
+            for (Thread thread : threads) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    thread.join(Duration.ofNanos(remaining));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Thread> unfinished = threads.stream().filter(Thread::isAlive).toList();
+        if (!unfinished.isEmpty()) {
+            log.warn("Interrupting {} review workers still running after {}s", unfinished.size(),
+                    properties.getShutdownTimeout().toSeconds());
+            unfinished.forEach(Thread::interrupt);
+            for (Thread thread : unfinished) {
+                try {
+                    // Long enough for the interrupted job to be re-queued
+                    thread.join(Duration.ofSeconds(5));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        threads.clear();
+        heartbeatExecutor.shutdownNow();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void pollLoop() {
+        int failures = 0;
+        while (running) {
+            try {
+                Optional<ReviewJob> job = reviewJobService.claimNext();
+                failures = 0;
+                if (job.isPresent()) {
+                    run(job.get());
+                } else {
+                    Thread.sleep(properties.getPollInterval());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                failures++;
+                log.error("Review worker error: {}", e.getMessage(), e);
+                try {
+                    Thread.sleep(errorBackoff(failures));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The poll interval, doubled for every further failure in a row up to {@link #MAX_ERROR_BACKOFF}.
+     */
+    Duration errorBackoff(int failures) {
+        Duration backoff = properties.getPollInterval().multipliedBy(1L << Math.min(failures - 1, 16));
+        return backoff.compareTo(MAX_ERROR_BACKOFF) > 0 ? MAX_ERROR_BACKOFF : backoff;
+    }
+
+    /**
+     * Keeps the leases of the running jobs alive. Jobs of a node that died are recovered by lease expiry.
+     */
+    void heartbeat() {
+        try {
+            reviewJobService.heartbeat(List.copyOf(runningJobs));
+        } catch (Exception e) {
+            log.warn("Could not renew review job leases: {}", e.getMessage());
+        }
+    }
+
+    private void run(ReviewJob job) {
+        runningJobs.add(job.getId());
+        try {
+            User user = userRepository.findWithAiModelById(job.getUserId())
+                    .orElseThrow(() -> new IllegalStateException("User not found: " + job.getUserId()));
+            reviewService.review(reviewJobService.readPayload(job), user, job);
+            reviewJobService.complete(job);
+        } catch (ReviewSupersededException e) {
+            reviewJobService.supersede(job);
+        } catch (Exception e) {
+            // Interrupted by shutdown: the error is whatever the interrupted call threw, not a real failure
+            if (Thread.interrupted() || e instanceof InterruptedException) {
+                reviewJobService.requeue(job);
+                Thread.currentThread().interrupt();
+            } else {
+                reviewJobService.fail(job, e);
+            }
+        } finally {
+            runningJobs.remove(job.getId());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.dto.InlineComment;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Reduce step of a batched review: folds several partial {@link CodeReviewService.ReviewResult}s
+ * into one, section by section, without another AI call.
+ */
+@Component
+public class ReviewMerger {
+
+    private static final Pattern HEADING = Pattern.compile("^#{2,4}\\s*(?:\\d+\\.\\s*)?(.+?)\\s*$");
+    private static final Pattern NUMBER = Pattern.compile("\\b(\\d{1,3})\\b");
+    private static final String RATE_KEY = "rate";
+    private static final String PREAMBLE_KEY = "";
+
+    /**
+     * Merges partial results. Bullets of the same aspect are concatenated (identical lines only once)
+     * and the rate becomes the average of the partial rates weighted by {@code weights}.
+     */
+    public CodeReviewService.ReviewResult merge(List<CodeReviewService.ReviewResult> results,
+                                                List<Integer> weights, List<String> aspects) {
+        Map<String, String> titles = new LinkedHashMap<>();
+        Map<String, LinkedHashSet<String>> sections = new LinkedHashMap<>();
+        for (String aspect : aspects) {
+            titles.put(key(aspect), aspect);
+            sections.put(key(aspect), new LinkedHashSet<>());
+        }
+
+        List<InlineComment> inlineComments = new ArrayList<>();
+        long weightedRate = 0;
+        long rateWeight = 0;
+        for (int i = 0; i < results.size(); i++) {
+            CodeReviewService.ReviewResult result = results.get(i);
+            if (result.getInlineComments() != null) {
+                inlineComments.addAll(result.getInlineComments());
+            }
+            if (result.getGeneralFeedback() == null) {
+                continue;
+            }
+            Map<String, List<String>> parsed = parseSections(result.getGeneralFeedback(), titles);
+            for (Map.Entry<String, List<String>> section : parsed.entrySet()) {
+                if (RATE_KEY.equals(section.getKey())) {
+                    OptionalInt rate = firstNumber(section.getValue());
+                    if (rate.isPresent()) {
+                        int weight = Math.max(1, weights.get(i));
+                        weightedRate += (long) rate.getAsInt() * weight;
+                        rateWeight += weight;
+                    }
+                } else {
+                    sections.computeIfAbsent(section.getKey(), k -> new LinkedHashSet<>()).addAll(section.getValue());
+                }
+            }
+        }
+
+        CodeReviewService.ReviewResult merged = new CodeReviewService.ReviewResult();
+        merged.setGeneralFeedback(render(titles, sections, rateWeight == 0 ? null : Math.round((float) weightedRate / rateWeight)));
+        merged.setInlineComments(inlineComments);
+        return merged;
+    }
+
+    /**
+     * The part of a review's general feedback that is about one file: the bullets naming its path or
+     * file name, under their aspect headings, and the rate.
+     */
+    public String feedbackAbout(String feedback, String path, List<String> aspects) {
+        Map<String, String> titles = new LinkedHashMap<>();
+        for (String aspect : aspects) {
+            titles.put(key(aspect), aspect);
+        }
+        String fileName = path.substring(path.lastIndexOf('/') + 1);
+        Pattern mentionsFile = Pattern.compile("(?<![\\w-])" + Pattern.quote(fileName) + "(?!\\w)");
+        Map<String, LinkedHashSet<String>> sections = new LinkedHashMap<>();
+        Integer rate = null;
+        for (Map.Entry<String, List<String>> section : parseSections(feedback, titles).entrySet()) {
+            if (RATE_KEY.equals(section.getKey())) {
+                OptionalInt parsed = firstNumber(section.getValue());
+                rate = parsed.isPresent() ? parsed.getAsInt() : null;
+            } else if (!PREAMBLE_KEY.equals(section.getKey())) {
+                sections.put(section.getKey(), section.getValue().stream()
+                        .filter(line -> mentionsFile.matcher(line).find())
+                        .collect(Collectors.toCollection(LinkedHashSet::new)));
+            }
+        }
+        return render(titles, sections, rate);
+    }
+
+    private Map<String, List<String>> parseSections(String feedback, Map<String, String> titles) {
+        Map<String, List<String>> parsed = new LinkedHashMap<>();
+        String current = PREAMBLE_KEY;
+        for (String line : feedback.split("\\r?\\n")) {
+            Matcher heading = HEADING.matcher(line.trim());
+            if (heading.matches()) {
+                current = key(heading.group(1));
+                titles.putIfAbsent(current, heading.group(1));
+                parsed.computeIfAbsent(current, k -> new ArrayList<>());
+            } else if (!line.isBlank()) {
+                parsed.computeIfAbsent(current, k -> new ArrayList<>()).add(line.stripTrailing());
+            }
+        }
+        return parsed;
+    }
+
+    private String render(Map<String, String> titles, Map<String, LinkedHashSet<String>> sections, Integer rate) {
+        StringBuilder sb = new StringBuilder();
+        LinkedHashSet<String> preamble = sections.get(PREAMBLE_KEY);
+        if (preamble != null && !preamble.isEmpty()) {
+            sb.append(String.join("\n", preamble)).append("\n\n");
+        }
+        int index = 1;
+        for (Map.Entry<String, LinkedHashSet<String>> section : sections.entrySet()) {
+            if (PREAMBLE_KEY.equals(section.getKey()) || section.getValue().isEmpty()) {
+                continue;
+            }
+            sb.append("#### ").append(index++).append(". ").append(titles.get(section.getKey())).append("\n")
+                    .append(String.join("\n", section.getValue())).append("\n\n");
+        }
+        if (rate != null) {
+            sb.append("#### ").append(index).append(". Rate\n").append(rate).append("\n");
+        }
+        return sb.toString().trim();
+    }
+
+    private OptionalInt firstNumber(List<String> lines) {
+        for (String line : lines) {
+            Matcher m = NUMBER.matcher(line);
+            if (m.find()) {
+                return OptionalInt.of(Integer.parseInt(m.group(1)));
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    private String key(String title) {
+        return title.replaceAll("[*_`]", "").trim().toLowerCase();
+    }
+}
@@ -0,0 +1,91 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewOutboxProperties;
+import com.review.reviewservice.model.entity.ReviewOutboxEntry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts the comments waiting in the review outbox, one batch at a time, and records each outcome.
+ * Runs on every node; {@code FOR UPDATE SKIP LOCKED} keeps the relays from posting the same entry.
+ */
+@Slf4j
+@Component
+public class ReviewOutboxRelay {
+
+    private final ReviewOutboxService reviewOutboxService;
+    private final BitbucketService bitbucketService;
+    private final ReviewOutboxProperties properties;
+
+    @Autowired
+    public ReviewOutboxRelay(ReviewOutboxService reviewOutboxService, BitbucketService bitbucketService,
+                             ReviewOutboxProperties properties) {
+        this.reviewOutboxService = reviewOutboxService;
+        this.bitbucketService = bitbucketService;
+        this.properties = properties;
+    }
+
+    /**
+     * Drains the outbox: claims a batch, posts it concurrently, and repeats while batches come back full.
+     * A post may wait on Bitbucket throttling for longer than the lease, so the leases of the entries
+     * still in flight are renewed while the batch runs.
+     */
+    @Scheduled(fixedDelayString = "${app.review.outbox.relay-interval:2000}")
+    public void relay() {
+        int batchSize = Math.max(1, properties.getBatchSize());
+        long renewEvery = Math.max(1, properties.getLeaseTimeout().toMillis() / 3);
+        List<ReviewOutboxEntry> batch;
+        do {
+            batch = reviewOutboxService.claim(batchSize);
+            Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (ReviewOutboxEntry entry : batch) {
+                    inFlight.add(entry.getId());
+                    executor.submit(() -> deliver(entry, inFlight));
+                }
+                executor.shutdown();
+                while (!executor.awaitTermination(renewEvery, TimeUnit.MILLISECONDS)) {
+                    renewLeases(inFlight);
+                }
+            } catch (InterruptedException e) {
+                // Shutting down; entries not recorded yet are released when their lease expires
+                Thread.currentThread().interrupt();
+                return;
+            }
+        } while (batch.size() == batchSize);
+    }
+
+    private void renewLeases(Set<Long> inFlight) {
+        try {
+            reviewOutboxService.renewLeases(List.copyOf(inFlight));
+        } catch (Exception e) {
+            log.warn("Could not renew outbox leases: {}", e.getMessage());
+        }
+    }
+
+    private void deliver(ReviewOutboxEntry entry, Set<Long> inFlight) {
+        try {
+            bitbucketService.postComment(entry.getRepoFullName(), entry.getPrId(), entry.getBody(),
+                    entry.getPath(), entry.getLineNumber());
+            reviewOutboxService.delivered(entry);
+        } catch (HttpClientErrorException e) {
+            // Rejected by Bitbucket (bad line, PR deleted, no access): posting again would not help.
+            // Throttling never gets here, BitbucketClient retries it and then throws its own exception.
+            reviewOutboxService.failed(entry, e, false);
+        } catch (Exception e) {
+            reviewOutboxService.failed(entry, e, true);
+        } finally {
+            inFlight.remove(entry.getId());
+        }
+    }
+}
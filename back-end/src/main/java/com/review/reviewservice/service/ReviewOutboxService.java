@@ -0,0 +1,174 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewOutboxProperties;
+import com.review.reviewservice.dto.FeedbackDto;
+import com.review.reviewservice.dto.InlineComment;
+import com.review.reviewservice.dto.ReviewBasis;
+import com.review.reviewservice.model.entity.ReviewOutboxEntry;
+import com.review.reviewservice.model.entity.ReviewOutboxStatus;
+import com.review.reviewservice.model.repository.ReviewOutboxRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Transactional outbox of PR comments. A review's feedback record and all its comments are written
+ * in one transaction; {@link ReviewOutboxRelay} posts them afterwards, so a crash can neither leave
+ * comments without feedback nor the reverse, and a failed post is retried without a new AI call.
+ */
+@Slf4j
+@Service
+public class ReviewOutboxService {
+
+    private final ReviewOutboxRepository reviewOutboxRepository;
+    private final FeedbackService feedbackService;
+    private final ReviewOutboxProperties properties;
+
+    @Autowired
+    public ReviewOutboxService(ReviewOutboxRepository reviewOutboxRepository, FeedbackService feedbackService,
+                               ReviewOutboxProperties properties) {
+        this.reviewOutboxRepository = reviewOutboxRepository;
+        this.feedbackService = feedbackService;
+        this.properties = properties;
+    }
+
+    /**
+     * Saves the feedback and queues its general comment and inline comments for posting, atomically.
+     */
+    @Transactional
+    public FeedbackDto recordReview(Long reviewJobId, Long prId, String uuid, String feedback, String model,
+                                    String repoFullName, int rate, ReviewBasis basis,
+                                    List<InlineComment> inlineComments) {
+        FeedbackDto saved = feedbackService.save(prId, uuid, feedback, model, repoFullName, rate, basis);
+        List<ReviewOutboxEntry> entries = new ArrayList<>(inlineComments.size() + 1);
+        entries.add(entry(reviewJobId, saved.id(), repoFullName, prId, feedback, null, null));
+        for (InlineComment comment : inlineComments) {
+            entries.add(entry(reviewJobId, saved.id(), repoFullName, prId, comment.getComment(), comment.getPath(),
+                    comment.getLineNumber()));
+        }
+        reviewOutboxRepository.saveAll(entries);
+        return saved;
+    }
+
+    /**
+     * Queues a general comment that belongs to no feedback record.
+     */
+    @Transactional
+    public void recordComment(Long reviewJobId, String repoFullName, long prId, String comment) {
+        reviewOutboxRepository.save(entry(reviewJobId, null, repoFullName, prId, comment, null, null));
+    }
+
+    /**
+     * Claims up to {@code limit} deliverable entries for this relay, after dropping those of superseded
+     * review jobs. As with review jobs, the row locks only live for this transaction; afterwards the
+     * SENDING status and lock timestamp keep other relays away.
+     */
+    @Transactional
+    public List<ReviewOutboxEntry> claim(int limit) {
+        int dropped = reviewOutboxRepository.dropSuperseded();
+        if (dropped > 0) {
+            log.info("Dropped {} outbox entries of superseded review jobs", dropped);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<ReviewOutboxEntry> entries = reviewOutboxRepository.findDeliverableForUpdate(now, limit);
+        for (ReviewOutboxEntry entry : entries) {
+            entry.setStatus(ReviewOutboxStatus.SENDING);
+            entry.setAttempts(entry.getAttempts() + 1);
+            entry.setLockedAt(now);
+        }
+        return reviewOutboxRepository.saveAll(entries);
+    }
+
+    /**
+     * Renews the leases of entries this relay is still posting.
+     */
+    @Transactional
+    public void renewLeases(Collection<Long> entryIds) {
+        if (!entryIds.isEmpty()) {
+            reviewOutboxRepository.renewLeases(entryIds, LocalDateTime.now());
+        }
+    }
+
+    @Transactional
+    public void delivered(ReviewOutboxEntry entry) {
+        entry.setStatus(ReviewOutboxStatus.DELIVERED);
+        entry.setDeliveredAt(LocalDateTime.now());
+        entry.setLastError(null);
+        entry.setLockedAt(null);
+        reviewOutboxRepository.save(entry);
+    }
+
+    /**
+     * Records a failed post. Retryable failures go back to the queue with exponential backoff
+     * until the maximum number of attempts is reached.
+     */
+    @Transactional
+    public void failed(ReviewOutboxEntry entry, Exception e, boolean retryable) {
+        entry.setLastError(e.getMessage());
+        entry.setLockedAt(null);
+        if (retryable && entry.getAttempts() < properties.getMaxAttempts()) {
+            entry.setStatus(ReviewOutboxStatus.PENDING);
+            entry.setAvailableAt(LocalDateTime.now().plus(backoff(entry.getAttempts())));
+            log.warn("Outbox entry {} for PR {} failed (attempt {}), retrying: {}",
+                    entry.getId(), entry.getPrId(), entry.getAttempts(), e.getMessage());
+        } else {
+            entry.setStatus(ReviewOutboxStatus.FAILED);
+            log.error("Outbox entry {} for PR {} failed permanently after {} attempts: {}",
+                    entry.getId(), entry.getPrId(), entry.getAttempts(), e.getMessage());
+        }
+        reviewOutboxRepository.save(entry);
+    }
+
+    /**
+     * Puts back entries whose relay died while posting, and drops delivered and superseded entries past retention.
+     */
+    @Transactional
+    @Scheduled(fixedDelayString = "${app.review.outbox.lease-check-interval:60000}")
+    public void releaseExpiredLeases() {
+        LocalDateTime now = LocalDateTime.now();
+        int released = reviewOutboxRepository.releaseExpiredLeases(now.minus(properties.getLeaseTimeout()));
+        int purged = reviewOutboxRepository.deleteFinishedBefore(now.minus(properties.getRetention()));
+        if (released > 0) {
+            log.warn("Re-queued {} outbox entries with expired leases", released);
+        }
+        if (purged > 0) {
+            log.info("Purged {} delivered outbox entries", purged);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (ReviewOutboxStatus status : List.of(ReviewOutboxStatus.PENDING, ReviewOutboxStatus.SENDING, ReviewOutboxStatus.FAILED)) {
+            stats.put(status.name().toLowerCase(), reviewOutboxRepository.countByStatus(status));
+        }
+        return stats;
+    }
+
+    private Duration backoff(int attempts) {
+        Duration delay = properties.getRetryBackoff().multipliedBy(1L << Math.min(attempts - 1, 16));
+        return delay.compareTo(properties.getMaxRetryBackoff()) > 0 ? properties.getMaxRetryBackoff() : delay;
+    }
+
+    private ReviewOutboxEntry entry(Long reviewJobId, Long feedbackId, String repoFullName, long prId, String body,
+                                    String path, Integer lineNumber) {
+        ReviewOutboxEntry entry = new ReviewOutboxEntry();
+        entry.setReviewJobId(reviewJobId);
+        entry.setFeedbackId(feedbackId);
+        entry.setRepoFullName(repoFullName);
+        entry.setPrId(prId);
+        entry.setBody(body);
+        entry.setPath(path);
+        entry.setLineNumber(lineNumber);
+        return entry;
+    }
+}
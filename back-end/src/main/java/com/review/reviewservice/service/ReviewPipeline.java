@@ -0,0 +1,278 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.AiProperties;
+import com.review.reviewservice.config.ReviewPipelineProperties;
+import com.review.reviewservice.dto.BitbucketWebhookPayload;
+import com.review.reviewservice.dto.FileData;
+import com.review.reviewservice.dto.InlineComment;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Pipelined review of a pull request: downloaded files flow through a bounded queue into review batches,
+ * and the inline comments of every finished batch flow through a second bounded queue to a poster.
+ * Fetching, AI calls and posting overlap; a full queue blocks the stage in front of it, so memory
+ * stays flat however large the PR is.
+ */
+@Slf4j
+@Service
+public class ReviewPipeline {
+
+    private static final FileData END_OF_FILES = new FileData(null, null);
+    private static final InlineComment END_OF_COMMENTS = new InlineComment();
+
+    private final BitbucketService bitbucketService;
+    private final CodeReviewService codeReviewService;
+    private final ReviewCache reviewCache;
+    private final ReviewPlanner reviewPlanner;
+    private final ReviewMerger reviewMerger;
+    private final AiProperties aiProperties;
+    private final ReviewPipelineProperties properties;
+
+    @Autowired
+    public ReviewPipeline(BitbucketService bitbucketService, CodeReviewService codeReviewService,
+                          ReviewCache reviewCache, ReviewPlanner reviewPlanner, ReviewMerger reviewMerger,
+                          AiProperties aiProperties, ReviewPipelineProperties properties) {
+        this.bitbucketService = bitbucketService;
+        this.codeReviewService = codeReviewService;
+        this.reviewCache = reviewCache;
+        this.reviewPlanner = reviewPlanner;
+        this.reviewMerger = reviewMerger;
+        this.aiProperties = aiProperties;
+        this.properties = properties;
+    }
+
+    /**
+     * The merged review of all reviewed files (null when there were none) and how many files it covers.
+     * Its inline comments have already been handed to the poster session.
+     */
+    public record Outcome(CodeReviewService.ReviewResult result, int files) {}
+
+    /**
+     * Reviews the PR's files accepted by {@code includePath} and {@code selection}, handing inline comments
+     * to {@code commentPoster} as soon as their batch is reviewed. Blocks until every stage is done.
+     */
+    public Outcome run(BitbucketWebhookPayload payload, Predicate<String> includePath,
+                       ReviewFileFilter.Selection selection, String aiName, String model, List<String> aspects,
+                       BiConsumer<Integer, String> onPartial, InlineCommentPoster.Session commentPoster)
+            throws InterruptedException {
+        long prId = payload.getPullRequest().getId();
+        BlockingQueue<FileData> files = new ArrayBlockingQueue<>(Math.max(1, properties.getFileQueueCapacity()));
+        BlockingQueue<InlineComment> comments = new ArrayBlockingQueue<>(Math.max(1, properties.getCommentQueueCapacity()));
+        AtomicReference<RuntimeException> fetchError = new AtomicReference<>();
+        AtomicReference<RuntimeException> postError = new AtomicReference<>();
+
+        Thread fetcher = Thread.ofVirtual().name("review-fetch-" + prId).start(() -> {
+            try {
+                bitbucketService.streamModifiedFiles(payload, includePath, selection::accept, file -> put(files, file));
+            } catch (RuntimeException e) {
+                fetchError.set(e);
+            } finally {
+                try {
+                    files.put(END_OF_FILES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Thread poster = Thread.ofVirtual().name("review-post-" + prId).start(() -> {
+            try {
+                for (InlineComment comment = comments.take(); comment != END_OF_COMMENTS; comment = comments.take()) {
+                    // After a failed post check, keep draining so that the review stage never blocks on a full queue
+                    if (postError.get() == null) {
+                        try {
+                            commentPoster.add(comment);
+                        } catch (RuntimeException e) {
+                            postError.set(e);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        Batches batches = new Batches(aiName, model, aspects, onPartial, comments, postError);
+        int reviewed = 0;
+        try {
+            reviewed = batches.consume(files, selection);
+        } finally {
+            fetcher.interrupt();
+            try {
+                comments.put(END_OF_COMMENTS);
+                poster.join();
+            } catch (InterruptedException e) {
+                poster.interrupt();
+                throw e;
+            }
+        }
+        if (postError.get() != null) {
+            throw postError.get();
+        }
+        if (fetchError.get() != null) {
+            throw fetchError.get();
+        }
+        log.info("Pipelined review of PR {}: {} files in {} batches", prId, reviewed, batches.sent.get());
+        return new Outcome(reviewed == 0 ? null : batches.result(), reviewed);
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Review pipeline stopped");
+        }
+    }
+
+    /**
+     * The review stage: packs arriving files into batches up to the model's token budget and reviews
+     * at most {@code maxConcurrentBatches} of them at a time.
+     */
+    private final class Batches {
+        private final String aiName;
+        private final String model;
+        private final List<String> aspects;
+        private final BiConsumer<Integer, String> onPartial;
+        private final BlockingQueue<InlineComment> comments;
+        private final int budget;
+        private final Semaphore slots;
+        private final List<CodeReviewService.ReviewResult> partials = new ArrayList<>();
+        private final List<Integer> weights = new ArrayList<>();
+        private final AtomicReference<String> firstError = new AtomicReference<>();
+        private final List<String> unreviewed = new ArrayList<>();
+        private final AtomicInteger sent = new AtomicInteger();
+        private final AtomicReference<RuntimeException> postError;
+
+        private Batches(String aiName, String model, List<String> aspects, BiConsumer<Integer, String> onPartial,
+                        BlockingQueue<InlineComment> comments, AtomicReference<RuntimeException> postError) {
+            this.aiName = aiName;
+            this.model = model;
+            this.aspects = aspects;
+            this.onPartial = onPartial;
+            this.comments = comments;
+            this.postError = postError;
+            this.budget = codeReviewService.reviewTokenBudget(model, aspects);
+            this.slots = new Semaphore(Math.max(1, aiProperties.getReview().getMaxConcurrentBatches()));
+        }
+
+        /**
+         * Takes files until the end marker and returns how many were reviewed or served from the cache.
+         * A partly filled batch is sent when the next file is slow to arrive, so the AI never waits for the whole PR.
+         */
+        private int consume(BlockingQueue<FileData> files, ReviewFileFilter.Selection selection)
+                throws InterruptedException {
+            int reviewed = 0;
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<FileData> batch = new ArrayList<>();
+                int batchTokens = 0;
+                while (true) {
+                    FileData file = batch.isEmpty()
+                            ? files.take()
+                            : files.poll(properties.getBatchLinger().toMillis(), TimeUnit.MILLISECONDS);
+                    if (file == null || file == END_OF_FILES) {
+                        if (!batch.isEmpty()) {
+                            submit(executor, batch, batchTokens);
+                            batch = new ArrayList<>();
+                            batchTokens = 0;
+                        }
+                        if (file == END_OF_FILES) {
+                            break;
+                        }
+                        continue;
+                    }
+                    if (file.getPath() == null || file.getContent() == null || !selection.accept(file)) {
+                        continue;
+                    }
+                    reviewed++;
+                    int tokens = reviewPlanner.estimateTokens(file);
+                    CodeReviewService.ReviewResult cached = reviewCache.getAll(List.of(file), aiName, model, aspects).get(file);
+                    if (cached != null) {
+                        complete(cached, tokens);
+                        continue;
+                    }
+                    if (tokens > budget) {
+                        ReviewPlanner.Batch truncated = reviewPlanner.plan(List.of(file), budget).get(0);
+                        submit(executor, truncated.files(), truncated.estimatedTokens());
+                        continue;
+                    }
+                    if (batchTokens + tokens > budget) {
+                        submit(executor, batch, batchTokens);
+                        batch = new ArrayList<>();
+                        batchTokens = 0;
+                    }
+                    batch.add(file);
+                    batchTokens += tokens;
+                }
+            }
+            return reviewed;
+        }
+
+        /**
+         * Waits for a free review slot, which holds the file queue back while all slots are busy.
+         */
+        private void submit(ExecutorService executor, List<FileData> batch, int tokens) throws InterruptedException {
+            if (postError.get() != null) {
+                // The comments could not be posted (e.g. the review was superseded), so stop asking the AI
+                return;
+            }
+            List<FileData> batchFiles = List.copyOf(batch);
+            slots.acquire();
+            int index = sent.getAndIncrement();
+            Consumer<String> onToken = onPartial == null ? null : text -> onPartial.accept(index, text);
+            executor.submit(() -> {
+                try {
+                    CodeReviewService.ReviewResult result = codeReviewService.reviewBatch(batchFiles, aiName, model, aspects, onToken);
+                    codeReviewService.cacheResult(batchFiles, aiName, model, aspects, result);
+                    complete(result, tokens);
+                } catch (CancellationException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    log.error("Error during {} review of batch {}: {}", aiName, index, e.getMessage(), e);
+                    firstError.compareAndSet(null, e.getMessage());
+                    synchronized (this) {
+                        batchFiles.forEach(file -> unreviewed.add(file.getPath()));
+                    }
+                } finally {
+                    slots.release();
+                }
+            });
+        }
+
+        private void complete(CodeReviewService.ReviewResult result, int weight) {
+            synchronized (this) {
+                partials.add(result);
+                weights.add(weight);
+            }
+            if (result.getInlineComments() != null) {
+                result.getInlineComments().forEach(comment -> put(comments, comment));
+            }
+        }
+
+        private synchronized CodeReviewService.ReviewResult result() {
+            if (partials.isEmpty()) {
+                CodeReviewService.ReviewResult failed = new CodeReviewService.ReviewResult();
+                failed.setGeneralFeedback("Error during " + aiName + " review: " + firstError.get());
+                failed.setInlineComments(new ArrayList<>());
+                return failed;
+            }
+            CodeReviewService.ReviewResult merged = partials.size() == 1
+                    ? partials.get(0)
+                    : reviewMerger.merge(partials, weights, aspects);
+            if (!unreviewed.isEmpty()) {
+                merged.setUnreviewedFiles(List.copyOf(unreviewed));
+            }
+            return merged;
+        }
+    }
+}
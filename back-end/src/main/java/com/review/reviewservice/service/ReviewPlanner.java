@@ -0,0 +1,90 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.dto.FileData;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits the files of a pull request into batches that each fit the input token budget
+ * of the selected model, so a large PR becomes several independent review requests.
+ */
+@Component
+public class ReviewPlanner {
+
+    /** Rough average for source code across the providers' tokenizers. */
+    private static final int CHARS_PER_TOKEN = 4;
+    /** "File: path" header, code fence and message framing around every file. */
+    private static final int PER_FILE_OVERHEAD_TOKENS = 20;
+    private static final String TRUNCATION_MARKER = "\n// [truncated for review]";
+
+    public record Batch(List<FileData> files, int estimatedTokens) {}
+
+    public int estimateTokens(FileData file) {
+        int chars = (file.getPath() == null ? 0 : file.getPath().length())
+                + (file.getContent() == null ? 0 : file.getContent().length());
+        return chars / CHARS_PER_TOKEN + PER_FILE_OVERHEAD_TOKENS;
+    }
+
+    public int estimateTokens(String text) {
+        return text == null ? 0 : text.length() / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Packs files first-fit-decreasing into batches of at most {@code budget} tokens.
+     * A single file larger than the budget is truncated into a batch of its own.
+     */
+    public List<Batch> plan(List<FileData> files, int budget) {
+        List<FileData> largestFirst = files.stream()
+                .sorted(Comparator.comparingInt((FileData file) -> estimateTokens(file)).reversed())
+                .toList();
+
+        List<List<FileData>> bins = new ArrayList<>();
+        List<Integer> binTokens = new ArrayList<>();
+        for (FileData file : largestFirst) {
+            int tokens = estimateTokens(file);
+            if (tokens > budget) {
+                bins.add(new ArrayList<>(List.of(truncate(file, budget))));
+                binTokens.add(budget);
+                continue;
+            }
+            int target = -1;
+            for (int i = 0; i < bins.size(); i++) {
+                if (binTokens.get(i) + tokens <= budget) {
+                    target = i;
+                    break;
+                }
+            }
+            if (target < 0) {
+                bins.add(new ArrayList<>());
+                binTokens.add(0);
+                target = bins.size() - 1;
+            }
+            bins.get(target).add(file);
+            binTokens.set(target, binTokens.get(target) + tokens);
+        }
+
+        List<Batch> batches = new ArrayList<>(bins.size());
+        for (int i = 0; i < bins.size(); i++) {
+            batches.add(new Batch(List.copyOf(bins.get(i)), binTokens.get(i)));
+        }
+        return batches;
+    }
+
+    private FileData truncate(FileData file, int budget) {
+        int maxChars = Math.max(0, (budget - PER_FILE_OVERHEAD_TOKENS) * CHARS_PER_TOKEN - file.getPath().length());
+        String content = file.getContent();
+        if (content == null || content.length() <= maxChars) {
+            return file;
+        }
+        // The marker has to fit the budget as well
+        int keep = Math.max(0, maxChars - TRUNCATION_MARKER.length());
+        int cut = content.lastIndexOf('\n', keep);
+        FileData truncated = new FileData(file.getPath(),
+                content.substring(0, cut > 0 ? cut : keep) + TRUNCATION_MARKER, file.isDiff());
+        truncated.setOriginalContent(content);
+        return truncated;
+    }
+}
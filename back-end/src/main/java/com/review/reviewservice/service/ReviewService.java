@@ -0,0 +1,456 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewOutboxProperties;
+import com.review.reviewservice.config.ReviewPipelineProperties;
+import com.review.reviewservice.dto.BitbucketWebhookPayload;
+import com.review.reviewservice.dto.FileData;
+import com.review.reviewservice.dto.InlineComment;
+import com.review.reviewservice.dto.ReviewBasis;
+import com.review.reviewservice.dto.ReviewCheckpoint;
+import com.review.reviewservice.model.entity.AiModel;
+import com.review.reviewservice.model.entity.Feedback;
+import com.review.reviewservice.model.entity.ReviewJob;
+import com.review.reviewservice.model.entity.ReviewJobStage;
+import com.review.reviewservice.model.entity.User;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the review of a single pull request: fetch files, ask the AI, post comments, save feedback.
+ * Invoked by the review job workers, never on the webhook request thread.
+ */
+@Slf4j
+@Service
+public class ReviewService {
+
+    private final BitbucketService bitbucketService;
+    private final CodeReviewService codeReviewService;
+    private final FeedbackService feedbackService;
+    private final ReviewMerger reviewMerger;
+    private final ReviewFileFilter reviewFileFilter;
+    private final ReviewPipeline reviewPipeline;
+    private final ReviewPipelineProperties pipelineProperties;
+    private final InlineCommentPoster inlineCommentPoster;
+    private final ReviewOutboxService reviewOutboxService;
+    private final ReviewOutboxProperties outboxProperties;
+    private final ReviewJobService reviewJobService;
+    private final SimpMessagingTemplate messagingTemplate;
+    private static final String WEBSOCKET_DESTINATION = "/topic/feedback/";
+    private static final String STAGE_PREFIX = "stage";
+
+    @Autowired
+    public ReviewService(BitbucketService bitbucketService, CodeReviewService codeReviewService,
+                         FeedbackService feedbackService, ReviewMerger reviewMerger,
+                         ReviewFileFilter reviewFileFilter, ReviewPipeline reviewPipeline,
+                         ReviewPipelineProperties pipelineProperties, InlineCommentPoster inlineCommentPoster,
+                         ReviewOutboxService reviewOutboxService, ReviewOutboxProperties outboxProperties,
+                         ReviewJobService reviewJobService, SimpMessagingTemplate messagingTemplate) {
+        this.bitbucketService = bitbucketService;
+        this.codeReviewService = codeReviewService;
+        this.feedbackService = feedbackService;
+        this.reviewMerger = reviewMerger;
+        this.reviewFileFilter = reviewFileFilter;
+        this.reviewPipeline = reviewPipeline;
+        this.pipelineProperties = pipelineProperties;
+        this.inlineCommentPoster = inlineCommentPoster;
+        this.reviewOutboxService = reviewOutboxService;
+        this.outboxProperties = outboxProperties;
+        this.reviewJobService = reviewJobService;
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    /**
+     * Reviews the PR for the given job, resuming after its last completed stage when there is one.
+     * Each completed stage is stored with the job, and nothing is posted once a newer push superseded it.
+     */
+    public void review(BitbucketWebhookPayload payload, User user, ReviewJob job) throws InterruptedException {
+        ReviewCheckpoint resumeFrom = reviewJobService.readCheckpoint(job).orElse(null);
+        Long prId = payload.getPullRequest().getId();
+        String repoFullName = payload.getRepository().getFullName();
+
+        String ai = Optional.ofNullable(user.getAiModel())
+                .map(m -> m.getAi().toLowerCase())
+                .orElse("ChatGPT");
+        String model = Optional.ofNullable(user.getAiModel())
+                .map(AiModel::getModel)
+                .orElse("gpt-4o");
+
+        // With the outbox, comments are only screened here and posted by the relay once the feedback is saved
+        boolean deferPosting = outboxProperties.isEnabled();
+
+        // 1. Fetch modified files from Bitbucket
+        messagingTemplate.convertAndSend(
+                WEBSOCKET_DESTINATION + user.getUsername(),
+                Map.of(STAGE_PREFIX, "Processing PR")
+        );
+
+        Optional<ReviewCheckpoint> reviewed;
+        if (resumeFrom != null && resumeFrom.reached(ReviewJobStage.AI_REVIEWED)) {
+            log.info("Resuming review of PR {} of {} after stage {}", prId, repoFullName, resumeFrom.getStage());
+            reviewed = Optional.of(resumeFrom);
+        } else {
+            reviewed = analyze(payload, user, ai, model, deferPosting, job);
+        }
+        if (reviewed.isPresent()) {
+            deliver(payload, user, model, reviewed.get(), deferPosting, job);
+        }
+        log.info("Reviewed PR {} of {} using {} with model {}", prId, repoFullName, ai, model);
+    }
+
+    /**
+     * Fetches and reviews the changed files. Empty when there is no feedback to post,
+     * in which case the user has already been told the review is done.
+     */
+    private Optional<ReviewCheckpoint> analyze(BitbucketWebhookPayload payload, User user, String ai, String model,
+                                               boolean deferPosting, ReviewJob job)
+            throws InterruptedException {
+        String username = user.getUsername();
+        Long prId = payload.getPullRequest().getId();
+        String repoFullName = payload.getRepository().getFullName();
+        String headCommit = sourceCommit(payload);
+        List<String> aspects = user.getReviewAspectsList();
+
+        // Only a review asked for the same model and aspects can be extended with the changed files
+        Optional<Feedback> previous = headCommit == null
+                ? Optional.empty()
+                : feedbackService.findLastReviewed(repoFullName, prId)
+                        .filter(f -> model.equals(f.getModel())
+                                && f.getAiFeedback() != null
+                                && aspectsKey(aspects).equals(f.getReviewAspects()));
+        Optional<Set<String>> changedSincePrevious = previous
+                .flatMap(f -> headCommit.equals(f.getSourceCommit())
+                        ? Optional.of(Set.<String>of())
+                        : bitbucketService.getChangedPaths(repoFullName, f.getSourceCommit(), headCommit));
+
+        ReviewFileFilter.Selection selection = reviewFileFilter.forUser(user);
+        Predicate<String> includePath = changedSincePrevious.<Predicate<String>>map(paths -> paths::contains)
+                .orElse(path -> true);
+        boolean nothingChanged = changedSincePrevious.map(Set::isEmpty).orElse(false);
+        BiConsumer<Integer, String> onPartial = (batch, text) -> messagingTemplate.convertAndSend(
+                WEBSOCKET_DESTINATION + username,
+                Map.of("partial", text, "batch", batch)
+        );
+
+        int reviewedFiles = 0;
+        CodeReviewService.ReviewResult reviewResult = null;
+        InlineCommentPoster.Summary pipelineComments = null;
+        if (nothingChanged) {
+            log.debug("PR {} of {}: head commit already reviewed", prId, repoFullName);
+        } else if (pipelineProperties.isEnabled()) {
+            // Fetching and AI analysis overlap, so they share one stage
+            messagingTemplate.convertAndSend(
+                    WEBSOCKET_DESTINATION + username,
+                    Map.of(STAGE_PREFIX, "AI Code Analysis")
+            );
+            // Only screen the comments here: posting them before the AI_REVIEWED checkpoint would post them
+            // again when the job is resumed, so they are delivered with the checkpoint like any others
+            InlineCommentPoster.Session commentPoster = inlineCommentPoster.open(payload, true, () -> {});
+            try {
+                ReviewPipeline.Outcome outcome = reviewPipeline.run(payload, includePath, selection, ai, model, aspects,
+                        onPartial, commentPoster);
+                reviewedFiles = outcome.files();
+                reviewResult = outcome.result();
+            } finally {
+                pipelineComments = commentPoster.finish();
+            }
+        } else {
+            List<FileData> fetchedFiles = bitbucketService.getModifiedFiles(payload, includePath, selection::accept)
+                    .stream()
+                    .filter(selection::accept)
+                    .toList();
+            reviewedFiles = fetchedFiles.size();
+            if (!fetchedFiles.isEmpty()) {
+                ReviewCheckpoint fetched = new ReviewCheckpoint(ReviewJobStage.FILES_FETCHED);
+                fetched.setReviewedFiles(reviewedFiles);
+                reviewJobService.checkpoint(job, fetched);
+                messagingTemplate.convertAndSend(
+                        WEBSOCKET_DESTINATION + username,
+                        Map.of(STAGE_PREFIX, "Files fetched")
+                );
+
+                // 2. Generate feedback using the selected AI
+                messagingTemplate.convertAndSend(
+                        WEBSOCKET_DESTINATION + username,
+                        Map.of(STAGE_PREFIX, "AI Code Analysis")
+                );
+                reviewResult = codeReviewService.reviewFiles(fetchedFiles, ai, model, aspects, onPartial);
+            }
+        }
+        List<ReviewFileFilter.SkippedFile> skipped = selection.getSkipped();
+
+        if (reviewedFiles == 0 && !skipped.isEmpty()) {
+            log.info("PR {} of {}: all {} changed files skipped by the review filter", prId, repoFullName, skipped.size());
+            String comment = appendSkippedFiles("No files left to review after filtering.", skipped);
+            reviewJobService.ensureCurrent(job);
+            if (deferPosting) {
+                reviewOutboxService.recordComment(job.getId(), repoFullName, prId, comment);
+            } else {
+                bitbucketService.postCommentToPullRequest(payload, comment);
+            }
+            messagingTemplate.convertAndSend(
+                    WEBSOCKET_DESTINATION + username,
+                    Map.of(STAGE_PREFIX, "Done", "status", "done", "prId", prId)
+            );
+            return Optional.empty();
+        }
+
+        if (changedSincePrevious.isPresent() && reviewedFiles == 0) {
+            log.info("PR {} of {} has no files changed since reviewed commit {}",
+                    prId, repoFullName, previous.get().getSourceCommit());
+            messagingTemplate.convertAndSend(
+                    WEBSOCKET_DESTINATION + username,
+                    Map.of(STAGE_PREFIX, "Done", "status", "done", "prId", prId)
+            );
+            return Optional.empty();
+        }
+
+        if (reviewResult == null) {
+            reviewResult = codeReviewService.reviewFiles(List.of(), ai, model, aspects);
+        }
+        List<String> unreviewed = reviewResult.getUnreviewedFiles() == null
+                ? List.of()
+                : reviewResult.getUnreviewedFiles();
+        if (!unreviewed.isEmpty()) {
+            log.warn("Partial review of PR {} of {}: {} of {} files could not be reviewed",
+                    prId, repoFullName, unreviewed.size(), reviewedFiles);
+            reviewedFiles -= unreviewed.size();
+        }
+        int coveredFiles = reviewedFiles;
+        if (changedSincePrevious.isPresent() && !isError(reviewResult)) {
+            log.info("Incremental review of PR {} of {}: {} changed files since {}",
+                    prId, repoFullName, reviewedFiles, previous.get().getSourceCommit());
+            reviewResult = mergeWithPrevious(previous.get(), reviewResult, reviewedFiles, aspects);
+            coveredFiles += previous.get().getReviewedFiles();
+        }
+        String feedback = reviewResult.getGeneralFeedback();
+        if (feedback == null) {
+            return Optional.empty();
+        }
+
+        ReviewCheckpoint checkpoint = new ReviewCheckpoint(ReviewJobStage.AI_REVIEWED);
+        checkpoint.setReviewedFiles(reviewedFiles);
+        checkpoint.setAiFeedback(feedback);
+        checkpoint.setCoveredFiles(coveredFiles);
+        checkpoint.setRate(extractRate(feedback));
+        // A partial review must not become the basis of the next incremental one, or its gaps would never be reviewed
+        checkpoint.setReviewedCommit(isError(reviewResult) || !unreviewed.isEmpty() ? null : headCommit);
+        feedback = appendUnreviewedFiles(feedback, unreviewed);
+        feedback = appendSkippedFiles(feedback, skipped);
+        if (pipelineComments != null) {
+            // The pipeline already screened the inline comments; they are posted after the checkpoint
+            checkpoint.setFeedback(appendOverflowComments(feedback, pipelineComments.overflow()));
+            checkpoint.setInlineComments(pipelineComments.deferred());
+        } else {
+            checkpoint.setFeedback(feedback);
+            checkpoint.setInlineComments(reviewResult.getInlineComments() == null
+                    ? List.of()
+                    : reviewResult.getInlineComments());
+        }
+        reviewJobService.checkpoint(job, checkpoint);
+        return Optional.of(checkpoint);
+    }
+
+    /**
+     * Posts the comments of a finished analysis and saves the feedback, skipping what an earlier attempt
+     * already did. Screening the inline comments again is harmless: they are already within the cap.
+     */
+    private void deliver(BitbucketWebhookPayload payload, User user, String model, ReviewCheckpoint checkpoint,
+                         boolean deferPosting, ReviewJob job) throws InterruptedException {
+        String uuid = user.getBitbucketUuid();
+        String username = user.getUsername();
+        Long prId = payload.getPullRequest().getId();
+        String repoFullName = payload.getRepository().getFullName();
+        ReviewBasis basis = new ReviewBasis(checkpoint.getReviewedCommit(), checkpoint.getAiFeedback(),
+                checkpoint.getCoveredFiles(), aspectsKey(user.getReviewAspectsList()));
+
+        if (!checkpoint.reached(ReviewJobStage.COMMENTS_POSTED)) {
+            InlineCommentPoster.Summary postedComments = null;
+            if (!checkpoint.getInlineComments().isEmpty()) {
+                if (!deferPosting) {
+                    messagingTemplate.convertAndSend(
+                            WEBSOCKET_DESTINATION + username,
+                            Map.of(STAGE_PREFIX, "Posting inline comments")
+                    );
+                }
+                InlineCommentPoster.Session commentPoster = inlineCommentPoster.open(payload, deferPosting,
+                        () -> reviewJobService.ensureCurrent(job));
+                try {
+                    commentPoster.addAll(checkpoint.getInlineComments());
+                } finally {
+                    postedComments = commentPoster.finish();
+                }
+            }
+            String feedback = postedComments == null
+                    ? checkpoint.getFeedback()
+                    : appendOverflowComments(checkpoint.getFeedback(), postedComments.overflow());
+
+            if (deferPosting) {
+                // Save feedback and queue all its comments in one transaction
+                messagingTemplate.convertAndSend(
+                        WEBSOCKET_DESTINATION + username,
+                        Map.of(STAGE_PREFIX, "Saving feedback")
+                );
+                reviewJobService.ensureCurrent(job);
+                reviewOutboxService.recordReview(job.getId(), prId, uuid, feedback, model, repoFullName,
+                        checkpoint.getRate(), basis, postedComments == null ? List.of() : postedComments.deferred());
+                checkpoint = advance(checkpoint, ReviewJobStage.FEEDBACK_SAVED, feedback);
+                reviewJobService.checkpoint(job, checkpoint);
+            } else {
+                // Post general comment on PR
+                messagingTemplate.convertAndSend(
+                        WEBSOCKET_DESTINATION + username,
+                        Map.of(STAGE_PREFIX, "Posting general feedback")
+                );
+                reviewJobService.ensureCurrent(job);
+                bitbucketService.postCommentToPullRequest(payload, feedback);
+                checkpoint = advance(checkpoint, ReviewJobStage.COMMENTS_POSTED, feedback);
+                reviewJobService.checkpoint(job, checkpoint);
+            }
+        }
+
+        if (!checkpoint.reached(ReviewJobStage.FEEDBACK_SAVED)) {
+            // Save feedback to database
+            messagingTemplate.convertAndSend(
+                    WEBSOCKET_DESTINATION + username,
+                    Map.of(STAGE_PREFIX, "Saving feedback")
+            );
+            feedbackService.save(prId, uuid, checkpoint.getFeedback(), model, repoFullName, checkpoint.getRate(),
+                    basis);
+            reviewJobService.checkpoint(job, advance(checkpoint, ReviewJobStage.FEEDBACK_SAVED, checkpoint.getFeedback()));
+        }
+
+        messagingTemplate.convertAndSend(
+                WEBSOCKET_DESTINATION + username,
+                Map.of(STAGE_PREFIX, "Done", "status", "done", "prId", prId)
+        );
+    }
+
+    private ReviewCheckpoint advance(ReviewCheckpoint checkpoint, ReviewJobStage stage, String feedback) {
+        ReviewCheckpoint next = new ReviewCheckpoint(stage);
+        next.setReviewedFiles(checkpoint.getReviewedFiles());
+        next.setFeedback(feedback);
+        next.setAiFeedback(checkpoint.getAiFeedback());
+        next.setCoveredFiles(checkpoint.getCoveredFiles());
+        next.setRate(checkpoint.getRate());
+        next.setReviewedCommit(checkpoint.getReviewedCommit());
+        return next;
+    }
+
+    /**
+     * Folds the findings of an incremental review into the AI feedback of the previously reviewed
+     * commit, weighting both rates by the number of files behind them. Only the new inline comments
+     * are kept; the earlier ones are already on the PR.
+     */
+    private CodeReviewService.ReviewResult mergeWithPrevious(Feedback previous, CodeReviewService.ReviewResult delta,
+                                                             int deltaFiles, List<String> aspects) {
+        CodeReviewService.ReviewResult earlier = new CodeReviewService.ReviewResult();
+        earlier.setGeneralFeedback(previous.getAiFeedback());
+        earlier.setInlineComments(List.of());
+        return reviewMerger.merge(List.of(earlier, delta), List.of(previous.getReviewedFiles(), deltaFiles), aspects);
+    }
+
+    private static String aspectsKey(List<String> aspects) {
+        return String.join(",", aspects);
+    }
+
+    /**
+     * Lists the files the review filter left out, and why, below the feedback.
+     */
+    private String appendSkippedFiles(String feedback, List<ReviewFileFilter.SkippedFile> skipped) {
+        if (skipped.isEmpty()) {
+            return feedback;
+        }
+        StringBuilder sb = new StringBuilder(feedback).append("\n\n#### Skipped files\n");
+        for (ReviewFileFilter.SkippedFile file : skipped) {
+            sb.append("- `").append(file.path()).append("`: ").append(file.reason()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Marks the feedback as partial and names the files whose review failed.
+     */
+    private String appendUnreviewedFiles(String feedback, List<String> unreviewed) {
+        if (unreviewed.isEmpty()) {
+            return feedback;
+        }
+        StringBuilder sb = new StringBuilder(feedback)
+                .append("\n\n#### Not reviewed\n")
+                .append("This review is partial: the AI review of these files failed, they will be reviewed again on the next push.\n");
+        for (String path : unreviewed) {
+            sb.append("- `").append(path).append("`\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Lists the inline comments over the per-PR cap below the feedback instead of posting them one by one.
+     */
+    private String appendOverflowComments(String feedback, List<InlineComment> overflow) {
+        if (overflow.isEmpty()) {
+            return feedback;
+        }
+        StringBuilder sb = new StringBuilder(feedback).append("\n\n#### More inline comments\n");
+        for (InlineComment comment : overflow) {
+            sb.append("- `").append(comment.getPath()).append(':').append(comment.getLineNumber()).append("`: ")
+                    .append(comment.getComment()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private boolean isError(CodeReviewService.ReviewResult result) {
+        return result.getGeneralFeedback() == null || result.getGeneralFeedback().startsWith("Error");
+    }
+
+    private String sourceCommit(BitbucketWebhookPayload payload) {
+        BitbucketWebhookPayload.Endpoint source = payload.getPullRequest().getSource();
+        return source != null && source.getCommit() != null ? source.getCommit().getHash() : null;
+    }
+
+    private int extractRate(String feedback) {
+        String[] lines = feedback.split("\\r?\\n");
+        Pattern numPattern = Pattern.compile("\\b(\\d{1,3})\\b");
+
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].toLowerCase();
+            if (line.contains("rate")) {
+                if (i + 1 < lines.length) {
+                    String next = lines[i + 1].trim();
+                    try {
+                        int rate = Integer.parseInt(next.replaceAll("\\D", ""));
+                        return clampRate(rate);
+                    } catch (NumberFormatException ignored) {
+                        // Ignored because invalid rates are handled by fallback logic in the calling method
+                    }
+                }
+                Matcher m = numPattern.matcher(lines[i]);
+                if (m.find()) {
+                    return clampRate(Integer.parseInt(m.group(1)));
+                }
+            }
+        }
+
+        Matcher m = numPattern.matcher(feedback);
+        int last = 0;
+        while (m.find()) {
+            last = Integer.parseInt(m.group(1));
+        }
+        return clampRate(last);
+    }
+
+    private int clampRate(int rate) {
+        if (rate <= 0) return 0;
+        return Math.min(100, rate);
+    }
+}
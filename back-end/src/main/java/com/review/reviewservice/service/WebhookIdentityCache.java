@@ -0,0 +1,123 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.WebhookIdentityCacheProperties;
+import com.review.reviewservice.model.entity.Team;
+import com.review.reviewservice.model.entity.User;
+import com.review.reviewservice.model.entity.WebhookToken;
+import com.review.reviewservice.model.repository.UserRepository;
+import com.review.reviewservice.model.repository.WebhookTokenRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Bounded, expiring cache of what the webhook needs to know about tokens and PR authors, so that
+ * a delivery does not query the database for them every time. Holds immutable snapshots rather than
+ * entities, which could not load their lazy associations once detached. Unknown tokens and users
+ * are not cached.
+ */
+@Component
+public class WebhookIdentityCache {
+
+    public record TokenSnapshot(String token, long userId, LocalDateTime expiresAt) {}
+
+    public record UserSnapshot(long id, String username, String bitbucketUuid, List<String> teams) {}
+
+    private final WebhookTokenRepository webhookTokenRepository;
+    private final UserRepository userRepository;
+    private final WebhookIdentityCacheProperties properties;
+    private final Map<String, Entry<TokenSnapshot>> tokens;
+    private final Map<String, Entry<UserSnapshot>> users;
+    private long hits;
+    private long misses;
+
+    @Autowired
+    public WebhookIdentityCache(WebhookTokenRepository webhookTokenRepository, UserRepository userRepository,
+                                WebhookIdentityCacheProperties properties) {
+        this.webhookTokenRepository = webhookTokenRepository;
+        this.userRepository = userRepository;
+        this.properties = properties;
+        this.tokens = boundedMap();
+        this.users = boundedMap();
+    }
+
+    private record Entry<T>(T value, long loadedAt) {}
+
+    /**
+     * The active token with the given value.
+     */
+    public Optional<TokenSnapshot> token(String token) {
+        return lookup(tokens, token, t -> webhookTokenRepository.findByTokenAndActiveTrue(t).map(this::snapshot));
+    }
+
+    /**
+     * The user with the given Bitbucket UUID, with the names of their teams.
+     */
+    public Optional<UserSnapshot> user(String bitbucketUuid) {
+        return lookup(users, bitbucketUuid, uuid -> userRepository.findWithTeamsByBitbucketUuid(uuid).map(this::snapshot));
+    }
+
+    /**
+     * Drops everything cached about the user: their own entry and their webhook tokens.
+     */
+    public synchronized void invalidateUser(long userId) {
+        users.values().removeIf(entry -> entry.value().id() == userId);
+        tokens.values().removeIf(entry -> entry.value().userId() == userId);
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("tokens", tokens.size());
+        stats.put("users", users.size());
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        return stats;
+    }
+
+    private <T> Optional<T> lookup(Map<String, Entry<T>> map, String key, Function<String, Optional<T>> loader) {
+        if (!properties.isEnabled() || key == null) {
+            return key == null ? Optional.empty() : loader.apply(key);
+        }
+        long now = System.nanoTime();
+        synchronized (this) {
+            Entry<T> entry = map.get(key);
+            if (entry != null && now - entry.loadedAt() < properties.getTtl().toNanos()) {
+                hits++;
+                return Optional.of(entry.value());
+            }
+            misses++;
+        }
+        // Loaded outside the lock; two concurrent misses for the same key both query, which is harmless
+        Optional<T> loaded = loader.apply(key);
+        loaded.ifPresent(value -> {
+            synchronized (this) {
+                map.put(key, new Entry<>(value, now));
+            }
+        });
+        return loaded;
+    }
+
+    private TokenSnapshot snapshot(WebhookToken token) {
+        return new TokenSnapshot(token.getToken(), token.getUser().getId(), token.getExpiresAt());
+    }
+
+    private UserSnapshot snapshot(User user) {
+        List<String> teams = user.getTeams().stream().map(Team::getName).sorted().toList();
+        return new UserSnapshot(user.getId(), user.getUsername(), user.getBitbucketUuid(), teams);
+    }
+
+    private <T> Map<String, Entry<T>> boundedMap() {
+        return new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest) {
+                return size() > Math.max(1, properties.getMaxEntries());
+            }
+        };
+    }
+}
@@ -0,0 +1,90 @@
+package com.review.reviewservice.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class UnifiedDiffParser {
+
+    private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -\\d+(?:,\\d+)? \\+(\\d+)(?:,\\d+)? @@.*");
+    private static final String NEW_PATH_PREFIX = "+++ ";
+    private static final String DELETED_PATH = "/dev/null";
+
+    private UnifiedDiffParser() {
+    }
+
+    /**
+     * The hunks of one file, one line per diff line prefixed with its line number in the new file.
+     * Removed lines have no new line number and keep a blank column instead.
+     * {@code lines} holds the new-file line numbers shown in the hunks, added or unchanged.
+     */
+    public record FileDiff(String path, String content, Set<Integer> lines) {}
+
+    /**
+     * Splits a multi-file unified diff (as produced by {@code git diff}) per file.
+     * Deleted files and files without text hunks, such as binaries, are left out.
+     */
+    public static List<FileDiff> parse(String diff) {
+        List<FileDiff> files = new ArrayList<>();
+        if (diff == null || diff.isEmpty()) {
+            return files;
+        }
+        String path = null;
+        StringBuilder content = null;
+        Set<Integer> lines = new HashSet<>();
+        int newLine = 0;
+        boolean inHunk = false;
+        for (String line : diff.split("\\r?\\n", -1)) {
+            if (line.startsWith("diff --git ")) {
+                addFile(files, path, content, lines);
+                path = null;
+                content = null;
+                lines = new HashSet<>();
+                inHunk = false;
+            } else if (!inHunk && line.startsWith(NEW_PATH_PREFIX)) {
+                path = newPath(line.substring(NEW_PATH_PREFIX.length()));
+                content = path == null ? null : new StringBuilder();
+            } else if (content != null && line.startsWith("@@")) {
+                Matcher matcher = HUNK_HEADER.matcher(line);
+                inHunk = matcher.matches();
+                if (inHunk) {
+                    newLine = Integer.parseInt(matcher.group(1));
+                    content.append(line).append('\n');
+                }
+            } else if (inHunk && content != null) {
+                if (line.startsWith("+") || line.startsWith(" ")) {
+                    lines.add(newLine);
+                    content.append(String.format("%5d %s", newLine++, line)).append('\n');
+                } else if (line.startsWith("-")) {
+                    content.append("      ").append(line).append('\n');
+                } else if (!line.startsWith("\\")) {
+                    // Anything else (e.g. the next file's header) ends the hunk
+                    inHunk = false;
+                }
+            }
+        }
+        addFile(files, path, content, lines);
+        return files;
+    }
+
+    private static void addFile(List<FileDiff> files, String path, StringBuilder content, Set<Integer> lines) {
+        if (path != null && content != null && !content.isEmpty()) {
+            files.add(new FileDiff(path, content.toString(), Set.copyOf(lines)));
+        }
+    }
+
+    private static String newPath(String header) {
+        String path = header.trim();
+        int tab = path.indexOf('\t');
+        if (tab >= 0) {
+            path = path.substring(0, tab);
+        }
+        if (path.equals(DELETED_PATH)) {
+            return null;
+        }
+        return path.startsWith("b/") ? path.substring(2) : path;
+    }
+}
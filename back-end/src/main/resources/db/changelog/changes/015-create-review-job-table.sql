@@ -0,0 +1,24 @@
+--liquibase formatted sql
+
+--changeset antonrotaru:015-create-review-job-table
+--comment: durable queue of pending PR reviews, claimed by workers with FOR UPDATE SKIP LOCKED
+CREATE TABLE review_job (
+    id BIGSERIAL PRIMARY KEY,
+    user_id BIGINT NOT NULL,
+    repo_full_name VARCHAR(255) NOT NULL,
+    pr_id BIGINT NOT NULL,
+    payload TEXT NOT NULL,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INT NOT NULL DEFAULT 0,
+    last_error TEXT,
+    locked_by VARCHAR(255),
+    locked_at TIMESTAMP,
+    available_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT fk_review_job_user FOREIGN KEY (user_id) REFERENCES users(id)
+);
+
+CREATE INDEX idx_review_job_status_available ON review_job (status, available_at);
+
+--rollback DROP TABLE review_job;
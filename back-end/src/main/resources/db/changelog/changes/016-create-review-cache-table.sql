@@ -0,0 +1,19 @@
+--liquibase formatted sql
+
+--changeset antonrotaru:016-create-review-cache-table
+--comment: AI review results per file, keyed by hash of content, aspects, AI and model
+CREATE TABLE review_cache (
+    cache_key VARCHAR(64) PRIMARY KEY,
+    ai VARCHAR(50) NOT NULL,
+    model VARCHAR(100) NOT NULL,
+    feedback TEXT NOT NULL,
+    inline_comments TEXT NOT NULL,
+    hits INT NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    last_hit_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX idx_review_cache_created_at ON review_cache (created_at);
+CREATE INDEX idx_review_cache_last_hit_at ON review_cache (last_hit_at);
+
+--rollback DROP TABLE review_cache;
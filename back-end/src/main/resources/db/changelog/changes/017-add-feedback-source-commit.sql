@@ -0,0 +1,17 @@
+--liquibase formatted sql
+
+--changeset antonrotaru:017-add-feedback-source-commit
+--comment: source commit, raw AI feedback, file count and aspects of a review, so a later one can cover only the changes and merge into it
+ALTER TABLE feedback
+    ADD COLUMN source_commit VARCHAR(64),
+    ADD COLUMN ai_feedback TEXT,
+    ADD COLUMN reviewed_files INT NOT NULL DEFAULT 0,
+    ADD COLUMN review_aspects TEXT;
+
+CREATE INDEX idx_feedback_repo_pr ON feedback (repo_full_name, pr_id);
+
+--rollback DROP INDEX idx_feedback_repo_pr;
+--rollback ALTER TABLE feedback DROP COLUMN review_aspects;
+--rollback ALTER TABLE feedback DROP COLUMN reviewed_files;
+--rollback ALTER TABLE feedback DROP COLUMN ai_feedback;
+--rollback ALTER TABLE feedback DROP COLUMN source_commit;
@@ -0,0 +1,15 @@
+--liquibase formatted sql
+
+--changeset antonrotaru:018-create-chat-session-table
+--comment: Chat sessions spilled from memory: rolling summary plus the turns not summarised yet
+CREATE TABLE chat_session (
+    id VARCHAR(36) PRIMARY KEY,
+    username VARCHAR(255) NOT NULL,
+    summary TEXT,
+    messages TEXT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX idx_chat_session_updated_at ON chat_session (updated_at);
+
+--rollback DROP TABLE chat_session;
@@ -0,0 +1,25 @@
+--liquibase formatted sql
+
+--changeset antonrotaru:019-create-review-outbox-table
+--comment: PR comments of a review, written with its feedback in one transaction and posted by a relay
+CREATE TABLE review_outbox (
+    id BIGSERIAL PRIMARY KEY,
+    feedback_id BIGINT,
+    repo_full_name VARCHAR(255) NOT NULL,
+    pr_id BIGINT NOT NULL,
+    body TEXT NOT NULL,
+    path VARCHAR(1024),
+    line_number INT,
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    attempts INT NOT NULL DEFAULT 0,
+    last_error TEXT,
+    locked_at TIMESTAMP,
+    available_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    delivered_at TIMESTAMP,
+    CONSTRAINT fk_review_outbox_feedback FOREIGN KEY (feedback_id) REFERENCES feedback(id) ON DELETE SET NULL
+);
+
+CREATE INDEX idx_review_outbox_status_available ON review_outbox (status, available_at);
+
+--rollback DROP TABLE review_outbox;
@@ -0,0 +1,10 @@
+--liquibase formatted sql
+
+--changeset antonrotaru:020-add-review-job-checkpoint
+--comment: last completed stage of a review job and the data needed to resume from it
+ALTER TABLE review_job
+    ADD COLUMN stage VARCHAR(30),
+    ADD COLUMN checkpoint TEXT;
+
+--rollback ALTER TABLE review_job DROP COLUMN checkpoint;
+--rollback ALTER TABLE review_job DROP COLUMN stage;
@@ -0,0 +1,15 @@
+--liquibase formatted sql
+
+--changeset antonrotaru:021-add-review-job-dedupe
+--comment: webhook delivery id and PR source commit of a review job, to drop redeliveries and duplicate pushes
+ALTER TABLE review_job
+    ADD COLUMN delivery_id VARCHAR(64),
+    ADD COLUMN source_commit VARCHAR(64);
+
+CREATE UNIQUE INDEX uq_review_job_delivery_id ON review_job (delivery_id) WHERE delivery_id IS NOT NULL;
+CREATE INDEX idx_review_job_repo_pr ON review_job (repo_full_name, pr_id, status);
+
+--rollback DROP INDEX idx_review_job_repo_pr;
+--rollback DROP INDEX uq_review_job_delivery_id;
+--rollback ALTER TABLE review_job DROP COLUMN source_commit;
+--rollback ALTER TABLE review_job DROP COLUMN delivery_id;
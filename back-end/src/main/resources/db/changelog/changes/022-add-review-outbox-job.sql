@@ -0,0 +1,10 @@
+--liquibase formatted sql
+
+--changeset antonrotaru:022-add-review-outbox-job
+--comment: review job that queued an outbox entry, so entries of a superseded job are not posted
+ALTER TABLE review_outbox
+    ADD COLUMN review_job_id BIGINT,
+    ADD CONSTRAINT fk_review_outbox_review_job FOREIGN KEY (review_job_id) REFERENCES review_job(id) ON DELETE SET NULL;
+
+--rollback ALTER TABLE review_outbox DROP CONSTRAINT fk_review_outbox_review_job;
+--rollback ALTER TABLE review_outbox DROP COLUMN review_job_id;
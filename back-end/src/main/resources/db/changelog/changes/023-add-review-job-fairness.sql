@@ -0,0 +1,19 @@
+--liquibase formatted sql
+
+--changeset antonrotaru:023-add-review-job-fairness
+--comment: tenant, weights and estimated cost of a review job, for fair shortest-job-first claiming
+ALTER TABLE review_job
+    ADD COLUMN team_name VARCHAR(255),
+    ADD COLUMN tenant_weight DOUBLE PRECISION NOT NULL DEFAULT 1,
+    ADD COLUMN user_weight DOUBLE PRECISION NOT NULL DEFAULT 1,
+    ADD COLUMN estimated_cost INT,
+    ADD COLUMN started_at TIMESTAMP;
+
+CREATE INDEX idx_review_job_started_at ON review_job (started_at);
+
+--rollback DROP INDEX idx_review_job_started_at;
+--rollback ALTER TABLE review_job DROP COLUMN started_at;
+--rollback ALTER TABLE review_job DROP COLUMN estimated_cost;
+--rollback ALTER TABLE review_job DROP COLUMN user_weight;
+--rollback ALTER TABLE review_job DROP COLUMN tenant_weight;
+--rollback ALTER TABLE review_job DROP COLUMN team_name;
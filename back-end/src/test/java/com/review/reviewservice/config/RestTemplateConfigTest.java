@@ -0,0 +1,118 @@
+package com.review.reviewservice.config;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RestTemplateConfigTest {
+
+	private final RestTemplateConfig config = new RestTemplateConfig();
+	private final HttpClientProperties properties = new HttpClientProperties();
+	private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+	private final List<String> acceptEncodings = new CopyOnWriteArrayList<>();
+	private HttpServer server;
+	private ConnectionProvider connections;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/plain", exchange -> {
+			clientPorts.add(exchange.getRemoteAddress().getPort());
+			byte[] body = "hello".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.createContext("/gzip", exchange -> {
+			acceptEncodings.add(String.valueOf(exchange.getRequestHeaders().getFirst("Accept-Encoding")));
+			byte[] body = gzip("compressed hello");
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.createContext("/slow", exchange -> {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		server.start();
+	}
+
+	@AfterEach
+	void tearDown() {
+		server.stop(0);
+		if (connections != null) {
+			connections.dispose();
+		}
+	}
+
+	@Test
+	void reusesPooledConnectionsForSequentialRequests() {
+		RestTemplate restTemplate = restTemplate();
+
+		for (int i = 0; i < 10; i++) {
+			assertEquals("hello", restTemplate.getForObject(url("/plain"), String.class));
+		}
+
+		// A connection goes back to the pool just after its response is read, so the next request may open another
+		assertTrue(clientPorts.size() <= 3, () -> clientPorts.size() + " connections for 10 requests");
+	}
+
+	@Test
+	void asksForAndDecodesCompressedResponses() {
+		String body = restTemplate().getForObject(url("/gzip"), String.class);
+
+		assertEquals("compressed hello", body);
+		assertEquals(List.of("gzip"), acceptEncodings);
+	}
+
+	@Test
+	void givesUpOnAResponseAfterTheReadTimeout() {
+		properties.setReadTimeout(Duration.ofMillis(200));
+		RestTemplate restTemplate = restTemplate();
+
+		assertThrows(ResourceAccessException.class, () -> restTemplate.getForObject(url("/slow"), String.class));
+	}
+
+	private RestTemplate restTemplate() {
+		connections = config.outboundConnectionProvider(properties);
+		return config.restTemplate(config.outboundHttpClient(connections, properties));
+	}
+
+	private String url(String path) {
+		return "http://localhost:" + server.getAddress().getPort() + path;
+	}
+
+	private static byte[] gzip(String text) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (OutputStream out = new GZIPOutputStream(bytes)) {
+			out.write(text.getBytes(StandardCharsets.UTF_8));
+		}
+		return bytes.toByteArray();
+	}
+}
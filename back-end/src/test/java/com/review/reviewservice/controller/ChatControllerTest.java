@@ -0,0 +1,53 @@
+package com.review.reviewservice.controller;
+
+import com.review.reviewservice.dto.ChatRequestDto;
+import com.review.reviewservice.dto.ChatResponseDto;
+import com.review.reviewservice.dto.MessageDto;
+import com.review.reviewservice.service.ChatService;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+
+import java.security.Principal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChatControllerTest {
+
+	private static final List<MessageDto> HISTORY = List.of(new MessageDto("user", "hi"));
+
+	private final ChatService chatService = mock(ChatService.class);
+	private final ChatController controller = new ChatController(chatService);
+	private final Principal alice = () -> "alice";
+
+	@Test
+	void streamsEveryPieceOfTheReplyAsAnEvent() {
+		when(chatService.chatStream("chatgpt", "gpt-4o", "alice", HISTORY)).thenReturn(Flux.just("Hel", "lo"));
+
+		List<ServerSentEvent<ChatResponseDto>> events = controller
+				.chatStream(new ChatRequestDto("chatgpt", "gpt-4o", null, null, HISTORY), alice)
+				.collectList().block();
+
+		assertEquals(List.of("Hel", "lo"), events.stream().map(event -> event.data().reply()).toList());
+		assertNull(events.get(0).event());
+	}
+
+	@Test
+	void failureEndsTheStreamWithAnErrorEvent() {
+		when(chatService.chatStream("chatgpt", "gpt-4o", "alice", HISTORY))
+				.thenReturn(Flux.concat(Flux.just("Hel"), Flux.error(new IllegalStateException("provider down"))));
+
+		List<ServerSentEvent<ChatResponseDto>> events = controller
+				.chatStream(new ChatRequestDto("chatgpt", "gpt-4o", null, null, HISTORY), alice)
+				.collectList().block();
+
+		assertEquals(2, events.size());
+		assertEquals("error", events.get(1).event());
+		assertTrue(events.get(1).data().reply().contains("provider down"));
+	}
+}
@@ -0,0 +1,102 @@
+package com.review.reviewservice.controller;
+
+import com.review.reviewservice.config.WebhookAdmissionProperties;
+import com.review.reviewservice.model.entity.ReviewJobStatus;
+import com.review.reviewservice.model.repository.ReviewJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class WebhookAdmissionInterceptorTest {
+
+	private final WebhookAdmissionProperties properties = new WebhookAdmissionProperties();
+	private final ReviewJobRepository reviewJobRepository = mock(ReviewJobRepository.class);
+
+	@BeforeEach
+	void setUp() {
+		properties.setBurst(3);
+		properties.setRequestsPerMinute(60);
+	}
+
+	@Test
+	void admitsABurstPerTokenThenAsksToRetryLater() throws Exception {
+		WebhookAdmissionInterceptor interceptor = new WebhookAdmissionInterceptor(properties, reviewJobRepository);
+
+		for (int i = 0; i < 3; i++) {
+			assertTrue(interceptor.preHandle(delivery("token-a"), new MockHttpServletResponse(), null));
+		}
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertFalse(interceptor.preHandle(delivery("token-a"), response, null));
+
+		assertEquals(429, response.getStatus());
+		// One delivery per second at 60 per minute
+		assertEquals("1", response.getHeader("Retry-After"));
+		assertTrue(interceptor.preHandle(delivery("token-b"), new MockHttpServletResponse(), null));
+		assertEquals(1L, interceptor.stats().get("rateLimited"));
+	}
+
+	@Test
+	void acknowledgesEventsThatAreNeverReviewed() throws Exception {
+		WebhookAdmissionInterceptor interceptor = new WebhookAdmissionInterceptor(properties, reviewJobRepository);
+		MockHttpServletRequest request = delivery("token-a");
+		request.addHeader("X-Event-Key", "repo:push");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		assertFalse(interceptor.preHandle(request, response, null));
+
+		assertEquals(200, response.getStatus());
+		assertEquals(1L, interceptor.stats().get("ignoredEvents"));
+	}
+
+	@Test
+	void shedsDeliveriesWhileTheBacklogIsOverTheLimit() throws Exception {
+		properties.setMaxPendingReviews(10);
+		when(reviewJobRepository.countByStatus(ReviewJobStatus.PENDING)).thenReturn(11L);
+		WebhookAdmissionInterceptor interceptor = new WebhookAdmissionInterceptor(properties, reviewJobRepository);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		assertFalse(interceptor.preHandle(delivery("token-a"), response, null));
+
+		assertEquals(429, response.getStatus());
+		assertEquals(Long.toString(properties.getBacklogRetryAfter().toSeconds()), response.getHeader("Retry-After"));
+		assertEquals(1L, interceptor.stats().get("shed"));
+	}
+
+	@Test
+	void keepsAtMostTheConfiguredNumberOfBuckets() throws Exception {
+		properties.setMaxTokens(2);
+		WebhookAdmissionInterceptor interceptor = new WebhookAdmissionInterceptor(properties, reviewJobRepository);
+
+		for (int i = 0; i < 100; i++) {
+			interceptor.preHandle(delivery("random-" + i), new MockHttpServletResponse(), null);
+		}
+
+		assertEquals(2, interceptor.stats().get("tokens"));
+	}
+
+	@Test
+	void letsEverythingThroughWhenDisabled() throws Exception {
+		properties.setEnabled(false);
+		WebhookAdmissionInterceptor interceptor = new WebhookAdmissionInterceptor(properties, reviewJobRepository);
+
+		for (int i = 0; i < 10; i++) {
+			assertTrue(interceptor.preHandle(delivery("token-a"), new MockHttpServletResponse(), null));
+		}
+	}
+
+	private static MockHttpServletRequest delivery(String token) {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/webhook/" + token);
+		request.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, Map.of("token", token));
+		return request;
+	}
+}
@@ -0,0 +1,117 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.AiProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AiConcurrencyGovernorTest {
+
+	private final AiProperties aiProperties = new AiProperties();
+	private final List<String> granted = new CopyOnWriteArrayList<>();
+	private final List<AiConcurrencyGovernor.Permit> permits = new CopyOnWriteArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		aiProperties.getGovernor().getDefaults().setMaxConcurrent(1);
+	}
+
+	@Test
+	void servesChatBeforeQueuedReviews() {
+		AiConcurrencyGovernor governor = new AiConcurrencyGovernor(aiProperties);
+		AiConcurrencyGovernor.Permit running = governor.acquire("chatgpt", AiConcurrencyGovernor.Priority.BACKGROUND, 10)
+				.block();
+		request(governor, "review 1", AiConcurrencyGovernor.Priority.BACKGROUND, 10);
+		request(governor, "review 2", AiConcurrencyGovernor.Priority.BACKGROUND, 10);
+		request(governor, "chat", AiConcurrencyGovernor.Priority.INTERACTIVE, 10);
+		assertTrue(granted.isEmpty());
+
+		assertNotNull(running);
+		running.release();
+		assertEquals(List.of("chat"), granted);
+
+		permits.get(0).release();
+		permits.get(0).release();
+		assertEquals(List.of("chat", "review 1"), granted);
+
+		permits.get(1).release();
+		assertEquals(List.of("chat", "review 1", "review 2"), granted);
+	}
+
+	@Test
+	void providersHaveSeparateLimits() {
+		AiConcurrencyGovernor governor = new AiConcurrencyGovernor(aiProperties);
+		governor.acquire("chatgpt", AiConcurrencyGovernor.Priority.BACKGROUND, 10).block();
+
+		AiConcurrencyGovernor.Permit permit = governor.acquire("gemini", AiConcurrencyGovernor.Priority.BACKGROUND, 10)
+				.block(Duration.ofSeconds(1));
+
+		assertNotNull(permit);
+	}
+
+	@Test
+	void cancelledWaitersLeaveTheQueue() {
+		AiConcurrencyGovernor governor = new AiConcurrencyGovernor(aiProperties);
+		AiConcurrencyGovernor.Permit running = governor.acquire("chatgpt", AiConcurrencyGovernor.Priority.BACKGROUND, 10)
+				.block();
+		Disposable cancelled = request(governor, "cancelled", AiConcurrencyGovernor.Priority.INTERACTIVE, 10);
+		request(governor, "review", AiConcurrencyGovernor.Priority.BACKGROUND, 10);
+
+		cancelled.dispose();
+		assertNotNull(running);
+		running.release();
+
+		assertEquals(List.of("review"), granted);
+	}
+
+	@Test
+	void failsWhenNoSlotFreesUpWithinTheMaximumWait() {
+		aiProperties.getGovernor().setInteractiveMaxWait(Duration.ofMillis(50));
+		AiConcurrencyGovernor governor = new AiConcurrencyGovernor(aiProperties);
+		governor.acquire("chatgpt", AiConcurrencyGovernor.Priority.BACKGROUND, 10).block();
+
+		assertThrows(CodeReviewServiceException.class,
+				() -> governor.acquire("chatgpt", AiConcurrencyGovernor.Priority.INTERACTIVE, 10).block());
+	}
+
+	@Test
+	void holdsCallsBackOnceTheTokenBudgetOfTheMinuteIsUsed() {
+		AiProperties.Governor.Limits limits = aiProperties.getGovernor().getDefaults();
+		limits.setMaxConcurrent(10);
+		limits.setTokensPerMinute(100);
+		AiConcurrencyGovernor governor = new AiConcurrencyGovernor(aiProperties);
+
+		request(governor, "large", AiConcurrencyGovernor.Priority.BACKGROUND, 80);
+		request(governor, "too much", AiConcurrencyGovernor.Priority.BACKGROUND, 30);
+
+		assertEquals(List.of("large"), granted);
+	}
+
+	@Test
+	void letsACallLargerThanTheWholeBudgetRunAlone() {
+		AiProperties.Governor.Limits limits = aiProperties.getGovernor().getDefaults();
+		limits.setTokensPerMinute(100);
+		AiConcurrencyGovernor governor = new AiConcurrencyGovernor(aiProperties);
+
+		request(governor, "huge", AiConcurrencyGovernor.Priority.BACKGROUND, 500);
+
+		assertEquals(List.of("huge"), granted);
+	}
+
+	private Disposable request(AiConcurrencyGovernor governor, String name, AiConcurrencyGovernor.Priority priority,
+							   int tokens) {
+		return governor.acquire("chatgpt", priority, tokens).subscribe(permit -> {
+			permits.add(permit);
+			granted.add(name);
+		});
+	}
+}
@@ -0,0 +1,140 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.BitbucketProperties;
+import com.review.reviewservice.exceptions.BitbucketRateLimitException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BitbucketClientTest {
+
+	private static final URI URL = URI.create("https://api.bitbucket.org/2.0/repositories/team/repo");
+
+	private final RestTemplate restTemplate = mock(RestTemplate.class);
+	private final BitbucketProperties properties = new BitbucketProperties();
+
+	@BeforeEach
+	void setUp() {
+		BitbucketProperties.RateLimit rateLimit = properties.getRateLimit();
+		rateLimit.setInitialConcurrency(2);
+		rateLimit.setMaxConcurrency(4);
+		rateLimit.setMaxRetries(2);
+		rateLimit.setInitialBackoff(Duration.ofMillis(1));
+		rateLimit.setMaxBackoff(Duration.ofMillis(5));
+	}
+
+	@Test
+	void readsRetryAfterInSecondsOrAsHttpDate() {
+		assertEquals(Duration.ofSeconds(30), BitbucketClient.retryAfter(retryAfter(" 30 ")));
+		assertEquals(Duration.ZERO, BitbucketClient.retryAfter(retryAfter("-5")));
+
+		String inTwoMinutes = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(2));
+		Duration untilDate = BitbucketClient.retryAfter(retryAfter(inTwoMinutes));
+		assertTrue(untilDate.compareTo(Duration.ofSeconds(110)) > 0 && untilDate.compareTo(Duration.ofSeconds(120)) <= 0);
+
+		String past = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).minusMinutes(2));
+		assertEquals(Duration.ZERO, BitbucketClient.retryAfter(retryAfter(past)));
+	}
+
+	@Test
+	void ignoresAMissingOrUnreadableRetryAfter() {
+		assertNull(BitbucketClient.retryAfter(null));
+		assertNull(BitbucketClient.retryAfter(new HttpHeaders()));
+		assertNull(BitbucketClient.retryAfter(retryAfter("soon")));
+	}
+
+	@Test
+	void growsConcurrencyAdditivelyOnSuccess() {
+		when(restTemplate.exchange(eq(URL), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
+				.thenReturn(ResponseEntity.ok("{}"));
+		BitbucketClient client = new BitbucketClient(restTemplate, properties);
+
+		client.exchange(URL, HttpMethod.GET, HttpEntity.EMPTY, String.class);
+		client.exchange(URL, HttpMethod.GET, HttpEntity.EMPTY, String.class);
+
+		// 2 + 1/2 + 1/2.5
+		assertEquals(2.9, client.stats().get("concurrencyLimit"));
+	}
+
+	@Test
+	void stopsGrowingNearTheRateLimit() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("X-RateLimit-Limit", "1000");
+		headers.set("X-RateLimit-Remaining", "100");
+		when(restTemplate.exchange(eq(URL), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
+				.thenReturn(ResponseEntity.ok().headers(headers).body("{}"));
+		BitbucketClient client = new BitbucketClient(restTemplate, properties);
+
+		client.exchange(URL, HttpMethod.GET, HttpEntity.EMPTY, String.class);
+
+		Map<String, Object> stats = client.stats();
+		assertEquals(2.0, stats.get("concurrencyLimit"));
+		assertEquals(100L, stats.get("remaining"));
+	}
+
+	@Test
+	void halvesConcurrencyWhenThrottledAndRetries() {
+		when(restTemplate.exchange(eq(URL), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
+				.thenThrow(throttled("0"))
+				.thenReturn(ResponseEntity.ok("{}"));
+		BitbucketClient client = new BitbucketClient(restTemplate, properties);
+
+		assertEquals("{}", client.exchange(URL, HttpMethod.GET, HttpEntity.EMPTY, String.class).getBody());
+
+		Map<String, Object> stats = client.stats();
+		// 2 * 0.5, then + 1/1 for the successful retry
+		assertEquals(2.0, stats.get("concurrencyLimit"));
+		assertEquals(1L, stats.get("throttled"));
+		assertEquals(1L, stats.get("retries"));
+	}
+
+	@Test
+	void givesUpAfterTheLastRetry() {
+		when(restTemplate.exchange(eq(URL), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
+				.thenThrow(throttled(null));
+		BitbucketClient client = new BitbucketClient(restTemplate, properties);
+
+		assertThrows(BitbucketRateLimitException.class,
+				() -> client.exchange(URL, HttpMethod.GET, HttpEntity.EMPTY, String.class));
+
+		Map<String, Object> stats = client.stats();
+		assertEquals(1.0, stats.get("concurrencyLimit"));
+		assertEquals(3L, stats.get("throttled"));
+		assertEquals(2L, stats.get("retries"));
+		assertEquals(1L, stats.get("exhausted"));
+	}
+
+	private static HttpHeaders retryAfter(String value) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.RETRY_AFTER, value);
+		return headers;
+	}
+
+	private static HttpClientErrorException throttled(String retryAfter) {
+		return HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests",
+				retryAfter == null ? new HttpHeaders() : retryAfter(retryAfter), new byte[0], StandardCharsets.UTF_8);
+	}
+}
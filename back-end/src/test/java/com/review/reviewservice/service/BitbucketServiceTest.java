@@ -0,0 +1,261 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.BitbucketProperties;
+import com.review.reviewservice.config.FileContentCacheProperties;
+import com.review.reviewservice.dto.BitbucketWebhookPayload;
+import com.review.reviewservice.dto.DiffstatEntry;
+import com.review.reviewservice.dto.DiffstatResponse;
+import com.review.reviewservice.dto.FileData;
+import com.review.reviewservice.dto.FileInfo;
+import com.review.reviewservice.exceptions.BitbucketRateLimitException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BitbucketServiceTest {
+
+	private static final String REPO = "acme/shop";
+	private static final String API = "https://api.bitbucket.org/2.0/repositories/" + REPO;
+
+	private final BitbucketClient bitbucketClient = mock(BitbucketClient.class);
+	private final BitbucketProperties properties = new BitbucketProperties();
+	private BitbucketService service;
+
+	@BeforeEach
+	void setUp() {
+		properties.setUsername("reviewer");
+		properties.setPassword("secret");
+		service = new BitbucketService(bitbucketClient, properties, new FileContentCache(new FileContentCacheProperties()));
+	}
+
+	@Test
+	void downloadsEachFileOnceForTheSameCommit() {
+		pullRequestAt("aaa", "src/App.java", "src/Util.java");
+		content("aaa", "src/App.java", "class App {}");
+		content("aaa", "src/Util.java", "class Util {}");
+
+		service.getModifiedFiles(payload("aaa"));
+		List<FileData> again = service.getModifiedFiles(payload("aaa"));
+
+		assertEquals(List.of("class App {}", "class Util {}"), contents(again));
+		verify(bitbucketClient, times(1)).exchange(eq(src("aaa", "src/App.java")), eq(HttpMethod.GET), any(), eq(String.class));
+	}
+
+	@Test
+	void downloadsOnlyTheFilesChangedByARePush() {
+		pullRequestAt("aaa", "src/App.java", "src/Util.java");
+		content("aaa", "src/App.java", "class App {}");
+		content("aaa", "src/Util.java", "class Util {}");
+		service.getModifiedFiles(payload("aaa"));
+
+		pullRequestAt("bbb", "src/App.java", "src/Util.java");
+		diffstat(API + "/diffstat/bbb..aaa", "bbb", "src/Util.java");
+		content("bbb", "src/Util.java", "class Util { int x; }");
+		List<FileData> files = service.getModifiedFiles(payload("bbb"));
+
+		assertEquals(List.of("class App {}", "class Util { int x; }"), contents(files));
+		verify(bitbucketClient, never()).exchange(eq(src("bbb", "src/App.java")), eq(HttpMethod.GET), any(), eq(String.class));
+	}
+
+	@Test
+	void downloadsEverythingWhenTheChangesOfARePushAreUnknown() {
+		pullRequestAt("aaa", "src/App.java");
+		content("aaa", "src/App.java", "class App {}");
+		service.getModifiedFiles(payload("aaa"));
+
+		// No diffstat between the two heads, e.g. after a force-push
+		pullRequestAt("bbb", "src/App.java");
+		content("bbb", "src/App.java", "class App { }");
+		List<FileData> files = service.getModifiedFiles(payload("bbb"));
+
+		assertEquals(List.of("class App { }"), contents(files));
+	}
+
+	@Test
+	void downloadsConcurrentlyUpToThePerPrLimitAndKeepsTheDiffstatOrder() {
+		properties.getFetch().setPerPrConcurrency(2);
+		pullRequestAt("aaa", "a.java", "b.java", "c.java", "d.java", "e.java");
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+		when(bitbucketClient.exchange(any(URI.class), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
+				.thenAnswer(invocation -> {
+					peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+					Thread.sleep(50);
+					running.decrementAndGet();
+					String path = invocation.getArgument(0, URI.class).getPath();
+					return ResponseEntity.ok(path.substring(path.lastIndexOf('/') + 1));
+				});
+
+		List<FileData> files = service.getModifiedFiles(payload("aaa"));
+
+		assertEquals(List.of("a.java", "b.java", "c.java", "d.java", "e.java"), contents(files));
+		assertEquals(2, peak.get());
+	}
+
+	@Test
+	void leavesOutAFileThatFailsToDownload() {
+		pullRequestAt("aaa", "src/App.java", "src/Util.java");
+		content("aaa", "src/App.java", "class App {}");
+		when(bitbucketClient.exchange(eq(src("aaa", "src/Util.java")), eq(HttpMethod.GET), any(HttpEntity.class),
+				eq(String.class))).thenThrow(new IllegalStateException("connection reset"));
+
+		List<FileData> files = service.getModifiedFiles(payload("aaa"));
+
+		assertEquals(List.of("class App {}"), contents(files));
+	}
+
+	@Test
+	void throttledDownloadFailsTheWholeFetch() {
+		pullRequestAt("aaa", "src/App.java", "src/Util.java");
+		content("aaa", "src/App.java", "class App {}");
+		when(bitbucketClient.exchange(eq(src("aaa", "src/Util.java")), eq(HttpMethod.GET), any(HttpEntity.class),
+				eq(String.class))).thenThrow(new BitbucketRateLimitException("throttled"));
+
+		assertThrows(BitbucketRateLimitException.class, () -> service.getModifiedFiles(payload("aaa")));
+	}
+
+	@Test
+	void changedPathsIncludeBothSidesOfARename() {
+		FileInfo renamedFrom = new FileInfo();
+		renamedFrom.setPath("src/Old.java");
+		FileInfo renamedTo = new FileInfo();
+		renamedTo.setPath("src/New.java");
+		DiffstatEntry rename = new DiffstatEntry();
+		rename.setOld(renamedFrom);
+		rename.setNewFile(renamedTo);
+		DiffstatResponse response = new DiffstatResponse();
+		response.setValues(List.of(rename));
+		when(bitbucketClient.exchange(eq(URI.create(API + "/diffstat/bbb..aaa")), eq(HttpMethod.GET),
+				any(HttpEntity.class), eq(DiffstatResponse.class))).thenReturn(ResponseEntity.ok(response));
+
+		assertEquals(Optional.of(Set.of("src/Old.java", "src/New.java")), service.getChangedPaths(REPO, "aaa", "bbb"));
+	}
+
+	@Test
+	void changedPathsAreUnknownWhenTheRangeCannotBeResolved() {
+		when(bitbucketClient.exchange(eq(URI.create(API + "/diffstat/bbb..gone")), eq(HttpMethod.GET),
+				any(HttpEntity.class), eq(DiffstatResponse.class))).thenThrow(new IllegalStateException("404"));
+
+		assertTrue(service.getChangedPaths(REPO, "gone", "bbb").isEmpty());
+	}
+
+	@Test
+	void fileListReadsAtMostTheConfiguredDiffstatPages() {
+		properties.getFetch().setMaxDiffstatPages(3);
+		String url = API + "/pullrequests/1/diffstat?at=aaa";
+		FileInfo.Self self = new FileInfo.Self();
+		self.setHref(src("aaa", "src/App.java").toString());
+		FileInfo.Links links = new FileInfo.Links();
+		links.setSelf(self);
+		FileInfo file = new FileInfo();
+		file.setPath("src/App.java");
+		file.setLinks(links);
+		DiffstatEntry entry = new DiffstatEntry();
+		entry.setNewFile(file);
+		DiffstatResponse endless = new DiffstatResponse();
+		endless.setValues(List.of(entry));
+		endless.setNext(url);
+		when(bitbucketClient.exchange(eq(URI.create(url)), eq(HttpMethod.GET), any(HttpEntity.class),
+				eq(DiffstatResponse.class))).thenReturn(ResponseEntity.ok(endless));
+		content("aaa", "src/App.java", "class App {}");
+
+		assertEquals(3, service.getModifiedFiles(payload("aaa")).size());
+		verify(bitbucketClient, times(3)).exchange(eq(URI.create(url)), eq(HttpMethod.GET), any(HttpEntity.class),
+				eq(DiffstatResponse.class));
+	}
+
+	@Test
+	void changedLineCountReadsAtMostTheConfiguredPages() {
+		properties.getFetch().setMaxDiffstatPages(3);
+		String url = API + "/pullrequests/1/diffstat?at=aaa";
+		DiffstatEntry entry = new DiffstatEntry();
+		entry.setLinesAdded(4);
+		entry.setLinesRemoved(1);
+		DiffstatResponse endless = new DiffstatResponse();
+		endless.setValues(List.of(entry));
+		endless.setNext(url);
+		when(bitbucketClient.exchange(eq(URI.create(url)), eq(HttpMethod.GET), any(HttpEntity.class),
+				eq(DiffstatResponse.class))).thenReturn(ResponseEntity.ok(endless));
+
+		assertEquals(OptionalInt.of(15), service.getChangedLineCount(payload("aaa")));
+		verify(bitbucketClient, times(3)).exchange(eq(URI.create(url)), eq(HttpMethod.GET), any(HttpEntity.class),
+				eq(DiffstatResponse.class));
+	}
+
+	private void pullRequestAt(String commit, String... paths) {
+		diffstat(API + "/pullrequests/1/diffstat?at=" + commit, commit, paths);
+	}
+
+	private void diffstat(String url, String commit, String... paths) {
+		DiffstatResponse response = new DiffstatResponse();
+		response.setValues(Arrays.stream(paths).map(path -> {
+			FileInfo.Self self = new FileInfo.Self();
+			self.setHref(src(commit, path).toString());
+			FileInfo.Links links = new FileInfo.Links();
+			links.setSelf(self);
+			FileInfo file = new FileInfo();
+			file.setPath(path);
+			file.setLinks(links);
+			DiffstatEntry entry = new DiffstatEntry();
+			entry.setNewFile(file);
+			return entry;
+		}).toList());
+		when(bitbucketClient.exchange(eq(URI.create(url)), eq(HttpMethod.GET), any(HttpEntity.class),
+				eq(DiffstatResponse.class))).thenReturn(ResponseEntity.ok(response));
+	}
+
+	private void content(String commit, String path, String content) {
+		when(bitbucketClient.exchange(eq(src(commit, path)), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
+				.thenReturn(ResponseEntity.ok(content));
+	}
+
+	private static URI src(String commit, String path) {
+		return URI.create(API + "/src/" + commit + "/" + path);
+	}
+
+	private static List<String> contents(List<FileData> files) {
+		return files.stream().map(FileData::getContent).toList();
+	}
+
+	private static BitbucketWebhookPayload payload(String commit) {
+		BitbucketWebhookPayload.Link diffstat = new BitbucketWebhookPayload.Link();
+		diffstat.setHref(API + "/pullrequests/1/diffstat?at=" + commit);
+		BitbucketWebhookPayload.Links links = new BitbucketWebhookPayload.Links();
+		links.setDiffstat(diffstat);
+		BitbucketWebhookPayload.Commit head = new BitbucketWebhookPayload.Commit();
+		head.setHash(commit);
+		BitbucketWebhookPayload.Endpoint source = new BitbucketWebhookPayload.Endpoint();
+		source.setCommit(head);
+		BitbucketWebhookPayload.PullRequest pullRequest = new BitbucketWebhookPayload.PullRequest();
+		pullRequest.setId(1);
+		pullRequest.setLinks(links);
+		pullRequest.setSource(source);
+		BitbucketWebhookPayload.Repository repository = new BitbucketWebhookPayload.Repository();
+		repository.setFullName(REPO);
+		BitbucketWebhookPayload payload = new BitbucketWebhookPayload();
+		payload.setRepository(repository);
+		payload.setPullRequest(pullRequest);
+		return payload;
+	}
+}
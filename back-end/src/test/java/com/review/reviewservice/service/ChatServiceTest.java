@@ -0,0 +1,146 @@
+package com.review.reviewservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.review.reviewservice.config.ChatSessionProperties;
+import com.review.reviewservice.dto.ChatResponseDto;
+import com.review.reviewservice.dto.MessageDto;
+import com.review.reviewservice.exceptions.ChatSessionExpiredException;
+import com.review.reviewservice.model.repository.ChatSessionRepository;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChatServiceTest {
+
+	private final ChatSessionProperties properties = new ChatSessionProperties();
+	private final ChatSessionRepository repository = mock(ChatSessionRepository.class);
+	private final CodeReviewService codeReviewService = mock(CodeReviewService.class);
+	private final ChatSessionService sessions = new ChatSessionService(properties, repository, codeReviewService,
+			mock(ReviewPlanner.class), new ObjectMapper());
+	private final ChatService chatService = new ChatService(codeReviewService, sessions);
+
+	@Test
+	void unknownSessionIsReportedAsExpired() {
+		assertThrows(ChatSessionExpiredException.class,
+				() -> chatService.chat("chatgpt", "m", "alice", "gone", "hi", null));
+	}
+
+	@Test
+	void foreignSessionIsReportedAsExpired() {
+		when(codeReviewService.chat(anyString(), anyString(), anyList())).thenReturn("hello");
+		String id = chatService.chat("chatgpt", "m", "alice", null, "hi", null).sessionId();
+
+		assertThrows(ChatSessionExpiredException.class,
+				() -> chatService.chat("chatgpt", "m", "bob", id, "hi", null));
+	}
+
+	@Test
+	void expiredStreamEndsWithExpiredError() {
+		Flux<ChatResponseDto> replies = chatService.chatStream("chatgpt", "m", "alice", "gone", "hi", null);
+
+		assertThrows(ChatSessionExpiredException.class, replies::blockLast);
+	}
+
+	@Test
+	void newSessionCarriesOnFromClientHistory() {
+		List<List<MessageDto>> prompts = new CopyOnWriteArrayList<>();
+		when(codeReviewService.chat(anyString(), anyString(), anyList())).thenAnswer(invocation -> {
+			prompts.add(List.copyOf(invocation.getArgument(2)));
+			return "reply";
+		});
+		List<MessageDto> history = List.of(
+				new MessageDto("user", "What does Foo do?"),
+				new MessageDto("assistant", "It parses diffs."),
+				new MessageDto("system", "ignored"));
+
+		ChatResponseDto first = chatService.chat("chatgpt", "m", "alice", null, "And Bar?", history);
+		chatService.chat("chatgpt", "m", "alice", first.sessionId(), "Thanks", null);
+
+		assertNotNull(first.sessionId());
+		assertEquals(List.of(history.get(0), history.get(1), new MessageDto("user", "And Bar?")), prompts.get(0));
+		assertEquals(5, prompts.get(1).size());
+		assertEquals(new MessageDto("assistant", "reply"), prompts.get(1).get(3));
+	}
+
+	@Test
+	void concurrentTurnsOfOneSessionRunOneAfterTheOther() throws Exception {
+		when(codeReviewService.chat(anyString(), anyString(), anyList())).thenReturn("first");
+		String id = chatService.chat("chatgpt", "m", "alice", null, "hi", null).sessionId();
+
+		CountDownLatch inFirst = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<List<MessageDto>> prompts = new CopyOnWriteArrayList<>();
+		when(codeReviewService.chat(anyString(), anyString(), anyList())).thenAnswer(invocation -> {
+			List<MessageDto> prompt = List.copyOf(invocation.getArgument(2));
+			prompts.add(prompt);
+			if (prompts.size() == 1) {
+				inFirst.countDown();
+				assertTrue(release.await(5, TimeUnit.SECONDS));
+				return "answer A";
+			}
+			return "answer B";
+		});
+
+		CompletableFuture<ChatResponseDto> a = CompletableFuture.supplyAsync(
+				() -> chatService.chat("chatgpt", "m", "alice", id, "A", null));
+		assertTrue(inFirst.await(5, TimeUnit.SECONDS));
+		CompletableFuture<ChatResponseDto> b = CompletableFuture.supplyAsync(
+				() -> chatService.chat("chatgpt", "m", "alice", id, "B", null));
+		Thread.sleep(100);
+		assertEquals(1, prompts.size(), "second turn must wait for the first");
+		release.countDown();
+		a.get(5, TimeUnit.SECONDS);
+		b.get(5, TimeUnit.SECONDS);
+
+		List<MessageDto> second = prompts.get(1);
+		assertEquals(List.of(
+				new MessageDto("user", "hi"), new MessageDto("assistant", "first"),
+				new MessageDto("user", "A"), new MessageDto("assistant", "answer A"),
+				new MessageDto("user", "B")), second);
+	}
+
+	@Test
+	void turnWaitingTooLongFails() throws Exception {
+		properties.setTurnWait(Duration.ofMillis(50));
+		ChatSessionService.Session session = sessions.start("alice", null);
+		sessions.beginTurn(session);
+
+		assertThrows(IllegalStateException.class,
+				() -> chatService.chat("chatgpt", "m", "alice", session.getId(), "hi", null));
+
+		sessions.endTurn(session);
+		when(codeReviewService.chat(anyString(), anyString(), anyList())).thenReturn("ok");
+		assertEquals("ok", chatService.chat("chatgpt", "m", "alice", session.getId(), "hi", null).reply());
+	}
+
+	@Test
+	void streamedTurnReleasesSessionWhenCancelled() {
+		when(codeReviewService.chatStream(anyString(), anyString(), anyString(), any()))
+				.thenReturn(Flux.never());
+		ChatSessionService.Session session = sessions.start("alice", null);
+
+		chatService.chatStream("chatgpt", "m", "alice", session.getId(), "hi", null)
+				.take(Duration.ofMillis(100))
+				.blockLast(Duration.ofSeconds(5));
+
+		when(codeReviewService.chat(anyString(), anyString(), anyList())).thenReturn("ok");
+		properties.setTurnWait(Duration.ofMillis(500));
+		assertEquals("ok", chatService.chat("chatgpt", "m", "alice", session.getId(), "hi", null).reply());
+	}
+}
@@ -0,0 +1,200 @@
+package com.review.reviewservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.review.reviewservice.config.AiProperties;
+import com.review.reviewservice.config.ReviewCacheProperties;
+import com.review.reviewservice.dto.FileData;
+import com.review.reviewservice.dto.MessageDto;
+import com.review.reviewservice.model.repository.ReviewCacheRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class CodeReviewServiceTest {
+
+	private final AiProperties properties = new AiProperties();
+	private final Map<String, Duration> latency = new HashMap<>();
+	private final List<String> requests = new CopyOnWriteArrayList<>();
+	private final AtomicInteger failing = new AtomicInteger();
+	private ProviderResilience resilience;
+	private CodeReviewService service;
+
+	@BeforeEach
+	void setUp() {
+		provider(properties.getChatgpt(), "https://chatgpt.test/v1/chat");
+		provider(properties.getGrok(), "https://grok.test/v1/chat");
+		properties.getResilience().setMinCalls(4);
+		properties.getHedging().setEnabled(true);
+		properties.getHedging().setMinDelay(Duration.ofMillis(50));
+		latency.put("chatgpt.test", Duration.ofMillis(400));
+		latency.put("grok.test", Duration.ZERO);
+
+		WebClient webClient = WebClient.builder()
+				.exchangeFunction(request -> {
+					String host = request.url().getHost();
+					requests.add(host);
+					if (failing.getAndDecrement() > 0) {
+						return Mono.just(ClientResponse.create(HttpStatus.BAD_GATEWAY).build());
+					}
+					if (request.headers().getAccept().contains(MediaType.TEXT_EVENT_STREAM)) {
+						return Mono.just(ClientResponse.create(HttpStatus.OK)
+								.header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+								.body(delta("from ") + delta(host) + "data: {\"choices\":[{\"delta\":{}}]}\n\n"
+										+ "data: [DONE]\n\n")
+								.build());
+					}
+					return Mono.just(ClientResponse.create(HttpStatus.OK)
+									.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+									.body("{\"choices\":[{\"message\":{\"content\":\"from " + host + "\"}}]}")
+									.build())
+							.delayElement(latency.get(host));
+				})
+				.build();
+		resilience = new ProviderResilience(properties);
+		ReviewMerger merger = new ReviewMerger();
+		service = new CodeReviewService(properties, webClient, resilience, new AiConcurrencyGovernor(properties),
+				new ObjectMapper(), new ReviewPlanner(), merger,
+				new ReviewCache(mock(ReviewCacheRepository.class), new ReviewCacheProperties(), merger, new ObjectMapper()));
+		// Calls of about 10 ms make a 400 ms call slow enough to hedge
+		for (int i = 0; i < 4; i++) {
+			resilience.onSuccess(resilience.tryAcquire("chatgpt").orElseThrow(), ProviderResilience.CallClass.CHAT,
+					TimeUnit.MILLISECONDS.toNanos(10));
+		}
+	}
+
+	@Test
+	void slowCallIsHedgedToTheNextTarget() {
+		properties.getResilience().setFailover(Map.of("chatgpt", List.of("grok:grok-2")));
+
+		String reply = service.summarize("chatgpt", "gpt-4o", null, List.of(new MessageDto("user", "hi")));
+
+		assertEquals("from grok.test", reply);
+		assertEquals(List.of("chatgpt.test", "grok.test"), requests);
+	}
+
+	@Test
+	void slowCallWithoutAnotherTargetIsNotDuplicated() {
+		String reply = service.summarize("chatgpt", "gpt-4o", null, List.of(new MessageDto("user", "hi")));
+
+		assertEquals("from chatgpt.test", reply);
+		assertEquals(List.of("chatgpt.test"), requests);
+	}
+
+	@Test
+	void failedCallFailsOverToTheNextTarget() {
+		properties.getResilience().setFailover(Map.of("chatgpt", List.of("grok:grok-2")));
+		failing.set(1);
+
+		String reply = service.summarize("chatgpt", "gpt-4o", null, List.of(new MessageDto("user", "hi")));
+
+		assertEquals("from grok.test", reply);
+		assertEquals(List.of("chatgpt.test", "grok.test"), requests);
+	}
+
+	@Test
+	void failedBatchLeavesItsFilesUnreviewed() {
+		List<String> aspects = List.of("Correctness");
+		int prompt = properties.getReview().inputTokenBudget("test-model") - service.reviewTokenBudget("test-model", aspects);
+		// One file per batch, reviewed one after the other so that the first one fails
+		properties.getReview().setDefaultInputTokenBudget(prompt + 300);
+		properties.getReview().setMaxConcurrentBatches(1);
+		failing.set(1);
+
+		CodeReviewService.ReviewResult result = service.reviewFiles(
+				List.of(new FileData("src/Big.java", "x".repeat(800)), new FileData("src/Small.java", "y".repeat(600))),
+				"chatgpt", "test-model", aspects);
+
+		assertEquals("from chatgpt.test", result.getGeneralFeedback());
+		assertEquals(List.of("src/Big.java"), result.getUnreviewedFiles());
+	}
+
+	@Test
+	void completeReviewHasNoUnreviewedFiles() {
+		CodeReviewService.ReviewResult result = service.reviewFiles(List.of(new FileData("src/A.java", "a")),
+				"chatgpt", "test-model", List.of("Correctness"));
+
+		assertEquals("from chatgpt.test", result.getGeneralFeedback());
+		assertTrue(result.getUnreviewedFiles().isEmpty());
+	}
+
+	@Test
+	void streamedReviewForwardsEveryPieceOfTextWithItsBatch() {
+		properties.getHedging().setEnabled(false);
+		List<String> partials = new CopyOnWriteArrayList<>();
+
+		CodeReviewService.ReviewResult result = service.reviewFiles(List.of(new FileData("src/A.java", "a")),
+				"chatgpt", "test-model", List.of("Correctness"), (batch, text) -> partials.add(batch + ":" + text));
+
+		assertEquals(List.of("0:from ", "0:chatgpt.test"), partials);
+		assertEquals("from chatgpt.test", result.getGeneralFeedback());
+	}
+
+	@Test
+	void reviewIsNotStreamedWhenStreamingIsOff() {
+		properties.getHedging().setEnabled(false);
+		properties.getReview().setStreaming(false);
+		List<String> partials = new CopyOnWriteArrayList<>();
+
+		CodeReviewService.ReviewResult result = service.reviewFiles(List.of(new FileData("src/A.java", "a")),
+				"chatgpt", "test-model", List.of("Correctness"), (batch, text) -> partials.add(text));
+
+		assertTrue(partials.isEmpty());
+		assertEquals("from chatgpt.test", result.getGeneralFeedback());
+	}
+
+	@Test
+	void hedgedReviewIsNotStreamed() {
+		List<String> partials = new CopyOnWriteArrayList<>();
+
+		service.reviewFiles(List.of(new FileData("src/A.java", "a")), "chatgpt", "test-model",
+				List.of("Correctness"), (batch, text) -> partials.add(text));
+
+		assertTrue(partials.isEmpty());
+	}
+
+	@Test
+	void chatStreamEmitsTheReplyPieceByPiece() {
+		List<String> pieces = service.chatStream("chatgpt", "gpt-4o", "alice", List.of(new MessageDto("user", "hi")))
+				.collectList().block();
+
+		assertEquals(List.of("from ", "chatgpt.test"), pieces);
+	}
+
+	@Test
+	void chatStreamFailsOverWhenTheProviderFailsBeforeReplying() {
+		properties.getResilience().setFailover(Map.of("chatgpt", List.of("grok:grok-2")));
+		failing.set(1);
+
+		List<String> pieces = service.chatStream("chatgpt", "gpt-4o", "alice", List.of(new MessageDto("user", "hi")))
+				.collectList().block();
+
+		assertEquals(List.of("from ", "grok.test"), pieces);
+		assertEquals(List.of("chatgpt.test", "grok.test"), requests);
+	}
+
+	private static String delta(String text) {
+		return "data: {\"choices\":[{\"delta\":{\"content\":\"" + text + "\"}}]}\n\n";
+	}
+
+	private static void provider(AiProperties.Provider provider, String url) {
+		provider.setApiUrl(url);
+		provider.setApiKey("key");
+	}
+}
@@ -0,0 +1,130 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.FileContentCacheProperties;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileContentCacheTest {
+
+	@TempDir
+	Path directory;
+
+	private final FileContentCacheProperties properties = new FileContentCacheProperties();
+
+	@Test
+	void evictsTheLeastRecentlyUsedEntryBeyondTheHeapLimit() {
+		properties.setHeapMaxEntries(2);
+		FileContentCache cache = new FileContentCache(properties);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.get("a");
+		cache.put("c", "C");
+
+		assertEquals(Optional.of("A"), cache.get("a"));
+		assertEquals(Optional.empty(), cache.get("b"));
+		assertEquals(1L, cache.stats().get("evictions"));
+	}
+
+	@Test
+	void carriesContentOverFromThePreviousCommit() {
+		FileContentCache cache = new FileContentCache(properties);
+		cache.put("acme/shop@old:App.java", "class App {}");
+
+		assertEquals(Optional.of("class App {}"), cache.get("acme/shop@new:App.java", "acme/shop@old:App.java"));
+		assertEquals(Optional.of("class App {}"), cache.get("acme/shop@new:App.java"));
+		assertEquals(1L, cache.stats().get("carriedOver"));
+		assertEquals(0L, cache.stats().get("misses"));
+	}
+
+	@Test
+	void returnsThePreviousHeadOfAPullRequestOnlyWhenItChanged() {
+		FileContentCache cache = new FileContentCache(properties);
+
+		assertEquals(Optional.empty(), cache.recordHead("acme/shop#1", "aaa"));
+		assertEquals(Optional.empty(), cache.recordHead("acme/shop#1", "aaa"));
+		assertEquals(Optional.of("aaa"), cache.recordHead("acme/shop#1", "bbb"));
+		assertEquals(Optional.empty(), cache.recordHead("acme/shop#2", "ccc"));
+	}
+
+	@Test
+	void servesTheDiskTierAfterARestart() {
+		diskTier(DataSize.ofMegabytes(1));
+		new FileContentCache(properties).put("key", "content");
+
+		FileContentCache restarted = new FileContentCache(properties);
+
+		assertEquals(Optional.of("content"), restarted.get("key"));
+		assertEquals(1L, restarted.stats().get("diskHits"));
+		assertEquals(7L, restarted.stats().get("diskBytes"));
+	}
+
+	@Test
+	void trimsOldFilesButNeverOnesStillBeingWritten() throws Exception {
+		diskTier(DataSize.ofBytes(25));
+		FileContentCache cache = new FileContentCache(properties);
+		Path inFlight = Files.createFile(directory.resolve("part-123.tmp"));
+		Files.setLastModifiedTime(inFlight, FileTime.fromMillis(0));
+
+		for (int i = 0; i < 5; i++) {
+			cache.put("key-" + i, "0123456789");
+		}
+
+		assertTrue(Files.exists(inFlight));
+		assertTrue(cache.stats().get("diskBytes") <= 25);
+		assertEquals(cache.stats().get("diskBytes"), cacheFileBytes());
+	}
+
+	@Test
+	void countsAFileStoredConcurrentlyOnlyOnce() throws Exception {
+		diskTier(DataSize.ofMegabytes(1));
+		properties.setHeapMaxSize(DataSize.ofBytes(0));
+		FileContentCache cache = new FileContentCache(properties);
+
+		try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+			for (int i = 0; i < 64; i++) {
+				executor.submit(() -> cache.put("key", "content"));
+			}
+		}
+
+		assertEquals(7L, cache.stats().get("diskBytes"));
+		assertEquals(7L, cacheFileBytes());
+	}
+
+	@Test
+	void removesTemporaryFilesLeftByAnEarlierRun() throws Exception {
+		diskTier(DataSize.ofMegabytes(1));
+		Path leftover = Files.writeString(directory.resolve("part-1.tmp"), "partial");
+
+		FileContentCache cache = new FileContentCache(properties);
+
+		assertFalse(Files.exists(leftover));
+		assertEquals(0L, cache.stats().get("diskBytes"));
+	}
+
+	private void diskTier(DataSize maxSize) {
+		properties.setDiskEnabled(true);
+		properties.setDiskDirectory(directory.toString());
+		properties.setDiskMaxSize(maxSize);
+	}
+
+	private long cacheFileBytes() throws Exception {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+					.mapToLong(file -> file.toFile().length())
+					.sum();
+		}
+	}
+}
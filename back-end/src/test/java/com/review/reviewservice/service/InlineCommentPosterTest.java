@@ -0,0 +1,119 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewCommentProperties;
+import com.review.reviewservice.dto.BitbucketWebhookPayload;
+import com.review.reviewservice.dto.InlineComment;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InlineCommentPosterTest {
+
+	private final BitbucketService bitbucketService = mock(BitbucketService.class);
+	private final ReviewCommentProperties properties = new ReviewCommentProperties();
+	private final BitbucketWebhookPayload payload = new BitbucketWebhookPayload();
+
+	@BeforeEach
+	void setUp() {
+		BitbucketWebhookPayload.PullRequest pullRequest = new BitbucketWebhookPayload.PullRequest();
+		pullRequest.setId(7);
+		payload.setPullRequest(pullRequest);
+		when(bitbucketService.postInlineCommentToPullRequest(any(), any())).thenReturn(true);
+	}
+
+	@Test
+	void normalizeIgnoresCasePunctuationAndTheSignature() {
+		assertEquals("missing null check", InlineCommentPoster.normalize("Missing null-check!  - (ChatGPT)."));
+		assertEquals(InlineCommentPoster.normalize("missing null check"),
+				InlineCommentPoster.normalize("MISSING   null, check (Gemini)"));
+	}
+
+	@Test
+	void postsEachCommentOnceAndCountsDuplicates() throws InterruptedException {
+		properties.setDropOutsideDiff(false);
+		InlineCommentPoster.Session session = new InlineCommentPoster(bitbucketService, properties).open(payload);
+
+		session.addAll(List.of(
+				new InlineComment("A.java", 3, "Missing null check. - (ChatGPT)."),
+				new InlineComment("A.java", 3, "missing null check"),
+				new InlineComment("A.java", 4, "missing null check"),
+				new InlineComment("B.java", 3, "  ")));
+		InlineCommentPoster.Summary summary = session.finish();
+
+		assertEquals(2, summary.posted());
+		assertEquals(1, summary.duplicates());
+		verify(bitbucketService, times(2)).postInlineCommentToPullRequest(any(), any());
+	}
+
+	@Test
+	void dropsCommentsOutsideTheDiff() throws InterruptedException {
+		when(bitbucketService.getDiffLines(payload)).thenReturn(Optional.of(Map.of("A.java", Set.of(10, 11))));
+		InlineCommentPoster.Session session = new InlineCommentPoster(bitbucketService, properties).open(payload);
+
+		session.addAll(List.of(new InlineComment("A.java", 10, "inside"), new InlineComment("A.java", 12, "outside"),
+				new InlineComment("C.java", 1, "not in the diff")));
+		InlineCommentPoster.Summary summary = session.finish();
+
+		assertEquals(1, summary.posted());
+		assertEquals(2, summary.outsideDiff());
+	}
+
+	@Test
+	void collectsCommentsOverTheCapInsteadOfPostingThem() throws InterruptedException {
+		properties.setDropOutsideDiff(false);
+		properties.setMaxPerPr(2);
+		InlineCommentPoster.Session session = new InlineCommentPoster(bitbucketService, properties).open(payload);
+
+		session.addAll(List.of(new InlineComment("A.java", 1, "one"), new InlineComment("A.java", 2, "two"),
+				new InlineComment("A.java", 3, "three")));
+		InlineCommentPoster.Summary summary = session.finish();
+
+		assertEquals(2, summary.posted());
+		assertEquals(List.of("three"), summary.overflow().stream().map(InlineComment::getComment).toList());
+	}
+
+	@Test
+	void deferredSessionOnlyScreensTheComments() throws InterruptedException {
+		properties.setDropOutsideDiff(false);
+		properties.setMaxPerPr(1);
+		InlineCommentPoster.Session session = new InlineCommentPoster(bitbucketService, properties)
+				.open(payload, true, () -> {
+					throw new IllegalStateException("no post check for deferred comments");
+				});
+
+		session.addAll(List.of(new InlineComment("A.java", 1, "one"), new InlineComment("A.java", 2, "two")));
+		InlineCommentPoster.Summary summary = session.finish();
+
+		assertEquals(0, summary.posted());
+		assertEquals(List.of("one"), summary.deferred().stream().map(InlineComment::getComment).toList());
+		assertEquals(1, summary.overflow().size());
+		verify(bitbucketService, never()).postInlineCommentToPullRequest(any(), any());
+	}
+
+	@Test
+	void stopsPostingWhenTheCheckBeforePostFails() throws InterruptedException {
+		properties.setDropOutsideDiff(false);
+		InlineCommentPoster.Session session = new InlineCommentPoster(bitbucketService, properties)
+				.open(payload, false, () -> {
+					throw new IllegalStateException("superseded");
+				});
+
+		assertThrows(IllegalStateException.class, () -> session.add(new InlineComment("A.java", 1, "one")));
+		session.finish();
+
+		verify(bitbucketService, never()).postInlineCommentToPullRequest(any(), any());
+	}
+}
@@ -0,0 +1,193 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.AiProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProviderResilienceTest {
+
+	private static final WebClientResponseException SERVER_ERROR =
+			WebClientResponseException.create(503, "Service Unavailable", null, null, null);
+
+	private final AiProperties aiProperties = new AiProperties();
+	private AiProperties.Resilience properties;
+
+	@BeforeEach
+	void setUp() {
+		properties = aiProperties.getResilience();
+		properties.setMinCalls(4);
+		properties.setWindowSize(8);
+		properties.setMinTimeout(Duration.ofSeconds(1));
+		properties.setMaxTimeout(Duration.ofSeconds(60));
+	}
+
+	@Test
+	void usesTheDefaultTimeoutUntilEnoughCallsWereSeen() {
+		ProviderResilience resilience = new ProviderResilience(aiProperties);
+		succeed(resilience, ProviderResilience.CallClass.CHAT, 3, 2_000);
+
+		assertEquals(properties.getDefaultTimeout(), resilience.timeout("chatgpt", ProviderResilience.CallClass.CHAT));
+		assertEquals(Optional.empty(), resilience.latencyPercentile("chatgpt", ProviderResilience.CallClass.CHAT, 0.5));
+	}
+
+	@Test
+	void derivesTheTimeoutFromThePercentileWithinBounds() {
+		ProviderResilience resilience = new ProviderResilience(aiProperties);
+		succeed(resilience, ProviderResilience.CallClass.CHAT, 4, 2_000);
+
+		// p99 of 2s times 1.5
+		assertEquals(Duration.ofSeconds(3), resilience.timeout("ChatGPT", ProviderResilience.CallClass.CHAT));
+
+		succeed(resilience, ProviderResilience.CallClass.REVIEW, 4, 100_000);
+		assertEquals(properties.getMaxTimeout(), resilience.timeout("chatgpt", ProviderResilience.CallClass.REVIEW));
+	}
+
+	@Test
+	void keepsChatAndReviewLatenciesApart() {
+		ProviderResilience resilience = new ProviderResilience(aiProperties);
+		succeed(resilience, ProviderResilience.CallClass.REVIEW, 4, 20_000);
+		succeed(resilience, ProviderResilience.CallClass.CHAT, 8, 1_000);
+
+		assertEquals(Duration.ofSeconds(30), resilience.timeout("chatgpt", ProviderResilience.CallClass.REVIEW));
+		assertEquals(Duration.ofMillis(1_500), resilience.timeout("chatgpt", ProviderResilience.CallClass.CHAT));
+		assertEquals(Optional.of(Duration.ofSeconds(20)),
+				resilience.latencyPercentile("chatgpt", ProviderResilience.CallClass.REVIEW, 0.5));
+	}
+
+	@Test
+	void aReviewIsNotSlowComparedToChatCalls() {
+		ProviderResilience resilience = new ProviderResilience(aiProperties);
+		succeed(resilience, ProviderResilience.CallClass.CHAT, 4, 1_000);
+		succeed(resilience, ProviderResilience.CallClass.REVIEW, 8, 30_000);
+
+		assertTrue(resilience.tryAcquire("chatgpt").isPresent());
+	}
+
+	@Test
+	void opensTheCircuitOnFailuresAndClosesItAfterASuccessfulProbe() {
+		properties.setOpenDuration(Duration.ZERO);
+		ProviderResilience resilience = new ProviderResilience(aiProperties);
+		succeed(resilience, ProviderResilience.CallClass.CHAT, 2, 1_000);
+		fail(resilience, "chatgpt", 2, SERVER_ERROR);
+
+		assertEquals("OPEN", state(resilience, "chatgpt"));
+		// The open period is over: one probe goes through, everyone else waits for its outcome
+		Optional<ProviderResilience.Ticket> probe = resilience.tryAcquire("chatgpt");
+		assertTrue(probe.isPresent());
+		assertTrue(resilience.tryAcquire("chatgpt").isEmpty());
+
+		resilience.onSuccess(probe.get(), ProviderResilience.CallClass.CHAT, TimeUnit.SECONDS.toNanos(1));
+		assertEquals("CLOSED", state(resilience, "chatgpt"));
+		assertTrue(resilience.tryAcquire("chatgpt").isPresent());
+	}
+
+	@Test
+	void rejectsCallsWhileTheCircuitIsOpen() {
+		ProviderResilience resilience = new ProviderResilience(aiProperties);
+		fail(resilience, "gemini", 4, SERVER_ERROR);
+
+		assertTrue(resilience.tryAcquire("gemini").isEmpty());
+		assertTrue(resilience.tryAcquire("chatgpt").isPresent());
+	}
+
+	@Test
+	void reopensWhenTheProbeFails() {
+		properties.setOpenDuration(Duration.ZERO);
+		ProviderResilience resilience = new ProviderResilience(aiProperties);
+		fail(resilience, "grok", 4, SERVER_ERROR);
+		Optional<ProviderResilience.Ticket> probe = resilience.tryAcquire("grok");
+		assertTrue(probe.isPresent());
+
+		resilience.onFailure(probe.get(), new TimeoutException());
+
+		assertEquals("OPEN", state(resilience, "grok"));
+	}
+
+	@Test
+	void onlyTheProbeDecidesAHalfOpenCircuit() {
+		properties.setOpenDuration(Duration.ZERO);
+		ProviderResilience resilience = new ProviderResilience(aiProperties);
+		List<ProviderResilience.Ticket> inFlight = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			inFlight.add(resilience.tryAcquire("grok").orElseThrow());
+		}
+		for (int i = 0; i < 4; i++) {
+			resilience.onFailure(inFlight.get(i), SERVER_ERROR);
+		}
+		Optional<ProviderResilience.Ticket> probe = resilience.tryAcquire("grok");
+		assertEquals("HALF_OPEN", state(resilience, "grok"));
+
+		// Calls sent before the circuit opened neither close it nor cancel the probe
+		resilience.onSuccess(inFlight.get(4), ProviderResilience.CallClass.CHAT, TimeUnit.SECONDS.toNanos(1));
+		resilience.onCancel(inFlight.get(5));
+		assertEquals("HALF_OPEN", state(resilience, "grok"));
+		assertTrue(resilience.tryAcquire("grok").isEmpty());
+
+		resilience.onSuccess(probe.orElseThrow(), ProviderResilience.CallClass.CHAT, TimeUnit.SECONDS.toNanos(1));
+		assertEquals("CLOSED", state(resilience, "grok"));
+	}
+
+	@Test
+	void clientErrorsDoNotOpenTheCircuit() {
+		ProviderResilience resilience = new ProviderResilience(aiProperties);
+		fail(resilience, "chatgpt", 8, WebClientResponseException.create(400, "Bad Request", null, null, null));
+
+		assertEquals("CLOSED", state(resilience, "chatgpt"));
+		assertTrue(resilience.tryAcquire("chatgpt").isPresent());
+	}
+
+	@Test
+	void rateLimitingOpensTheCircuit() {
+		ProviderResilience resilience = new ProviderResilience(aiProperties);
+		fail(resilience, "chatgpt", 4, WebClientResponseException.create(429, "Too Many Requests", null, null, null));
+
+		assertEquals("OPEN", state(resilience, "chatgpt"));
+	}
+
+	@Test
+	void resolvesTheFailoverChainOfAModelBeforeThatOfItsProvider() {
+		properties.setFailover(Map.of(
+				"chatgpt:gpt-4o", List.of("gemini:gemini-1.5-pro", "bad-entry", "chatgpt:gpt-4o"),
+				"chatgpt", List.of("grok:grok-3")));
+		ProviderResilience resilience = new ProviderResilience(aiProperties);
+
+		assertEquals(List.of(new ProviderResilience.Target("chatgpt", "gpt-4o"),
+						new ProviderResilience.Target("gemini", "gemini-1.5-pro")),
+				resilience.targets("chatgpt", "gpt-4o"));
+		assertEquals(List.of(new ProviderResilience.Target("chatgpt", "gpt-4o-mini"),
+						new ProviderResilience.Target("grok", "grok-3")),
+				resilience.targets("chatgpt", "gpt-4o-mini"));
+	}
+
+	private static void succeed(ProviderResilience resilience, ProviderResilience.CallClass callClass, int calls,
+								long millis) {
+		for (int i = 0; i < calls; i++) {
+			resilience.onSuccess(resilience.tryAcquire("chatgpt").orElseThrow(), callClass,
+					TimeUnit.MILLISECONDS.toNanos(millis));
+		}
+	}
+
+	private static void fail(ProviderResilience resilience, String ai, int calls, Throwable error) {
+		for (int i = 0; i < calls; i++) {
+			resilience.onFailure(resilience.tryAcquire(ai).orElseThrow(), error);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String state(ProviderResilience resilience, String ai) {
+		Map<String, Object> providers = (Map<String, Object>) resilience.stats().get("providers");
+		return (String) ((Map<String, Object>) providers.get(ai)).get("state");
+	}
+}
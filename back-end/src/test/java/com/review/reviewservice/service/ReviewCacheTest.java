@@ -0,0 +1,135 @@
+package com.review.reviewservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.review.reviewservice.config.ReviewCacheProperties;
+import com.review.reviewservice.dto.FileData;
+import com.review.reviewservice.dto.InlineComment;
+import com.review.reviewservice.model.entity.ReviewCacheEntry;
+import com.review.reviewservice.model.repository.ReviewCacheRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReviewCacheTest {
+
+	private static final List<String> ASPECTS = List.of("Correctness", "Summary");
+
+	private final ReviewCacheRepository repository = mock(ReviewCacheRepository.class);
+	private final ReviewCacheProperties properties = new ReviewCacheProperties();
+	private final ReviewCache cache = new ReviewCache(repository, properties, new ReviewMerger(), new ObjectMapper());
+	private final Map<String, ReviewCacheEntry> stored = new HashMap<>();
+
+	@BeforeEach
+	void setUp() {
+		// Behaves like ON CONFLICT DO NOTHING
+		when(repository.insertIfAbsent(anyString(), anyString(), anyString(), anyString(), anyString(), any()))
+				.thenAnswer(invocation -> {
+					ReviewCacheEntry entry = new ReviewCacheEntry();
+					entry.setCacheKey(invocation.getArgument(0));
+					entry.setFeedback(invocation.getArgument(3));
+					entry.setInlineComments(invocation.getArgument(4));
+					return stored.putIfAbsent(entry.getCacheKey(), entry) == null ? 1 : 0;
+				});
+		when(repository.findByCacheKeyInAndCreatedAtAfter(anyCollection(), any())).thenAnswer(invocation -> {
+			Collection<String> keys = invocation.getArgument(0);
+			return keys.stream().filter(stored::containsKey).map(stored::get).toList();
+		});
+	}
+
+	@Test
+	void servesEachFileOnItsOwnWhateverItWasReviewedWith() {
+		FileData app = new FileData("src/App.java", "class App {}");
+		FileData util = new FileData("src/Util.java", "class Util {}");
+		cache.putAll(List.of(app, util), "ChatGPT", "gpt-4o", ASPECTS, result("""
+				#### 1. Correctness
+				- App.java never closes the stream
+				- Util.java has no tests
+				#### 2. Rate
+				60""", new InlineComment("src/App.java", 3, "close it"), new InlineComment("src/Util.java", 1, "test it")));
+
+		// Edited Util.java and a new file are misses; App.java is still a hit
+		FileData editedUtil = new FileData("src/Util.java", "class Util { int x; }");
+		FileData other = new FileData("src/Other.java", "class Other {}");
+		Map<FileData, CodeReviewService.ReviewResult> hits =
+				cache.getAll(List.of(app, editedUtil, other), "chatgpt", "gpt-4o", ASPECTS);
+
+		assertEquals(1, hits.size());
+		CodeReviewService.ReviewResult hit = hits.get(app);
+		assertEquals("""
+				#### 1. Correctness
+				- App.java never closes the stream
+
+				#### 2. Rate
+				60""", hit.getGeneralFeedback());
+		assertEquals(List.of(new InlineComment("src/App.java", 3, "close it")), hit.getInlineComments());
+	}
+
+	@Test
+	void reattachesCommentsToTheCurrentPathOfIdenticalContent() {
+		cache.putAll(List.of(new FileData("old/App.java", "class App {}")), "gemini", "gemini-1.5-pro", ASPECTS,
+				result("#### Rate\n80", new InlineComment("old/App.java", 1, "rename")));
+
+		FileData moved = new FileData("new/App.java", "class App {}");
+		CodeReviewService.ReviewResult hit = cache.getAll(List.of(moved), "gemini", "gemini-1.5-pro", ASPECTS).get(moved);
+
+		assertEquals("#### Rate\n80", hit.getGeneralFeedback());
+		assertEquals(List.of(new InlineComment("new/App.java", 1, "rename")), hit.getInlineComments());
+	}
+
+	@Test
+	void missesForAnotherModelOrOtherAspects() {
+		FileData app = new FileData("src/App.java", "class App {}");
+		cache.putAll(List.of(app), "chatgpt", "gpt-4o", ASPECTS, result("#### Rate\n80"));
+
+		assertTrue(cache.getAll(List.of(app), "chatgpt", "gpt-4o-mini", ASPECTS).isEmpty());
+		assertTrue(cache.getAll(List.of(app), "chatgpt", "gpt-4o", List.of("Security")).isEmpty());
+	}
+
+	@Test
+	void keysATruncatedFileByItsFullContent() {
+		FileData truncated = new FileData("src/Big.java", "class Big { /* first half");
+		truncated.setOriginalContent("class Big { /* first half, second half */ }");
+		cache.putAll(List.of(truncated), "chatgpt", "gpt-4o", ASPECTS, result("#### Rate\n50"));
+
+		FileData full = new FileData("src/Big.java", "class Big { /* first half, second half */ }");
+		assertEquals(1, cache.getAll(List.of(full), "chatgpt", "gpt-4o", ASPECTS).size());
+	}
+
+	@Test
+	void keepsTheFirstOfConcurrentlyStoredResults() {
+		FileData app = new FileData("src/App.java", "class App {}");
+		cache.putAll(List.of(app), "chatgpt", "gpt-4o", ASPECTS, result("#### Rate\n80"));
+		cache.putAll(List.of(app), "chatgpt", "gpt-4o", ASPECTS, result("#### Rate\n20"));
+
+		assertEquals("#### Rate\n80", cache.getAll(List.of(app), "chatgpt", "gpt-4o", ASPECTS).get(app).getGeneralFeedback());
+	}
+
+	@Test
+	void doesNotStoreFailedReviews() {
+		cache.putAll(List.of(new FileData("src/App.java", "class App {}")), "chatgpt", "gpt-4o", ASPECTS,
+				result("Error parsing AI response: bad JSON"));
+
+		verify(repository, never()).insertIfAbsent(any(), any(), any(), any(), any(), any());
+	}
+
+	private static CodeReviewService.ReviewResult result(String feedback, InlineComment... comments) {
+		CodeReviewService.ReviewResult result = new CodeReviewService.ReviewResult();
+		result.setGeneralFeedback(feedback);
+		result.setInlineComments(List.of(comments));
+		return result;
+	}
+}
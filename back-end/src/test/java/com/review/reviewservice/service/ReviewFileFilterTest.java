@@ -0,0 +1,106 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewFilterProperties;
+import com.review.reviewservice.dto.DiffstatEntry;
+import com.review.reviewservice.dto.FileData;
+import com.review.reviewservice.dto.FileInfo;
+import com.review.reviewservice.model.entity.Team;
+import com.review.reviewservice.model.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReviewFileFilterTest {
+
+	private final ReviewFilterProperties properties = new ReviewFilterProperties();
+	private final ReviewFileFilter filter = new ReviewFileFilter(properties);
+
+	@BeforeEach
+	void setUp() {
+		ReviewFilterProperties.Rules defaults = properties.getDefaults();
+		defaults.setExclude(List.of("**/*.min.js", "**/generated/**", "package-lock.json"));
+		defaults.setInclude(List.of("**/generated/keep/**"));
+		defaults.setMaxChangedLines(1000);
+		defaults.setMaxFileSize(DataSize.ofKilobytes(1));
+	}
+
+	@Test
+	void excludeGlobsMatchAtAnyDepth() {
+		ReviewFileFilter.Selection selection = filter.forUser(new User());
+
+		assertFalse(selection.accept(entry("web/static/app.min.js", "modified", 5)));
+		assertFalse(selection.accept(entry("src/generated/Api.java", "added", 5)));
+		assertFalse(selection.accept(entry("package-lock.json", "modified", 5)));
+		assertTrue(selection.accept(entry("web/static/app.js", "modified", 5)));
+		assertTrue(selection.accept(entry("frontend/package-lock.json", "modified", 5)));
+		assertEquals("excluded by pattern", selection.getSkipped().get(0).reason());
+	}
+
+	@Test
+	void includeGlobsWinOverExcludes() {
+		assertTrue(filter.forUser(new User()).accept(entry("src/generated/keep/Model.java", "modified", 5)));
+	}
+
+	@Test
+	void skipsRemovedBinaryAndOversizedChanges() {
+		ReviewFileFilter.Selection selection = filter.forUser(new User());
+
+		assertFalse(selection.accept(entry("Old.java", "removed", 10)));
+		assertFalse(selection.accept(entry("logo.png", "modified", 0)));
+		assertTrue(selection.accept(entry("Moved.java", "renamed", 0)));
+		assertFalse(selection.accept(entry("Huge.java", "modified", 1001)));
+		assertFalse(selection.accept(new FileData("Big.java", "x".repeat(1025))));
+		assertTrue(selection.accept(new FileData("Small.java", "x".repeat(1024))));
+		assertEquals(List.of("Old.java", "logo.png", "Huge.java", "Big.java"),
+				selection.getSkipped().stream().map(ReviewFileFilter.SkippedFile::path).toList());
+	}
+
+	@Test
+	void usesTheRulesOfTheFirstTeamByNameThatHasOwnRules() {
+		ReviewFilterProperties.Rules strict = new ReviewFilterProperties.Rules();
+		strict.setExclude(List.of("**/*.java"));
+		properties.getTeams().put("backend", strict);
+		properties.getTeams().put("zeta", new ReviewFilterProperties.Rules());
+		User user = new User();
+		user.getTeams().add(team("zeta"));
+		user.getTeams().add(team("backend"));
+		user.getTeams().add(team("alpha"));
+
+		ReviewFileFilter.Selection selection = filter.forUser(user);
+
+		assertFalse(selection.accept(entry("src/App.java", "modified", 5)));
+		assertTrue(selection.accept(entry("web/app.min.js", "modified", 5)));
+	}
+
+	@Test
+	void acceptsEverythingWhenDisabled() {
+		properties.setEnabled(false);
+		ReviewFileFilter.Selection selection = filter.forUser(new User());
+
+		assertTrue(selection.accept(entry("web/app.min.js", "removed", 0)));
+		assertTrue(selection.getSkipped().isEmpty());
+	}
+
+	private static DiffstatEntry entry(String path, String status, int changedLines) {
+		FileInfo file = new FileInfo();
+		file.setPath(path);
+		DiffstatEntry entry = new DiffstatEntry();
+		entry.setStatus(status);
+		entry.setOld(file);
+		entry.setNewFile("removed".equals(status) ? null : file);
+		entry.setLinesAdded(changedLines);
+		return entry;
+	}
+
+	private static Team team(String name) {
+		Team team = new Team();
+		team.setName(name);
+		return team;
+	}
+}
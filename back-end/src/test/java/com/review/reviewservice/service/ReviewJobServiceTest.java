@@ -0,0 +1,319 @@
+package com.review.reviewservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.review.reviewservice.config.ReviewQueueProperties;
+import com.review.reviewservice.dto.BitbucketWebhookPayload;
+import com.review.reviewservice.dto.InlineComment;
+import com.review.reviewservice.dto.ReviewCheckpoint;
+import com.review.reviewservice.exceptions.ReviewSupersededException;
+import com.review.reviewservice.model.entity.ReviewJob;
+import com.review.reviewservice.model.entity.ReviewJobStage;
+import com.review.reviewservice.model.entity.ReviewJobStatus;
+import com.review.reviewservice.model.repository.ReviewJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReviewJobServiceTest {
+
+	private static final String REPO = "acme/shop";
+	private static final long PR_ID = 42;
+	private static final WebhookIdentityCache.UserSnapshot USER =
+			new WebhookIdentityCache.UserSnapshot(7, "jane", "{uuid}", List.of());
+
+	private final ReviewJobRepository reviewJobRepository = mock(ReviewJobRepository.class);
+	private final ReviewQueueProperties properties = new ReviewQueueProperties();
+	private final BitbucketService bitbucketService = mock(BitbucketService.class);
+	private ReviewJobService service;
+
+	@BeforeEach
+	void setUp() {
+		service = new ReviewJobService(reviewJobRepository, properties, new ObjectMapper(),
+				bitbucketService);
+		when(reviewJobRepository.findFirstByDeliveryId(anyString())).thenReturn(Optional.empty());
+		when(reviewJobRepository.findLiveForCommit(anyString(), any(Long.class), anyString()))
+				.thenReturn(Optional.empty());
+		when(reviewJobRepository.findByRepoFullNameAndPrIdAndStatus(REPO, PR_ID, ReviewJobStatus.PENDING))
+				.thenReturn(List.of());
+		when(reviewJobRepository.save(any(ReviewJob.class))).thenAnswer(invocation -> invocation.getArgument(0));
+	}
+
+	@Test
+	void redeliveryOfTheSameWebhookIsADuplicate() {
+		ReviewJob existing = job(1, ReviewJobStatus.RUNNING);
+		when(reviewJobRepository.findFirstByDeliveryId("delivery-1")).thenReturn(Optional.of(existing));
+
+		ReviewJobService.Enqueued enqueued = service.enqueue(payload("abc123"), USER, "delivery-1");
+
+		assertTrue(enqueued.duplicate());
+		assertSame(existing, enqueued.job());
+		verify(reviewJobRepository, never()).save(any(ReviewJob.class));
+	}
+
+	@Test
+	void anotherEventForALiveCommitIsADuplicate() {
+		ReviewJob existing = job(1, ReviewJobStatus.DONE);
+		when(reviewJobRepository.findLiveForCommit(REPO, PR_ID, "abc123")).thenReturn(Optional.of(existing));
+
+		ReviewJobService.Enqueued enqueued = service.enqueue(payload("abc123"), USER, "delivery-2");
+
+		assertTrue(enqueued.duplicate());
+		assertSame(existing, enqueued.job());
+	}
+
+	@Test
+	void newCommitIsQueuedUnderThePullRequestLock() {
+		ReviewJobService.Enqueued enqueued = service.enqueue(payload("def456"), USER, "delivery-3");
+
+		assertFalse(enqueued.duplicate());
+		assertEquals(ReviewJobStatus.PENDING, enqueued.job().getStatus());
+		assertEquals("def456", enqueued.job().getSourceCommit());
+		assertEquals("delivery-3", enqueued.job().getDeliveryId());
+		verify(reviewJobRepository).lockPullRequest("review-pr:" + REPO + "#" + PR_ID);
+	}
+
+	@Test
+	void payloadWithoutDeliveryIdOrCommitIsAlwaysQueued() {
+		ReviewJobService.Enqueued enqueued = service.enqueue(payload(null), USER, null);
+
+		assertFalse(enqueued.duplicate());
+		verify(reviewJobRepository, never()).findFirstByDeliveryId(any());
+		verify(reviewJobRepository, never()).findLiveForCommit(any(), any(Long.class), any());
+	}
+
+	@Test
+	void waitsForTheDebounceWindowOfTheFirstTeamThatHasOne() {
+		properties.getDebounce().setWindow(Duration.ofSeconds(30));
+		properties.getDebounce().setTeams(Map.of("mobile", Duration.ofMinutes(5), "web", Duration.ofMinutes(1)));
+		WebhookIdentityCache.UserSnapshot user =
+				new WebhookIdentityCache.UserSnapshot(7, "jane", "{uuid}", List.of("web", "backend", "mobile"));
+
+		LocalDateTime before = LocalDateTime.now();
+		ReviewJob withTeams = service.enqueue(payload("abc123"), user, "delivery-4").job();
+		ReviewJob withoutTeams = service.enqueue(payload("abc124"), USER, "delivery-5").job();
+
+		// "backend" has no window of its own, "mobile" comes before "web"
+		assertWithin(before.plusMinutes(5), withTeams.getAvailableAt());
+		assertWithin(before.plusSeconds(30), withoutTeams.getAvailableAt());
+	}
+
+	@Test
+	void weighsTheJobByItsFirstTeamAndItsUser() {
+		properties.getFairness().setTeams(Map.of("backend", 3.0, "web", 2.0));
+		properties.getFairness().setUsers(Map.of("jane", 0.5));
+		WebhookIdentityCache.UserSnapshot user =
+				new WebhookIdentityCache.UserSnapshot(7, "jane", "{uuid}", List.of("web", "backend"));
+
+		ReviewJob job = service.enqueue(payload("abc123"), user, "delivery-6").job();
+
+		assertEquals("backend", job.getTeamName());
+		assertEquals(3.0, job.getTenantWeight());
+		assertEquals(0.5, job.getUserWeight());
+	}
+
+	@Test
+	void teamlessUserIsItsOwnTenant() {
+		properties.getFairness().setUsers(Map.of("jane", 2.0));
+
+		ReviewJob job = service.enqueue(payload("abc123"), USER, "delivery-7").job();
+
+		assertNull(job.getTeamName());
+		assertEquals(2.0, job.getTenantWeight());
+		assertEquals(2.0, job.getUserWeight());
+	}
+
+	@Test
+	void claimsTheFirstCandidateInFairOrderWhosePullRequestIsFree() {
+		properties.getFairness().setUsageWindow(Duration.ofMinutes(30));
+		properties.getFairness().setAgingPeriod(Duration.ofMinutes(5));
+		properties.getFairness().setUnknownCost(200);
+		ReviewJob busy = job(1, ReviewJobStatus.PENDING);
+		ReviewJob free = job(2, ReviewJobStatus.PENDING);
+		free.setPrId(PR_ID + 1);
+		ReviewJob later = job(3, ReviewJobStatus.PENDING);
+		later.setPrId(PR_ID + 2);
+		when(reviewJobRepository.findRunnableForUpdate(any(), any(), anyInt(), anyDouble(), anyInt()))
+				.thenReturn(List.of(busy, free, later));
+		when(reviewJobRepository.tryLockPullRequest(anyString())).thenReturn(true);
+		when(reviewJobRepository.existsByRepoFullNameAndPrIdAndStatus(REPO, PR_ID, ReviewJobStatus.RUNNING))
+				.thenReturn(true);
+
+		LocalDateTime before = LocalDateTime.now();
+		ReviewJob claimed = service.claimNext().orElseThrow();
+
+		assertSame(free, claimed);
+		assertEquals(ReviewJobStatus.RUNNING, claimed.getStatus());
+		assertEquals(ReviewJobStatus.PENDING, later.getStatus());
+		ArgumentCaptor<LocalDateTime> now = ArgumentCaptor.forClass(LocalDateTime.class);
+		ArgumentCaptor<LocalDateTime> since = ArgumentCaptor.forClass(LocalDateTime.class);
+		verify(reviewJobRepository).findRunnableForUpdate(now.capture(), since.capture(), eq(200), eq(300.0),
+				anyInt());
+		assertWithin(before, now.getValue());
+		assertEquals(now.getValue().minusMinutes(30), since.getValue());
+	}
+
+	@Test
+	void recordsTheEstimatedCostInTheBackground() {
+		when(bitbucketService.getChangedLineCount(any())).thenReturn(OptionalInt.of(120));
+
+		service.estimateCostAsync(5, payload("abc123"));
+
+		verify(reviewJobRepository, timeout(2000)).updateEstimatedCost(5, 120);
+	}
+
+	@Test
+	void newPushSupersedesTheReviewsStillWaiting() {
+		ReviewJob first = job(1, ReviewJobStatus.PENDING);
+		ReviewJob second = job(2, ReviewJobStatus.PENDING);
+		when(reviewJobRepository.findByRepoFullNameAndPrIdAndStatus(REPO, PR_ID, ReviewJobStatus.PENDING))
+				.thenReturn(List.of(first, second));
+
+		ReviewJobService.Enqueued enqueued = service.enqueue(payload("def456"), USER, "delivery-4");
+
+		assertFalse(enqueued.duplicate());
+		assertEquals(ReviewJobStatus.SUPERSEDED, first.getStatus());
+		assertEquals(ReviewJobStatus.SUPERSEDED, second.getStatus());
+		verify(reviewJobRepository).saveAll(List.of(first, second));
+	}
+
+	@Test
+	void jobWithANewerPushIsNotCurrent() {
+		ReviewJob running = job(1, ReviewJobStatus.RUNNING);
+		when(reviewJobRepository.existsByRepoFullNameAndPrIdAndIdGreaterThanAndStatusIn(
+				eq(REPO), eq(PR_ID), eq(1L), anyList())).thenReturn(true);
+
+		assertThrows(ReviewSupersededException.class, () -> service.ensureCurrent(running));
+	}
+
+	@Test
+	void checkpointBeforePostingStopsASupersededJob() {
+		ReviewJob running = job(1, ReviewJobStatus.RUNNING);
+		when(reviewJobRepository.existsByRepoFullNameAndPrIdAndIdGreaterThanAndStatusIn(
+				eq(REPO), eq(PR_ID), eq(1L), anyList())).thenReturn(true);
+
+		assertThrows(ReviewSupersededException.class,
+				() -> service.checkpoint(running, new ReviewCheckpoint(ReviewJobStage.AI_REVIEWED)));
+		verify(reviewJobRepository, never()).save(running);
+	}
+
+	@Test
+	void checkpointAfterPostingIsRecordedDespiteANewerPush() {
+		ReviewJob running = job(1, ReviewJobStatus.RUNNING);
+		when(reviewJobRepository.existsByRepoFullNameAndPrIdAndIdGreaterThanAndStatusIn(
+				eq(REPO), eq(PR_ID), eq(1L), anyList())).thenReturn(true);
+
+		service.checkpoint(running, new ReviewCheckpoint(ReviewJobStage.COMMENTS_POSTED));
+
+		assertEquals(ReviewJobStage.COMMENTS_POSTED, running.getStage());
+		verify(reviewJobRepository).save(running);
+	}
+
+	@Test
+	void resumesFromTheCheckpointStoredWithTheJob() {
+		ReviewJob running = job(1, ReviewJobStatus.RUNNING);
+		ReviewCheckpoint checkpoint = new ReviewCheckpoint(ReviewJobStage.AI_REVIEWED);
+		checkpoint.setFeedback("Looks fine.");
+		checkpoint.setRate(80);
+		checkpoint.setInlineComments(List.of(new InlineComment("src/Foo.java", 3, "Null check")));
+
+		service.checkpoint(running, checkpoint);
+		ReviewCheckpoint read = service.readCheckpoint(running).orElseThrow();
+
+		assertEquals(ReviewJobStage.AI_REVIEWED, running.getStage());
+		assertEquals(checkpoint, read);
+	}
+
+	@Test
+	void unreadableCheckpointStartsTheReviewOver() {
+		ReviewJob running = job(1, ReviewJobStatus.RUNNING);
+		running.setCheckpoint("{not json");
+
+		assertTrue(service.readCheckpoint(running).isEmpty());
+	}
+
+	@Test
+	void interruptedJobIsRequeuedWithItsCheckpointAndWithoutCountingTheAttempt() {
+		ReviewJob running = job(1, ReviewJobStatus.RUNNING);
+		running.setAttempts(2);
+		running.setCheckpoint("{\"stage\":\"AI_REVIEWED\"}");
+
+		service.requeue(running);
+
+		assertEquals(ReviewJobStatus.PENDING, running.getStatus());
+		assertEquals(1, running.getAttempts());
+		assertEquals(ReviewJobStage.AI_REVIEWED, service.readCheckpoint(running).orElseThrow().getStage());
+	}
+
+	@Test
+	void failedJobKeepsItsCheckpointForTheRetryUntilTheLastAttempt() {
+		properties.setMaxAttempts(2);
+		ReviewJob running = job(1, ReviewJobStatus.RUNNING);
+		running.setAttempts(1);
+		running.setCheckpoint("{\"stage\":\"FEEDBACK_SAVED\"}");
+
+		service.fail(running, new IllegalStateException("Bitbucket unavailable"));
+		assertEquals(ReviewJobStatus.PENDING, running.getStatus());
+		assertTrue(service.readCheckpoint(running).isPresent());
+
+		running.setAttempts(2);
+		service.fail(running, new IllegalStateException("Bitbucket unavailable"));
+		assertEquals(ReviewJobStatus.FAILED, running.getStatus());
+	}
+
+	private static void assertWithin(LocalDateTime expected, LocalDateTime actual) {
+		assertTrue(!actual.isBefore(expected) && actual.isBefore(expected.plusSeconds(5)),
+				() -> actual + " is not just after " + expected);
+	}
+
+	private static ReviewJob job(long id, ReviewJobStatus status) {
+		ReviewJob job = new ReviewJob();
+		job.setId(id);
+		job.setRepoFullName(REPO);
+		job.setPrId(PR_ID);
+		job.setStatus(status);
+		return job;
+	}
+
+	private static BitbucketWebhookPayload payload(String sourceCommit) {
+		BitbucketWebhookPayload.Repository repository = new BitbucketWebhookPayload.Repository();
+		repository.setFullName(REPO);
+		BitbucketWebhookPayload.PullRequest pullRequest = new BitbucketWebhookPayload.PullRequest();
+		pullRequest.setId(PR_ID);
+		if (sourceCommit != null) {
+			BitbucketWebhookPayload.Commit commit = new BitbucketWebhookPayload.Commit();
+			commit.setHash(sourceCommit);
+			BitbucketWebhookPayload.Endpoint source = new BitbucketWebhookPayload.Endpoint();
+			source.setCommit(commit);
+			pullRequest.setSource(source);
+		}
+		BitbucketWebhookPayload payload = new BitbucketWebhookPayload();
+		payload.setRepository(repository);
+		payload.setPullRequest(pullRequest);
+		return payload;
+	}
+}
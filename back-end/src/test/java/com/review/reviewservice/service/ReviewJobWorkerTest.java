@@ -0,0 +1,138 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewQueueProperties;
+import com.review.reviewservice.exceptions.ReviewSupersededException;
+import com.review.reviewservice.model.entity.ReviewJob;
+import com.review.reviewservice.model.entity.User;
+import com.review.reviewservice.model.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReviewJobWorkerTest {
+
+	private final ReviewJobService reviewJobService = mock(ReviewJobService.class);
+	private final ReviewService reviewService = mock(ReviewService.class);
+	private final UserRepository userRepository = mock(UserRepository.class);
+	private final ReviewQueueProperties properties = new ReviewQueueProperties();
+
+	@BeforeEach
+	void setUp() {
+		properties.setWorkers(1);
+		properties.setPollInterval(Duration.ofMillis(20));
+		when(userRepository.findWithAiModelById(anyLong())).thenReturn(Optional.of(new User()));
+	}
+
+	@Test
+	void backsOffExponentiallyWhileClaimingFails() {
+		properties.setPollInterval(Duration.ofSeconds(1));
+		ReviewJobWorker worker = worker();
+
+		assertEquals(Duration.ofSeconds(1), worker.errorBackoff(1));
+		assertEquals(Duration.ofSeconds(2), worker.errorBackoff(2));
+		assertEquals(Duration.ofSeconds(32), worker.errorBackoff(6));
+		assertEquals(Duration.ofMinutes(1), worker.errorBackoff(7));
+		assertEquals(Duration.ofMinutes(1), worker.errorBackoff(1000));
+	}
+
+	@Test
+	void doesNotSpinWhenTheQueueIsUnavailable() throws Exception {
+		properties.setPollInterval(Duration.ofMillis(100));
+		AtomicInteger claims = new AtomicInteger();
+		when(reviewJobService.claimNext()).thenAnswer(invocation -> {
+			claims.incrementAndGet();
+			throw new IllegalStateException("database down");
+		});
+		ReviewJobWorker worker = worker();
+
+		worker.start();
+		Thread.sleep(500);
+		worker.stop();
+
+		// 100 + 200 ms of backoff fit before the check, the next 400 ms do not
+		assertTrue(claims.get() <= 3, "claims: " + claims.get());
+	}
+
+	@Test
+	void renewsTheLeaseOfARunningJob() throws Exception {
+		properties.setHeartbeatInterval(Duration.ofMillis(20));
+		ReviewJob job = claimOnce(5);
+		CountDownLatch renewed = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			renewed.countDown();
+			return null;
+		}).when(reviewJobService).heartbeat(List.of(5L));
+		doAnswer(invocation -> {
+			assertTrue(renewed.await(5, TimeUnit.SECONDS));
+			return null;
+		}).when(reviewService).review(any(), any(), any());
+		ReviewJobWorker worker = worker();
+
+		worker.start();
+		verify(reviewJobService, timeout(5000)).complete(job);
+		worker.stop();
+	}
+
+	@Test
+	void requeuesAJobStillRunningAtTheShutdownDeadline() throws Exception {
+		properties.setShutdownTimeout(Duration.ofMillis(50));
+		ReviewJob job = claimOnce(5);
+		CountDownLatch started = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			started.countDown();
+			Thread.sleep(10_000);
+			return null;
+		}).when(reviewService).review(any(), any(), any());
+		ReviewJobWorker worker = worker();
+
+		worker.start();
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		worker.stop();
+
+		verify(reviewJobService).requeue(job);
+		verify(reviewJobService, never()).fail(any(), any());
+	}
+
+	@Test
+	void endsASupersededJobWithoutCountingAFailure() throws Exception {
+		ReviewJob job = claimOnce(5);
+		doThrow(new ReviewSupersededException("newer push")).when(reviewService).review(any(), any(), any());
+		ReviewJobWorker worker = worker();
+
+		worker.start();
+		verify(reviewJobService, timeout(5000)).supersede(job);
+		worker.stop();
+
+		verify(reviewJobService, never()).fail(any(), any());
+	}
+
+	private ReviewJob claimOnce(long id) {
+		ReviewJob job = new ReviewJob();
+		job.setId(id);
+		job.setUserId(1L);
+		when(reviewJobService.claimNext()).thenReturn(Optional.of(job), Optional.empty());
+		return job;
+	}
+
+	private ReviewJobWorker worker() {
+		return new ReviewJobWorker(reviewJobService, reviewService, userRepository, properties);
+	}
+}
@@ -0,0 +1,106 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.dto.InlineComment;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReviewMergerTest {
+
+	private final ReviewMerger merger = new ReviewMerger();
+
+	@Test
+	void mergesBulletsPerAspectOnceInAspectOrder() {
+		CodeReviewService.ReviewResult first = result("""
+				#### 1. Correctness
+				- off by one in App.java
+				#### 2. Summary
+				- small change
+				""");
+		CodeReviewService.ReviewResult second = result("""
+				### Summary
+				- small change
+				- adds a helper
+				""");
+
+		String merged = merger.merge(List.of(first, second), List.of(1, 1), List.of("Summary", "Correctness"))
+				.getGeneralFeedback();
+
+		assertEquals("""
+				#### 1. Summary
+				- small change
+				- adds a helper
+
+				#### 2. Correctness
+				- off by one in App.java""", merged);
+	}
+
+	@Test
+	void weightsTheRateByTheGivenWeights() {
+		CodeReviewService.ReviewResult large = result("#### Rate\n80");
+		CodeReviewService.ReviewResult small = result("#### Rate\n40");
+
+		String merged = merger.merge(List.of(large, small), List.of(3, 1), List.of("Summary")).getGeneralFeedback();
+
+		assertEquals("#### 1. Rate\n70", merged);
+	}
+
+	@Test
+	void countsAZeroWeightAsOne() {
+		String merged = merger.merge(List.of(result("#### Rate\n90"), result("#### Rate\n50")), List.of(0, 1),
+				List.of("Summary")).getGeneralFeedback();
+
+		assertEquals("#### 1. Rate\n70", merged);
+	}
+
+	@Test
+	void keepsTheInlineCommentsOfEveryPart() {
+		CodeReviewService.ReviewResult first = result("#### Summary\n- a");
+		first.setInlineComments(List.of(new InlineComment("A.java", 3, "first")));
+		CodeReviewService.ReviewResult second = result("#### Summary\n- b");
+		second.setInlineComments(List.of(new InlineComment("B.java", 7, "second")));
+
+		CodeReviewService.ReviewResult merged = merger.merge(List.of(first, second), List.of(1, 1), List.of("Summary"));
+
+		assertEquals(List.of("A.java", "B.java"), merged.getInlineComments().stream().map(InlineComment::getPath).toList());
+	}
+
+	@Test
+	void extractsTheFeedbackAboutOneFile() {
+		String feedback = """
+				#### 1. Correctness
+				- off by one in src/App.java
+				- null check missing in Util.java
+				- MyApp.java shadows a field
+				#### 2. Summary
+				- App.java gains a loop
+				#### 3. Rate
+				75
+				""";
+
+		assertEquals("""
+				#### 1. Correctness
+				- off by one in src/App.java
+
+				#### 2. Summary
+				- App.java gains a loop
+
+				#### 3. Rate
+				75""", merger.feedbackAbout(feedback, "src/App.java", List.of("Correctness", "Summary")));
+		assertEquals("""
+				#### 1. Correctness
+				- null check missing in Util.java
+
+				#### 2. Rate
+				75""", merger.feedbackAbout(feedback, "lib/Util.java", List.of("Correctness", "Summary")));
+	}
+
+	private static CodeReviewService.ReviewResult result(String feedback) {
+		CodeReviewService.ReviewResult result = new CodeReviewService.ReviewResult();
+		result.setGeneralFeedback(feedback);
+		result.setInlineComments(List.of());
+		return result;
+	}
+}
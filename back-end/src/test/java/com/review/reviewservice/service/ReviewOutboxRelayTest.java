@@ -0,0 +1,103 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewOutboxProperties;
+import com.review.reviewservice.model.entity.ReviewOutboxEntry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReviewOutboxRelayTest {
+
+	private final ReviewOutboxService reviewOutboxService = mock(ReviewOutboxService.class);
+	private final BitbucketService bitbucketService = mock(BitbucketService.class);
+	private final ReviewOutboxProperties properties = new ReviewOutboxProperties();
+	private final ReviewOutboxRelay relay = new ReviewOutboxRelay(reviewOutboxService, bitbucketService, properties);
+
+	@Test
+	void postsEachClaimedEntryAndRecordsItDelivered() throws Exception {
+		ReviewOutboxEntry general = entry(1, null, null);
+		ReviewOutboxEntry inline = entry(2, "src/App.java", 12);
+		when(reviewOutboxService.claim(anyInt())).thenReturn(List.of(general, inline));
+
+		relay.relay();
+
+		verify(bitbucketService).postComment("acme/shop", 42, "body-1", null, null);
+		verify(bitbucketService).postComment("acme/shop", 42, "body-2", "src/App.java", 12);
+		verify(reviewOutboxService).delivered(general);
+		verify(reviewOutboxService).delivered(inline);
+	}
+
+	@Test
+	void keepsDrainingWhileBatchesComeBackFull() {
+		properties.setBatchSize(2);
+		when(reviewOutboxService.claim(2))
+				.thenReturn(List.of(entry(1, null, null), entry(2, null, null)), List.of(entry(3, null, null)));
+
+		relay.relay();
+
+		verify(reviewOutboxService, times(2)).claim(2);
+		verify(reviewOutboxService, times(3)).delivered(any());
+	}
+
+	@Test
+	void retriesOnlyFailuresThatPostingAgainCanFix() throws Exception {
+		ReviewOutboxEntry rejected = entry(1, "gone.java", 3);
+		ReviewOutboxEntry unreachable = entry(2, null, null);
+		when(reviewOutboxService.claim(anyInt())).thenReturn(List.of(rejected, unreachable));
+		HttpClientErrorException badRequest = new HttpClientErrorException(HttpStatus.BAD_REQUEST);
+		ResourceAccessException timeout = new ResourceAccessException("read timed out");
+		doThrow(badRequest).when(bitbucketService).postComment(anyString(), anyLong(), eq("body-1"), any(), any());
+		doThrow(timeout).when(bitbucketService).postComment(anyString(), anyLong(), eq("body-2"), any(), any());
+
+		relay.relay();
+
+		verify(reviewOutboxService).failed(rejected, badRequest, false);
+		verify(reviewOutboxService).failed(unreachable, timeout, true);
+		verify(reviewOutboxService, never()).delivered(any());
+	}
+
+	@Test
+	void renewsTheLeaseOfAPostThatOutlastsIt() throws Exception {
+		properties.setLeaseTimeout(Duration.ofMillis(90));
+		ReviewOutboxEntry slow = entry(7, null, null);
+		when(reviewOutboxService.claim(anyInt())).thenReturn(List.of(slow));
+		doAnswer(invocation -> {
+			Thread.sleep(300);
+			return null;
+		}).when(bitbucketService).postComment(anyString(), anyLong(), anyString(), any(), any());
+
+		relay.relay();
+
+		verify(reviewOutboxService, atLeastOnce()).renewLeases(List.of(7L));
+		verify(reviewOutboxService).delivered(slow);
+	}
+
+	private static ReviewOutboxEntry entry(long id, String path, Integer lineNumber) {
+		ReviewOutboxEntry entry = new ReviewOutboxEntry();
+		entry.setId(id);
+		entry.setRepoFullName("acme/shop");
+		entry.setPrId(42);
+		entry.setBody("body-" + id);
+		entry.setPath(path);
+		entry.setLineNumber(lineNumber);
+		return entry;
+	}
+}
@@ -0,0 +1,128 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewOutboxProperties;
+import com.review.reviewservice.dto.FeedbackDto;
+import com.review.reviewservice.dto.InlineComment;
+import com.review.reviewservice.dto.ReviewBasis;
+import com.review.reviewservice.model.entity.ReviewOutboxEntry;
+import com.review.reviewservice.model.entity.ReviewOutboxStatus;
+import com.review.reviewservice.model.repository.ReviewOutboxRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReviewOutboxServiceTest {
+
+	private final ReviewOutboxRepository reviewOutboxRepository = mock(ReviewOutboxRepository.class);
+	private final FeedbackService feedbackService = mock(FeedbackService.class);
+	private final ReviewOutboxProperties properties = new ReviewOutboxProperties();
+	private final ReviewOutboxService service =
+			new ReviewOutboxService(reviewOutboxRepository, feedbackService, properties);
+
+	@BeforeEach
+	void setUp() {
+		when(reviewOutboxRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void queuesTheGeneralAndEveryInlineCommentOfTheSavedFeedback() {
+		ReviewBasis basis = new ReviewBasis("abc123", "raw", 2, null);
+		when(feedbackService.save(42L, "{uuid}", "Looks good", "gpt", "acme/shop", 4, basis))
+				.thenReturn(new FeedbackDto(9L, "acme/shop", 42L, "Looks good", "gpt", null, 7L, "jane", 4));
+
+		service.recordReview(3L, 42L, "{uuid}", "Looks good", "gpt", "acme/shop", 4, basis,
+				List.of(new InlineComment("A.java", 10, "Null check"), new InlineComment("B.java", 3, "Typo")));
+
+		ArgumentCaptor<List<ReviewOutboxEntry>> saved = ArgumentCaptor.forClass(List.class);
+		verify(reviewOutboxRepository).saveAll(saved.capture());
+		List<ReviewOutboxEntry> entries = saved.getValue();
+		assertEquals(3, entries.size());
+		assertEquals("Looks good", entries.get(0).getBody());
+		assertNull(entries.get(0).getPath());
+		assertEquals("B.java", entries.get(2).getPath());
+		assertEquals(3, entries.get(2).getLineNumber());
+		assertTrue(entries.stream().allMatch(entry -> entry.getFeedbackId() == 9L && entry.getReviewJobId() == 3L
+				&& entry.getStatus() == ReviewOutboxStatus.PENDING));
+	}
+
+	@Test
+	void claimDropsSupersededEntriesFirstAndLeasesTheRest() {
+		ReviewOutboxEntry entry = entry(1);
+		when(reviewOutboxRepository.findDeliverableForUpdate(any(), anyInt())).thenReturn(List.of(entry));
+
+		LocalDateTime before = LocalDateTime.now();
+		List<ReviewOutboxEntry> claimed = service.claim(20);
+
+		assertEquals(List.of(entry), claimed);
+		assertEquals(ReviewOutboxStatus.SENDING, entry.getStatus());
+		assertEquals(2, entry.getAttempts());
+		assertTrue(!entry.getLockedAt().isBefore(before));
+		InOrder order = inOrder(reviewOutboxRepository);
+		order.verify(reviewOutboxRepository).dropSuperseded();
+		order.verify(reviewOutboxRepository).findDeliverableForUpdate(any(), eq(20));
+	}
+
+	@Test
+	void retryableFailureBacksOffExponentiallyUpToTheCap() {
+		properties.setRetryBackoff(Duration.ofSeconds(10));
+		properties.setMaxRetryBackoff(Duration.ofSeconds(30));
+		ReviewOutboxEntry second = entry(2);
+		ReviewOutboxEntry fourth = entry(4);
+
+		LocalDateTime before = LocalDateTime.now();
+		service.failed(second, new IllegalStateException("503"), true);
+		service.failed(fourth, new IllegalStateException("503"), true);
+
+		assertEquals(ReviewOutboxStatus.PENDING, second.getStatus());
+		assertNull(second.getLockedAt());
+		assertEquals("503", second.getLastError());
+		assertWithin(before.plusSeconds(20), second.getAvailableAt());
+		assertWithin(before.plusSeconds(30), fourth.getAvailableAt());
+	}
+
+	@Test
+	void failsPermanentlyAfterTheLastAttemptOrWhenRetryingCannotHelp() {
+		properties.setMaxAttempts(3);
+		ReviewOutboxEntry exhausted = entry(3);
+		ReviewOutboxEntry rejected = entry(1);
+
+		service.failed(exhausted, new IllegalStateException("503"), true);
+		service.failed(rejected, new IllegalStateException("404"), false);
+
+		assertEquals(ReviewOutboxStatus.FAILED, exhausted.getStatus());
+		assertEquals(ReviewOutboxStatus.FAILED, rejected.getStatus());
+	}
+
+	private static void assertWithin(LocalDateTime expected, LocalDateTime actual) {
+		assertTrue(!actual.isBefore(expected) && actual.isBefore(expected.plusSeconds(5)),
+				() -> actual + " is not just after " + expected);
+	}
+
+	private static ReviewOutboxEntry entry(int attempts) {
+		ReviewOutboxEntry entry = new ReviewOutboxEntry();
+		entry.setId((long) attempts);
+		entry.setPrId(42);
+		entry.setStatus(ReviewOutboxStatus.SENDING);
+		entry.setAttempts(attempts);
+		entry.setLockedAt(LocalDateTime.now());
+		return entry;
+	}
+}
@@ -0,0 +1,187 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.AiProperties;
+import com.review.reviewservice.config.ReviewCommentProperties;
+import com.review.reviewservice.config.ReviewPipelineProperties;
+import com.review.reviewservice.dto.BitbucketWebhookPayload;
+import com.review.reviewservice.dto.FileData;
+import com.review.reviewservice.dto.InlineComment;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReviewPipelineTest {
+
+	private static final int BUDGET = 100;
+
+	private final BitbucketService bitbucketService = mock(BitbucketService.class);
+	private final CodeReviewService codeReviewService = mock(CodeReviewService.class);
+	private final ReviewCache reviewCache = mock(ReviewCache.class);
+	private final ReviewPlanner planner = new ReviewPlanner();
+	private final AiProperties aiProperties = new AiProperties();
+	private final ReviewPipelineProperties properties = new ReviewPipelineProperties();
+	private final ReviewPipeline pipeline = new ReviewPipeline(bitbucketService, codeReviewService, reviewCache,
+			planner, new ReviewMerger(), aiProperties, properties);
+	private final ReviewFileFilter.Selection selection = mock(ReviewFileFilter.Selection.class);
+	private final BitbucketWebhookPayload payload = payload();
+
+	@BeforeEach
+	void setUp() {
+		properties.setBatchLinger(Duration.ofMillis(50));
+		when(codeReviewService.reviewTokenBudget(any(), any())).thenReturn(BUDGET);
+		when(selection.accept(any(FileData.class))).thenReturn(true);
+		when(codeReviewService.reviewBatch(anyList(), any(), any(), any(), any())).thenAnswer(invocation -> {
+			List<FileData> files = invocation.getArgument(0);
+			return result(files.stream().map(file -> comment(file.getPath())).toList());
+		});
+	}
+
+	@Test
+	void packsArrivingFilesIntoBatchesWithinTheBudget() throws Exception {
+		FileData a = file("a.java", 45);
+		FileData b = file("b.java", 45);
+		FileData c = file("c.java", 45);
+		fetches(a, b, c);
+		InlineCommentPoster.Session session = session();
+
+		ReviewPipeline.Outcome outcome = run(session);
+
+		assertEquals(3, outcome.files());
+		verify(codeReviewService).reviewBatch(eq(List.of(a, b)), any(), any(), any(), any());
+		verify(codeReviewService).reviewBatch(eq(List.of(c)), any(), any(), any(), any());
+		session.finish();
+		verify(bitbucketService, times(3)).postInlineCommentToPullRequest(eq(payload), any());
+		assertEquals(3, outcome.result().getInlineComments().size());
+	}
+
+	@Test
+	void servesCachedFilesWithoutAskingTheAi() throws Exception {
+		FileData a = file("a.java", 45);
+		fetches(a);
+		CodeReviewService.ReviewResult cached = result(List.of(comment("a.java")));
+		when(reviewCache.getAll(eq(List.of(a)), any(), any(), any())).thenReturn(Map.of(a, cached));
+
+		ReviewPipeline.Outcome outcome = run(session());
+
+		assertEquals(1, outcome.files());
+		assertSame(cached, outcome.result());
+		verify(codeReviewService, never()).reviewBatch(anyList(), any(), any(), any(), any());
+	}
+
+	@Test
+	void reviewsNoMoreBatchesAtOnceThanAllowed() throws Exception {
+		aiProperties.getReview().setMaxConcurrentBatches(2);
+		fetches(file("a.java", 80), file("b.java", 80), file("c.java", 80), file("d.java", 80), file("e.java", 80));
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+		doAnswer(invocation -> {
+			peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+			Thread.sleep(50);
+			running.decrementAndGet();
+			return result(List.of());
+		}).when(codeReviewService).reviewBatch(anyList(), any(), any(), any(), any());
+
+		ReviewPipeline.Outcome outcome = run(session());
+
+		assertEquals(5, outcome.files());
+		assertEquals(2, peak.get());
+	}
+
+	@Test
+	void failedBatchLeavesItsFilesUnreviewed() throws Exception {
+		FileData a = file("a.java", 80);
+		FileData b = file("b.java", 80);
+		fetches(a, b);
+		doAnswer(invocation -> {
+			List<FileData> files = invocation.getArgument(0);
+			if (files.contains(b)) {
+				throw new IllegalStateException("provider down");
+			}
+			return result(List.of(comment("a.java")));
+		}).when(codeReviewService).reviewBatch(anyList(), any(), any(), any(), any());
+
+		ReviewPipeline.Outcome outcome = run(session());
+
+		assertEquals(List.of("b.java"), outcome.result().getUnreviewedFiles());
+	}
+
+	@Test
+	void failedDownloadFailsTheReview() {
+		doAnswer(invocation -> {
+			Consumer<FileData> sink = invocation.getArgument(3);
+			sink.accept(file("a.java", 45));
+			throw new IllegalStateException("Bitbucket unavailable");
+		}).when(bitbucketService).streamModifiedFiles(any(), any(), any(), any());
+
+		assertThrows(IllegalStateException.class, () -> run(session()));
+	}
+
+	private ReviewPipeline.Outcome run(InlineCommentPoster.Session session) throws InterruptedException {
+		return pipeline.run(payload, path -> true, selection, "ChatGPT", "gpt-4o", List.of(), null, session);
+	}
+
+	private void fetches(FileData... files) {
+		doAnswer(invocation -> {
+			Consumer<FileData> sink = invocation.getArgument(3);
+			for (FileData file : files) {
+				sink.accept(file);
+			}
+			return null;
+		}).when(bitbucketService).streamModifiedFiles(any(), any(), any(), any());
+	}
+
+	private InlineCommentPoster.Session session() {
+		ReviewCommentProperties commentProperties = new ReviewCommentProperties();
+		commentProperties.setDropOutsideDiff(false);
+		return new InlineCommentPoster(bitbucketService, commentProperties).open(payload);
+	}
+
+	/**
+	 * A file that the planner estimates at the given number of tokens.
+	 */
+	private FileData file(String path, int tokens) {
+		FileData file = new FileData(path, "");
+		int chars = (tokens - planner.estimateTokens(file)) * 4;
+		return new FileData(path, "x".repeat(chars));
+	}
+
+	private static CodeReviewService.ReviewResult result(List<InlineComment> comments) {
+		CodeReviewService.ReviewResult result = new CodeReviewService.ReviewResult();
+		result.setGeneralFeedback("Looks fine.\nRate: 80");
+		result.setInlineComments(comments);
+		return result;
+	}
+
+	private static InlineComment comment(String path) {
+		return new InlineComment(path, 1, "Check " + path);
+	}
+
+	private static BitbucketWebhookPayload payload() {
+		BitbucketWebhookPayload.PullRequest pullRequest = new BitbucketWebhookPayload.PullRequest();
+		pullRequest.setId(1);
+		BitbucketWebhookPayload.Repository repository = new BitbucketWebhookPayload.Repository();
+		repository.setFullName("team/repo");
+		BitbucketWebhookPayload payload = new BitbucketWebhookPayload();
+		payload.setRepository(repository);
+		payload.setPullRequest(pullRequest);
+		return payload;
+	}
+}
@@ -0,0 +1,66 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.dto.FileData;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReviewPlannerTest {
+
+	private final ReviewPlanner planner = new ReviewPlanner();
+
+	@Test
+	void packsLargestFilesFirstIntoTheFirstBatchWithRoom() {
+		FileData a = file("a", 60);
+		FileData b = file("b", 50);
+		FileData c = file("c", 40);
+		FileData d = file("d", 30);
+
+		List<ReviewPlanner.Batch> batches = planner.plan(List.of(d, c, b, a), 100);
+
+		assertEquals(2, batches.size());
+		assertEquals(List.of(a, c), batches.get(0).files());
+		assertEquals(100, batches.get(0).estimatedTokens());
+		assertEquals(List.of(b, d), batches.get(1).files());
+		assertEquals(80, batches.get(1).estimatedTokens());
+	}
+
+	@Test
+	void truncatesAFileLargerThanTheBudgetIntoItsOwnBatch() {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			content.append("line ").append(i).append('\n');
+		}
+		FileData large = new FileData("Large.java", content.toString());
+		FileData small = file("s", 30);
+
+		List<ReviewPlanner.Batch> batches = planner.plan(List.of(small, large), 100);
+
+		assertEquals(2, batches.size());
+		FileData truncated = batches.get(0).files().get(0);
+		assertEquals("Large.java", truncated.getPath());
+		assertTrue(truncated.getContent().endsWith("\n// [truncated for review]"));
+		assertTrue(planner.estimateTokens(truncated) <= 100);
+		assertEquals(content.toString(), truncated.getOriginalContent());
+		assertEquals(List.of(small), batches.get(1).files());
+	}
+
+	@Test
+	void leavesAFileWithinTheBudgetUntouched() {
+		FileData file = file("f", 100);
+
+		FileData planned = planner.plan(List.of(file), 100).get(0).files().get(0);
+
+		assertEquals(file.getContent(), planned.getContent());
+		assertNull(planned.getOriginalContent());
+	}
+
+	/** A file with a one-character path estimated at exactly {@code tokens} tokens. */
+	private static FileData file(String path, int tokens) {
+		return new FileData(path, "x".repeat((tokens - 20) * 4 - 1));
+	}
+}
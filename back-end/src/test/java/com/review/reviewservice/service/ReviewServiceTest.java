@@ -0,0 +1,235 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.ReviewCommentProperties;
+import com.review.reviewservice.config.ReviewOutboxProperties;
+import com.review.reviewservice.config.ReviewPipelineProperties;
+import com.review.reviewservice.dto.BitbucketWebhookPayload;
+import com.review.reviewservice.dto.InlineComment;
+import com.review.reviewservice.dto.ReviewCheckpoint;
+import com.review.reviewservice.model.entity.Feedback;
+import com.review.reviewservice.model.entity.ReviewJob;
+import com.review.reviewservice.model.entity.ReviewJobStage;
+import com.review.reviewservice.model.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReviewServiceTest {
+
+	private final BitbucketService bitbucketService = mock(BitbucketService.class);
+	private final ReviewPipeline reviewPipeline = mock(ReviewPipeline.class);
+	private final ReviewJobService reviewJobService = mock(ReviewJobService.class);
+	private final ReviewFileFilter reviewFileFilter = mock(ReviewFileFilter.class);
+	private final ReviewPipelineProperties pipelineProperties = new ReviewPipelineProperties();
+	private final ReviewOutboxProperties outboxProperties = new ReviewOutboxProperties();
+	private final FeedbackService feedbackService = mock(FeedbackService.class);
+	private final SimpMessagingTemplate messagingTemplate = mock(SimpMessagingTemplate.class);
+	private final ReviewService reviewService = new ReviewService(bitbucketService, mock(CodeReviewService.class),
+			feedbackService, new ReviewMerger(), reviewFileFilter, reviewPipeline, pipelineProperties,
+			new InlineCommentPoster(bitbucketService, new ReviewCommentProperties()), mock(ReviewOutboxService.class),
+			outboxProperties, reviewJobService, messagingTemplate);
+
+	private final BitbucketWebhookPayload payload = payload();
+	private final InlineComment comment = comment();
+	private final User user = new User();
+	private final ReviewJob job = new ReviewJob();
+
+	@BeforeEach
+	void setUp() throws Exception {
+		pipelineProperties.setEnabled(true);
+		outboxProperties.setEnabled(false);
+		user.setUsername("alice");
+		job.setId(7L);
+		when(reviewFileFilter.forUser(user)).thenReturn(mock(ReviewFileFilter.Selection.class));
+		when(bitbucketService.postInlineCommentToPullRequest(any(), any())).thenReturn(true);
+		when(reviewPipeline.run(any(), any(), any(), any(), any(), any(), any(), any())).thenAnswer(invocation -> {
+			InlineCommentPoster.Session session = invocation.getArgument(7);
+			session.add(comment);
+			CodeReviewService.ReviewResult result = new CodeReviewService.ReviewResult();
+			result.setGeneralFeedback("Looks fine.\nRate: 80");
+			result.setInlineComments(List.of(comment));
+			return new ReviewPipeline.Outcome(result, 1);
+		});
+	}
+
+	@Test
+	void pipelinedCommentsArePostedOnlyAfterTheAnalysisIsCheckpointed() throws Exception {
+		reviewService.review(payload, user, job);
+
+		InOrder order = inOrder(reviewJobService, bitbucketService);
+		order.verify(reviewJobService).checkpoint(eq(job), argThat(c -> c.getStage() == ReviewJobStage.AI_REVIEWED
+				&& c.getInlineComments().equals(List.of(comment))));
+		order.verify(bitbucketService).postInlineCommentToPullRequest(payload, comment);
+		order.verify(bitbucketService).postCommentToPullRequest(eq(payload), any());
+	}
+
+	@Test
+	void resumedReviewPostsPipelinedCommentsOnce() throws Exception {
+		doThrow(new IllegalStateException("node stopped")).doNothing()
+				.when(bitbucketService).postCommentToPullRequest(any(), any());
+		try {
+			reviewService.review(payload, user, job);
+		} catch (IllegalStateException expected) {
+			// The job fails after the analysis was checkpointed
+		}
+		verify(bitbucketService, times(1)).postInlineCommentToPullRequest(payload, comment);
+
+		ReviewCheckpoint analysed = new ReviewCheckpoint(ReviewJobStage.AI_REVIEWED);
+		analysed.setFeedback("Looks fine.\nRate: 80");
+		analysed.setAiFeedback("Looks fine.\nRate: 80");
+		analysed.setInlineComments(List.of());
+		when(reviewJobService.readCheckpoint(job)).thenReturn(Optional.of(analysed));
+		reviewService.review(payload, user, job);
+
+		verify(reviewPipeline, times(1)).run(any(), any(), any(), any(), any(), any(), any(), any());
+		verify(bitbucketService, times(1)).postInlineCommentToPullRequest(payload, comment);
+		verify(bitbucketService, times(2)).postCommentToPullRequest(eq(payload), any());
+	}
+
+	@Test
+	void reviewResumedAfterPostingOnlySavesTheFeedback() throws Exception {
+		ReviewCheckpoint posted = new ReviewCheckpoint(ReviewJobStage.COMMENTS_POSTED);
+		posted.setFeedback("Looks fine.\nRate: 80");
+		posted.setAiFeedback("Looks fine.\nRate: 80");
+		posted.setRate(80);
+		when(reviewJobService.readCheckpoint(job)).thenReturn(Optional.of(posted));
+
+		reviewService.review(payload, user, job);
+
+		verify(reviewPipeline, never()).run(any(), any(), any(), any(), any(), any(), any(), any());
+		verify(bitbucketService, never()).postCommentToPullRequest(any(), any());
+		verify(bitbucketService, never()).postInlineCommentToPullRequest(any(), any());
+		verify(feedbackService).save(eq(1L), any(), eq("Looks fine.\nRate: 80"), any(), eq("team/repo"), eq(80), any());
+		verify(reviewJobService).checkpoint(eq(job), argThat(c -> c.getStage() == ReviewJobStage.FEEDBACK_SAVED));
+	}
+
+	@Test
+	void streamedTextIsForwardedToTheReviewer() throws Exception {
+		doAnswer(invocation -> {
+			BiConsumer<Integer, String> onPartial = invocation.getArgument(6);
+			onPartial.accept(1, "Null check");
+			CodeReviewService.ReviewResult result = new CodeReviewService.ReviewResult();
+			result.setGeneralFeedback("Looks fine.\nRate: 80");
+			result.setInlineComments(List.of());
+			return new ReviewPipeline.Outcome(result, 1);
+		}).when(reviewPipeline).run(any(), any(), any(), any(), any(), any(), any(), any());
+
+		reviewService.review(payload, user, job);
+
+		verify(messagingTemplate).convertAndSend("/topic/feedback/alice", Map.of("partial", "Null check", "batch", 1));
+	}
+
+	@Test
+	void partialReviewNamesTheUnreviewedFiles() throws Exception {
+		doAnswer(invocation -> {
+			CodeReviewService.ReviewResult result = new CodeReviewService.ReviewResult();
+			result.setGeneralFeedback("Looks fine.\nRate: 80");
+			result.setInlineComments(List.of());
+			result.setUnreviewedFiles(List.of("src/Bar.java"));
+			return new ReviewPipeline.Outcome(result, 2);
+		}).when(reviewPipeline).run(any(), any(), any(), any(), any(), any(), any(), any());
+
+		reviewService.review(payload, user, job);
+
+		verify(reviewJobService).checkpoint(eq(job), argThat(c -> c.getStage() == ReviewJobStage.AI_REVIEWED
+				&& c.getReviewedFiles() == 1 && c.getReviewedCommit() == null));
+		verify(bitbucketService).postCommentToPullRequest(eq(payload),
+				argThat(feedback -> feedback.contains("#### Not reviewed") && feedback.contains("`src/Bar.java`")));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void reReviewsOnlyTheFilesChangedSinceTheLastReviewedCommit() throws Exception {
+		when(feedbackService.findLastReviewed("team/repo", 1)).thenReturn(Optional.of(previous("old", "gpt-4o")));
+		when(bitbucketService.getChangedPaths("team/repo", "old", "abc")).thenReturn(Optional.of(Set.of("src/Foo.java")));
+
+		reviewService.review(payload, user, job);
+
+		ArgumentCaptor<Predicate<String>> includePath = ArgumentCaptor.forClass(Predicate.class);
+		verify(reviewPipeline).run(any(), includePath.capture(), any(), any(), any(), any(), any(), any());
+		assertTrue(includePath.getValue().test("src/Foo.java"));
+		assertFalse(includePath.getValue().test("src/Bar.java"));
+		verify(reviewJobService).checkpoint(eq(job), argThat(c -> c.getStage() == ReviewJobStage.AI_REVIEWED
+				&& c.getReviewedFiles() == 1 && c.getCoveredFiles() == 5 && "abc".equals(c.getReviewedCommit())));
+	}
+
+	@Test
+	void alreadyReviewedHeadCommitIsNotReviewedAgain() throws Exception {
+		when(feedbackService.findLastReviewed("team/repo", 1)).thenReturn(Optional.of(previous("abc", "gpt-4o")));
+
+		reviewService.review(payload, user, job);
+
+		verify(reviewPipeline, never()).run(any(), any(), any(), any(), any(), any(), any(), any());
+		verify(bitbucketService, never()).postCommentToPullRequest(any(), any());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void reviewsEverythingWhenThePreviousReviewCannotBeExtended() throws Exception {
+		when(feedbackService.findLastReviewed("team/repo", 1)).thenReturn(Optional.of(previous("old", "grok-2")));
+
+		reviewService.review(payload, user, job);
+
+		ArgumentCaptor<Predicate<String>> includePath = ArgumentCaptor.forClass(Predicate.class);
+		verify(reviewPipeline).run(any(), includePath.capture(), any(), any(), any(), any(), any(), any());
+		assertTrue(includePath.getValue().test("src/Bar.java"));
+		verify(bitbucketService, never()).getChangedPaths(any(), any(), any());
+	}
+
+	private Feedback previous(String sourceCommit, String model) {
+		Feedback feedback = new Feedback();
+		feedback.setSourceCommit(sourceCommit);
+		feedback.setModel(model);
+		feedback.setAiFeedback("Earlier findings.\nRate: 70");
+		feedback.setReviewedFiles(4);
+		feedback.setReviewAspects(String.join(",", user.getReviewAspectsList()));
+		return feedback;
+	}
+
+	private static InlineComment comment() {
+		InlineComment comment = new InlineComment();
+		comment.setPath("src/Foo.java");
+		comment.setLineNumber(3);
+		comment.setComment("Null check missing. - (ChatGPT).");
+		return comment;
+	}
+
+	private static BitbucketWebhookPayload payload() {
+		BitbucketWebhookPayload.Commit head = new BitbucketWebhookPayload.Commit();
+		head.setHash("abc");
+		BitbucketWebhookPayload.Endpoint source = new BitbucketWebhookPayload.Endpoint();
+		source.setCommit(head);
+		BitbucketWebhookPayload.PullRequest pullRequest = new BitbucketWebhookPayload.PullRequest();
+		pullRequest.setId(1);
+		pullRequest.setSource(source);
+		BitbucketWebhookPayload.Repository repository = new BitbucketWebhookPayload.Repository();
+		repository.setFullName("team/repo");
+		BitbucketWebhookPayload payload = new BitbucketWebhookPayload();
+		payload.setRepository(repository);
+		payload.setPullRequest(pullRequest);
+		return payload;
+	}
+}
@@ -0,0 +1,134 @@
+package com.review.reviewservice.service;
+
+import com.review.reviewservice.config.WebhookIdentityCacheProperties;
+import com.review.reviewservice.model.entity.Team;
+import com.review.reviewservice.model.entity.User;
+import com.review.reviewservice.model.entity.WebhookToken;
+import com.review.reviewservice.model.repository.UserRepository;
+import com.review.reviewservice.model.repository.WebhookTokenRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class WebhookIdentityCacheTest {
+
+	private final WebhookTokenRepository webhookTokenRepository = mock(WebhookTokenRepository.class);
+	private final UserRepository userRepository = mock(UserRepository.class);
+	private final WebhookIdentityCacheProperties properties = new WebhookIdentityCacheProperties();
+	private final WebhookIdentityCache cache = new WebhookIdentityCache(webhookTokenRepository, userRepository, properties);
+	private final User jane = user(7, "{jane}", "web", "mobile");
+
+	@BeforeEach
+	void setUp() {
+		when(webhookTokenRepository.findByTokenAndActiveTrue("t-1")).thenReturn(Optional.of(token("t-1", jane)));
+		when(userRepository.findWithTeamsByBitbucketUuid("{jane}")).thenReturn(Optional.of(jane));
+	}
+
+	@Test
+	void servesRepeatedLookupsFromMemory() {
+		cache.token("t-1");
+		Optional<WebhookIdentityCache.TokenSnapshot> token = cache.token("t-1");
+		cache.user("{jane}");
+		Optional<WebhookIdentityCache.UserSnapshot> user = cache.user("{jane}");
+
+		assertEquals(7, token.orElseThrow().userId());
+		assertEquals(List.of("mobile", "web"), user.orElseThrow().teams());
+		verify(webhookTokenRepository, times(1)).findByTokenAndActiveTrue("t-1");
+		verify(userRepository, times(1)).findWithTeamsByBitbucketUuid("{jane}");
+	}
+
+	@Test
+	void doesNotCacheUnknownTokens() {
+		when(webhookTokenRepository.findByTokenAndActiveTrue("t-2")).thenReturn(Optional.empty());
+
+		assertTrue(cache.token("t-2").isEmpty());
+		when(webhookTokenRepository.findByTokenAndActiveTrue("t-2")).thenReturn(Optional.of(token("t-2", jane)));
+
+		assertTrue(cache.token("t-2").isPresent());
+	}
+
+	@Test
+	void reloadsAfterTheTtl() throws Exception {
+		properties.setTtl(Duration.ofMillis(20));
+		cache.token("t-1");
+		Thread.sleep(40);
+
+		cache.token("t-1");
+
+		verify(webhookTokenRepository, times(2)).findByTokenAndActiveTrue("t-1");
+	}
+
+	@Test
+	void invalidatingAUserDropsTheirTokensToo() {
+		cache.token("t-1");
+		cache.user("{jane}");
+
+		cache.invalidateUser(7);
+		cache.token("t-1");
+		cache.user("{jane}");
+
+		verify(webhookTokenRepository, times(2)).findByTokenAndActiveTrue("t-1");
+		verify(userRepository, times(2)).findWithTeamsByBitbucketUuid("{jane}");
+	}
+
+	@Test
+	void keepsAtMostMaxEntriesAndEvictsTheLeastRecentlyUsed() {
+		properties.setMaxEntries(2);
+		for (String value : List.of("a", "b", "c")) {
+			when(webhookTokenRepository.findByTokenAndActiveTrue(value)).thenReturn(Optional.of(token(value, jane)));
+		}
+		cache.token("a");
+		cache.token("b");
+		cache.token("a");
+		cache.token("c");
+
+		cache.token("a");
+		cache.token("b");
+
+		assertEquals(2, cache.stats().get("tokens"));
+		verify(webhookTokenRepository, times(1)).findByTokenAndActiveTrue("a");
+		verify(webhookTokenRepository, times(2)).findByTokenAndActiveTrue("b");
+	}
+
+	@Test
+	void disabledCacheAlwaysQueries() {
+		properties.setEnabled(false);
+
+		cache.token("t-1");
+		cache.token("t-1");
+
+		verify(webhookTokenRepository, times(2)).findByTokenAndActiveTrue("t-1");
+	}
+
+	private static User user(long id, String uuid, String... teams) {
+		User user = new User();
+		user.setId(id);
+		user.setUsername("jane");
+		user.setBitbucketUuid(uuid);
+		user.setTeams(Set.of(teams).stream().map(name -> {
+			Team team = new Team();
+			team.setName(name);
+			return team;
+		}).collect(Collectors.toSet()));
+		return user;
+	}
+
+	private static WebhookToken token(String value, User user) {
+		WebhookToken token = new WebhookToken();
+		token.setToken(value);
+		token.setUser(user);
+		return token;
+	}
+}
@@ -0,0 +1,68 @@
+package com.review.reviewservice.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UnifiedDiffParserTest {
+
+	private static final String DIFF = """
+			diff --git a/src/App.java b/src/App.java
+			index 1111111..2222222 100644
+			--- a/src/App.java
+			+++ b/src/App.java
+			@@ -10,4 +10,5 @@ class App {
+			 unchanged
+			-removed
+			+added one
+			+added two
+			 unchanged again
+			\\ No newline at end of file
+			@@ -40 +41,2 @@
+			+tail
+			 end
+			diff --git a/old.txt b/old.txt
+			deleted file mode 100644
+			--- a/old.txt
+			+++ /dev/null
+			@@ -1 +0,0 @@
+			-gone
+			diff --git a/logo.png b/logo.png
+			Binary files a/logo.png and b/logo.png differ
+			""";
+
+	@Test
+	void mapsAddedAndContextLinesToNewFileLineNumbers() {
+		List<UnifiedDiffParser.FileDiff> files = UnifiedDiffParser.parse(DIFF);
+
+		assertEquals(1, files.size());
+		UnifiedDiffParser.FileDiff file = files.get(0);
+		assertEquals("src/App.java", file.path());
+		assertEquals(Set.of(10, 11, 12, 13, 41, 42), file.lines());
+	}
+
+	@Test
+	void prefixesLinesWithTheirNumberAndLeavesRemovedLinesBlank() {
+		String content = UnifiedDiffParser.parse(DIFF).get(0).content();
+
+		assertTrue(content.contains("   11 +added one\n"));
+		assertTrue(content.contains("   13  unchanged again\n"));
+		assertTrue(content.contains("      -removed\n"));
+		assertTrue(content.contains("@@ -40 +41,2 @@\n"));
+	}
+
+	@Test
+	void skipsDeletedAndBinaryFiles() {
+		assertTrue(UnifiedDiffParser.parse(DIFF).stream().noneMatch(f -> f.path().contains("old") || f.path().contains("logo")));
+	}
+
+	@Test
+	void emptyOrMissingDiffHasNoFiles() {
+		assertTrue(UnifiedDiffParser.parse(null).isEmpty());
+		assertTrue(UnifiedDiffParser.parse("").isEmpty());
+	}
+}
@@ -14,3 +14,82 @@ export async function sendChat(ai, model, history) {
   const { reply } = await res.json();
   return reply;
 }
+
+/**
+ * Maps the chat shown in the UI ({ sender, text }) to the history a new session is started from,
+ * leaving out unanswered turns and error placeholders.
+ */
+export function toChatHistory(messages) {
+  return messages
+    .filter(m => m.text && !m.text.startsWith('😢'))
+    .map(m => ({ role: m.sender === 'user' ? 'user' : 'assistant', content: m.text }));
+}
+
+/**
+ * Sends one message of a server-held chat session and streams the reply from /api/chat/stream,
+ * calling onDelta with every piece of text as it arrives. Pass the sessionId returned by the
+ * previous turn (null starts a new session) and the conversation shown so far as history
+ * ([{ role, content }]); history is only sent when the server reports the session as expired,
+ * to start a new one that carries on from it. Resolves with { reply, sessionId }.
+ * Pass an AbortSignal to cancel the request.
+ */
+export async function streamChat(ai, model, sessionId, message, history, onDelta, signal) {
+  const result = await streamTurn(ai, model, sessionId, message, null, onDelta, signal);
+  if (result.expired) {
+    return streamTurn(ai, model, null, message, history, onDelta, signal);
+  }
+  return result;
+}
+
+async function streamTurn(ai, model, sessionId, message, history, onDelta, signal) {
+  const res = await fetch(`${process.env.REACT_APP_BACKEND_URL}/api/chat/stream`, {
+    method: 'POST',
+    credentials: 'include',
+    headers: {
+      'Content-Type': 'application/json',
+      Accept: 'text/event-stream'
+    },
+    body: JSON.stringify({ ai, model, sessionId, message, history }),
+    signal
+  });
+  if (res.status === 409 && sessionId) {
+    return { expired: true };
+  }
+  if (!res.ok) {
+    const errorText = await res.text();
+    throw new Error(`Chat API error: ${res.status} ${errorText}`);
+  }
+
+  const reader = res.body.getReader();
+  const decoder = new TextDecoder();
+  let buffer = '';
+  let reply = '';
+  let currentSessionId = sessionId;
+  for (;;) {
+    const { value, done } = await reader.read();
+    if (done) break;
+    buffer += decoder.decode(value, { stream: true });
+    const events = buffer.split(/\r?\n\r?\n/);
+    buffer = events.pop();
+    for (const event of events) {
+      let name = 'message';
+      const data = [];
+      for (const line of event.split(/\r?\n/)) {
+        if (line.startsWith('event:')) name = line.slice(6).trim();
+        else if (line.startsWith('data:')) data.push(line.slice(5));
+      }
+      if (data.length === 0) continue;
+      const { reply: text, sessionId: id } = JSON.parse(data.join('\n'));
+      if (name === 'error') {
+        throw new Error(text);
+      }
+      if (name === 'session-expired') {
+        return { expired: true };
+      }
+      if (id) currentSessionId = id;
+      reply += text;
+      onDelta(text);
+    }
+  }
+  return { reply, sessionId: currentSessionId };
+}
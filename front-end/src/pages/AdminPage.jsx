@@ -1,7 +1,7 @@
 import React, { useEffect, useState, useRef } from 'react';
 import ReactMarkdown from 'react-markdown';
 import remarkGfm from 'remark-gfm';
-import { sendChat } from '../api/chat';
+import { streamChat, toChatHistory } from '../api/chat';
 import { getUserInfo } from '../api/user';
 import { getAdminUsers, getAdminTeams, getTeamMembers, getAdminFeedbacksByUser, getUserStats, deleteMemberFeedback } from '../api/admin';
 import { Link, useNavigate } from 'react-router-dom';
@@ -168,24 +168,29 @@ export default function AdminPage() {
 
     setChatMessages((prev) => [...prev, { sender: 'user', text }]);
     setChatInput('');
-    const history = [...chatMessages.map((msg) => ({
-      role: msg.sender === 'user' ? 'user' : 'assistant',
-      content: msg.text,
-    })), { role: 'user', content: text }];
 
+    setChatMessages((prev) => [...prev, { sender: 'ai', text: '' }]);
+    const replaceLastAiMessage = (update) => setChatMessages((prev) => {
+      const next = [...prev];
+      next[next.length - 1] = { sender: 'ai', text: update(next[next.length - 1].text) };
+      return next;
+    });
     try {
       const aiModel = user?.aiModel;
       if (!aiModel) throw new Error('No AI model available');
-      const aiResponse = await sendChat(aiModel.ai, aiModel.model, history);
-      setChatMessages((prev) => [...prev, { sender: 'ai', text: aiResponse }]);
+      const { sessionId } = await streamChat(aiModel.ai, aiModel.model,
+        localStorage.getItem('chatSessionId'), text, toChatHistory(chatMessages),
+        (delta) => replaceLastAiMessage((current) => current + delta));
+      if (sessionId) localStorage.setItem('chatSessionId', sessionId);
     } catch (err) {
-      setChatMessages((prev) => [...prev, { sender: 'ai', text: '😢 Error in chat.' }]);
+      replaceLastAiMessage(() => '😢 Error in chat.');
     }
   };
 
   const handleClearChat = () => {
     setChatMessages([]);
     localStorage.removeItem('chatMessages');
+    localStorage.removeItem('chatSessionId');
   };
 
   const handleUserSelect = async (user, teamId = null) => {
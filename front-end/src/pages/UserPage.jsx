@@ -3,7 +3,7 @@ import { useTheme } from '../contexts/ThemeContext';
 import ReactMarkdown from 'react-markdown';
 import remarkGfm from 'remark-gfm';
 import { getUserInfo, getUserFeedbacks, enableWebhookToken, disableWebhookToken, getUserRepos, getUserReviewAspects, updateUserReviewAspects, getUserTeams, createTeam, joinTeam, leaveTeam, deleteTeam, getTeamMembers } from '../api/user';
-import { sendChat } from '../api/chat';
+import { streamChat, toChatHistory } from '../api/chat';
 import { Link, useNavigate } from 'react-router-dom';
 import { FaRobot, FaCaretDown, FaSun, FaMoon, FaCheckCircle, FaChevronDown, FaChevronUp, FaUsers, FaPlus, FaSignInAlt, FaSignOutAlt, FaTrash } from 'react-icons/fa';
 import { DropdownButton, Dropdown, Spinner, Alert, Modal } from 'react-bootstrap';
@@ -41,6 +41,7 @@ export default function UserPage() {
   const [stage, setStage] = useState(null);
   const [done, setDone] = useState(false);
   const [popup, setPopup] = useState({ visible: false, stage: null, prId: null });
+  const [streamedReview, setStreamedReview] = useState({});
   const [collapsedFeedbacks, setCollapsedFeedbacks] = useState({});
   const [reviewAspects, setReviewAspects] = useState([]);
   const [selectedAspects, setSelectedAspects] = useState([]);
@@ -466,7 +467,15 @@ const handleSearchId = (e) => {
       const username = user.username;
       client.subscribe(`/topic/feedback/${username}`, async (msg) => {
         const body = JSON.parse(msg.body);
-        if (body.stage && body.status !== 'done') {
+        if (body.partial !== undefined) {
+          setStreamedReview(prev => ({
+            ...prev,
+            [body.batch]: (prev[body.batch] || '') + body.partial
+          }));
+        } else if (body.stage && body.status !== 'done') {
+          if (body.stage === 'Processing PR') {
+            setStreamedReview({});
+          }
           setStage(body.stage);
           setDone(false);
           setPopup({ visible: true, stage: body.stage, prId: null });
@@ -495,6 +504,7 @@ const handleSearchId = (e) => {
             setPopup({ visible: false, stage: null, prId: null });
             setStage(null);
             setDone(false);
+            setStreamedReview({});
           }, 2000);
         }
       });
@@ -547,18 +557,26 @@ const handleSearchId = (e) => {
     if (!text || !user?.aiModel) return;
     setChatMessages(prev => [...prev, { sender: 'user', text }]);
     setChatInput('');
-    const history = [...chatMessages.map(m => ({ role: m.sender === 'user' ? 'user' : 'assistant', content: m.text })), { role: 'user', content: text }];
+    setChatMessages(prev => [...prev, { sender: 'ai', text: '' }]);
+    const replaceLastAiMessage = (update) => setChatMessages(prev => {
+      const next = [...prev];
+      next[next.length - 1] = { sender: 'ai', text: update(next[next.length - 1].text) };
+      return next;
+    });
     try {
-      const aiReply = await sendChat(user.aiModel.ai, user.aiModel.model, history);
-      setChatMessages(prev => [...prev, { sender: 'ai', text: aiReply }]);
+      const { sessionId } = await streamChat(user.aiModel.ai, user.aiModel.model,
+        localStorage.getItem('chatSessionId'), text, toChatHistory(chatMessages),
+        (delta) => replaceLastAiMessage(current => current + delta));
+      if (sessionId) localStorage.setItem('chatSessionId', sessionId);
     } catch (err) {
-      setChatMessages(prev => [...prev, { sender: 'ai', text: '😢 Chat error.' }]);
+      replaceLastAiMessage(() => '😢 Chat error.');
     }
   };
 
   const handleClearChat = () => {
     setChatMessages([]);
     localStorage.removeItem('chatMessages');
+    localStorage.removeItem('chatSessionId');
   };
 
   const handleLogout = async () => {
@@ -643,15 +661,22 @@ const handleSearchId = (e) => {
       {/* Pop-up Notification for Webhook Stages */}
       {popup.visible && (
         <div
-          className={`fixed top-5 left-50% w-64 bg-${theme === 'light' ? 'white/90' : 'black/90'} border border-${theme === 'light' ? 'black/10' : 'white/10'} rounded-lg shadow-xl p-4 z-50 animate-fade-in`}
+          className={`fixed top-5 left-50% ${Object.keys(streamedReview).length > 0 && popup.stage === 'AI Code Analysis' ? 'w-96' : 'w-64'} bg-${theme === 'light' ? 'white/90' : 'black/90'} border border-${theme === 'light' ? 'black/10' : 'white/10'} rounded-lg shadow-xl p-4 z-50 animate-fade-in`}
           style={{ left: '50%', transform: 'translateX(-50%)' }}
         >
           <div className="flex items-center justify-center">
             {popup.stage !== 'Done' ? (
-              <>
-                <Spinner animation="border" className={`mr-2 ${theme === 'light' ? 'text-blue-400' : 'text-purple-400'}`} />
-                <span className={`text-${theme === 'light' ? 'black' : 'white'}`}>{popup.stage}</span>
-              </>
+              <div className="flex flex-col items-center w-full">
+                <div className="flex items-center">
+                  <Spinner animation="border" className={`mr-2 ${theme === 'light' ? 'text-blue-400' : 'text-purple-400'}`} />
+                  <span className={`text-${theme === 'light' ? 'black' : 'white'}`}>{popup.stage}</span>
+                </div>
+                {popup.stage === 'AI Code Analysis' && Object.keys(streamedReview).length > 0 && (
+                  <pre className={`mt-2 w-full max-h-48 overflow-auto whitespace-pre-wrap text-xs text-${theme === 'light' ? 'black' : 'white'}`}>
+                    {Object.values(streamedReview).join('\n\n').slice(-2000)}
+                  </pre>
+                )}
+              </div>
             ) : (
               <div className="flex items-center">
                 <FaCheckCircle size={20} className={`mr-2 ${theme === 'light' ? 'text-blue-400' : 'text-purple-400'}`} />